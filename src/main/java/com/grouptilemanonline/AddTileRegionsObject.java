@@ -0,0 +1,23 @@
+package com.grouptilemanonline;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class AddTileRegionsObject {
+    String username;
+
+    @SerializedName("group_join_code")
+    String groupJoinCode;
+
+    // Sequence number the following deltas build on, like a snapshot's
+    long seq;
+
+    // Replace the player's tiles in these regions, a region without tiles is cleared. Other regions are kept.
+    List<RegionTiles> regions;
+
+    // See AddTilesDeltaObject
+    List<TileTombstone> tombstones;
+}
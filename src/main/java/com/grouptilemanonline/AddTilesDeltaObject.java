@@ -0,0 +1,28 @@
+package com.grouptilemanonline;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class AddTilesDeltaObject {
+    String username;
+
+    @SerializedName("group_join_code")
+    String groupJoinCode;
+
+    // The backend only applies the delta if it holds base_seq for this player, otherwise it replies 409
+    @SerializedName("base_seq")
+    long baseSeq;
+
+    long seq;
+
+    // Packed tile keys, see TileKeys
+    int[] added;
+
+    int[] removed;
+
+    // The player's removals of other members' tiles, replacing the ones sent before. Null if unchanged.
+    List<TileTombstone> tombstones;
+}
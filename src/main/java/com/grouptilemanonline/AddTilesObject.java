@@ -3,6 +3,8 @@ package com.grouptilemanonline;
 import com.google.gson.annotations.SerializedName;
 import lombok.Value;
 
+import java.util.List;
+
 @Value
 public class AddTilesObject {
     String username;
@@ -11,4 +13,10 @@ public class AddTilesObject {
     String groupJoinCode;
 
     GroupTiles tiles;
+
+    // Sequence number the following deltas build on, ignored by backends without delta support
+    long seq;
+
+    // See AddTilesDeltaObject
+    List<TileTombstone> tombstones;
 }
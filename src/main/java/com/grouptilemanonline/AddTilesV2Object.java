@@ -0,0 +1,22 @@
+package com.grouptilemanonline;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class AddTilesV2Object {
+    // Owner of every tile in the snapshot
+    String username;
+
+    @SerializedName("group_join_code")
+    String groupJoinCode;
+
+    long seq;
+
+    List<RegionTiles> regions;
+
+    // See AddTilesDeltaObject
+    List<TileTombstone> tombstones;
+}
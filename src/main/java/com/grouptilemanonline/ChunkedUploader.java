@@ -0,0 +1,262 @@
+package com.grouptilemanonline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * Uploads snapshots too large for a single request in chunks of whole regions. The chunks are staged in an upload
+ * session on the backend and committed together, so other members never see half a snapshot. Chunks are sent one at
+ * a time and the ones that failed are sent again once the rest are through. An upload that still fails keeps its
+ * session, so the next attempt only sends the chunks the backend doesn't have yet or that changed since.
+ * <p>
+ * Snapshots that fit into one chunk, and backends without upload sessions, are sent in a single request.
+ * <p>
+ * Cancelling an upload's future cancels the request in flight and abandons its session, nothing is committed.
+ */
+@Slf4j
+final class ChunkedUploader {
+    // Tiles per chunk, regions aren't split so a chunk holds up to a region more
+    static final int CHUNK_TILES = 20_000;
+
+    // Passes over the chunks before the upload fails, each one only sends those the previous one couldn't
+    private static final int MAX_ROUNDS = 3;
+
+    interface Progress {
+        void chunkUploaded(int uploaded, int total);
+    }
+
+    private final SyncBackend backend;
+
+    // The session of the last chunked upload, until it is committed
+    private Session session;
+
+    // Metrics
+    private long chunksSent;
+    private long chunksSkipped;
+
+    ChunkedUploader(SyncBackend backend) {
+        this.backend = backend;
+    }
+
+    CompletableFuture<SyncResponse> upload(AddTilesV2Object snapshot, Progress progress) {
+        List<Chunk> chunks = split(snapshot.getRegions());
+        if (chunks.size() <= 1) {
+            return backend.addTiles(TileWireFormat.V2, snapshot);
+        }
+
+        Transfer transfer = new Transfer(snapshot, chunks, resume(snapshot), progress);
+        transfer.start();
+        return transfer.result;
+    }
+
+    synchronized long getChunksSent() {
+        return chunksSent;
+    }
+
+    synchronized long getChunksSkipped() {
+        return chunksSkipped;
+    }
+
+    /***
+     * @return The session of the last upload if it was for the same player and group, otherwise a new one.
+     */
+    private synchronized Session resume(AddTilesV2Object snapshot) {
+        if (session == null || !session.username.equals(snapshot.getUsername())
+                || !session.groupJoinCode.equals(snapshot.getGroupJoinCode())) {
+            session = new Session(snapshot.getUsername(), snapshot.getGroupJoinCode());
+        }
+        return session;
+    }
+
+    private synchronized void forget(Session committed) {
+        if (session == committed) {
+            session = null;
+        }
+    }
+
+    private synchronized void counted(boolean sent) {
+        if (sent) {
+            chunksSent++;
+        } else {
+            chunksSkipped++;
+        }
+    }
+
+    private static List<Chunk> split(List<RegionTiles> regions) {
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk chunk = null;
+        for (RegionTiles region : regions) {
+            if (chunk == null || chunk.tiles >= CHUNK_TILES) {
+                chunk = new Chunk();
+                chunks.add(chunk);
+            }
+
+            int[] keys = TileWireFormat.decodeKeys(region);
+            chunk.regions.add(region);
+            chunk.fingerprint.addAll(keys);
+            chunk.tiles += keys.length;
+        }
+        return chunks;
+    }
+
+    /***
+     * One upload through all of its chunks and rounds.
+     */
+    private final class Transfer {
+        private final AddTilesV2Object snapshot;
+        private final List<Chunk> chunks;
+        private final Session session;
+        private final Progress progress;
+        private final CompletableFuture<SyncResponse> result = new CompletableFuture<>();
+
+        private Deque<Integer> queue = new ArrayDeque<>();
+        private List<Integer> failed = new ArrayList<>();
+        private int round = 1;
+        private int uploaded;
+        private SyncResponse lastResponse;
+        private Throwable lastError;
+        // The request waiting for the backend
+        private volatile CompletableFuture<SyncResponse> current;
+
+        private Transfer(AddTilesV2Object snapshot, List<Chunk> chunks, Session session, Progress progress) {
+            this.snapshot = snapshot;
+            this.chunks = chunks;
+            this.session = session;
+            this.progress = progress;
+        }
+
+        private void start() {
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) {
+                    abort();
+                }
+            });
+
+            for (int i = 0; i < chunks.size(); i++) {
+                Long acknowledged = session.acknowledged.get(i);
+                if (acknowledged != null && acknowledged == chunks.get(i).fingerprint.value()) {
+                    // Staged by an earlier attempt
+                    uploaded++;
+                    counted(false);
+                } else {
+                    queue.add(i);
+                }
+            }
+
+            if (uploaded > 0) {
+                log.debug("Resuming tile upload, {} of {} chunks already uploaded", uploaded, chunks.size());
+            }
+            progress.chunkUploaded(uploaded, chunks.size());
+            next();
+        }
+
+        private void next() {
+            if (result.isDone()) {
+                return;
+            } else if (!queue.isEmpty()) {
+                send(queue.poll());
+            } else if (failed.isEmpty()) {
+                commit();
+            } else if (round < MAX_ROUNDS) {
+                round++;
+                queue = new ArrayDeque<>(failed);
+                failed = new ArrayList<>();
+                next();
+            } else {
+                log.debug("Tile upload failed, {} of {} chunks uploaded", uploaded, chunks.size());
+                complete(lastResponse, lastError);
+            }
+        }
+
+        private void send(int index) {
+            Chunk chunk = chunks.get(index);
+            track(backend.uploadChunk(new UploadChunkObject(snapshot.getUsername(), snapshot.getGroupJoinCode(),
+                    session.id, index, chunk.regions))
+            ).whenComplete((response, error) -> {
+                if (error == null && response.isSuccessful()) {
+                    session.acknowledged.put(index, chunk.fingerprint.value());
+                    uploaded++;
+                    counted(true);
+                    progress.chunkUploaded(uploaded, chunks.size());
+                } else if (error == null && response.getCode() == 404 && uploaded == 0) {
+                    // The backend doesn't have upload sessions
+                    forget(session);
+                    track(backend.addTiles(TileWireFormat.V2, snapshot)).whenComplete(this::complete);
+                    return;
+                } else {
+                    lastResponse = response;
+                    lastError = error;
+                    failed.add(index);
+                }
+                next();
+            });
+        }
+
+        private void commit() {
+            track(backend.commitUpload(new CommitUploadObject(snapshot.getUsername(), snapshot.getGroupJoinCode(),
+                    session.id, snapshot.getSeq(), chunks.size(), snapshot.getTombstones()))
+            ).whenComplete((response, error) -> {
+                // Committed, or the backend lost chunks without saying which, either way the next upload starts over
+                if (error == null && (response.isSuccessful() || response.getCode() == 409)) {
+                    forget(session);
+                }
+                complete(response, error);
+            });
+        }
+
+        private CompletableFuture<SyncResponse> track(CompletableFuture<SyncResponse> request) {
+            current = request;
+            // Cancelled while the request was being made
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+            return request;
+        }
+
+        /***
+         * Stops the upload once it was cancelled. The chunks staged so far are left to the backend to expire.
+         */
+        private void abort() {
+            forget(session);
+            CompletableFuture<SyncResponse> request = current;
+            if (request != null) {
+                request.cancel(true);
+            }
+        }
+
+        private void complete(SyncResponse response, Throwable error) {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        }
+    }
+
+    private static final class Session {
+        private final String id = UUID.randomUUID().toString();
+        private final String username;
+        private final String groupJoinCode;
+        // The fingerprint of every chunk the backend acknowledged, by index
+        private final Map<Integer, Long> acknowledged = new ConcurrentHashMap<>();
+
+        private Session(String username, String groupJoinCode) {
+            this.username = username;
+            this.groupJoinCode = groupJoinCode;
+        }
+    }
+
+    private static final class Chunk {
+        private final List<RegionTiles> regions = new ArrayList<>();
+        private final TileFingerprint fingerprint = new TileFingerprint();
+        private int tiles;
+    }
+}
@@ -0,0 +1,83 @@
+package com.grouptilemanonline;
+
+/***
+ * Sheds requests to a backend that keeps failing. After {@link #FAILURE_THRESHOLD} failures in a row the breaker
+ * opens and requests fail straight away for {@link #OPEN_MILLIS}, after which a single trial request is let through.
+ * The breaker closes again if it succeeds and stays open for another period if it doesn't.
+ * <p>
+ * Used from OkHttp callbacks, so every method is synchronized.
+ */
+final class CircuitBreaker {
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30_000;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long rejectedCount;
+
+    /***
+     * @return Whether a request may be sent now, if not it should fail without reaching the backend.
+     */
+    synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case OPEN:
+                if (now - openedAt < OPEN_MILLIS) {
+                    rejectedCount++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+                // Only the trial request goes through
+                rejectedCount++;
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /***
+     * @return Whether the breaker closed again.
+     */
+    synchronized boolean succeeded() {
+        boolean closed = state != State.CLOSED;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        return closed;
+    }
+
+    /***
+     * @return Whether the breaker opened, a trial request failing only keeps it open.
+     */
+    synchronized boolean failed(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            boolean opened = state == State.CLOSED;
+            state = State.OPEN;
+            openedAt = now;
+            return opened;
+        }
+        return false;
+    }
+
+    /***
+     * A request let through ended without an outcome, e.g. it was cancelled. A trial request ending so opens the
+     * breaker again for the rest of the same period, which has passed already, so the next request is the trial.
+     */
+    synchronized void released() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,25 @@
+package com.grouptilemanonline;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class CommitUploadObject {
+    String username;
+
+    @SerializedName("group_join_code")
+    String groupJoinCode;
+
+    String session;
+
+    // Sequence number the following deltas build on, like a snapshot's
+    long seq;
+
+    // The number of chunks, the player's tiles are replaced by chunks 0 up to here
+    int chunks;
+
+    // See AddTilesDeltaObject
+    List<TileTombstone> tombstones;
+}
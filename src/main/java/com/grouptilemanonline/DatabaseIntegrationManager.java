@@ -37,8 +37,6 @@ import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.swing.*;
 
@@ -58,25 +56,59 @@ import net.runelite.client.menus.WidgetMenuOption;
 public class DatabaseIntegrationManager {
     private static final WidgetMenuOption EXPORT_MARKERS_OPTION = new WidgetMenuOption("Export", "Tileman Markers", MINIMAP_WORLDMAP_OPTIONS);
     private static final WidgetMenuOption IMPORT_MARKERS_OPTION = new WidgetMenuOption("Import", "Group Tileman Markers", MINIMAP_WORLDMAP_OPTIONS);
+    // The tiles imported for a player, by region key, as in an export
+    private static final String IMPORT_PREFIX = "importedTiles_";
     private final TilemanModePlugin plugin;
     private final Client client;
     private final MenuManager menuManager;
     private final ChatMessageManager chatMessageManager;
     private final ChatboxPanelManager chatboxPanelManager;
     private final Gson gson;
+    private final TileLayers tileLayers;
+    private final MemberTileMigration memberTileMigration;
+
+    // The group members as last read, with their names for constant time lookups
+    private String rosterJson;
+    private final Set<String> rosterNames = new HashSet<>();
 
     @Inject
     private ConfigManager configManager;
 
     @Inject
     private DatabaseIntegrationManager(TilemanModePlugin plugin, Client client, MenuManager menuManager,
-                                       ChatMessageManager chatMessageManager, ChatboxPanelManager chatboxPanelManager, Gson gson) {
+                                       ChatMessageManager chatMessageManager, ChatboxPanelManager chatboxPanelManager, Gson gson,
+                                       TileLayers tileLayers) {
         this.plugin = plugin;
         this.client = client;
         this.menuManager = menuManager;
         this.chatMessageManager = chatMessageManager;
         this.chatboxPanelManager = chatboxPanelManager;
         this.gson = gson;
+        this.tileLayers = tileLayers;
+        this.memberTileMigration = new MemberTileMigration(gson, new MemberTileMigration.Store() {
+            @Override
+            public List<String> regionKeys() {
+                List<String> keys = new ArrayList<>();
+                for (String key : configManager.getConfigurationKeys(TilemanModePlugin.CONFIG_GROUP + "." + TilemanModePlugin.REGION_PREFIX)) {
+                    keys.add(key.replace(TilemanModePlugin.CONFIG_GROUP + ".", ""));
+                }
+                return keys;
+            }
+
+            @Override
+            public String read(String key) {
+                return configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, key);
+            }
+
+            @Override
+            public void write(String key, String value) {
+                if (value == null) {
+                    configManager.unsetConfiguration(TilemanModePlugin.CONFIG_GROUP, key);
+                } else {
+                    configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, key, value);
+                }
+            }
+        });
     }
 
     public void addImportExportMenuOptions() {
@@ -103,8 +135,12 @@ public class DatabaseIntegrationManager {
                 key = key.replace(TilemanModePlugin.CONFIG_GROUP + ".","");
                 List<TilemanModeTile> regionTiles = gson.fromJson(configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, key), new TypeToken<List<TilemanModeTile>>() {
                 }.getType());
-                regionTiles.removeIf(tile -> !tile.getPlayerName().equals(plugin.getPlayerName()));
-                if(regionTiles.size() > 0 ) {
+                // Other members' tiles not set aside yet (see MemberTileMigration) aren't the player's to send,
+                // tiles without an owner, e.g. converted ground markers, are
+                if (regionTiles != null) {
+                    regionTiles.removeIf(tile -> tile.getPlayerName() != null && !tile.getPlayerName().equals(plugin.getPlayerName()));
+                }
+                if(regionTiles != null && regionTiles.size() > 0 ) {
                     tilesToExport.put(key, regionTiles);
                 }
             }
@@ -131,88 +167,175 @@ public class DatabaseIntegrationManager {
         }
         try {
             GroupTiles remoteTiles = gson.fromJson(clipboardText, GroupTiles.class);
-            String playerName = remoteTiles.getPlayerName();
-            String groupMembersJson = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers");
-            if (!Strings.isNullOrEmpty(groupMembersJson)) {
-                Collection<GroupMember> groupMembers = gson.fromJson(groupMembersJson, new TypeToken<List<GroupMember>>() {}.getType());
-                boolean memberFound = false;
-                for (GroupMember member : groupMembers) {
-                    if (member.getPlayerName() == playerName) memberFound = true;
-                }
+            importTiles(remoteTiles);
+        } catch (JsonSyntaxException e) {
+            sendChatMessage("You do not have any ground markers copied in your clipboard.");
+        }
+    }
 
-                if (!memberFound) {
-                    groupMembers.add(new GroupMember(playerName, groupMembers.size() + 1));
-                    configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers", gson.toJson(groupMembers));
-                }
-            }
-            else {
-                List<GroupMember> groupMembers = new ArrayList<GroupMember>();
-                GroupMember newMember = new GroupMember(playerName, 1);
-                groupMembers.add(newMember);
-                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers", gson.toJson(groupMembers));
+    /***
+     * Shows another player's tiles in their imported layer (see {@link TileLayers}) and stores them, so they are
+     * shown again after a restart.
+     */
+    public void importTiles(GroupTiles remoteTiles) {
+        String playerName = remoteTiles.getPlayerName();
+        importMember(playerName);
+        if (addImported(playerName, remoteTiles.getRegionTiles()) > 0) {
+            storeImported(playerName, remoteTiles.getRegionTiles());
+        }
+
+        plugin.loadPoints();
+    }
+
+    /***
+     * Adds the tiles imported earlier to the imported layers, see {@link #importTiles}.
+     */
+    synchronized void loadImportedTiles() {
+        for (String key : configManager.getConfigurationKeys(TilemanModePlugin.CONFIG_GROUP + "." + IMPORT_PREFIX)) {
+            GroupTiles imported = readImported(key.replace(TilemanModePlugin.CONFIG_GROUP + ".", ""));
+            if (imported != null) {
+                addImported(imported.getPlayerName(), imported.getRegionTiles());
             }
-            for (String region : remoteTiles.getRegionTiles().keySet() ) {
-                Collection<TilemanModeTile> localRegionTiles = Collections.emptyList();
-                String json = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, region);
-                if (!Strings.isNullOrEmpty(json)) {
-                    localRegionTiles = gson.fromJson(json, new TypeToken<List<TilemanModeTile>>() {
-                    }.getType());
-                }
-                Collection<TilemanModeTile> remoteRegionTiles = remoteTiles.getRegionTiles().get(region);
-                Collection<TilemanModeTile> mergedRegionTiles = Stream.concat(localRegionTiles.stream(), remoteRegionTiles.stream())
-                        .distinct()
-                        .collect(Collectors.toList());
+        }
+    }
 
-                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, region, gson.toJson(mergedRegionTiles));
+    private int addImported(String playerName, Map<String, List<TilemanModeTile>> regionTiles) {
+        List<TilemanModeTile> tiles = new ArrayList<>();
+        for (List<TilemanModeTile> region : regionTiles.values()) {
+            tiles.addAll(region);
+        }
+        return tileLayers.add(playerName, tiles);
+    }
+
+    private synchronized void storeImported(String playerName, Map<String, List<TilemanModeTile>> regionTiles) {
+        GroupTiles previous = readImported(IMPORT_PREFIX + playerName);
+        TreeMap<String, List<TilemanModeTile>> merged = previous != null ? previous.getRegionTiles() : new TreeMap<>();
+        for (Map.Entry<String, List<TilemanModeTile>> region : regionTiles.entrySet()) {
+            List<TilemanModeTile> tiles = merged.computeIfAbsent(region.getKey(), key -> new ArrayList<>());
+            Set<TilemanModeTile> present = new HashSet<>(tiles);
+            for (TilemanModeTile tile : region.getValue()) {
+                if (present.add(tile)) {
+                    tiles.add(tile);
+                }
             }
+        }
+        configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, IMPORT_PREFIX + playerName,
+                gson.toJson(new GroupTiles(playerName, merged)));
+    }
 
-            plugin.loadPoints();
+    private GroupTiles readImported(String key) {
+        String json = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, key);
+        GroupTiles imported;
+        try {
+            imported = Strings.isNullOrEmpty(json) ? null : gson.fromJson(json, GroupTiles.class);
         } catch (JsonSyntaxException e) {
-            sendChatMessage("You do not have any ground markers copied in your clipboard.");
+            return null;
         }
+        return imported == null || imported.getPlayerName() == null || imported.getRegionTiles() == null ? null : imported;
     }
 
-    public void importTiles(GroupTiles remoteTiles) {
-        try {
-            String playerName = remoteTiles.getPlayerName();
-            String groupMembersJson = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers");
-            if (!Strings.isNullOrEmpty(groupMembersJson)) {
-                Collection<GroupMember> groupMembers = gson.fromJson(groupMembersJson, new TypeToken<List<GroupMember>>() {}.getType());
-                boolean memberFound = false;
-                for (GroupMember member : groupMembers) {
-                    if (member.getPlayerName() == playerName) memberFound = true;
-                }
+    /***
+     * Adds the player to the group members, if they aren't one already.
+     */
+    synchronized void importMember(String playerName) {
+        String groupMembersJson = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers");
+        if (groupMembersJson == null || !groupMembersJson.equals(rosterJson)) {
+            readRoster(groupMembersJson);
+        }
+        if (rosterNames.contains(playerName)) {
+            return;
+        }
 
-                if (!memberFound) {
-                    groupMembers.add(new GroupMember(playerName, groupMembers.size() + 1));
-                    configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers", gson.toJson(groupMembers));
-                }
-            }
-            else {
-                List<GroupMember> groupMembers = new ArrayList<GroupMember>();
-                GroupMember newMember = new GroupMember(playerName, 1);
-                groupMembers.add(newMember);
-                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers", gson.toJson(groupMembers));
-            }
-            for (String region : remoteTiles.getRegionTiles().keySet() ) {
-                Collection<TilemanModeTile> localRegionTiles = Collections.emptyList();
-                String json = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, region);
-                if (!Strings.isNullOrEmpty(json)) {
-                    localRegionTiles = gson.fromJson(json, new TypeToken<List<TilemanModeTile>>() {
-                    }.getType());
-                }
-                Collection<TilemanModeTile> remoteRegionTiles = remoteTiles.getRegionTiles().get(region);
-                Collection<TilemanModeTile> mergedRegionTiles = Stream.concat(localRegionTiles.stream(), remoteRegionTiles.stream())
-                        .distinct()
-                        .collect(Collectors.toList());
+        List<GroupMember> groupMembers = parseRoster(rosterJson);
+        groupMembers.add(new GroupMember(playerName, groupMembers.size() + 1));
+        writeRoster(groupMembers);
+    }
+
+    /***
+     * Removes the local player's tiles at the given keys from the stored tiles of a region, when another member
+     * unmarked them. The caller reloads the points afterwards.
+     * @return The number of tiles removed.
+     */
+    synchronized int removeFromRegion(String regionKey, int[] keys) {
+        String json = configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, regionKey);
+        if (keys.length == 0 || Strings.isNullOrEmpty(json)) {
+            return 0;
+        }
+
+        List<TilemanModeTile> tiles = gson.fromJson(json, new TypeToken<List<TilemanModeTile>>() {}.getType());
+        TileKeySet removed = TileKeySet.of(keys);
+        int count = tiles.size();
+        if (!tiles.removeIf(tile -> removed.contains(TileKeys.pack(tile)))) {
+            return 0;
+        }
+
+        if (tiles.isEmpty()) {
+            configManager.unsetConfiguration(TilemanModePlugin.CONFIG_GROUP, regionKey);
+        } else {
+            configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, regionKey, gson.toJson(tiles));
+        }
+        return count - tiles.size();
+    }
+
+    /***
+     * Takes the other members' tiles their layers hold out of the stored tiles, see {@link MemberTileMigration}. Only
+     * called while in a group, once a pull filled the layers.
+     * @return The number of tiles taken out.
+     */
+    synchronized int splitMemberTiles(String playerName) {
+        if (memberTileMigration.isDone()) {
+            return 0;
+        }
+
+        readRoster(configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers"));
+        Set<String> members = new HashSet<>(rosterNames);
+        members.remove(playerName);
+        return memberTileMigration.split(members, tileLayers);
+    }
+
+    /***
+     * Puts the player's tiles back into the stored tiles if the migration set them aside, see
+     * {@link MemberTileMigration}.
+     * @return The number of tiles put back.
+     */
+    synchronized int restoreMemberTiles(String playerName) {
+        return memberTileMigration.restore(playerName);
+    }
 
-                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, region, gson.toJson(mergedRegionTiles));
+    /***
+     * Caches the names in the roster, dropping members listed more than once.
+     */
+    private void readRoster(String groupMembersJson) {
+        List<GroupMember> groupMembers = parseRoster(groupMembersJson);
+        rosterJson = groupMembersJson;
+        rosterNames.clear();
+
+        List<GroupMember> distinctMembers = new ArrayList<>(groupMembers.size());
+        for (GroupMember member : groupMembers) {
+            if (rosterNames.add(member.getPlayerName())) {
+                distinctMembers.add(member);
             }
+        }
+        if (distinctMembers.size() < groupMembers.size()) {
+            writeRoster(distinctMembers);
+        }
+    }
 
-            plugin.loadPoints();
-        } catch (JsonSyntaxException e) {
-            sendChatMessage("Failed to add tiles");
+    private List<GroupMember> parseRoster(String groupMembersJson) {
+        if (Strings.isNullOrEmpty(groupMembersJson)) {
+            return new ArrayList<>();
+        }
+        List<GroupMember> groupMembers = gson.fromJson(groupMembersJson, new TypeToken<List<GroupMember>>() {}.getType());
+        return groupMembers != null ? groupMembers : new ArrayList<>();
+    }
+
+    private void writeRoster(List<GroupMember> groupMembers) {
+        rosterJson = gson.toJson(groupMembers);
+        rosterNames.clear();
+        for (GroupMember member : groupMembers) {
+            rosterNames.add(member.getPlayerName());
         }
+        configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupmembers", rosterJson);
     }
 
     private void sendChatMessage(final String message) {
@@ -0,0 +1,38 @@
+package com.grouptilemanonline;
+
+/***
+ * Request count, errors and latency of one backend endpoint. Latency covers the whole call including retries, as
+ * the caller experiences it.
+ * <p>
+ * Updated from OkHttp callbacks, so every method is synchronized.
+ */
+final class EndpointStats {
+    private long requestCount;
+    private long errorCount;
+    private long retryCount;
+    private long latencyTotal;
+    private long maxLatency;
+
+    synchronized void record(long latencyMillis, boolean failed) {
+        requestCount++;
+        if (failed) {
+            errorCount++;
+        }
+        latencyTotal += latencyMillis;
+        maxLatency = Math.max(maxLatency, latencyMillis);
+    }
+
+    synchronized void retried() {
+        retryCount++;
+    }
+
+    synchronized long getAverageLatencyMillis() {
+        return requestCount == 0 ? 0 : latencyTotal / requestCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return requestCount + " requests, " + errorCount + " errors, " + retryCount + " retries, "
+                + getAverageLatencyMillis() + "ms average, " + maxLatency + "ms max";
+    }
+}
@@ -3,9 +3,17 @@ package com.grouptilemanonline;
 import com.google.gson.annotations.SerializedName;
 import lombok.Value;
 
+import java.util.List;
+
 @Value
 public class GetTilesObject {
     GroupTiles tiles;
 
     String username;
+
+    // Version of this member's tiles, 0 when the backend doesn't version members
+    long version;
+
+    // The member's removals of other members' tiles, absent when the backend doesn't keep them
+    List<TileTombstone> tombstones;
 }
@@ -0,0 +1,56 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+
+/***
+ * Keeps everything replicated of the group's tiles for the same player and group: the pull watermark
+ * ({@link GroupSyncState}), the synced regions ({@link GroupSubscription}), the members' records ({@link TileOrSet})
+ * and their layers ({@link TileLayers}). Switching the player or the group, or leaving the group, forgets them all
+ * together, so the next pull reads everything again instead of only what changed since a watermark the layers no
+ * longer match.
+ * <p>
+ * The player name is empty while logged out or hopping worlds, which keeps everything as it is.
+ * <p>
+ * Only used from the group sync schedule.
+ */
+final class GroupReplica {
+    private final TileLayers tileLayers;
+    private final TileOrSet tileOrSet;
+    private final GroupSyncState syncState;
+    private final GroupSubscription subscription;
+    private String playerName;
+    private String groupJoinCode;
+
+    GroupReplica(TileLayers tileLayers, TileOrSet tileOrSet, GroupSyncState syncState, GroupSubscription subscription) {
+        this.tileLayers = tileLayers;
+        this.tileOrSet = tileOrSet;
+        this.syncState = syncState;
+        this.subscription = subscription;
+    }
+
+    /***
+     * Switches to the given player and group.
+     *
+     * @param groupJoinCode The group, empty or null if the player isn't in one.
+     * @return Whether the player or group changed, which dropped everything replicated for the previous ones.
+     */
+    boolean use(String playerName, String groupJoinCode) {
+        if (Strings.isNullOrEmpty(playerName)) {
+            return false;
+        }
+
+        groupJoinCode = Strings.nullToEmpty(groupJoinCode);
+        // Nothing was replicated before the first player
+        boolean switched = this.playerName != null
+                && (!playerName.equals(this.playerName) || !groupJoinCode.equals(this.groupJoinCode));
+        this.playerName = playerName;
+        this.groupJoinCode = groupJoinCode;
+        tileLayers.useGroup(groupJoinCode, playerName);
+        if (switched) {
+            syncState.reset();
+            subscription.reset();
+            tileOrSet.reset();
+        }
+        return switched;
+    }
+}
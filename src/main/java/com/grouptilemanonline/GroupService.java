@@ -0,0 +1,174 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.config.ConfigManager;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+/***
+ * Creates, joins and leaves groups without blocking the calling thread. Every operation returns a future that
+ * completes once the backend has answered, or exceptionally with a message fit to show the player. Cancelling the
+ * future abandons the operation and puts the player back where they were.
+ * <p>
+ * Progress is reported as short messages, from whichever thread the operation happens to be on.
+ */
+@Slf4j
+@Singleton
+class GroupService {
+    /***
+     * The player and the group they are in, as the plugin and its config see them.
+     */
+    interface Player {
+        String getPlayerName();
+
+        String getGroupJoinCode();
+
+        void setGroupJoinCode(String groupJoinCode);
+    }
+
+    private final Player player;
+    private final SyncBackend syncBackend;
+    private final TileUploader tileUploader;
+    private final GroupSyncScheduler groupSyncScheduler;
+    private final ScheduledExecutorService executor;
+
+    @Inject
+    GroupService(TilemanModePlugin plugin, ConfigManager configManager, SyncBackend syncBackend,
+                 TileUploader tileUploader, ScheduledExecutorService executor) {
+        this(new Player() {
+            @Override
+            public String getPlayerName() {
+                return plugin.getPlayerName();
+            }
+
+            @Override
+            public String getGroupJoinCode() {
+                return plugin.getGroupJoinCode();
+            }
+
+            @Override
+            public void setGroupJoinCode(String groupJoinCode) {
+                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", groupJoinCode);
+            }
+        }, syncBackend, tileUploader, plugin.getGroupSyncScheduler(), executor);
+    }
+
+    GroupService(Player player, SyncBackend syncBackend, TileUploader tileUploader,
+                 GroupSyncScheduler groupSyncScheduler, ScheduledExecutorService executor) {
+        this.player = player;
+        this.syncBackend = syncBackend;
+        this.tileUploader = tileUploader;
+        this.groupSyncScheduler = groupSyncScheduler;
+        this.executor = executor;
+    }
+
+    CompletableFuture<Void> createGroup(String groupJoinCode, Consumer<String> progress) {
+        return enterGroup(groupJoinCode, "create", progress);
+    }
+
+    CompletableFuture<Void> joinGroup(String groupJoinCode, Consumer<String> progress) {
+        return enterGroup(groupJoinCode, "join", progress);
+    }
+
+    CompletableFuture<Void> leaveGroup(Consumer<String> progress) {
+        final String playerName = player.getPlayerName();
+        final String groupJoinCode = player.getGroupJoinCode();
+        if (Strings.isNullOrEmpty(playerName) || Strings.isNullOrEmpty(groupJoinCode)) {
+            return failed("You must be logged in and in a group to leave it");
+        }
+
+        progress.accept("Leaving group...");
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final CompletableFuture<SyncResponse> request
+                = syncBackend.leaveGroup(new LeaveGroupObject(playerName, groupJoinCode));
+        request.whenCompleteAsync((response, error) -> {
+            if (error != null || response.getCode() != 200) {
+                log.error("Unable to leave group");
+                result.completeExceptionally(new IOException("Unable to leave group, try again later"));
+                return;
+            }
+
+            if (!result.isDone() && groupJoinCode.equals(player.getGroupJoinCode())) {
+                player.setGroupJoinCode("");
+            }
+            result.complete(null);
+        }, executor);
+
+        result.whenComplete((ignored, error) -> {
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> enterGroup(String groupJoinCode, String action, Consumer<String> progress) {
+        final String playerName = player.getPlayerName();
+        if (Strings.isNullOrEmpty(playerName)) {
+            return failed("You must be logged in to " + action + " a group");
+        }
+
+        final String previousJoinCode = Strings.nullToEmpty(player.getGroupJoinCode());
+        player.setGroupJoinCode(groupJoinCode);
+        progress.accept("Uploading your tiles...");
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final CompletableFuture<Boolean> snapshot = tileUploader.uploadSnapshot((uploaded, total) -> {
+            if (!result.isDone()) {
+                progress.accept("Uploading your tiles... " + uploaded * 100 / total + "%");
+            }
+        });
+        // The uploader completes with its lock held, so carry on elsewhere
+        snapshot.whenCompleteAsync((uploaded, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (error != null || !uploaded) {
+                log.error("Unable to {} group", action);
+                revert(groupJoinCode, previousJoinCode);
+                result.completeExceptionally(new IOException("Unable to " + action + " group, try again later"));
+                return;
+            }
+
+            groupSyncScheduler.pullSoon();
+            result.complete(null);
+        }, executor);
+
+        result.whenComplete((ignored, error) -> {
+            if (!result.isCancelled()) {
+                return;
+            }
+
+            executor.execute(() -> {
+                revert(groupJoinCode, previousJoinCode);
+                snapshot.cancel(true);
+                // Part of the snapshot may have reached the backend anyway, leave once nothing more can follow it
+                tileUploader.whenIdle().thenRunAsync(
+                        () -> syncBackend.leaveGroup(new LeaveGroupObject(playerName, groupJoinCode)), executor);
+            });
+        });
+        return result;
+    }
+
+    /***
+     * Puts the player back in the group they were in before, unless they have moved on to another one in the meantime.
+     */
+    private void revert(String groupJoinCode, String previousJoinCode) {
+        if (groupJoinCode.equals(player.getGroupJoinCode())) {
+            player.setGroupJoinCode(previousJoinCode);
+        }
+    }
+
+    private static CompletableFuture<Void> failed(String message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException(message));
+        return future;
+    }
+}
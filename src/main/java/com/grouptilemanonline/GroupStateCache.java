@@ -0,0 +1,123 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/***
+ * The group's tiles as last pulled, kept on disk so other members' tiles show right after login and the first pull
+ * only asks for what changed since. One gzipped file per player and group holds the pull's watermark (see
+ * {@link GroupSyncState}), the subscribed regions (see {@link GroupSubscription}) and every member's record (see
+ * {@link TileOrSet}), with the regions in the compact v2 encoding (see {@link RegionTiles}).
+ * <p>
+ * The file is replaced atomically. A missing, unreadable or outdated one is ignored and the group pulled as before.
+ * <p>
+ * Not thread safe, the plugin only loads and saves from one thread at a time.
+ */
+@Slf4j
+final class GroupStateCache {
+    // Bumped when the layout changes, files of other versions are ignored
+    static final int FORMAT = 1;
+
+    private final Path directory;
+    private final Gson gson;
+
+    GroupStateCache(Path directory, Gson gson) {
+        this.directory = directory;
+        this.gson = gson;
+    }
+
+    /***
+     * @return The group's state as last saved for the player, null if there is none that can be used.
+     */
+    State load(String playerName, String groupJoinCode) {
+        Path file = fileOf(playerName, groupJoinCode);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            State state = gson.fromJson(in, State.class);
+            if (state == null || state.format != FORMAT || !playerName.equals(state.playerName)
+                    || !groupJoinCode.equals(state.groupJoinCode) || state.members == null) {
+                return null;
+            }
+            return state;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JsonParseException e) {
+            log.warn("Unable to read the cached group tiles, pulling them again", e);
+            return null;
+        }
+    }
+
+    void save(State state) {
+        Path file = fileOf(state.playerName, state.groupJoinCode);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+                gson.toJson(state, out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to cache the group tiles, they are pulled again after the next login", e);
+        }
+    }
+
+    private Path fileOf(String playerName, String groupJoinCode) {
+        return directory.resolve("group-" + TileUploader.fileNamePart(playerName) + "-"
+                + TileUploader.fileNamePart(groupJoinCode) + ".json.gz");
+    }
+
+    /***
+     * Everything cached for a player and group, filled in by the classes that own each part.
+     */
+    static final class State {
+        int format = FORMAT;
+        String playerName;
+        String groupJoinCode;
+
+        // The watermark, see GroupSyncState
+        String etag;
+        long groupVersion;
+        Map<String, Long> memberVersions;
+        Map<String, Long> memberFingerprints;
+
+        // The subscription, see GroupSubscription. Synced is null while the whole group is pulled.
+        boolean unsupported;
+        List<Integer> synced;
+        List<Integer> nearby;
+        List<Integer> worldMap;
+        Map<Integer, Integer> remoteCounts;
+
+        // The records, see TileOrSet
+        Map<String, Member> members;
+        boolean tombstonesUnsent;
+
+        State(String playerName, String groupJoinCode) {
+            this.playerName = playerName;
+            this.groupJoinCode = groupJoinCode;
+        }
+    }
+
+    static final class Member {
+        // Every region with its tags, and the fingerprint the backend sent for it, by index
+        List<RegionTiles> regions;
+        long[] fingerprints;
+        List<TileTombstone> tombstones;
+    }
+}
@@ -0,0 +1,242 @@
+package com.grouptilemanonline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/***
+ * The regions the group's tiles are pulled for: the map regions the local player has loaded, fetched eagerly, and the
+ * regions that came into view on the world map, fetched once they do. Other members' tiles elsewhere are neither
+ * downloaded nor stored, only the number of tiles the group marked in each region, so the tile counter stays exact.
+ * Bandwidth and memory scale with where the player is rather than with everything the group ever marked.
+ * <p>
+ * Regions are synced once a pull brought their tiles, after which pulls only ask for what changed in them. Regions
+ * added to the subscription are caught up by a pull of their own, and regions that left it are dropped before the
+ * next pull. Backends that don't support subscriptions answer with the whole group, from then on every pull asks for
+ * it and everything is stored as before.
+ * <p>
+ * Updated from the client thread and OkHttp callbacks, so every method is synchronized.
+ */
+final class GroupSubscription {
+    // World map regions kept subscribed, the ones viewed longest ago are dropped first
+    static final int MAX_WORLD_MAP_REGIONS = 256;
+
+    private String groupJoinCode;
+    private boolean unsupported;
+    private Set<Integer> nearby = Collections.emptySet();
+    private final Set<Integer> worldMap = new LinkedHashSet<>();
+    private final Set<Integer> synced = new HashSet<>();
+    // The number of tiles the group marked in each region outside the subscription
+    private Map<Integer, Integer> remoteCounts = Collections.emptyMap();
+
+    /***
+     * Switches to the given group, forgetting what was synced for a previous one.
+     */
+    synchronized void useGroup(String groupJoinCode) {
+        if (!groupJoinCode.equals(this.groupJoinCode)) {
+            reset();
+            this.groupJoinCode = groupJoinCode;
+        }
+    }
+
+    /***
+     * Forgets which regions were synced, so the next pull reads every subscribed region again.
+     */
+    synchronized void reset() {
+        groupJoinCode = null;
+        unsupported = false;
+        synced.clear();
+        remoteCounts = Collections.emptyMap();
+    }
+
+    /***
+     * @return Whether regions were added to the subscription.
+     */
+    synchronized boolean setNearby(int[] mapRegions) {
+        Set<Integer> regions = new HashSet<>();
+        for (int regionId : mapRegions) {
+            regions.add(regionId);
+        }
+        nearby = regions;
+        return !synced.containsAll(regions);
+    }
+
+    /***
+     * @return Whether regions were added to the subscription. Views of more than {@link #MAX_WORLD_MAP_REGIONS}
+     * regions are ignored.
+     */
+    synchronized boolean viewWorldMap(Collection<Integer> regionIds) {
+        // Zoomed out further than that, only the regions already synced are drawn
+        if (regionIds.size() > MAX_WORLD_MAP_REGIONS) {
+            return false;
+        }
+
+        boolean added = false;
+        for (Integer regionId : regionIds) {
+            // Moved to the end, as viewed most recently
+            worldMap.remove(regionId);
+            worldMap.add(regionId);
+            added |= !synced.contains(regionId);
+        }
+
+        Iterator<Integer> oldest = worldMap.iterator();
+        while (worldMap.size() > MAX_WORLD_MAP_REGIONS) {
+            oldest.next();
+            oldest.remove();
+        }
+        return added;
+    }
+
+    /***
+     * Decides what the next pull asks for. Regions that left the subscription are no longer synced from here on and
+     * should be dropped by the caller.
+     *
+     * @param watermarked Whether the group was pulled before, so a regular pull only asks for what changed since.
+     */
+    synchronized Pull nextPull(int schemaVersion, boolean watermarked) {
+        // Region subsets are only defined for compact regions
+        if (unsupported || schemaVersion < TileWireFormat.V2) {
+            return new Pull(null, false, false, Collections.emptySet());
+        }
+
+        Set<Integer> subscribed = new HashSet<>(nearby);
+        subscribed.addAll(worldMap);
+
+        Set<Integer> dropped = new HashSet<>(synced);
+        dropped.removeAll(subscribed);
+        synced.removeAll(dropped);
+
+        Set<Integer> pending = new HashSet<>(subscribed);
+        pending.removeAll(synced);
+        if (pending.isEmpty()) {
+            return new Pull(subscribed, false, false, dropped);
+        } else if (!watermarked) {
+            return new Pull(subscribed, false, true, dropped);
+        }
+        return new Pull(pending, true, true, dropped);
+    }
+
+    /***
+     * @param scoped Whether the backend only answered with the requested regions.
+     * @param counts The number of tiles the group marked in each region outside them, null if not sent.
+     * @return Whether the counts of the regions that aren't synced changed.
+     */
+    synchronized boolean pulled(Pull pull, boolean scoped, Map<Integer, Integer> counts) {
+        if (pull.getRegions() == null) {
+            return false;
+        }
+        if (!scoped) {
+            // Everything was sent, as it will be from now on
+            unsupported = true;
+            synced.clear();
+            remoteCounts = Collections.emptyMap();
+            return true;
+        }
+
+        boolean changed = synced.addAll(pull.getRegions());
+        if (counts != null && !counts.equals(remoteCounts)) {
+            remoteCounts = counts;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /***
+     * @return The number of tiles the group marked in each region whose tiles aren't synced.
+     */
+    synchronized Map<Integer, Integer> getUnsyncedCounts() {
+        Map<Integer, Integer> counts = new HashMap<>(remoteCounts);
+        counts.keySet().removeAll(synced);
+        return counts;
+    }
+
+    /***
+     * @param schemaVersion The schema the group is pulled with, nothing is synced by region below v2.
+     */
+    synchronized void save(GroupStateCache.State state, int schemaVersion) {
+        state.unsupported = unsupported;
+        state.synced = unsupported || schemaVersion < TileWireFormat.V2 ? null : new ArrayList<>(synced);
+        state.nearby = new ArrayList<>(nearby);
+        state.worldMap = new ArrayList<>(worldMap);
+        state.remoteCounts = new HashMap<>(remoteCounts);
+    }
+
+    /***
+     * Restores the subscription of a cached pull (see {@link GroupStateCache}). The regions the player last had
+     * loaded count as nearby until the scene is loaded, so the first pull doesn't drop them.
+     *
+     * @return The regions whose tiles were synced, null if the whole group was.
+     */
+    synchronized Set<Integer> restore(GroupStateCache.State state) {
+        unsupported = state.unsupported;
+        if (nearby.isEmpty() && state.nearby != null) {
+            nearby = new HashSet<>(state.nearby);
+        }
+        if (worldMap.isEmpty() && state.worldMap != null) {
+            state.worldMap.stream().limit(MAX_WORLD_MAP_REGIONS).forEach(worldMap::add);
+        }
+        if (unsupported || state.synced == null) {
+            return null;
+        }
+
+        synced.addAll(state.synced);
+        if (state.remoteCounts != null) {
+            remoteCounts = state.remoteCounts;
+        }
+        return new HashSet<>(synced);
+    }
+
+    synchronized int getSyncedCount() {
+        return synced.size();
+    }
+
+    /***
+     * What a pull asks for.
+     */
+    static final class Pull {
+        private final Set<Integer> regions;
+        private final boolean catchUp;
+        private final boolean readAll;
+        private final Set<Integer> dropped;
+
+        private Pull(Set<Integer> regions, boolean catchUp, boolean readAll, Set<Integer> dropped) {
+            this.regions = regions;
+            this.catchUp = catchUp;
+            this.readAll = readAll;
+            this.dropped = dropped;
+        }
+
+        /***
+         * @return The regions to pull, null for the whole group.
+         */
+        Set<Integer> getRegions() {
+            return regions;
+        }
+
+        /***
+         * @return Whether the pull only fetches regions added to the subscription. It asks for everything in them and
+         * leaves the group's watermark alone, the next regular pull still asks for what changed since.
+         */
+        boolean isCatchUp() {
+            return catchUp;
+        }
+
+        /***
+         * @return Whether every member has to be read, even those whose version didn't change, as some of the regions
+         * were never pulled.
+         */
+        boolean isReadAll() {
+            return readAll;
+        }
+
+        Set<Integer> getDropped() {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.grouptilemanonline;
+
+/***
+ * Decides when to pull the group's tiles. At most one pull is in flight at a time. The interval backs off
+ * exponentially while pulls bring nothing new, drops back as soon as a pull brings changes or the local player
+ * moves, and pulling stops entirely while logged out. While a push connection is open (see {@link GroupWatcher})
+ * the backend reports changes itself, so pulls only run when it does, plus a rare safety net pull.
+ * <p>
+ * Polled once a second from a scheduled task and updated from OkHttp callbacks, so every method is synchronized.
+ */
+final class GroupSyncScheduler {
+    // Interval right after a pull brought changes
+    static final long MIN_INTERVAL_MILLIS = 2_000;
+    // Longest interval used while the local player is moving
+    static final long ACTIVE_INTERVAL_MILLIS = 5_000;
+    static final long MAX_INTERVAL_MILLIS = 60_000;
+    // Interval while changes are pushed, in case a push got lost
+    static final long PUSH_INTERVAL_MILLIS = 300_000;
+
+    private boolean inFlight;
+    private boolean pushConnected;
+    // A change was pushed while a pull was in flight, which may have missed it
+    private boolean pullAgain;
+    private long interval = ACTIVE_INTERVAL_MILLIS;
+    private long nextPullAt;
+    private long lastPullStartedAt;
+
+    // Metrics
+    private long requestCount;
+    private long skippedTicks;
+    private long intervalTotal;
+    private long intervalCount;
+
+    /***
+     * @return Whether a pull should be started now, in which case it counts as started.
+     */
+    synchronized boolean shouldPull(long now, boolean loggedIn) {
+        if (!loggedIn || inFlight || now < nextPullAt) {
+            skippedTicks++;
+            return false;
+        }
+
+        if (lastPullStartedAt > 0) {
+            intervalTotal += now - lastPullStartedAt;
+            intervalCount++;
+        }
+        inFlight = true;
+        lastPullStartedAt = now;
+        requestCount++;
+        return true;
+    }
+
+    synchronized void pullFinished(long now, boolean changed) {
+        inFlight = false;
+        if (pushConnected) {
+            interval = PUSH_INTERVAL_MILLIS;
+        } else {
+            interval = changed ? MIN_INTERVAL_MILLIS : Math.min(interval * 2, MAX_INTERVAL_MILLIS);
+        }
+        nextPullAt = pullAgain ? now : now + interval;
+        pullAgain = false;
+    }
+
+    /***
+     * The backend pushed a change, pull it as soon as no other pull is in flight.
+     */
+    synchronized void changePushed() {
+        nextPullAt = 0;
+        pullAgain = inFlight;
+    }
+
+    synchronized void setPushConnected(long now, boolean connected) {
+        if (connected == pushConnected) {
+            return;
+        }
+
+        pushConnected = connected;
+        if (connected) {
+            interval = PUSH_INTERVAL_MILLIS;
+        } else {
+            // Changes may have been missed while the connection was dropping
+            interval = MIN_INTERVAL_MILLIS;
+            nextPullAt = Math.min(nextPullAt, now);
+        }
+    }
+
+    /***
+     * The local player is active, so their group probably is too.
+     */
+    synchronized void playerMoved(long now) {
+        if (!pushConnected && interval > ACTIVE_INTERVAL_MILLIS) {
+            interval = ACTIVE_INTERVAL_MILLIS;
+            nextPullAt = Math.min(nextPullAt, now + ACTIVE_INTERVAL_MILLIS);
+        }
+    }
+
+    /***
+     * Something happened that makes a pull worth doing straight away, e.g. joining a group or the subscribed regions
+     * changing. A pull in flight is followed by another one.
+     */
+    synchronized void pullSoon() {
+        interval = MIN_INTERVAL_MILLIS;
+        nextPullAt = 0;
+        pullAgain = inFlight;
+    }
+
+    synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    synchronized long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    synchronized long getAverageIntervalMillis() {
+        return intervalCount == 0 ? 0 : intervalTotal / intervalCount;
+    }
+}
@@ -0,0 +1,121 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ * What the client last pulled for its group: the ETag and version watermark of the group, the version of each
+ * member's tiles, and the fingerprint of each member's tiles (see {@link TileFingerprint}). Used to make pulls
+ * conditional and to skip members whose tiles haven't changed. The regions themselves are kept by {@link TileOrSet}.
+ * <p>
+ * Updated from OkHttp callbacks, so every method is synchronized.
+ */
+final class GroupSyncState {
+    private String groupJoinCode;
+    private String etag;
+    private long groupVersion;
+    private final Map<String, Long> memberVersions = new HashMap<>();
+    private final Map<String, Long> memberFingerprints = new HashMap<>();
+
+    // Metrics
+    private long membersUnchanged;
+
+    /***
+     * Switches to the given group, forgetting everything pulled for a previous one.
+     */
+    synchronized void useGroup(String groupJoinCode) {
+        if (!groupJoinCode.equals(this.groupJoinCode)) {
+            this.groupJoinCode = groupJoinCode;
+            etag = null;
+            groupVersion = 0;
+            clearMembers();
+        }
+    }
+
+    synchronized String getEtag() {
+        return etag;
+    }
+
+    synchronized long getGroupVersion() {
+        return groupVersion;
+    }
+
+    synchronized void pulled(String groupJoinCode, String etag, long groupVersion) {
+        if (!groupJoinCode.equals(this.groupJoinCode)) {
+            return;
+        }
+        this.etag = Strings.emptyToNull(etag);
+        this.groupVersion = Math.max(this.groupVersion, groupVersion);
+    }
+
+    /***
+     * @return Whether the member's tiles changed since they were last imported. Backends that don't version
+     * members send 0, in which case the tiles always count as changed.
+     */
+    synchronized boolean isMemberChanged(String username, long version) {
+        if (version <= 0) {
+            return true;
+        }
+        Long previous = memberVersions.get(username);
+        return previous == null || previous != version;
+    }
+
+    synchronized void memberImported(String username, long version, long fingerprint) {
+        if (version > 0) {
+            memberVersions.put(username, version);
+        }
+        Long previous = memberFingerprints.put(username, fingerprint);
+        if (previous != null && previous == fingerprint) {
+            membersUnchanged++;
+        }
+    }
+
+    synchronized long getMembersUnchanged() {
+        return membersUnchanged;
+    }
+
+    synchronized void save(GroupStateCache.State state) {
+        state.etag = etag;
+        state.groupVersion = groupVersion;
+        state.memberVersions = new HashMap<>(memberVersions);
+        state.memberFingerprints = new HashMap<>(memberFingerprints);
+    }
+
+    /***
+     * Restores the watermark of a cached pull (see {@link GroupStateCache}), unless the group was pulled since.
+     *
+     * @return Whether it was restored.
+     */
+    synchronized boolean restore(GroupStateCache.State state) {
+        if (!state.groupJoinCode.equals(groupJoinCode) || groupVersion > 0) {
+            return false;
+        }
+        etag = state.etag;
+        groupVersion = state.groupVersion;
+        clearMembers();
+        if (state.memberVersions != null) {
+            memberVersions.putAll(state.memberVersions);
+        }
+        if (state.memberFingerprints != null) {
+            memberFingerprints.putAll(state.memberFingerprints);
+        }
+        return true;
+    }
+
+    /***
+     * Forgets everything pulled, so the next pull reads the whole group again.
+     */
+    synchronized void reset() {
+        groupJoinCode = null;
+        etag = null;
+        groupVersion = 0;
+        clearMembers();
+    }
+
+    private void clearMembers() {
+        memberVersions.clear();
+        memberFingerprints.clear();
+    }
+}
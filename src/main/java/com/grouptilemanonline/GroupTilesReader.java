@@ -0,0 +1,247 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/***
+ * Streams a GetGroupTiles response, a list of {@link GetTilesObject}, and hands every member's tiles over one region
+ * at a time, so a pull never holds more than a region of tiles in memory. Members the listener isn't interested in,
+ * like the local player, are skipped without decoding their tiles.
+ * <p>
+ * Reads both wire schemas (see {@link TileWireFormat}): v1 members carry "tiles", v2 members carry "regions".
+ * Either way a region is read as packed tile keys with their tags and fingerprinted (see {@link TileFingerprint}),
+ * without building tile objects, so a region that hasn't changed since the last pull costs little more than reading
+ * its JSON. Only v2 regions carry tags.
+ * <p>
+ * Pulls limited to some regions (see {@link GroupSubscription}) are answered with an object instead, holding the
+ * members as "members" and the number of tiles the group marked in each region outside them as "counts".
+ */
+final class GroupTilesReader {
+    private static final Type TOMBSTONES_TYPE = new TypeToken<List<TileTombstone>>() {}.getType();
+    private static final Type COUNTS_TYPE = new TypeToken<Map<Integer, Integer>>() {}.getType();
+
+    interface Listener {
+        /***
+         * @param version The member's version, 0 if the backend doesn't version members or hasn't sent it yet.
+         * @return Whether the member's tiles should be read.
+         */
+        boolean memberStarted(String username, long version);
+
+        /***
+         * @param fingerprint The fingerprint of the region's tiles and their tags.
+         * @param tagRuns The tags of the keys, run-length encoded (see {@link RegionTiles}), null if untagged.
+         */
+        void regionRead(String username, String regionKey, long fingerprint, int[] keys, long[] tagRuns);
+
+        /***
+         * @param fingerprint The fingerprint of all the member's tiles that were read.
+         * @param tombstones The member's tombstones, null if the backend didn't send any.
+         */
+        void memberFinished(String username, long version, long fingerprint, List<TileTombstone> tombstones);
+    }
+
+    private GroupTilesReader() {
+    }
+
+    /***
+     * @return The number of tiles the group marked in each region outside the requested ones, null if the response
+     * covers the whole group.
+     */
+    static Map<Integer, Integer> read(JsonReader reader, Gson gson, Listener listener) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            readMembers(reader, gson, listener);
+            return null;
+        }
+
+        Map<Integer, Integer> counts = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "members":
+                    readMembers(reader, gson, listener);
+                    break;
+                case "counts":
+                    counts = gson.fromJson(reader, COUNTS_TYPE);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return counts == null ? Collections.emptyMap() : counts;
+    }
+
+    private static void readMembers(JsonReader reader, Gson gson, Listener listener) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readMember(reader, gson, listener);
+        }
+        reader.endArray();
+    }
+
+    private static void readMember(JsonReader reader, Gson gson, Listener listener) throws IOException {
+        Member member = new Member();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "username":
+                    member.username = nextStringOrNull(reader);
+                    break;
+                case "version":
+                    member.version = reader.peek() == JsonToken.NUMBER ? reader.nextLong() : skip(reader);
+                    break;
+                case "tiles":
+                    readTiles(reader, gson, listener, member);
+                    break;
+                case "regions":
+                    readCompactRegions(reader, gson, listener, member);
+                    break;
+                case "tombstones":
+                    member.tombstones = gson.fromJson(reader, TOMBSTONES_TYPE);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Only happens when the member's name came after their tiles
+        if (member.accepted == null && member.name() != null) {
+            member.accept(listener);
+            if (member.accepted) {
+                for (Consumer<String> region : member.buffered) {
+                    region.accept(member.name());
+                }
+            }
+        }
+        if (member.accepted == Boolean.TRUE) {
+            listener.memberFinished(member.name(), member.version, member.fingerprint.value(), member.tombstones);
+        }
+    }
+
+    private static void readTiles(JsonReader reader, Gson gson, Listener listener, Member member) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "playerName":
+                    member.tilesPlayerName = nextStringOrNull(reader);
+                    break;
+                case "regionTiles":
+                    readRegions(reader, listener, member);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readRegions(JsonReader reader, Listener listener, Member member) throws IOException {
+        if (!member.startRegions(listener) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String regionKey = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            regionRead(listener, member, regionKey, TileKeys.read(reader), null);
+        }
+        reader.endObject();
+    }
+
+    private static void readCompactRegions(JsonReader reader, Gson gson, Listener listener, Member member) throws IOException {
+        if (!member.startRegions(listener) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            RegionTiles region = gson.fromJson(reader, RegionTiles.class);
+            if (region != null) {
+                regionRead(listener, member, TilemanModePlugin.REGION_PREFIX + region.getId(),
+                        TileWireFormat.decodeKeys(region), region.getTags());
+            }
+        }
+        reader.endArray();
+    }
+
+    private static void regionRead(Listener listener, Member member, String regionKey, int[] keys, long[] tagRuns) {
+        if (keys.length == 0) {
+            return;
+        }
+
+        TileFingerprint region = new TileFingerprint();
+        region.addAll(keys);
+        region.addTags(tagRuns);
+        long fingerprint = region.value();
+        member.fingerprint.addAll(keys);
+        if (member.accepted == null) {
+            // Who the tiles belong to isn't known yet, keep them until it is
+            member.buffered.add(name -> listener.regionRead(name, regionKey, fingerprint, keys, tagRuns));
+        } else {
+            listener.regionRead(member.name(), regionKey, fingerprint, keys, tagRuns);
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static long skip(JsonReader reader) throws IOException {
+        reader.skipValue();
+        return 0;
+    }
+
+    private static final class Member {
+        private String username;
+        private String tilesPlayerName;
+        private long version;
+        private Boolean accepted;
+        private final TileFingerprint fingerprint = new TileFingerprint();
+        private List<TileTombstone> tombstones;
+        private final List<Consumer<String>> buffered = new ArrayList<>();
+
+        private String name() {
+            return username != null ? username : tilesPlayerName;
+        }
+
+        private void accept(Listener listener) {
+            accepted = listener.memberStarted(name(), version);
+        }
+
+        /***
+         * @return Whether the regions that follow should be decoded, false if the member is skipped.
+         */
+        private boolean startRegions(Listener listener) {
+            if (accepted == null && name() != null) {
+                accept(listener);
+            }
+            return accepted != Boolean.FALSE;
+        }
+    }
+}
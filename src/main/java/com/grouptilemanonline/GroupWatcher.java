@@ -0,0 +1,171 @@
+package com.grouptilemanonline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/***
+ * Keeps a long-poll open on the backend so group changes are pushed instead of waiting for the next pull. Every
+ * change the backend reports is pulled straight away, and while the watch is connected scheduled pulls only run as a
+ * safety net (see {@link GroupSyncScheduler#setPushConnected}). An idle watch is answered empty after
+ * {@link #HOLD_SECONDS} and re-armed straight away, so idle traffic is one small request per hold.
+ * <p>
+ * Dropped watches reconnect with jittered exponential backoff and resume from the last group version seen, so
+ * nothing changed while disconnected is missed. Backends without push support are polled as before.
+ * <p>
+ * Updated from the sync task and OkHttp callbacks, so all state is guarded by the watcher's lock.
+ */
+@Slf4j
+@Singleton
+class GroupWatcher {
+    static final int HOLD_SECONDS = 25;
+
+    private static final long MIN_RETRY_MILLIS = 1_000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+    // How long to wait before checking again whether a backend without push support gained it
+    private static final long UNSUPPORTED_RETRY_MILLIS = 10 * 60_000;
+
+    private final SyncBackend backend;
+
+    private String groupJoinCode;
+    private Runnable onChange;
+    private long seenVersion;
+    private CompletableFuture<SyncResponse> inFlight;
+    private boolean connected;
+    private long retryDelay;
+    private long retryAt;
+
+    // Metrics
+    private long changeCount;
+    private long reconnectCount;
+
+    @Inject
+    GroupWatcher(SyncBackend backend) {
+        this.backend = backend;
+    }
+
+    /***
+     * Makes sure a watch is open on the group, called on every sync tick.
+     *
+     * @param version The group version the client has pulled, the watch resumes from it or anything newer it saw.
+     * @param onChange Run from an OkHttp thread whenever the backend reports a change.
+     */
+    synchronized void watch(String groupJoinCode, long version, Runnable onChange) {
+        if (!groupJoinCode.equals(this.groupJoinCode)) {
+            stop();
+            this.groupJoinCode = groupJoinCode;
+            seenVersion = 0;
+            retryDelay = 0;
+            retryAt = 0;
+        }
+        this.onChange = onChange;
+        seenVersion = Math.max(seenVersion, version);
+
+        if (inFlight != null || System.currentTimeMillis() < retryAt) {
+            return;
+        }
+
+        CompletableFuture<SyncResponse> watch = backend.watchGroup(groupJoinCode, seenVersion, HOLD_SECONDS);
+        inFlight = watch;
+        watch.whenComplete((response, error) -> completed(watch, response, error));
+    }
+
+    /***
+     * Closes the watch, e.g. when logged out or push updates are turned off.
+     */
+    synchronized void stop() {
+        CompletableFuture<SyncResponse> watch = inFlight;
+        inFlight = null;
+        connected = false;
+        if (watch != null) {
+            watch.cancel(true);
+        }
+    }
+
+    synchronized boolean isConnected() {
+        return connected;
+    }
+
+    synchronized long getChangeCount() {
+        return changeCount;
+    }
+
+    synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    private void completed(CompletableFuture<SyncResponse> watch, SyncResponse response, Throwable error) {
+        Runnable changed = null;
+        synchronized (this) {
+            if (watch != inFlight) {
+                // Stopped, or replaced by a watch on another group
+                return;
+            }
+            inFlight = null;
+
+            if (error != null) {
+                log.debug("Group watch dropped: {}", error.toString());
+                backOff();
+                return;
+            }
+
+            switch (response.getCode()) {
+                case 200:
+                    if (response.getGroupVersion() <= seenVersion) {
+                        // Without a newer version the next watch would return at once, over and over
+                        log.debug("Group watch answered without a newer version");
+                        backOff();
+                        return;
+                    }
+                    seenVersion = response.getGroupVersion();
+                    changeCount++;
+                    changed = onChange;
+                    break;
+                case 204:
+                    // Heartbeat, nothing changed during the hold
+                    break;
+                case 404:
+                case 405:
+                case 501:
+                    log.debug("Backend doesn't support group watches, polling instead");
+                    connected = false;
+                    retryDelay = 0;
+                    retryAt = System.currentTimeMillis() + UNSUPPORTED_RETRY_MILLIS;
+                    return;
+                default:
+                    log.debug("Group watch failed with {}", response.getCode());
+                    backOff();
+                    return;
+            }
+
+            connected = true;
+            retryDelay = 0;
+            retryAt = 0;
+        }
+
+        if (changed != null) {
+            changed.run();
+        }
+        rearm();
+    }
+
+    private synchronized void rearm() {
+        if (connected && inFlight == null) {
+            watch(groupJoinCode, seenVersion, onChange);
+        }
+    }
+
+    private void backOff() {
+        if (connected) {
+            reconnectCount++;
+        }
+        connected = false;
+        retryDelay = retryDelay == 0 ? MIN_RETRY_MILLIS : Math.min(retryDelay * 2, MAX_RETRY_MILLIS);
+        // Jitter keeps a group from reconnecting in lockstep after the backend comes back
+        long jitter = ThreadLocalRandom.current().nextLong(retryDelay / 2 + 1);
+        retryAt = System.currentTimeMillis() + retryDelay / 2 + jitter;
+    }
+}
@@ -0,0 +1,420 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/***
+ * Talks to a group tile backend over HTTP, by default the hosted one at {@link TilemanModePlugin#DATABASE_URL}.
+ * Schema v2 requests go to the /v2 endpoints with gzip bodies, OkHttp negotiates gzip responses on its own.
+ * <p>
+ * Requests share RuneLite's connection pool with explicit timeouts. Failed requests are retried with jittered
+ * backoff, and writes carry an idempotency key so a retried write the backend already applied isn't applied twice.
+ * A {@link CircuitBreaker} fails requests straight away while the backend keeps failing.
+ */
+@Slf4j
+@Singleton
+class HttpSyncBackend implements SyncBackend {
+    static final String SCHEMA_HEADER = "X-Tileman-Schema";
+    static final String GROUP_VERSION_HEADER = "X-Group-Version";
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private static final MediaType JSON
+            = MediaType.parse("application/json; charset=utf-8");
+
+    // Bodies smaller than this aren't worth compressing
+    private static final int MIN_COMPRESS_BYTES = 1024;
+
+    private static final int CONNECT_TIMEOUT_SECONDS = 10;
+    private static final int READ_TIMEOUT_SECONDS = 20;
+    private static final int WRITE_TIMEOUT_SECONDS = 20;
+
+    // How much longer than the hold a watch may take before it counts as dead
+    private static final int WATCH_GRACE_SECONDS = 15;
+
+    // Attempts per request including the first, the delay before each retry doubles
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService executor;
+    private final TilemanModeConfig config;
+    private final Gson gson;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<>();
+
+    @Inject
+    HttpSyncBackend(OkHttpClient httpClient, ScheduledExecutorService executor, TilemanModeConfig config, Gson gson) {
+        this(httpClient, executor, config, gson, TimeUnit.SECONDS.toMillis(READ_TIMEOUT_SECONDS));
+    }
+
+    /***
+     * @param readTimeoutMillis How long the backend may take to answer a request, watches aside.
+     */
+    HttpSyncBackend(OkHttpClient httpClient, ScheduledExecutorService executor, TilemanModeConfig config, Gson gson,
+                    long readTimeoutMillis) {
+        // Derived from RuneLite's client so it shares the connection pool and dispatcher
+        this.httpClient = httpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+        this.executor = executor;
+        this.config = config;
+        this.gson = gson;
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> addTiles(int schemaVersion, Object snapshot) {
+        HttpUrl url = url(path(schemaVersion, "/AddTiles"));
+        if (url == null) {
+            return invalidUrl();
+        }
+        return send("AddTiles", httpClient, post(url, schemaVersion, snapshot), null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> addTilesDelta(int schemaVersion, AddTilesDeltaObject delta) {
+        HttpUrl url = url(path(schemaVersion, "/AddTilesDelta"));
+        if (url == null) {
+            return invalidUrl();
+        }
+        return send("AddTilesDelta", httpClient, post(url, schemaVersion, delta), null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> addTileRegions(AddTileRegionsObject regions) {
+        HttpUrl url = url(path(TileWireFormat.V2, "/AddTileRegions"));
+        if (url == null) {
+            return invalidUrl();
+        }
+        return send("AddTileRegions", httpClient, post(url, TileWireFormat.V2, regions), null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> uploadChunk(UploadChunkObject chunk) {
+        HttpUrl url = url(path(TileWireFormat.V2, "/UploadChunk"));
+        if (url == null) {
+            return invalidUrl();
+        }
+        return send("UploadChunk", httpClient, post(url, TileWireFormat.V2, chunk), null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> commitUpload(CommitUploadObject commit) {
+        HttpUrl url = url(path(TileWireFormat.V2, "/CommitUpload"));
+        if (url == null) {
+            return invalidUrl();
+        }
+        return send("CommitUpload", httpClient, post(url, TileWireFormat.V2, commit), null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> getRegionTree(String groupJoinCode, String username, int level,
+                                                         List<Integer> nodes, BodyReader bodyReader) {
+        HttpUrl base = url(path(TileWireFormat.V2, "/RegionTree/") + groupJoinCode);
+        if (base == null) {
+            return invalidUrl();
+        }
+
+        HttpUrl url = base.newBuilder()
+                .addQueryParameter("username", username)
+                .addQueryParameter("level", Integer.toString(level))
+                .addQueryParameter("nodes", nodes.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .build();
+        Request request = new Request.Builder()
+                .url(url)
+                .header(SCHEMA_HEADER, Integer.toString(TileWireFormat.V2))
+                .build();
+        return send("RegionTree", httpClient, request, bodyReader, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> getGroupTiles(int schemaVersion, String groupJoinCode, long since, String etag,
+                                                         Collection<Integer> regionIds, BodyReader bodyReader) {
+        HttpUrl base = url(path(schemaVersion, "/GetGroupTiles/") + groupJoinCode);
+        if (base == null) {
+            return invalidUrl();
+        }
+
+        HttpUrl.Builder url = base.newBuilder();
+        if (since > 0) {
+            url.addQueryParameter("since", Long.toString(since));
+        }
+        if (regionIds != null) {
+            url.addQueryParameter("regions", regionIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        }
+
+        Request.Builder request = new Request.Builder()
+                .url(url.build())
+                .header(SCHEMA_HEADER, Integer.toString(schemaVersion));
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        return send("GetGroupTiles", httpClient, request.build(), bodyReader, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> leaveGroup(LeaveGroupObject leave) {
+        HttpUrl url = url("/LeaveGroup");
+        if (url == null) {
+            return invalidUrl();
+        }
+
+        Request request = new Request.Builder()
+                .url(url)
+                .header(IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+                .post(RequestBody.create(JSON, gson.toJson(leave)))
+                .build();
+        return send("LeaveGroup", httpClient, request, null, MAX_ATTEMPTS);
+    }
+
+    @Override
+    public CompletableFuture<SyncResponse> watchGroup(String groupJoinCode, long since, int holdSeconds) {
+        HttpUrl base = url("/WatchGroup/" + groupJoinCode);
+        if (base == null) {
+            return invalidUrl();
+        }
+
+        HttpUrl url = base.newBuilder()
+                .addQueryParameter("since", Long.toString(since))
+                .addQueryParameter("hold", Integer.toString(holdSeconds))
+                .build();
+        // Only the read timeout has to outlast the hold
+        OkHttpClient watchClient = httpClient.newBuilder()
+                .readTimeout(holdSeconds + WATCH_GRACE_SECONDS, TimeUnit.SECONDS)
+                .build();
+        // Neither retried nor guarded by the circuit breaker, GroupWatcher backs off and reconnects on its own, and a
+        // held watch would make a poor trial request. Its stats are kept apart from the other endpoints' so its long
+        // latencies don't hide theirs.
+        EndpointStats stats = endpointStats.computeIfAbsent("WatchGroup", name -> new EndpointStats());
+        return new Exchange("WatchGroup", stats, null, watchClient, new Request.Builder().url(url).build(), null, 1)
+                .start();
+    }
+
+    private CompletableFuture<SyncResponse> send(String endpoint, OkHttpClient client, Request request,
+                                                 BodyReader bodyReader, int maxAttempts) {
+        EndpointStats stats = endpointStats.computeIfAbsent(endpoint, name -> new EndpointStats());
+        return new Exchange(endpoint, stats, circuitBreaker, client, request, bodyReader, maxAttempts).start();
+    }
+
+    private Request post(HttpUrl url, int schemaVersion, Object body) {
+        byte[] json = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header(SCHEMA_HEADER, Integer.toString(schemaVersion))
+                // Stays the same across retries of this write
+                .header(IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString());
+
+        if (schemaVersion == TileWireFormat.V2 && json.length >= MIN_COMPRESS_BYTES) {
+            request.header("Content-Encoding", "gzip");
+            json = gzip(json);
+        }
+        return request.post(RequestBody.create(JSON, json)).build();
+    }
+
+    /***
+     * @return The URL of the endpoint on the configured backend, null if the configured URL is invalid.
+     */
+    private HttpUrl url(String endpoint) {
+        String base = Strings.nullToEmpty(config.backendUrl()).trim();
+        if (base.isEmpty()) {
+            base = TilemanModePlugin.DATABASE_URL;
+        } else if (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        return HttpUrl.parse(base + endpoint);
+    }
+
+    private static CompletableFuture<SyncResponse> invalidUrl() {
+        CompletableFuture<SyncResponse> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException("Invalid backend URL"));
+        return future;
+    }
+
+    private static String path(int schemaVersion, String endpoint) {
+        return schemaVersion == TileWireFormat.V2 ? "/v2" + endpoint : endpoint;
+    }
+
+    private static long parseVersion(String version) {
+        if (Strings.isNullOrEmpty(version)) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /***
+     * Responses worth retrying, which also count against the circuit breaker. 501 is a backend without the
+     * endpoint, not a failing one.
+     */
+    private static boolean isRetryable(int code) {
+        return code == 429 || (code >= 500 && code != 501);
+    }
+
+    /***
+     * One request to the backend, through all of its attempts.
+     */
+    private final class Exchange implements Callback {
+        private final String endpoint;
+        private final EndpointStats stats;
+        private final CircuitBreaker breaker;
+        private final OkHttpClient client;
+        private final Request request;
+        private final BodyReader bodyReader;
+        private final int maxAttempts;
+        private final CompletableFuture<SyncResponse> future = new CompletableFuture<>();
+        private final long startedAt = System.currentTimeMillis();
+        private volatile Call call;
+        private volatile int attempt;
+
+        /***
+         * @param breaker Null if the request isn't guarded by the circuit breaker.
+         */
+        private Exchange(String endpoint, EndpointStats stats, CircuitBreaker breaker, OkHttpClient client,
+                         Request request, BodyReader bodyReader, int maxAttempts) {
+            this.endpoint = endpoint;
+            this.stats = stats;
+            this.breaker = breaker;
+            this.client = client;
+            this.request = request;
+            this.bodyReader = bodyReader;
+            this.maxAttempts = maxAttempts;
+        }
+
+        private CompletableFuture<SyncResponse> start() {
+            future.whenComplete((response, error) -> {
+                if (future.isCancelled()) {
+                    Call current = call;
+                    if (current != null) {
+                        current.cancel();
+                    }
+                    return;
+                }
+
+                long latency = System.currentTimeMillis() - startedAt;
+                stats.record(latency, error != null || isRetryable(response.getCode()));
+                log.debug("{} took {}ms, {}", endpoint, latency, stats);
+            });
+            execute();
+            return future;
+        }
+
+        private void execute() {
+            if (future.isDone()) {
+                return;
+            }
+            if (breaker != null && !breaker.allowRequest(System.currentTimeMillis())) {
+                future.completeExceptionally(new IOException("Backend is failing, requests are paused"));
+                return;
+            }
+
+            attempt++;
+            call = client.newCall(request);
+            call.enqueue(this);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            if (call.isCanceled()) {
+                // Neither a success nor a failure of the backend
+                if (breaker != null) {
+                    breaker.released();
+                }
+                future.completeExceptionally(e);
+                return;
+            }
+
+            failed();
+            if (!retry()) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try (ResponseBody body = response.body()) {
+                if (isRetryable(response.code())) {
+                    failed();
+                    if (retry()) {
+                        return;
+                    }
+                } else if (breaker != null && breaker.succeeded()) {
+                    log.info("Backend is responding again, resuming requests ({} were paused)",
+                            breaker.getRejectedCount());
+                }
+
+                if (bodyReader != null && response.isSuccessful() && body != null) {
+                    bodyReader.read(body.charStream());
+                }
+                future.complete(new SyncResponse(response.code(), response.header("ETag"),
+                        parseVersion(response.header(GROUP_VERSION_HEADER))));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        private void failed() {
+            if (breaker != null && breaker.failed(System.currentTimeMillis())) {
+                log.warn("Backend keeps failing, pausing requests for {}s", CircuitBreaker.OPEN_MILLIS / 1000);
+            }
+        }
+
+        /***
+         * @return Whether another attempt was scheduled.
+         */
+        private boolean retry() {
+            if (attempt >= maxAttempts || future.isDone()) {
+                return false;
+            }
+
+            stats.retried();
+            long delay = RETRY_DELAY_MILLIS << (attempt - 1);
+            // Jitter keeps clients that failed together from retrying together
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            executor.schedule(this::execute, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/***
+ * Takes the other members' tiles, which earlier versions merged into the stored tiles, out of them now that they are
+ * kept in {@link TileLayers}. Only tiles a member's layer already holds are taken out, the rest stay until a later
+ * pull brought them, and the migration is done once none are left.
+ * <p>
+ * Taken out tiles are set aside per member instead of deleted. The stored tiles belong to the RuneLite profile, not
+ * the account, so a "member" may well be another account of the same player, which gets its tiles back the next time
+ * it logs in (see {@link #restore}) before it uploads anything.
+ * <p>
+ * Not thread safe, {@link DatabaseIntegrationManager} serializes access.
+ */
+final class MemberTileMigration {
+    // Set once the stored tiles only hold the local player's own
+    static final String DONE_KEY = "memberLayers";
+    // The tiles set aside for a member, by region key, as in an export
+    static final String SET_ASIDE_PREFIX = "memberTiles_";
+
+    private static final Type TILES_TYPE = new TypeToken<List<TilemanModeTile>>() {}.getType();
+
+    /***
+     * The stored tiles and settings, keys without the config group.
+     */
+    interface Store {
+        List<String> regionKeys();
+
+        String read(String key);
+
+        /***
+         * @param value The new value, null to unset the key.
+         */
+        void write(String key, String value);
+    }
+
+    private final Gson gson;
+    private final Store store;
+
+    MemberTileMigration(Gson gson, Store store) {
+        this.gson = gson;
+        this.store = store;
+    }
+
+    boolean isDone() {
+        return Boolean.parseBoolean(store.read(DONE_KEY));
+    }
+
+    /***
+     * Sets aside the stored tiles of the given members that their layers hold.
+     *
+     * @param members The group's members other than the local player.
+     * @return The number of tiles set aside.
+     */
+    int split(Set<String> members, TileLayers layers) {
+        if (isDone() || members.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, TreeMap<String, List<TilemanModeTile>>> setAside = new HashMap<>();
+        boolean left = false;
+        int count = 0;
+        for (String regionKey : store.regionKeys()) {
+            List<TilemanModeTile> tiles = readTiles(regionKey);
+            List<TilemanModeTile> kept = new ArrayList<>(tiles.size());
+            for (TilemanModeTile tile : tiles) {
+                String owner = tile.getPlayerName();
+                if (owner == null || !members.contains(owner)) {
+                    kept.add(tile);
+                } else if (layers.contains(owner, TileKeys.pack(tile))) {
+                    setAside.computeIfAbsent(owner, name -> new TreeMap<>())
+                            .computeIfAbsent(regionKey, key -> new ArrayList<>()).add(tile);
+                    count++;
+                } else {
+                    kept.add(tile);
+                    left = true;
+                }
+            }
+
+            if (kept.size() < tiles.size()) {
+                writeTiles(regionKey, kept);
+            }
+        }
+
+        for (Map.Entry<String, TreeMap<String, List<TilemanModeTile>>> member : setAside.entrySet()) {
+            GroupTiles previous = readSetAside(member.getKey());
+            if (previous != null) {
+                merge(member.getValue(), previous.getRegionTiles());
+            }
+            store.write(SET_ASIDE_PREFIX + member.getKey(), gson.toJson(new GroupTiles(member.getKey(), member.getValue())));
+        }
+        if (!left) {
+            store.write(DONE_KEY, "true");
+        }
+        return count;
+    }
+
+    /***
+     * Puts the tiles set aside for the player back into the stored tiles, e.g. when another account of the same
+     * profile logs in.
+     *
+     * @return The number of tiles put back that weren't stored already.
+     */
+    int restore(String playerName) {
+        GroupTiles setAside = readSetAside(playerName);
+        if (setAside == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (Map.Entry<String, List<TilemanModeTile>> region : setAside.getRegionTiles().entrySet()) {
+            List<TilemanModeTile> tiles = readTiles(region.getKey());
+            TileKeySet keys = new TileKeySet();
+            for (TilemanModeTile tile : tiles) {
+                keys.add(TileKeys.pack(tile));
+            }
+
+            int size = tiles.size();
+            for (TilemanModeTile tile : region.getValue()) {
+                if (keys.add(TileKeys.pack(tile))) {
+                    tiles.add(tile);
+                }
+            }
+            if (tiles.size() > size) {
+                writeTiles(region.getKey(), tiles);
+                count += tiles.size() - size;
+            }
+        }
+        store.write(SET_ASIDE_PREFIX + playerName, null);
+        return count;
+    }
+
+    private GroupTiles readSetAside(String member) {
+        String json = store.read(SET_ASIDE_PREFIX + member);
+        GroupTiles tiles = Strings.isNullOrEmpty(json) ? null : gson.fromJson(json, GroupTiles.class);
+        return tiles == null || tiles.getRegionTiles() == null ? null : tiles;
+    }
+
+    private List<TilemanModeTile> readTiles(String regionKey) {
+        String json = store.read(regionKey);
+        List<TilemanModeTile> tiles = Strings.isNullOrEmpty(json) ? null : gson.fromJson(json, TILES_TYPE);
+        return tiles == null ? new ArrayList<>() : tiles;
+    }
+
+    private void writeTiles(String regionKey, List<TilemanModeTile> tiles) {
+        store.write(regionKey, tiles.isEmpty() ? null : gson.toJson(tiles));
+    }
+
+    private static void merge(Map<String, List<TilemanModeTile>> into, Map<String, List<TilemanModeTile>> from) {
+        for (Map.Entry<String, List<TilemanModeTile>> region : from.entrySet()) {
+            List<TilemanModeTile> tiles = into.computeIfAbsent(region.getKey(), key -> new ArrayList<>());
+            TileKeySet keys = new TileKeySet();
+            for (TilemanModeTile tile : tiles) {
+                keys.add(TileKeys.pack(tile));
+            }
+            for (TilemanModeTile tile : region.getValue()) {
+                if (keys.add(TileKeys.pack(tile))) {
+                    tiles.add(tile);
+                }
+            }
+        }
+    }
+}
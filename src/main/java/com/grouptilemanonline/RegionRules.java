@@ -0,0 +1,125 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * Compiles the bundled region rules and the ones entered in the config into a lookup table indexed by region id.
+ * Every check made from the game tick is then a single array read, with no boxing or allocation.
+ */
+@Slf4j
+@Singleton
+class RegionRules {
+    // Tiles are never auto-marked in these regions, e.g. Tutorial Island
+    static final byte EXCLUDED = 1;
+    // Tiles in these regions do not count towards the tiles used
+    static final byte FREE = 1 << 1;
+    // Instance template regions, e.g. the Player Owned House
+    static final byte INSTANCE = 1 << 2;
+
+    private static final int REGION_COUNT = 1 << 16;
+    private static final String BUNDLED_RULES = "/region_rules.json";
+
+    private final Gson gson;
+
+    private volatile byte[] table = new byte[REGION_COUNT];
+
+    @Inject
+    RegionRules(Gson gson) {
+        this.gson = gson;
+    }
+
+    void compile(TilemanModeConfig config) {
+        byte[] compiled = new byte[REGION_COUNT];
+
+        RuleSet bundled = loadBundledRules();
+        if (bundled != null) {
+            apply(compiled, bundled.excluded, EXCLUDED);
+            apply(compiled, bundled.free, FREE);
+            apply(compiled, bundled.instance, INSTANCE);
+        }
+
+        apply(compiled, parseRegionIds(config.excludedRegions()), EXCLUDED);
+        apply(compiled, parseRegionIds(config.freeRegions()), FREE);
+
+        table = compiled;
+    }
+
+    boolean isAutoMarkBlocked(int regionId) {
+        return (table[regionId & (REGION_COUNT - 1)] & (EXCLUDED | INSTANCE)) != 0;
+    }
+
+    boolean isFree(int regionId) {
+        return (table[regionId & (REGION_COUNT - 1)] & FREE) != 0;
+    }
+
+    private RuleSet loadBundledRules() {
+        InputStream in = RegionRules.class.getResourceAsStream(BUNDLED_RULES);
+        if (in == null) {
+            log.warn("Missing bundled region rules {}", BUNDLED_RULES);
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, RuleSet.class);
+        } catch (IOException | JsonParseException e) {
+            log.warn("Unable to read bundled region rules", e);
+            return null;
+        }
+    }
+
+    private static void apply(byte[] compiled, int[] regionIds, byte rule) {
+        if (regionIds == null) {
+            return;
+        }
+
+        for (int regionId : regionIds) {
+            if (regionId >= 0 && regionId < REGION_COUNT) {
+                compiled[regionId] |= rule;
+            }
+        }
+    }
+
+    static int[] parseRegionIds(String value) {
+        if (Strings.isNullOrEmpty(value)) {
+            return new int[0];
+        }
+
+        String[] parts = value.split(",");
+        int[] regionIds = new int[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            try {
+                int regionId = Integer.parseInt(trimmed);
+                regionIds[count++] = regionId;
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid region id {}", trimmed);
+            }
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(regionIds, 0, result, 0, count);
+        return result;
+    }
+
+    private static class RuleSet {
+        int[] excluded;
+        int[] free;
+        int[] instance;
+    }
+}
@@ -0,0 +1,22 @@
+package com.grouptilemanonline;
+
+import lombok.Value;
+
+/***
+ * The tiles of one region in the v2 wire schema. Exactly one of tiles and bitmap is set.
+ */
+@Value
+public class RegionTiles {
+    int id;
+
+    // Sorted positions inside the region, the low bits of a TileKeys key
+    int[] tiles;
+
+    // Base64 of a bitset indexed by the same positions, used when it is smaller than the list
+    String bitmap;
+
+    // The tag of every tile, in the order of the positions, run-length encoded as tag, count pairs. A tile's tag is
+    // the member's version when the backend added it, so marking a tile again always gives it a higher tag. Null when
+    // the backend doesn't tag tiles, which counts as tag 0 for every tile.
+    long[] tags;
+}
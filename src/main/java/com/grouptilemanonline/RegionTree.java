@@ -0,0 +1,70 @@
+package com.grouptilemanonline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * A Merkle tree over a member's tiles with regions as leaves, used to find the regions the client and the backend
+ * disagree on without sending either side's tiles. The shape is fixed by the region id alone: every level splits the
+ * 16 bit region ids by 4 more bits, so both sides build the same tree whichever regions they have, and comparing
+ * children top-down narrows a difference down to its regions in {@link #LEAF_LEVEL} round trips.
+ * <p>
+ * A node's hash is the {@link TileFingerprint} of every tile below it, 0 if there are none. Fingerprints are sums,
+ * so a node is built by adding up its tiles rather than hashing its children.
+ */
+final class RegionTree {
+    static final int FANOUT_BITS = 4;
+    static final int FANOUT = 1 << FANOUT_BITS;
+    static final int LEAF_LEVEL = 16 / FANOUT_BITS;
+
+    // The nodes of every level below the root by their id, the leaves are regions
+    private final List<Map<Integer, TileFingerprint>> levels = new ArrayList<>(LEAF_LEVEL + 1);
+
+    RegionTree() {
+        for (int level = 0; level <= LEAF_LEVEL; level++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    void add(int key) {
+        int regionId = TileKeys.regionId(key);
+        for (int level = 0; level <= LEAF_LEVEL; level++) {
+            levels.get(level).computeIfAbsent(nodeOf(regionId, level), node -> new TileFingerprint()).add(key);
+        }
+    }
+
+    void addAll(int[] keys) {
+        for (int key : keys) {
+            add(key);
+        }
+    }
+
+    long hash(int level, int node) {
+        TileFingerprint fingerprint = levels.get(level).get(node);
+        return fingerprint == null ? 0 : fingerprint.value();
+    }
+
+    /***
+     * @return The hashes of the node's children on the next level, by their index below the node.
+     */
+    long[] children(int level, int node) {
+        long[] hashes = new long[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            hashes[i] = hash(level + 1, child(node, i));
+        }
+        return hashes;
+    }
+
+    /***
+     * @return The id of the node on the given level the region belongs to, level 0 being the root.
+     */
+    static int nodeOf(int regionId, int level) {
+        return regionId >>> (FANOUT_BITS * (LEAF_LEVEL - level));
+    }
+
+    static int child(int node, int index) {
+        return node << FANOUT_BITS | index;
+    }
+}
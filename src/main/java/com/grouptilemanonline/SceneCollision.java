@@ -0,0 +1,103 @@
+package com.grouptilemanonline;
+
+import net.runelite.api.CollisionDataFlag;
+
+/***
+ * Helpers for reading the collision flags of one plane of the scene, indexed as {@code flags[sceneX][sceneY]}.
+ */
+final class SceneCollision {
+    // Same flags as TilemanModePlugin's fullBlock, a tile with any of these can't be stood on
+    private static final int BLOCKED = CollisionDataFlag.BLOCK_MOVEMENT_FLOOR
+            | CollisionDataFlag.BLOCK_MOVEMENT_FLOOR_DECORATION
+            | CollisionDataFlag.BLOCK_MOVEMENT_OBJECT
+            | CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+
+    private SceneCollision() {
+    }
+
+    static boolean isWalkable(int[][] flags, int sceneX, int sceneY) {
+        return SceneTileMask.inScene(sceneX, sceneY) && (flags[sceneX][sceneY] & BLOCKED) == 0;
+    }
+
+    static SceneTileMask walkableMask(int[][] flags, SceneTileMask out) {
+        out.clear();
+        for (int x = 0; x < SceneTileMask.SIZE; x++) {
+            for (int y = 0; y < SceneTileMask.SIZE; y++) {
+                if ((flags[x][y] & BLOCKED) == 0) {
+                    out.set(SceneTileMask.index(x, y));
+                }
+            }
+        }
+        return out;
+    }
+
+    /***
+     * @return Whether a single step of (dx, dy), each -1, 0 or 1, can be taken from the given tile.
+     */
+    static boolean canStep(int[][] flags, int sceneX, int sceneY, int dx, int dy) {
+        int toX = sceneX + dx;
+        int toY = sceneY + dy;
+        if (!isWalkable(flags, toX, toY)) {
+            return false;
+        }
+
+        if (dx != 0 && dy != 0) {
+            // Diagonal steps need both of the orthogonal routes around the corner to be open
+            return canStep(flags, sceneX, sceneY, dx, 0) && canStep(flags, sceneX, sceneY, 0, dy)
+                    && canStep(flags, sceneX + dx, sceneY, 0, dy) && canStep(flags, sceneX, sceneY + dy, dx, 0);
+        }
+
+        int from = flags[sceneX][sceneY];
+        int to = flags[toX][toY];
+        if (dx == 1) {
+            return (from & CollisionDataFlag.BLOCK_MOVEMENT_EAST) == 0 && (to & CollisionDataFlag.BLOCK_MOVEMENT_WEST) == 0;
+        } else if (dx == -1) {
+            return (from & CollisionDataFlag.BLOCK_MOVEMENT_WEST) == 0 && (to & CollisionDataFlag.BLOCK_MOVEMENT_EAST) == 0;
+        } else if (dy == 1) {
+            return (from & CollisionDataFlag.BLOCK_MOVEMENT_NORTH) == 0 && (to & CollisionDataFlag.BLOCK_MOVEMENT_SOUTH) == 0;
+        } else if (dy == -1) {
+            return (from & CollisionDataFlag.BLOCK_MOVEMENT_SOUTH) == 0 && (to & CollisionDataFlag.BLOCK_MOVEMENT_NORTH) == 0;
+        }
+        return true;
+    }
+
+    /***
+     * Flood fills the walkable tiles reachable from the start tile without leaving the given radius.
+     */
+    static SceneTileMask floodFill(int[][] flags, int startX, int startY, int radius, SceneTileMask out) {
+        out.clear();
+        if (!isWalkable(flags, startX, startY)) {
+            return out;
+        }
+
+        int[] queue = new int[SceneTileMask.TILE_COUNT];
+        int head = 0;
+        int tail = 0;
+        int start = SceneTileMask.index(startX, startY);
+        out.set(start);
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int index = queue[head++];
+            int x = SceneTileMask.sceneX(index);
+            int y = SceneTileMask.sceneY(index);
+            for (int direction = 0; direction < 4; direction++) {
+                int dx = direction == 0 ? 1 : direction == 1 ? -1 : 0;
+                int dy = direction == 2 ? 1 : direction == 3 ? -1 : 0;
+                int toX = x + dx;
+                int toY = y + dy;
+                if (Math.abs(toX - startX) > radius || Math.abs(toY - startY) > radius
+                        || !canStep(flags, x, y, dx, dy)) {
+                    continue;
+                }
+
+                int next = SceneTileMask.index(toX, toY);
+                if (!out.get(next)) {
+                    out.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,42 @@
+package com.grouptilemanonline;
+
+/***
+ * Per plane bitmaps of the loaded scene, rebuilt together whenever the scene or the unlocked tiles change.
+ * Once built the masks are never modified, so they can be read from any thread.
+ */
+final class SceneMasks {
+    static final int PLANES = 4;
+
+    private final SceneTileMask[] walkable = new SceneTileMask[PLANES];
+    private final SceneTileMask[] unlocked = new SceneTileMask[PLANES];
+    private final SceneTileMask[] locked = new SceneTileMask[PLANES];
+
+    SceneMasks() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            walkable[plane] = new SceneTileMask();
+            unlocked[plane] = new SceneTileMask();
+            locked[plane] = new SceneTileMask();
+        }
+    }
+
+    // Tiles that can be stood on according to the collision map
+    SceneTileMask walkable(int plane) {
+        return walkable[plane];
+    }
+
+    // Tiles unlocked by the player or their group
+    SceneTileMask unlocked(int plane) {
+        return unlocked[plane];
+    }
+
+    // Walkable tiles that are not unlocked yet
+    SceneTileMask locked(int plane) {
+        return locked[plane];
+    }
+
+    void updateLocked() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            locked[plane].copyFrom(walkable[plane]).andNot(unlocked[plane]);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.grouptilemanonline;
+
+import java.util.Arrays;
+
+/***
+ * A bitmap over one plane of the loaded scene, one bit per tile. Tiles are indexed by {@code y * SIZE + x}
+ * using scene coordinates, so whole-scene set operations only touch a couple of hundred longs.
+ */
+final class SceneTileMask {
+    static final int SIZE = 104;
+    static final int TILE_COUNT = SIZE * SIZE;
+
+    private final long[] words = new long[(TILE_COUNT + 63) >>> 6];
+
+    static int index(int sceneX, int sceneY) {
+        return sceneY * SIZE + sceneX;
+    }
+
+    static int sceneX(int index) {
+        return index % SIZE;
+    }
+
+    static int sceneY(int index) {
+        return index / SIZE;
+    }
+
+    static boolean inScene(int sceneX, int sceneY) {
+        return sceneX >= 0 && sceneY >= 0 && sceneX < SIZE && sceneY < SIZE;
+    }
+
+    boolean get(int sceneX, int sceneY) {
+        return inScene(sceneX, sceneY) && get(index(sceneX, sceneY));
+    }
+
+    boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    void set(int sceneX, int sceneY) {
+        if (inScene(sceneX, sceneY)) {
+            set(index(sceneX, sceneY));
+        }
+    }
+
+    void set(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    void clear(int index) {
+        words[index >>> 6] &= ~(1L << index);
+    }
+
+    void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    /***
+     * Sets every tile in the rectangle spanned by the two corners (inclusive), clamped to the scene.
+     */
+    void fillRect(int x1, int y1, int x2, int y2) {
+        int minX = Math.max(0, Math.min(x1, x2));
+        int maxX = Math.min(SIZE - 1, Math.max(x1, x2));
+        int minY = Math.max(0, Math.min(y1, y2));
+        int maxY = Math.min(SIZE - 1, Math.max(y1, y2));
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                set(index(x, y));
+            }
+        }
+    }
+
+    SceneTileMask copyFrom(SceneTileMask other) {
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        return this;
+    }
+
+    SceneTileMask and(SceneTileMask other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+        return this;
+    }
+
+    SceneTileMask andNot(SceneTileMask other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+        return this;
+    }
+
+    SceneTileMask or(SceneTileMask other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        return this;
+    }
+
+    int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***
+     * @return The index of the first set tile at or after fromIndex, or -1 if there is none.
+     */
+    int nextSetBit(int fromIndex) {
+        int wordIndex = fromIndex >>> 6;
+        if (wordIndex >= words.length) {
+            return -1;
+        }
+
+        long word = words[wordIndex] & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                int index = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                return index < TILE_COUNT ? index : -1;
+            }
+            if (++wordIndex == words.length) {
+                return -1;
+            }
+            word = words[wordIndex];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.grouptilemanonline;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * The backend group tiles are synced through. Every call is asynchronous: the returned future completes with the
+ * backend's response, or exceptionally when the backend couldn't be reached. Cancelling the future cancels the request.
+ */
+interface SyncBackend {
+    /***
+     * Replaces the player's tiles with a full snapshot, an {@link AddTilesObject} or {@link AddTilesV2Object}.
+     */
+    CompletableFuture<SyncResponse> addTiles(int schemaVersion, Object snapshot);
+
+    CompletableFuture<SyncResponse> addTilesDelta(int schemaVersion, AddTilesDeltaObject delta);
+
+    /***
+     * Replaces the player's tiles in some regions and keeps the rest, schema v2 only. Backends that don't have the
+     * player answer 404.
+     */
+    CompletableFuture<SyncResponse> addTileRegions(AddTileRegionsObject regions);
+
+    /***
+     * Stages one chunk of a snapshot too large for a single request, schema v2 only. Backends without upload sessions
+     * answer 404.
+     */
+    CompletableFuture<SyncResponse> uploadChunk(UploadChunkObject chunk);
+
+    /***
+     * Replaces the player's tiles with the chunks staged in the session, all at once. Backends missing some of the
+     * chunks, e.g. because the session expired, answer 409.
+     */
+    CompletableFuture<SyncResponse> commitUpload(CommitUploadObject commit);
+
+    /***
+     * Reads the children of nodes of a member's {@link RegionTree}, schema v2 only. The body is a JSON object with
+     * the hashes of each node's children, as unsigned hex strings, by the node's id. Backends without region trees
+     * or without the member answer 404.
+     *
+     * @param level The level of the nodes, 0 for the root.
+     */
+    CompletableFuture<SyncResponse> getRegionTree(String groupJoinCode, String username, int level, List<Integer> nodes,
+                                                  BodyReader bodyReader);
+
+    /***
+     * @param since Only members changed after this group version are sent, 0 for all of them.
+     * @param etag ETag of the last pull or null, the backend answers 304 if nothing changed since.
+     * @param regionIds Only the members' tiles in these regions are sent, null for all of them. Schema v2 only, see
+     *                  {@link GroupTilesReader} for the response. Backends without subscriptions send every region.
+     * @param bodyReader Reads a successful response body before the future completes.
+     */
+    CompletableFuture<SyncResponse> getGroupTiles(int schemaVersion, String groupJoinCode, long since, String etag,
+                                                  Collection<Integer> regionIds, BodyReader bodyReader);
+
+    CompletableFuture<SyncResponse> leaveGroup(LeaveGroupObject leave);
+
+    /***
+     * Waits for the group to change. Answers 200 with the new group version as soon as the group's version passes
+     * since, or 204 after holding the request for about holdSeconds without a change. Backends without push support
+     * answer 404.
+     */
+    CompletableFuture<SyncResponse> watchGroup(String groupJoinCode, long since, int holdSeconds);
+
+    interface BodyReader {
+        void read(Reader body) throws IOException;
+    }
+}
@@ -0,0 +1,18 @@
+package com.grouptilemanonline;
+
+import lombok.Value;
+
+@Value
+public class SyncResponse {
+    int code;
+
+    // ETag of a GetGroupTiles response, null otherwise
+    String etag;
+
+    // Group version watermark of a GetGroupTiles response, 0 if the backend doesn't version groups
+    long groupVersion;
+
+    boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+}
@@ -0,0 +1,110 @@
+package com.grouptilemanonline;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/***
+ * Applies a {@link TileChangeBatch} to the stored tiles, reading and writing each affected region once. The changes
+ * are recorded with the {@link TileUploader}, so the whole batch goes up with the next upload.
+ * <p>
+ * Runs on the client thread.
+ */
+final class TileChangeApplier {
+    /***
+     * The local player's stored tiles.
+     */
+    interface Store {
+        Collection<TilemanModeTile> getLocalTiles(int regionId);
+
+        void savePoints(int regionId, Collection<TilemanModeTile> tiles);
+    }
+
+    private final Store store;
+    private final TileLayers tileLayers;
+    private final TileOrSet tileOrSet;
+    private final TileUploader tileUploader;
+    private final TileHistory history;
+
+    TileChangeApplier(Store store, TileLayers tileLayers, TileOrSet tileOrSet, TileUploader tileUploader,
+                      TileHistory history) {
+        this.store = store;
+        this.tileLayers = tileLayers;
+        this.tileOrSet = tileOrSet;
+        this.tileUploader = tileUploader;
+        this.history = history;
+    }
+
+    /***
+     * @param budget The number of tiles that can still be marked, unmarking one of the player's own tiles refunds it.
+     * @param allowDeficit Whether tiles can be marked beyond the budget.
+     * @param recordHistory Whether the changes can be undone, false when applying an undo or redo.
+     * @param observedRegions Filled with the regions whose observed tiles of other members changed.
+     * @return The number of tiles that were actually marked or unmarked.
+     */
+    int apply(TileChangeBatch batch, int budget, boolean allowDeficit, boolean recordHistory,
+              Set<Integer> observedRegions) {
+        int changed = 0;
+        for (int regionId : batch.getRegionIds()) {
+            List<TilemanModeTile> regionTiles = new ArrayList<>(store.getLocalTiles(regionId));
+
+            // Tiles anyone in the group marked in the region and the local player's own, indexed by their position
+            // inside the region
+            BitSet present = new BitSet(TileKeys.LOCAL_MASK + 1);
+            for (TilemanModeTile tile : tileLayers.compose(regionId, regionTiles)) {
+                present.set(TileKeys.pack(tile) & TileKeys.LOCAL_MASK);
+            }
+            BitSet own = new BitSet(TileKeys.LOCAL_MASK + 1);
+            for (TilemanModeTile tile : regionTiles) {
+                own.set(TileKeys.pack(tile) & TileKeys.LOCAL_MASK);
+            }
+
+            BitSet removed = new BitSet(TileKeys.LOCAL_MASK + 1);
+            for (TilemanModeTile tile : batch.getUnmarked(regionId)) {
+                int key = TileKeys.pack(tile);
+                int local = key & TileKeys.LOCAL_MASK;
+                if (!present.get(local)) {
+                    continue;
+                }
+                present.clear(local);
+                if (tileOrSet.removeObserved(key)) {
+                    observedRegions.add(regionId);
+                }
+                // Only the player's own tiles are unmarked, uploaded and refunded here
+                if (own.get(local)) {
+                    removed.set(local);
+                    budget++;
+                    tileUploader.recordUnmark(key);
+                    if (recordHistory) {
+                        history.record(key, false);
+                    }
+                }
+            }
+            // Other members' tiles are left to their layers, which drop them as the tombstones were added
+            boolean regionChanged = regionTiles.removeIf(tile -> removed.get(TileKeys.pack(tile) & TileKeys.LOCAL_MASK));
+            changed += removed.cardinality();
+
+            for (TilemanModeTile tile : batch.getMarked(regionId)) {
+                int local = TileKeys.pack(tile) & TileKeys.LOCAL_MASK;
+                if (!present.get(local) && (allowDeficit || budget > 0)) {
+                    present.set(local);
+                    regionTiles.add(tile);
+                    budget--;
+                    changed++;
+                    regionChanged = true;
+                    tileUploader.recordMark(TileKeys.pack(tile));
+                    if (recordHistory) {
+                        history.record(TileKeys.pack(tile), true);
+                    }
+                }
+            }
+
+            if (regionChanged) {
+                store.savePoints(regionId, regionTiles);
+            }
+        }
+        return changed;
+    }
+}
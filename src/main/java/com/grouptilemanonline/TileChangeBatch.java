@@ -0,0 +1,64 @@
+package com.grouptilemanonline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/***
+ * Tile marks and unmarks grouped by region, so that applying the batch reads and writes each region once
+ * and only triggers a single upload. If the same tile is changed more than once the last change wins.
+ */
+class TileChangeBatch {
+    private final TreeMap<Integer, RegionChanges> regions = new TreeMap<>();
+
+    void mark(TilemanModeTile tile) {
+        int local = TileKeys.pack(tile) & TileKeys.LOCAL_MASK;
+        RegionChanges changes = regionChanges(tile.getRegionId());
+        changes.unmarked.remove(local);
+        changes.marked.put(local, tile);
+    }
+
+    void unmark(TilemanModeTile tile) {
+        int local = TileKeys.pack(tile) & TileKeys.LOCAL_MASK;
+        RegionChanges changes = regionChanges(tile.getRegionId());
+        changes.marked.remove(local);
+        changes.unmarked.put(local, tile);
+    }
+
+    Set<Integer> getRegionIds() {
+        return regions.keySet();
+    }
+
+    Collection<TilemanModeTile> getMarked(int regionId) {
+        RegionChanges changes = regions.get(regionId);
+        return changes == null ? new ArrayList<>() : changes.marked.values();
+    }
+
+    Collection<TilemanModeTile> getUnmarked(int regionId) {
+        RegionChanges changes = regions.get(regionId);
+        return changes == null ? new ArrayList<>() : changes.unmarked.values();
+    }
+
+    int size() {
+        int size = 0;
+        for (RegionChanges changes : regions.values()) {
+            size += changes.marked.size() + changes.unmarked.size();
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private RegionChanges regionChanges(int regionId) {
+        return regions.computeIfAbsent(regionId, id -> new RegionChanges());
+    }
+
+    private static class RegionChanges {
+        private final LinkedHashMap<Integer, TilemanModeTile> marked = new LinkedHashMap<>();
+        private final LinkedHashMap<Integer, TilemanModeTile> unmarked = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,14 @@
+package com.grouptilemanonline;
+
+import lombok.Value;
+
+/***
+ * Packed tile keys (see {@link TileKeys}) added and removed by a player between two sequence numbers.
+ */
+@Value
+public class TileDelta {
+    long baseSeq;
+    long seq;
+    int[] added;
+    int[] removed;
+}
@@ -0,0 +1,122 @@
+package com.grouptilemanonline;
+
+/***
+ * Tracks the local player's tiles added and removed since the last upload, together with the sequence number
+ * the backend is expected to hold for the player. Each delta moves the sequence number on by one. When an upload
+ * fails or the backend reports a different sequence number the tracker falls back to a full snapshot.
+ * <p>
+ * Called from the client thread and from OkHttp callbacks, so every method is synchronized.
+ */
+final class TileDeltaTracker {
+    private final TileKeySet added = new TileKeySet();
+    private final TileKeySet removed = new TileKeySet();
+
+    // The sequence number of the last delta or snapshot sent
+    private long lastSeq;
+    private boolean snapshotNeeded = true;
+
+    synchronized void recordMark(int key) {
+        removed.remove(key);
+        added.add(key);
+    }
+
+    synchronized void recordUnmark(int key) {
+        added.remove(key);
+        removed.add(key);
+    }
+
+    synchronized boolean needsSnapshot() {
+        return snapshotNeeded;
+    }
+
+    synchronized boolean hasPendingChanges() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+
+    synchronized int pendingCount() {
+        return added.size() + removed.size();
+    }
+
+    synchronized boolean isPendingMark(int key) {
+        return added.contains(key);
+    }
+
+    synchronized int[] pendingAdded() {
+        return added.toArray();
+    }
+
+    synchronized int[] pendingRemoved() {
+        return removed.toArray();
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /***
+     * Continues from a sequence number the backend acknowledged earlier, e.g. in a previous session.
+     */
+    synchronized void resume(long seq) {
+        lastSeq = seq;
+        snapshotNeeded = false;
+    }
+
+    /***
+     * A snapshot contains every tile, so any pending changes are covered by it.
+     * @return The sequence number to send with the snapshot.
+     */
+    synchronized long beginSnapshot() {
+        added.clear();
+        removed.clear();
+        snapshotNeeded = false;
+        return ++lastSeq;
+    }
+
+    /***
+     * Takes the pending changes as the next delta, pending changes are empty afterwards.
+     */
+    synchronized TileDelta takeDelta() {
+        TileDelta delta = new TileDelta(lastSeq, lastSeq + 1, added.toArray(), removed.toArray());
+        lastSeq++;
+        added.clear();
+        removed.clear();
+        return delta;
+    }
+
+    /***
+     * The delta never reached the backend, put its changes back unless they were superseded since.
+     */
+    synchronized void restore(TileDelta delta) {
+        for (int key : delta.getAdded()) {
+            if (!removed.contains(key)) {
+                added.add(key);
+            }
+        }
+        for (int key : delta.getRemoved()) {
+            if (!added.contains(key)) {
+                removed.add(key);
+            }
+        }
+
+        if (lastSeq == delta.getSeq()) {
+            lastSeq = delta.getBaseSeq();
+        } else {
+            // A later delta was built on top of this one and will be rejected
+            snapshotNeeded = true;
+        }
+    }
+
+    /***
+     * The backend holds a different sequence number or lost a snapshot, only a full snapshot can fix it.
+     */
+    synchronized void diverged() {
+        snapshotNeeded = true;
+    }
+
+    synchronized void reset() {
+        added.clear();
+        removed.clear();
+        lastSeq = 0;
+        snapshotNeeded = true;
+    }
+}
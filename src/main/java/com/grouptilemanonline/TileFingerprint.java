@@ -0,0 +1,64 @@
+package com.grouptilemanonline;
+
+/***
+ * A 64-bit content hash of a set of packed tile keys (see {@link TileKeys}). Keys are mixed one at a time and summed,
+ * so the fingerprint doesn't depend on the order the backend sends tiles in, and fingerprints of disjoint sets can
+ * be added together, e.g. the regions of a member into the member's.
+ */
+final class TileFingerprint {
+    private long sum;
+    private int count;
+
+    static long of(int[] keys) {
+        TileFingerprint fingerprint = new TileFingerprint();
+        for (int key : keys) {
+            fingerprint.add(key);
+        }
+        return fingerprint.value();
+    }
+
+    void add(int key) {
+        sum += mix(key);
+        count++;
+    }
+
+    void addAll(int[] keys) {
+        for (int key : keys) {
+            add(key);
+        }
+    }
+
+    /***
+     * Adds every key of another fingerprint, e.g. of a region to the fingerprint of a larger area.
+     */
+    void add(TileFingerprint other) {
+        sum += other.sum;
+        count += other.count;
+    }
+
+    /***
+     * Adds the run-length encoded tags of the keys (see {@link RegionTiles}), so a tile marked again counts as a
+     * change even though its key is the same. Unlike keys the runs are ordered, so each is mixed with its index.
+     */
+    void addTags(long[] tagRuns) {
+        if (tagRuns == null) {
+            return;
+        }
+        for (int i = 0; i < tagRuns.length; i++) {
+            sum += mix(mix(i + 1) ^ tagRuns[i]);
+        }
+    }
+
+    long value() {
+        return mix(sum ^ ((long) count << 32 | count));
+    }
+
+    /***
+     * The finalizer of SplitMix64, spreads every input bit over the whole result.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,159 @@
+package com.grouptilemanonline;
+
+/***
+ * Undo/redo history of the local player's tile changes, kept in fixed size primitive ring buffers.
+ * Each entry is a packed tile key (see {@link TileKeys}) with the change in the low bit, tagged with the
+ * operation it belongs to so that a whole area mark is undone in one go. When the buffer is full the oldest
+ * operation is dropped.
+ * <p>
+ * The history belongs to one player in one group and is forgotten when either changes, so an undo never replays
+ * another account's changes.
+ */
+final class TileHistory {
+    private static final int OP_UNMARK = 0;
+    private static final int OP_MARK = 1;
+
+    private final int capacity;
+    private final int[] entries;
+    private final int[] operations;
+    private final long[] times;
+
+    // Absolute positions, the slot of a position is position % capacity
+    private long oldest;
+    private long undoEnd;
+    private long redoEnd;
+
+    private int currentOperation;
+    private long currentTime;
+
+    // The player and group the history belongs to
+    private String owner;
+
+    TileHistory(int capacity) {
+        this.capacity = capacity;
+        this.entries = new int[capacity];
+        this.operations = new int[capacity];
+        this.times = new long[capacity];
+    }
+
+    /***
+     * Switches to the given player and group, forgetting the history of the previous ones.
+     */
+    void useOwner(String playerName, String groupJoinCode) {
+        String newOwner = playerName + "\n" + groupJoinCode;
+        if (!newOwner.equals(owner)) {
+            owner = newOwner;
+            clear();
+        }
+    }
+
+    /***
+     * Starts a new operation, every change recorded until the next call is undone and redone together.
+     */
+    void beginOperation(long time) {
+        currentOperation++;
+        currentTime = time;
+    }
+
+    void record(int tileKey, boolean marked) {
+        // A new change makes anything that was undone unreachable
+        redoEnd = undoEnd;
+
+        if (undoEnd - oldest == capacity) {
+            dropOldestOperation();
+        }
+
+        int slot = slot(undoEnd);
+        entries[slot] = (tileKey << 1) | (marked ? OP_MARK : OP_UNMARK);
+        operations[slot] = currentOperation;
+        times[slot] = currentTime;
+        undoEnd++;
+        redoEnd = undoEnd;
+    }
+
+    boolean canUndo() {
+        return undoEnd > oldest;
+    }
+
+    boolean canRedo() {
+        return redoEnd > undoEnd;
+    }
+
+    /***
+     * Adds the inverse of the last count operations to the batch.
+     * @return The number of operations undone.
+     */
+    int undo(int count, TileChangeBatch batch, String playerName) {
+        int undone = 0;
+        while (undone < count && canUndo()) {
+            undoOperation(batch, playerName);
+            undone++;
+        }
+        return undone;
+    }
+
+    /***
+     * Adds the inverse of every operation made at or after the given time to the batch.
+     * @return The number of operations undone.
+     */
+    int undoSince(long time, TileChangeBatch batch, String playerName) {
+        int undone = 0;
+        while (canUndo() && times[slot(undoEnd - 1)] >= time) {
+            undoOperation(batch, playerName);
+            undone++;
+        }
+        return undone;
+    }
+
+    /***
+     * Adds the next count undone operations back to the batch.
+     * @return The number of operations redone.
+     */
+    int redo(int count, TileChangeBatch batch, String playerName) {
+        int redone = 0;
+        while (redone < count && canRedo()) {
+            int operation = operations[slot(undoEnd)];
+            while (undoEnd < redoEnd && operations[slot(undoEnd)] == operation) {
+                addChange(batch, entries[slot(undoEnd)], false, playerName);
+                undoEnd++;
+            }
+            redone++;
+        }
+        return redone;
+    }
+
+    void clear() {
+        oldest = 0;
+        undoEnd = 0;
+        redoEnd = 0;
+    }
+
+    private void undoOperation(TileChangeBatch batch, String playerName) {
+        int operation = operations[slot(undoEnd - 1)];
+        while (undoEnd > oldest && operations[slot(undoEnd - 1)] == operation) {
+            undoEnd--;
+            addChange(batch, entries[slot(undoEnd)], true, playerName);
+        }
+    }
+
+    private void dropOldestOperation() {
+        int operation = operations[slot(oldest)];
+        while (oldest < undoEnd && operations[slot(oldest)] == operation) {
+            oldest++;
+        }
+    }
+
+    private static void addChange(TileChangeBatch batch, int entry, boolean invert, String playerName) {
+        TilemanModeTile tile = TileKeys.toTile(entry >>> 1, playerName);
+        boolean marked = (entry & 1) == OP_MARK;
+        if (marked != invert) {
+            batch.mark(tile);
+        } else {
+            batch.unmark(tile);
+        }
+    }
+
+    private int slot(long position) {
+        return (int) (position % capacity);
+    }
+}
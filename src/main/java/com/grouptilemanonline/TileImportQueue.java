@@ -0,0 +1,100 @@
+package com.grouptilemanonline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/***
+ * Regions whose layers (see {@link TileLayers}) a large pull changed, applied a few at a time on the client thread
+ * instead of all at once in the pull's callback. Only the regions are queued, each is read from {@link TileOrSet}
+ * when it is applied, so a region that changes again while queued is applied once, as it is by then.
+ * <p>
+ * Filled from OkHttp callbacks and drained on the client thread, so every method is synchronized.
+ */
+final class TileImportQueue {
+    private final Set<Integer> pending = new HashSet<>();
+    // The pending regions by distance to the region they were sorted for, rebuilt when either changes
+    private Deque<Integer> order;
+    private int orderRegionId;
+
+    // Regions queued and applied since the queue was last empty
+    private int queued;
+    private int applied;
+
+    synchronized void add(Collection<Integer> regionIds) {
+        if (pending.isEmpty()) {
+            queued = 0;
+            applied = 0;
+        }
+        for (Integer regionId : regionIds) {
+            if (pending.add(regionId)) {
+                queued++;
+                order = null;
+            }
+        }
+    }
+
+    /***
+     * @return Up to max queued regions, those nearest to the given region first, empty if none are queued.
+     */
+    synchronized List<Integer> poll(int nearRegionId, int max) {
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (order == null || orderRegionId != nearRegionId) {
+            List<Integer> sorted = new ArrayList<>(pending);
+            sorted.sort(Comparator.comparingInt(regionId -> distance(regionId, nearRegionId)));
+            order = new ArrayDeque<>(sorted);
+            orderRegionId = nearRegionId;
+        }
+
+        List<Integer> regionIds = new ArrayList<>(Math.min(max, pending.size()));
+        while (regionIds.size() < max && !order.isEmpty()) {
+            Integer regionId = order.poll();
+            if (pending.remove(regionId)) {
+                regionIds.add(regionId);
+            }
+        }
+        applied += regionIds.size();
+        return regionIds;
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /***
+     * @return The regions applied since the queue was last empty.
+     */
+    synchronized int getApplied() {
+        return applied;
+    }
+
+    /***
+     * @return The regions queued since the queue was last empty.
+     */
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    synchronized void clear() {
+        pending.clear();
+        order = null;
+        queued = 0;
+        applied = 0;
+    }
+
+    /***
+     * @return The number of regions between two regions, diagonals count as one.
+     */
+    private static int distance(int regionId, int otherRegionId) {
+        return Math.max(Math.abs((regionId >> 8) - (otherRegionId >> 8)),
+                Math.abs((regionId & 0xff) - (otherRegionId & 0xff)));
+    }
+}
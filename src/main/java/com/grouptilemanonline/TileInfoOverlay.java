@@ -47,11 +47,13 @@ class TileInfoOverlay extends OverlayPanel {
     private final static String XP_UNTIL_NEXT_TILE = "XP Until Next Tile:";
     private final static String PERSONAL_UNLOCKED_TILES = "Your Tiles Unlocked:";
     private final static String GROUP_UNLOCKED_TILES = "Total Tiles Unlocked:";
+    private final static String NEAREST_UNLOCKED_TILE = "Nearest Unlocked Tile:";
     private final static String[] STRINGS = new String[] {
         UNSPENT_TILES_STRING,
         XP_UNTIL_NEXT_TILE,
         PERSONAL_UNLOCKED_TILES,
-        GROUP_UNLOCKED_TILES
+        GROUP_UNLOCKED_TILES,
+        NEAREST_UNLOCKED_TILE
     };
 
     @Inject
@@ -96,6 +98,15 @@ class TileInfoOverlay extends OverlayPanel {
                 .right(groupUnlockedTiles)
                 .build());
 
+        int nearestUnlockedDistance = plugin.getNearestUnlockedDistance();
+        if (config.showUnlockedGuidance() && nearestUnlockedDistance > 0
+                && nearestUnlockedDistance != UnlockedDistanceField.UNREACHABLE) {
+            panelComponent.getChildren().add(LineComponent.builder()
+                    .left(NEAREST_UNLOCKED_TILE)
+                    .right(addCommasToNumber(nearestUnlockedDistance) + " " + plugin.getNearestUnlockedDirection())
+                    .build());
+        }
+
         panelComponent.setPreferredSize(new Dimension(
                 getLongestStringWidth(STRINGS, graphics)
                         + getLongestStringWidth(new String[] {unlockedTiles, unspentTiles, groupUnlockedTiles}, graphics),
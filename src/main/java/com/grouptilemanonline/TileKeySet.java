@@ -0,0 +1,160 @@
+package com.grouptilemanonline;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/***
+ * An open addressing hash set of packed tile keys (see {@link TileKeys}), so large tile sets can be built,
+ * compared and merged without boxing every tile. Keys must not be negative.
+ */
+final class TileKeySet {
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] table;
+    private int size;
+
+    TileKeySet() {
+        this(MIN_CAPACITY);
+    }
+
+    TileKeySet(int expectedSize) {
+        table = new int[tableSizeFor(expectedSize)];
+        Arrays.fill(table, EMPTY);
+    }
+
+    static TileKeySet of(int[] keys) {
+        TileKeySet set = new TileKeySet(keys.length);
+        for (int key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int key) {
+        int mask = table.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = table[slot];
+            if (current == key) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /***
+     * @return Whether the key was not already in the set.
+     */
+    boolean add(int key) {
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+
+        int mask = table.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = table[slot];
+            if (current == key) {
+                return false;
+            }
+            if (current == EMPTY) {
+                table[slot] = key;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    /***
+     * @return Whether the key was in the set.
+     */
+    boolean remove(int key) {
+        int mask = table.length - 1;
+        int slot = mix(key) & mask;
+        while (table[slot] != key) {
+            if (table[slot] == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Shift the following entries of the probe run back so lookups never need tombstones
+        int gap = slot;
+        for (int next = (gap + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = mix(table[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    void addAll(TileKeySet other) {
+        other.forEach(this::add);
+    }
+
+    void removeAll(TileKeySet other) {
+        other.forEach(this::remove);
+    }
+
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    void forEach(IntConsumer action) {
+        for (int key : table) {
+            if (key != EMPTY) {
+                action.accept(key);
+            }
+        }
+    }
+
+    int[] toArray() {
+        int[] keys = new int[size];
+        int count = 0;
+        for (int key : table) {
+            if (key != EMPTY) {
+                keys[count++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        for (int key : old) {
+            if (key != EMPTY) {
+                add(key);
+            }
+        }
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
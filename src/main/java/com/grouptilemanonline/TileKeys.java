@@ -0,0 +1,118 @@
+package com.grouptilemanonline;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Packs a tile position into a single int so tiles can be stored in primitive collections.
+ * Layout (low to high bits): plane (2), region y (6), region x (6), region id (16).
+ */
+final class TileKeys {
+    private static final int PLANE_BITS = 2;
+    private static final int COORD_BITS = 6;
+    private static final int Y_SHIFT = PLANE_BITS;
+    private static final int X_SHIFT = Y_SHIFT + COORD_BITS;
+    private static final int REGION_SHIFT = X_SHIFT + COORD_BITS;
+    private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+    private static final int PLANE_MASK = (1 << PLANE_BITS) - 1;
+
+    // Mask of the bits below the region id, i.e. a tile's position inside its region
+    static final int LOCAL_MASK = (1 << REGION_SHIFT) - 1;
+
+    private TileKeys() {
+    }
+
+    static int pack(int regionId, int regionX, int regionY, int plane) {
+        return (regionId << REGION_SHIFT)
+                | ((regionX & COORD_MASK) << X_SHIFT)
+                | ((regionY & COORD_MASK) << Y_SHIFT)
+                | (plane & PLANE_MASK);
+    }
+
+    static int pack(TilemanModeTile tile) {
+        return pack(tile.getRegionId(), tile.getRegionX(), tile.getRegionY(), tile.getZ());
+    }
+
+    static int regionId(int key) {
+        return key >>> REGION_SHIFT;
+    }
+
+    static int regionX(int key) {
+        return (key >>> X_SHIFT) & COORD_MASK;
+    }
+
+    static int regionY(int key) {
+        return (key >>> Y_SHIFT) & COORD_MASK;
+    }
+
+    static int plane(int key) {
+        return key & PLANE_MASK;
+    }
+
+    static TilemanModeTile toTile(int key, String playerName) {
+        return new TilemanModeTile(regionId(key), regionX(key), regionY(key), plane(key), playerName);
+    }
+
+    static List<TilemanModeTile> toTiles(int[] keys, String playerName) {
+        List<TilemanModeTile> tiles = new ArrayList<>(keys.length);
+        for (int key : keys) {
+            tiles.add(toTile(key, playerName));
+        }
+        return tiles;
+    }
+
+    /***
+     * Reads a JSON array of tiles as packed keys, without building tile objects. Only the position of every tile
+     * is read, its owner is skipped.
+     */
+    static int[] read(JsonReader reader) throws IOException {
+        int[] keys = new int[64];
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int regionId = 0;
+            int regionX = 0;
+            int regionY = 0;
+            int z = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.NUMBER) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                switch (name) {
+                    case "regionId":
+                        regionId = reader.nextInt();
+                        break;
+                    case "regionX":
+                        regionX = reader.nextInt();
+                        break;
+                    case "regionY":
+                        regionY = reader.nextInt();
+                        break;
+                    case "z":
+                        z = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count++] = pack(regionId, regionX, regionY, z);
+        }
+        reader.endArray();
+        return Arrays.copyOf(keys, count);
+    }
+}
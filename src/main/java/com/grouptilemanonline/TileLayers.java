@@ -0,0 +1,258 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ * The other members' tiles, one layer per member, kept apart from the local player's own tiles in the config. A layer
+ * holds the keys of a member's tiles by region (see {@link TileKeys}) and is never modified once published: changes
+ * build a new layer that replaces the member's old one at once, so the client thread always sees either all of a
+ * pull's changes to a member or none. Dropping a member, or every member when leaving the group, drops their layers
+ * without touching any region.
+ * <p>
+ * Tiles imported from the clipboard go into separate layers that pulls and group changes leave alone, they are
+ * stored by {@link DatabaseIntegrationManager} and added again after a restart.
+ * <p>
+ * Nothing is merged ahead of time, the layers and the local tiles are composed when a region is drawn or counted.
+ * A tile several members marked is shown once.
+ * <p>
+ * Changes come from OkHttp callbacks and the client thread and are serialized, reads don't lock.
+ */
+@Singleton
+class TileLayers {
+    private String groupJoinCode;
+    private String playerName;
+    private volatile Map<String, Map<Integer, int[]>> layers = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, int[]>> imported = new ConcurrentHashMap<>();
+
+    // Metrics
+    private long layersReplaced;
+    private long regionsReplaced;
+    private long regionsUnchanged;
+
+    /***
+     * Switches to the given group and player, dropping the layers of the previous ones, e.g. once the player left the
+     * group.
+     *
+     * @param groupJoinCode The group, empty if the player isn't in one.
+     */
+    synchronized void useGroup(String groupJoinCode, String playerName) {
+        String previousGroup = this.groupJoinCode;
+        String previousPlayer = this.playerName;
+        this.groupJoinCode = groupJoinCode;
+        this.playerName = playerName;
+        // Nothing was pulled before the player joined a group
+        if (Strings.isNullOrEmpty(previousGroup)
+                || (previousGroup.equals(groupJoinCode) && previousPlayer.equals(playerName))) {
+            return;
+        }
+
+        layers = new ConcurrentHashMap<>();
+    }
+
+    /***
+     * Replaces the layers of every member whose tiles in the changed regions differ.
+     *
+     * @return Whether any layer was replaced.
+     */
+    synchronized boolean apply(List<TileOrSet.RegionChange> changes) {
+        Map<String, Map<Integer, int[]>> replaced = new HashMap<>();
+        for (TileOrSet.RegionChange change : changes) {
+            int regionId = change.getRegionId();
+            Set<String> members = new HashSet<>(change.getLayers().keySet());
+            for (Map.Entry<String, Map<Integer, int[]>> layer : layers.entrySet()) {
+                if (layer.getValue().containsKey(regionId)) {
+                    members.add(layer.getKey());
+                }
+            }
+
+            for (String member : members) {
+                Map<Integer, int[]> layer = replaced.containsKey(member)
+                        ? replaced.get(member) : layers.getOrDefault(member, Collections.emptyMap());
+                int[] keys = change.getLayers().get(member);
+                if (Arrays.equals(layer.get(regionId), keys)) {
+                    regionsUnchanged++;
+                    continue;
+                }
+
+                if (!replaced.containsKey(member)) {
+                    layer = new HashMap<>(layer);
+                    replaced.put(member, layer);
+                }
+                if (keys == null) {
+                    layer.remove(regionId);
+                } else {
+                    layer.put(regionId, keys);
+                }
+                regionsReplaced++;
+            }
+        }
+
+        publish(replaced);
+        return !replaced.isEmpty();
+    }
+
+    /***
+     * Adds tiles imported from the clipboard to the member's imported layer.
+     *
+     * @return The number of tiles that were new.
+     */
+    synchronized int add(String member, Collection<TilemanModeTile> tiles) {
+        Map<Integer, Set<Integer>> added = new HashMap<>();
+        for (TilemanModeTile tile : tiles) {
+            added.computeIfAbsent(tile.getRegionId(), regionId -> new HashSet<>()).add(TileKeys.pack(tile));
+        }
+
+        Map<Integer, int[]> layer = new HashMap<>(imported.getOrDefault(member, Collections.emptyMap()));
+        int count = 0;
+        for (Map.Entry<Integer, Set<Integer>> region : added.entrySet()) {
+            TileKeySet keys = TileKeySet.of(layer.getOrDefault(region.getKey(), new int[0]));
+            int size = keys.size();
+            for (int key : region.getValue()) {
+                keys.add(key);
+            }
+            if (keys.size() > size) {
+                int[] sorted = keys.toArray();
+                Arrays.sort(sorted);
+                layer.put(region.getKey(), sorted);
+                count += keys.size() - size;
+            }
+        }
+
+        if (count > 0) {
+            imported.put(member, Collections.unmodifiableMap(layer));
+        }
+        return count;
+    }
+
+    /***
+     * Drops a member's pulled layer, tiles imported for them stay.
+     *
+     * @return Whether the member had one.
+     */
+    synchronized boolean remove(String member) {
+        return layers.remove(member) != null;
+    }
+
+    /***
+     * @param local The local player's tiles in the region.
+     * @return The local player's tiles and those of every other member who isn't already in it.
+     */
+    Collection<TilemanModeTile> compose(int regionId, Collection<TilemanModeTile> local) {
+        List<TilemanModeTile> tiles = null;
+        TileKeySet seen = null;
+        for (Map<String, Map<Integer, int[]>> members : Arrays.asList(layers, imported)) {
+            for (Map.Entry<String, Map<Integer, int[]>> layer : members.entrySet()) {
+                int[] keys = layer.getValue().get(regionId);
+                if (keys == null) {
+                    continue;
+                }
+
+                if (tiles == null) {
+                    tiles = new ArrayList<>(local);
+                    seen = keysOf(local);
+                }
+                for (int key : keys) {
+                    if (seen.add(key)) {
+                        tiles.add(TileKeys.toTile(key, layer.getKey()));
+                    }
+                }
+            }
+        }
+        return tiles == null ? local : tiles;
+    }
+
+    /***
+     * @param local The local player's tiles in the region.
+     * @return The number of tiles anyone in the group marked in the region.
+     */
+    int count(int regionId, Collection<TilemanModeTile> local) {
+        TileKeySet seen = null;
+        for (Map<String, Map<Integer, int[]>> members : Arrays.asList(layers, imported)) {
+            for (Map<Integer, int[]> layer : members.values()) {
+                int[] keys = layer.get(regionId);
+                if (keys == null) {
+                    continue;
+                }
+
+                if (seen == null) {
+                    seen = keysOf(local);
+                }
+                for (int key : keys) {
+                    seen.add(key);
+                }
+            }
+        }
+        return seen == null ? local.size() : seen.size();
+    }
+
+    /***
+     * @return Whether the member's layer holds the tile at key.
+     */
+    boolean contains(String member, int key) {
+        for (Map<String, Map<Integer, int[]>> members : Arrays.asList(layers, imported)) {
+            Map<Integer, int[]> layer = members.get(member);
+            int[] keys = layer == null ? null : layer.get(TileKeys.regionId(key));
+            if (keys != null && Arrays.binarySearch(keys, key) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***
+     * @return Every region another member has tiles in.
+     */
+    Set<Integer> getRegionIds() {
+        Set<Integer> regionIds = new HashSet<>();
+        for (Map<String, Map<Integer, int[]>> members : Arrays.asList(layers, imported)) {
+            for (Map<Integer, int[]> layer : members.values()) {
+                regionIds.addAll(layer.keySet());
+            }
+        }
+        return regionIds;
+    }
+
+    synchronized long getLayersReplaced() {
+        return layersReplaced;
+    }
+
+    synchronized long getRegionsReplaced() {
+        return regionsReplaced;
+    }
+
+    synchronized long getRegionsUnchanged() {
+        return regionsUnchanged;
+    }
+
+    private void publish(Map<String, Map<Integer, int[]>> replaced) {
+        Map<String, Map<Integer, int[]>> current = layers;
+        for (Map.Entry<String, Map<Integer, int[]>> layer : replaced.entrySet()) {
+            if (layer.getValue().isEmpty()) {
+                current.remove(layer.getKey());
+            } else {
+                current.put(layer.getKey(), Collections.unmodifiableMap(layer.getValue()));
+            }
+            layersReplaced++;
+        }
+    }
+
+    private static TileKeySet keysOf(Collection<TilemanModeTile> tiles) {
+        TileKeySet keys = new TileKeySet();
+        for (TilemanModeTile tile : tiles) {
+            keys.add(TileKeys.pack(tile));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,602 @@
+package com.grouptilemanonline;
+
+import lombok.Value;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/***
+ * The group's tiles as an observed-remove set, replicated from the members' records in every pull.
+ * <p>
+ * Each member's record holds the tiles they marked, every one tagged with the member's version when the backend
+ * added it, and the tombstones of the other members' tiles they unmarked (see {@link TileTombstone}). A tile is in
+ * the set unless a tombstone covers its tag, so an unmark removes exactly the tiles it saw and a tile marked again
+ * afterwards stays. Only a member writes their own record and the backend versions it, so keeping the newest
+ * record of each member is a join: pulls can be repeated, reordered or skipped and every client still converges.
+ * <p>
+ * Tombstones are dropped once the owner's record no longer has the tile they cover, which happens as soon as the
+ * owner pulls them and unmarks the tile themselves. Until they are uploaded, the local player's tombstones only
+ * live in memory. Backends that don't tag tiles count every tag as 0, there a tombstone removes the tile for as long
+ * as it is kept.
+ * <p>
+ * Pulls may only cover some regions (see {@link GroupSubscription}), a member's regions outside them are left as they
+ * are, and regions no longer pulled are dropped.
+ * <p>
+ * Changes come out as whole regions, each other member's tiles in them, for {@link TileLayers} to swap in.
+ * <p>
+ * Updated from OkHttp callbacks and the client thread, so every method is synchronized.
+ */
+@Singleton
+class TileOrSet {
+    private String groupJoinCode;
+    private String playerName;
+    private final Map<String, Record> records = new HashMap<>();
+    // The records being read in the current pull, applied once a member has been read completely
+    private final Map<String, Staged> staged = new HashMap<>();
+    // Owner, key and the highest tag removed, over every member's tombstones
+    private final Map<String, Map<Integer, Long>> removed = new HashMap<>();
+
+    // The local player's tombstones: changed, taken for an upload and acknowledged by the backend
+    private long tombstoneRevision;
+    private long ackedRevision;
+    private boolean tombstonesUnsent;
+    private List<TileTombstone> sentTombstones;
+    private long sentRevision;
+
+    // Metrics
+    private long regionsSkipped;
+
+    /***
+     * Switches to the given group and player, forgetting everything replicated for the previous ones.
+     */
+    synchronized void useGroup(String groupJoinCode, String playerName) {
+        if (groupJoinCode.equals(this.groupJoinCode) && playerName.equals(this.playerName)) {
+            return;
+        }
+
+        reset();
+        this.groupJoinCode = groupJoinCode;
+        this.playerName = playerName;
+    }
+
+    /***
+     * Forgets everything replicated, so the next pull reads every member's records again.
+     */
+    synchronized void reset() {
+        groupJoinCode = null;
+        playerName = null;
+        records.clear();
+        staged.clear();
+        removed.clear();
+        tombstoneRevision = 0;
+        ackedRevision = 0;
+        tombstonesUnsent = false;
+        sentTombstones = null;
+    }
+
+    /***
+     * @param regionIds The regions the pull covers, null if it covers all of them.
+     */
+    synchronized void beginMember(String member, Set<Integer> regionIds) {
+        staged.put(member, new Staged(regionIds));
+    }
+
+    /***
+     * @param tagRuns The tags of the keys, run-length encoded (see {@link RegionTiles}), null if untagged.
+     */
+    synchronized void regionRead(String member, long fingerprint, int[] keys, long[] tagRuns) {
+        Staged record = staged.get(member);
+        if (record == null || keys.length == 0) {
+            return;
+        }
+
+        int regionId = TileKeys.regionId(keys[0]);
+        record.seen.add(regionId);
+        Region previous = records.containsKey(member) ? records.get(member).regions.get(regionId) : null;
+        if (previous != null && previous.fingerprint == fingerprint) {
+            regionsSkipped++;
+            return;
+        }
+        record.changed.put(regionId, Region.of(keys, tagRuns, fingerprint));
+    }
+
+    /***
+     * Replaces the member's record with the one just read.
+     *
+     * @param tombstones The member's tombstones, null if the backend doesn't keep them.
+     * @return The regions the member's tiles or tombstones were in, before or now, as they are now.
+     */
+    synchronized List<RegionChange> memberFinished(String member, List<TileTombstone> tombstones) {
+        Staged read = staged.remove(member);
+        if (read == null) {
+            return Collections.emptyList();
+        }
+
+        Record record = records.computeIfAbsent(member, name -> new Record());
+        Set<Integer> affected = new TreeSet<>(read.changed.keySet());
+        for (Integer regionId : record.regions.keySet()) {
+            if (read.isRemoved(regionId)) {
+                affected.add(regionId);
+            }
+        }
+
+        List<TileTombstone> newTombstones;
+        if (member.equals(playerName)) {
+            // The local player's own tombstones are newer than the backend's until it acknowledged them
+            newTombstones = tombstones == null || tombstoneRevision != ackedRevision ? record.tombstones : tombstones;
+        } else {
+            newTombstones = tombstones == null ? Collections.emptyList() : tombstones;
+        }
+        boolean tombstonesChanged = !newTombstones.equals(record.tombstones);
+        if (tombstonesChanged) {
+            addRegions(affected, record.tombstones);
+            addRegions(affected, newTombstones);
+        }
+
+        Map<Integer, View> before = views(affected);
+
+        record.regions.keySet().removeIf(read::isRemoved);
+        record.regions.putAll(read.changed);
+        if (tombstonesChanged) {
+            record.tombstones = new ArrayList<>(newTombstones);
+            rebuildRemoved();
+        }
+        if (!member.equals(playerName)) {
+            collectTombstones(member, record, read);
+        }
+        return changes(before);
+    }
+
+    /***
+     * Removes the other members' tiles at key as the local player sees them, when the local player unmarks it.
+     *
+     * @return Whether any tombstone was added.
+     */
+    synchronized boolean removeObserved(int key) {
+        if (playerName == null) {
+            return false;
+        }
+
+        Record own = records.computeIfAbsent(playerName, name -> new Record());
+        boolean added = false;
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            if (entry.getKey().equals(playerName)) {
+                continue;
+            }
+
+            Long tag = entry.getValue().tagOf(key);
+            if (tag != null && !isRemoved(entry.getKey(), key, tag)) {
+                own.tombstones.add(new TileTombstone(entry.getKey(), key, tag));
+                // Only adding, so raising the tag beats rebuilding over every tombstone, which a batch of unmarks
+                // would do once per tile
+                removed.computeIfAbsent(entry.getKey(), owner -> new HashMap<>()).merge(key, tag, Math::max);
+                added = true;
+            }
+        }
+
+        if (added) {
+            tombstonesChanged();
+        }
+        return added;
+    }
+
+    /***
+     * @return The regions as they are now, e.g. after the local player unmarked other members' tiles in them.
+     */
+    synchronized List<RegionChange> regions(Collection<Integer> regionIds) {
+        List<RegionChange> changes = new ArrayList<>(regionIds.size());
+        for (int regionId : regionIds) {
+            changes.add(new RegionChange(regionId, view(regionId).layers, new int[0]));
+        }
+        return changes;
+    }
+
+    /***
+     * Forgets every member's tiles in the given regions, e.g. once they are no longer pulled.
+     *
+     * @return The regions whose tiles changed, without any other member's tiles.
+     */
+    synchronized List<RegionChange> dropRegions(Set<Integer> regionIds) {
+        List<RegionChange> changes = new ArrayList<>();
+        for (int regionId : regionIds) {
+            View old = view(regionId);
+            for (Record record : records.values()) {
+                record.regions.remove(regionId);
+            }
+            if (!old.layers.isEmpty()) {
+                changes.add(new RegionChange(regionId, Collections.emptyMap(), new int[0]));
+            }
+        }
+        return changes;
+    }
+
+    /***
+     * Forgets a member who left the group, along with their tombstones.
+     *
+     * @return The regions whose tiles changed.
+     */
+    synchronized List<RegionChange> removeMember(String member) {
+        Record record = records.get(member);
+        if (record == null || member.equals(playerName)) {
+            return Collections.emptyList();
+        }
+
+        Set<Integer> affected = new TreeSet<>(record.regions.keySet());
+        addRegions(affected, record.tombstones);
+        Map<Integer, View> before = views(affected);
+
+        records.remove(member);
+        staged.remove(member);
+        if (!record.tombstones.isEmpty()) {
+            rebuildRemoved();
+        }
+        return changes(before);
+    }
+
+    /***
+     * @return The members with a record, other than the local player.
+     */
+    synchronized Set<String> getMembers() {
+        Set<String> members = new HashSet<>(records.keySet());
+        members.remove(playerName);
+        return members;
+    }
+
+    synchronized boolean hasUnsentTombstones() {
+        return tombstonesUnsent;
+    }
+
+    /***
+     * @return The local player's tombstones for the next upload, null if they didn't change since the last one.
+     */
+    synchronized List<TileTombstone> takeTombstones() {
+        if (!tombstonesUnsent) {
+            return null;
+        }
+
+        tombstonesUnsent = false;
+        Record own = records.get(playerName);
+        sentTombstones = own == null ? new ArrayList<>() : new ArrayList<>(own.tombstones);
+        sentRevision = tombstoneRevision;
+        return sentTombstones;
+    }
+
+    synchronized void tombstonesAcknowledged(List<TileTombstone> tombstones) {
+        if (tombstones != null && tombstones == sentTombstones) {
+            ackedRevision = sentRevision;
+            sentTombstones = null;
+        }
+    }
+
+    synchronized void tombstonesFailed(List<TileTombstone> tombstones) {
+        if (tombstones != null && tombstones == sentTombstones) {
+            tombstonesUnsent = true;
+            sentTombstones = null;
+        }
+    }
+
+    synchronized void save(GroupStateCache.State state) {
+        state.members = new HashMap<>();
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            Record record = entry.getValue();
+            GroupStateCache.Member member = new GroupStateCache.Member();
+            member.regions = new ArrayList<>(record.regions.size());
+            member.fingerprints = new long[record.regions.size()];
+            for (Map.Entry<Integer, Region> region : record.regions.entrySet()) {
+                BitSet positions = new BitSet();
+                for (int key : region.getValue().keys) {
+                    positions.set(key & TileKeys.LOCAL_MASK);
+                }
+                // The keys are sorted, so the tags are already in the order of the positions
+                RegionTiles encoded = TileWireFormat.encode(region.getKey(), positions);
+                member.fingerprints[member.regions.size()] = region.getValue().fingerprint;
+                member.regions.add(new RegionTiles(encoded.getId(), encoded.getTiles(), encoded.getBitmap(),
+                        region.getValue().tagRuns));
+            }
+            member.tombstones = new ArrayList<>(record.tombstones);
+            state.members.put(entry.getKey(), member);
+        }
+        // Unacknowledged tombstones are sent again after the restore
+        state.tombstonesUnsent = tombstonesUnsent || tombstoneRevision != ackedRevision;
+    }
+
+    /***
+     * Restores the records of a cached pull (see {@link GroupStateCache}), replacing the ones replicated so far.
+     *
+     * @param regionIds The regions to restore, null for all of them.
+     * @return The regions restored, for {@link #regions} to read.
+     */
+    synchronized Set<Integer> restore(GroupStateCache.State state, Set<Integer> regionIds) {
+        if (!state.groupJoinCode.equals(groupJoinCode) || !state.playerName.equals(playerName)) {
+            return Collections.emptySet();
+        }
+
+        records.clear();
+        staged.clear();
+        Set<Integer> restored = new HashSet<>();
+        for (Map.Entry<String, GroupStateCache.Member> entry : state.members.entrySet()) {
+            GroupStateCache.Member member = entry.getValue();
+            Record record = new Record();
+            for (int i = 0; member.regions != null && i < member.regions.size(); i++) {
+                RegionTiles region = member.regions.get(i);
+                int[] keys = TileWireFormat.decodeKeys(region);
+                if (keys.length == 0 || (regionIds != null && !regionIds.contains(region.getId()))) {
+                    continue;
+                }
+                long fingerprint = member.fingerprints != null && i < member.fingerprints.length ? member.fingerprints[i] : 0;
+                record.regions.put(region.getId(), Region.of(keys, region.getTags(), fingerprint));
+                restored.add(region.getId());
+            }
+            if (member.tombstones != null) {
+                record.tombstones = new ArrayList<>(member.tombstones);
+                addRegions(restored, record.tombstones);
+            }
+            records.put(entry.getKey(), record);
+        }
+        rebuildRemoved();
+
+        tombstoneRevision = 0;
+        ackedRevision = 0;
+        sentTombstones = null;
+        if (state.tombstonesUnsent) {
+            tombstonesChanged();
+        }
+        return restored;
+    }
+
+    synchronized long getRegionsSkipped() {
+        return regionsSkipped;
+    }
+
+    /***
+     * Drops the local player's tombstones the owner's record no longer needs: the tile is gone or was marked again.
+     * Only the regions just read are known well enough to tell.
+     */
+    private void collectTombstones(String owner, Record record, Staged read) {
+        Record own = records.get(playerName);
+        if (own == null || own.tombstones.isEmpty()) {
+            return;
+        }
+
+        List<TileTombstone> kept = new ArrayList<>(own.tombstones.size());
+        for (TileTombstone tombstone : own.tombstones) {
+            boolean known = tombstone.getOwner().equals(owner) && read.isCovered(TileKeys.regionId(tombstone.getKey()));
+            Long tag = known ? record.tagOf(tombstone.getKey()) : null;
+            if (!known || (tag != null && tag <= tombstone.getTag())) {
+                kept.add(tombstone);
+            }
+        }
+
+        if (kept.size() != own.tombstones.size()) {
+            own.tombstones = kept;
+            tombstonesChanged();
+            rebuildRemoved();
+        }
+    }
+
+    private void tombstonesChanged() {
+        tombstoneRevision++;
+        tombstonesUnsent = true;
+    }
+
+    private void rebuildRemoved() {
+        removed.clear();
+        for (Record record : records.values()) {
+            for (TileTombstone tombstone : record.tombstones) {
+                removed.computeIfAbsent(tombstone.getOwner(), owner -> new HashMap<>())
+                        .merge(tombstone.getKey(), tombstone.getTag(), Math::max);
+            }
+        }
+    }
+
+    private boolean isRemoved(String owner, int key, long tag) {
+        Map<Integer, Long> tags = removed.get(owner);
+        Long removedTag = tags == null ? null : tags.get(key);
+        return removedTag != null && tag <= removedTag;
+    }
+
+    /***
+     * The region as it should be shown locally: each other member's tiles that are in the set, and the local
+     * player's own tiles other members removed.
+     */
+    private View view(int regionId) {
+        View view = new View();
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            String member = entry.getKey();
+            Region region = entry.getValue().regions.get(regionId);
+            if (region == null) {
+                continue;
+            }
+
+            boolean own = member.equals(playerName);
+            Map<Integer, Long> removedTags = removed.get(member);
+            if (removedTags == null) {
+                // None of the member's tiles were removed
+                if (!own) {
+                    view.layers.put(member, region.keys);
+                }
+                continue;
+            }
+
+            // The local player's tiles that were removed, or another member's that weren't, in key order
+            int[] keys = new int[region.keys.length];
+            int count = 0;
+            TileWireFormat.TagCursor tags = new TileWireFormat.TagCursor(region.tagRuns);
+            for (int key : region.keys) {
+                long tag = tags.next();
+                Long removedTag = removedTags.get(key);
+                if ((removedTag != null && tag <= removedTag) == own) {
+                    keys[count++] = key;
+                }
+            }
+
+            if (own) {
+                view.removedOwn = Arrays.copyOf(keys, count);
+            } else if (count > 0) {
+                view.layers.put(member, count == keys.length ? region.keys : Arrays.copyOf(keys, count));
+            }
+        }
+        return view;
+    }
+
+    private Map<Integer, View> views(Set<Integer> regionIds) {
+        Map<Integer, View> views = new LinkedHashMap<>();
+        for (int regionId : regionIds) {
+            views.put(regionId, view(regionId));
+        }
+        return views;
+    }
+
+    /***
+     * @return Every region in before as it is now, with the local player's tiles removed since.
+     */
+    private List<RegionChange> changes(Map<Integer, View> before) {
+        List<RegionChange> changes = new ArrayList<>(before.size());
+        for (Map.Entry<Integer, View> region : before.entrySet()) {
+            View now = view(region.getKey());
+            changes.add(new RegionChange(region.getKey(), now.layers,
+                    difference(now.removedOwn, region.getValue().removedOwn)));
+        }
+        return changes;
+    }
+
+    private static void addRegions(Set<Integer> regionIds, List<TileTombstone> tombstones) {
+        for (TileTombstone tombstone : tombstones) {
+            regionIds.add(TileKeys.regionId(tombstone.getKey()));
+        }
+    }
+
+    /***
+     * @param keys Sorted keys.
+     * @param without Sorted keys.
+     */
+    private static int[] difference(int[] keys, int[] without) {
+        int[] difference = new int[keys.length];
+        int count = 0;
+        int j = 0;
+        for (int key : keys) {
+            while (j < without.length && without[j] < key) {
+                j++;
+            }
+            if (j == without.length || without[j] != key) {
+                difference[count++] = key;
+            }
+        }
+        return Arrays.copyOf(difference, count);
+    }
+
+    /***
+     * What a pull changed in a region.
+     */
+    @Value
+    static class RegionChange {
+        int regionId;
+
+        // The keys of each other member's tiles in the region that are in the set, members without any are left out
+        Map<String, int[]> layers;
+
+        // Keys of the local player's tiles another member removed
+        int[] removedOwn;
+    }
+
+    private static final class Record {
+        private final Map<Integer, Region> regions = new HashMap<>();
+        // Always a list of the record's own, the local player's is added to in place
+        private List<TileTombstone> tombstones = new ArrayList<>();
+
+        /***
+         * @return The tag of the member's tile at key, null if they don't have it.
+         */
+        private Long tagOf(int key) {
+            Region region = regions.get(TileKeys.regionId(key));
+            int index = region == null ? -1 : Arrays.binarySearch(region.keys, key);
+            return index < 0 ? null : TileWireFormat.tagAt(region.tagRuns, index);
+        }
+    }
+
+    private static final class Region {
+        // Sorted, shared with the layers handed out, so never changed
+        private final int[] keys;
+        private final long[] tagRuns;
+        private final long fingerprint;
+
+        private Region(int[] keys, long[] tagRuns, long fingerprint) {
+            this.keys = keys;
+            this.tagRuns = tagRuns;
+            this.fingerprint = fingerprint;
+        }
+
+        /***
+         * Sorts the keys if they aren't already, e.g. a v1 region or a list encoded one, along with their tags.
+         */
+        private static Region of(int[] keys, long[] tagRuns, long fingerprint) {
+            boolean sorted = true;
+            for (int i = 1; i < keys.length && sorted; i++) {
+                sorted = keys[i - 1] < keys[i];
+            }
+            if (sorted) {
+                return new Region(keys, tagRuns, fingerprint);
+            }
+
+            // Each key with its index, so the tags can follow
+            long[] order = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                order[i] = (long) keys[i] << 32 | i;
+            }
+            Arrays.sort(order);
+
+            long[] tags = new long[keys.length];
+            TileWireFormat.TagCursor cursor = new TileWireFormat.TagCursor(tagRuns);
+            for (int i = 0; i < keys.length; i++) {
+                tags[i] = cursor.next();
+            }
+            int[] sortedKeys = new int[keys.length];
+            long[] sortedTags = new long[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedKeys[i] = (int) (order[i] >> 32);
+                sortedTags[i] = tags[(int) order[i]];
+            }
+            return new Region(sortedKeys, tagRuns == null ? null : TileWireFormat.encodeTags(sortedTags), fingerprint);
+        }
+    }
+
+    private static final class Staged {
+        private final Map<Integer, Region> changed = new LinkedHashMap<>();
+        private final Set<Integer> seen = new HashSet<>();
+        // The regions the pull covers, null if it covers all of them
+        private final Set<Integer> regionIds;
+
+        private Staged(Set<Integer> regionIds) {
+            this.regionIds = regionIds;
+        }
+
+        private boolean isCovered(int regionId) {
+            return regionIds == null || regionIds.contains(regionId) || seen.contains(regionId);
+        }
+
+        /***
+         * @return Whether the member no longer has tiles in the region, as it was covered but not read.
+         */
+        private boolean isRemoved(int regionId) {
+            return !seen.contains(regionId) && isCovered(regionId);
+        }
+    }
+
+    private static final class View {
+        // The keys of each other member's tiles, sorted so layers of the same tiles are equal
+        private final Map<String, int[]> layers = new HashMap<>();
+        // Sorted keys of the local player's tiles other members removed
+        private int[] removedOwn = new int[0];
+    }
+}
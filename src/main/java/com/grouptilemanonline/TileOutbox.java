@@ -0,0 +1,188 @@
+package com.grouptilemanonline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/***
+ * An append-only file of the local player's tile changes that haven't been acknowledged by the backend yet, so
+ * they survive failed uploads and restarts. Records, one per line:
+ * <pre>
+ * + key            tile marked (packed key, see TileKeys)
+ * - key            tile unmarked
+ * ack count seq    the first count changes are acknowledged and the backend holds sequence number seq
+ * snapshot         the backend needs a full snapshot before it accepts deltas again
+ * </pre>
+ * Once enough changes are acknowledged the file is rewritten with only the unacknowledged ones.
+ * <p>
+ * Not thread safe, {@link TileUploader} serializes access.
+ */
+@Slf4j
+final class TileOutbox implements Closeable {
+    // Acknowledged changes kept in the file before it is compacted
+    private static final int COMPACT_THRESHOLD = 8192;
+
+    private final Path file;
+    private BufferedWriter writer;
+
+    // Number of changes written since the last compaction
+    private int position;
+    private int ackedPosition;
+
+    private TileOutbox(Path file) {
+        this.file = file;
+    }
+
+    /***
+     * Opens the outbox, replaying its unacknowledged changes and sequence number into the tracker.
+     */
+    static TileOutbox open(Path file, TileDeltaTracker tracker) throws IOException {
+        TileOutbox outbox = new TileOutbox(file);
+        tracker.reset();
+        outbox.replay(tracker);
+        Files.createDirectories(file.getParent());
+        outbox.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        // Terminates a record cut short by a crash, empty lines are skipped
+        outbox.writer.newLine();
+        return outbox;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void append(int key, boolean marked) throws IOException {
+        writer.write((marked ? "+ " : "- ") + key);
+        writer.newLine();
+        position++;
+    }
+
+    void snapshotNeeded() throws IOException {
+        writer.write("snapshot");
+        writer.newLine();
+    }
+
+    void acknowledged(int position, long seq) throws IOException {
+        writer.write("ack " + position + " " + seq);
+        writer.newLine();
+        ackedPosition = Math.max(ackedPosition, position);
+    }
+
+    /***
+     * Hands the written records to the OS.
+     */
+    void sync() throws IOException {
+        writer.flush();
+    }
+
+    boolean shouldCompact() {
+        return ackedPosition >= COMPACT_THRESHOLD;
+    }
+
+    /***
+     * Rewrites the file with only the tracker's pending changes, must not be called while a request is in flight.
+     */
+    void compact(TileDeltaTracker tracker) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int[] added = tracker.pendingAdded();
+        int[] removed = tracker.pendingRemoved();
+
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write("ack 0 " + tracker.getLastSeq());
+            out.newLine();
+            if (tracker.needsSnapshot()) {
+                out.write("snapshot");
+                out.newLine();
+            }
+            for (int key : added) {
+                out.write("+ " + key);
+                out.newLine();
+            }
+            for (int key : removed) {
+                out.write("- " + key);
+                out.newLine();
+            }
+        }
+
+        writer.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        position = added.length + removed.length;
+        ackedPosition = 0;
+        log.debug("Compacted tile outbox to {} changes", position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void replay(TileDeltaTracker tracker) throws IOException {
+        // Changes as key << 1 | marked, in the order they were made
+        int[] changes = new int[64];
+        long ackedSeq = -1;
+        boolean snapshot = false;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] parts = line.split(" ");
+                try {
+                    switch (parts[0]) {
+                        case "+":
+                        case "-":
+                            int key = Integer.parseInt(parts[1]);
+                            if (position == changes.length) {
+                                changes = Arrays.copyOf(changes, changes.length * 2);
+                            }
+                            changes[position++] = key << 1 | (parts[0].equals("+") ? 1 : 0);
+                            break;
+                        case "ack":
+                            // Both parsed before either is applied, so a torn record is skipped whole
+                            int acked = Integer.parseInt(parts[1]);
+                            ackedSeq = Long.parseLong(parts[2]);
+                            ackedPosition = Math.max(ackedPosition, acked);
+                            snapshot = false;
+                            break;
+                        case "snapshot":
+                            snapshot = true;
+                            break;
+                        default:
+                            log.warn("Skipping unknown tile outbox record: {}", line);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // Most likely the last line of a write interrupted by a crash
+                    log.warn("Skipping malformed tile outbox record: {}", line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (ackedSeq >= 0 && !snapshot) {
+            tracker.resume(ackedSeq);
+        }
+        for (int i = Math.min(ackedPosition, position); i < position; i++) {
+            if ((changes[i] & 1) != 0) {
+                tracker.recordMark(changes[i] >>> 1);
+            } else {
+                tracker.recordUnmark(changes[i] >>> 1);
+            }
+        }
+        log.debug("Replayed {} unacknowledged tile changes from the outbox", position - Math.min(ackedPosition, position));
+    }
+}
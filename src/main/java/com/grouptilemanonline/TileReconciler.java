@@ -0,0 +1,186 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/***
+ * Uploads a snapshot by sending only the regions the backend has differently. Both sides' {@link RegionTree} are
+ * compared top-down, one request per level, then the differing regions replace the backend's. A player whose tiles
+ * drifted by one region sends a few KB of hashes and that region, instead of every tile they have.
+ * <p>
+ * Falls back to uploading the whole snapshot, in chunks if it is large (see {@link ChunkedUploader}), when the backend
+ * doesn't have region trees or the player yet, or when so much differs that comparing further wouldn't save anything.
+ * <p>
+ * Cancelling an upload's future cancels the request in flight, and the upload stops there.
+ */
+@Slf4j
+final class TileReconciler {
+    private static final Type NODES_TYPE = new TypeToken<Map<String, String[]>>() {}.getType();
+
+    // Differing nodes on one level above which the whole snapshot is sent instead
+    private static final int MAX_NODES = 64;
+
+    private final SyncBackend backend;
+    private final Gson gson;
+    private final ChunkedUploader chunkedUploader;
+
+    // Metrics
+    private long reconciled;
+    private long regionsSent;
+    private long fallbacks;
+
+    TileReconciler(SyncBackend backend, Gson gson, ChunkedUploader chunkedUploader) {
+        this.backend = backend;
+        this.gson = gson;
+        this.chunkedUploader = chunkedUploader;
+    }
+
+    /***
+     * @param progress Told about the chunks uploaded, if the whole snapshot is sent in chunks.
+     */
+    CompletableFuture<SyncResponse> upload(AddTilesV2Object snapshot, ChunkedUploader.Progress progress) {
+        Walk walk = new Walk(snapshot, progress);
+        walk.result.whenComplete((response, error) -> {
+            CompletableFuture<SyncResponse> request = walk.current;
+            if (walk.result.isCancelled() && request != null) {
+                request.cancel(true);
+            }
+        });
+        for (RegionTiles region : snapshot.getRegions()) {
+            walk.regions.put(region.getId(), region);
+            walk.tree.addAll(TileWireFormat.decodeKeys(region));
+        }
+
+        descend(walk, 0, Collections.singletonList(0));
+        return walk.result;
+    }
+
+    synchronized long getReconciledCount() {
+        return reconciled;
+    }
+
+    synchronized long getRegionsSent() {
+        return regionsSent;
+    }
+
+    synchronized long getFallbackCount() {
+        return fallbacks;
+    }
+
+    /***
+     * Compares the children of the nodes on a level with the backend's, then continues with the ones that differ.
+     */
+    private void descend(Walk walk, int level, List<Integer> nodes) {
+        final AtomicReference<Map<String, String[]>> remote = new AtomicReference<>();
+        walk.track(backend.getRegionTree(walk.snapshot.getGroupJoinCode(), walk.snapshot.getUsername(), level, nodes,
+                body -> remote.set(gson.fromJson(body, NODES_TYPE)))
+        ).whenComplete((response, error) -> {
+            if (error != null) {
+                walk.result.completeExceptionally(error);
+                return;
+            }
+            if (!response.isSuccessful() || remote.get() == null) {
+                uploadSnapshot(walk);
+                return;
+            }
+
+            List<Integer> differing = new ArrayList<>();
+            for (int node : nodes) {
+                long[] local = walk.tree.children(level, node);
+                String[] hashes = remote.get().get(Integer.toString(node));
+                for (int i = 0; i < RegionTree.FANOUT; i++) {
+                    long hash = hashes != null && i < hashes.length ? Long.parseUnsignedLong(hashes[i], 16) : 0;
+                    if (hash != local[i]) {
+                        differing.add(RegionTree.child(node, i));
+                    }
+                }
+            }
+
+            if (level + 1 == RegionTree.LEAF_LEVEL || differing.isEmpty()) {
+                uploadRegions(walk, differing);
+            } else if (differing.size() > MAX_NODES) {
+                uploadSnapshot(walk);
+            } else {
+                descend(walk, level + 1, differing);
+            }
+        });
+    }
+
+    private void uploadRegions(Walk walk, List<Integer> regionIds) {
+        List<RegionTiles> regions = new ArrayList<>(regionIds.size());
+        for (int regionId : regionIds) {
+            // Regions the player no longer has are sent empty, which clears them
+            regions.add(walk.regions.getOrDefault(regionId, new RegionTiles(regionId, new int[0], null, null)));
+        }
+
+        AddTilesV2Object snapshot = walk.snapshot;
+        walk.track(backend.addTileRegions(new AddTileRegionsObject(snapshot.getUsername(), snapshot.getGroupJoinCode(),
+                snapshot.getSeq(), regions, snapshot.getTombstones()))
+        ).whenComplete((response, error) -> {
+            if (error == null && response.getCode() == 404) {
+                uploadSnapshot(walk);
+                return;
+            }
+
+            if (error == null && response.isSuccessful()) {
+                synchronized (this) {
+                    reconciled++;
+                    regionsSent += regions.size();
+                }
+                log.debug("Reconciled tiles with the backend, {} of {} regions differed",
+                        regions.size(), walk.regions.size());
+            }
+            complete(walk.result, response, error);
+        });
+    }
+
+    private void uploadSnapshot(Walk walk) {
+        synchronized (this) {
+            fallbacks++;
+        }
+        walk.track(chunkedUploader.upload(walk.snapshot, walk.progress))
+                .whenComplete((response, error) -> complete(walk.result, response, error));
+    }
+
+    private static void complete(CompletableFuture<SyncResponse> result, SyncResponse response, Throwable error) {
+        if (error != null) {
+            result.completeExceptionally(error);
+        } else {
+            result.complete(response);
+        }
+    }
+
+    private static final class Walk {
+        private final AddTilesV2Object snapshot;
+        private final ChunkedUploader.Progress progress;
+        private final Map<Integer, RegionTiles> regions = new HashMap<>();
+        private final RegionTree tree = new RegionTree();
+        private final CompletableFuture<SyncResponse> result = new CompletableFuture<>();
+        // The request or chunked upload waiting for the backend
+        private volatile CompletableFuture<SyncResponse> current;
+
+        private Walk(AddTilesV2Object snapshot, ChunkedUploader.Progress progress) {
+            this.snapshot = snapshot;
+            this.progress = progress;
+        }
+
+        private CompletableFuture<SyncResponse> track(CompletableFuture<SyncResponse> request) {
+            current = request;
+            // Cancelled while the request was being made
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+            return request;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.grouptilemanonline;
+
+import lombok.Value;
+
+/***
+ * Removes another member's tile as it was when observed: the member's tile at key is removed as long as its tag is
+ * at most tag. Marking the tile again gives it a higher tag, so the removal doesn't apply to it.
+ */
+@Value
+public class TileTombstone {
+    // The member whose tile was removed
+    String owner;
+
+    // Packed tile key, see TileKeys
+    int key;
+
+    // The tag the tile had when it was removed, see RegionTiles
+    long tag;
+}
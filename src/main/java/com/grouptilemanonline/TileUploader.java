@@ -0,0 +1,603 @@
+package com.grouptilemanonline;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/***
+ * Uploads the local player's tile changes with at most one request in flight. Changes made while a request is
+ * in flight are merged into the next one, so uploads reach the backend in order and running around produces
+ * one small request at a time instead of a pile of overlapping ones.
+ * <p>
+ * Every change is also written to a {@link TileOutbox} per player and group until the backend acknowledges it,
+ * so changes that couldn't be sent before the client closed are sent as deltas after the next login.
+ * <p>
+ * Uploads also carry the player's tombstones of other members' tiles (see {@link TileOrSet}) whenever they changed.
+ * Snapshots are reconciled with the backend's copy first (see {@link TileReconciler}), so only the regions that
+ * differ are sent. Snapshots sent whole, e.g. when joining a group, go in chunks (see {@link ChunkedUploader}).
+ */
+@Slf4j
+@Singleton
+class TileUploader {
+    private static final long MIN_RETRY_DELAY_MILLIS = 2_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+    // Where the outboxes and the cached group tiles (see GroupStateCache) are kept
+    static final Path DATA_DIRECTORY = RuneLite.RUNELITE_DIR.toPath().resolve("group-tileman");
+
+    /***
+     * The local player, whose tiles are uploaded.
+     */
+    interface Source {
+        String getPlayerName();
+
+        String getGroupJoinCode();
+
+        /***
+         * @return The player's own tiles, read from the config.
+         */
+        GroupTiles getPlayerTiles();
+    }
+
+    private final Source source;
+    private final SyncBackend backend;
+    private final TileWireFormat wireFormat;
+    private final TileOrSet tileOrSet;
+    private final ChunkedUploader chunkedUploader;
+    private final TileReconciler reconciler;
+    private final Path directory;
+    private final LongSupplier clock;
+
+    private final TileDeltaTracker deltaTracker = new TileDeltaTracker();
+
+    // The player and group the tracker and outbox belong to
+    private String owner;
+    private TileOutbox outbox;
+
+    // The upload waiting for the backend, null if none is
+    private Upload inFlight;
+    private long retryDelay;
+    private long retryAt;
+
+    // Completed once the next snapshot of the current owner is acknowledged, or fails, and told how far it got
+    private final List<CompletableFuture<Boolean>> snapshotWaiters = new ArrayList<>();
+    private final List<ChunkedUploader.Progress> snapshotProgress = new ArrayList<>();
+    // Completed once no upload is in flight
+    private final List<CompletableFuture<Void>> idleWaiters = new ArrayList<>();
+
+    // Metrics, the flush latency is the time from the oldest unsent change until the backend acknowledged it
+    private long oldestPendingAt;
+    private long lastFlushLatency;
+    private long flushLatencyTotal;
+    private long flushCount;
+
+    @Inject
+    TileUploader(TilemanModePlugin plugin, DatabaseIntegrationManager databaseIntegrationManager, SyncBackend backend,
+                 TileWireFormat wireFormat, TileOrSet tileOrSet, Gson gson) {
+        this(new Source() {
+            @Override
+            public String getPlayerName() {
+                return plugin.getPlayerName();
+            }
+
+            @Override
+            public String getGroupJoinCode() {
+                return plugin.getGroupJoinCode();
+            }
+
+            @Override
+            public GroupTiles getPlayerTiles() {
+                return databaseIntegrationManager.getPlayerTiles();
+            }
+        }, backend, wireFormat, tileOrSet, gson, DATA_DIRECTORY, System::currentTimeMillis);
+    }
+
+    /***
+     * @param directory Where the outboxes are kept.
+     * @param clock The current time in milliseconds, for the retry backoff and the flush latency.
+     */
+    TileUploader(Source source, SyncBackend backend, TileWireFormat wireFormat, TileOrSet tileOrSet, Gson gson,
+                 Path directory, LongSupplier clock) {
+        this.source = source;
+        this.backend = backend;
+        this.wireFormat = wireFormat;
+        this.tileOrSet = tileOrSet;
+        this.chunkedUploader = new ChunkedUploader(backend);
+        this.reconciler = new TileReconciler(backend, gson, chunkedUploader);
+        this.directory = directory;
+        this.clock = clock;
+    }
+
+    synchronized void recordMark(int key) {
+        useOwner(source.getPlayerName(), source.getGroupJoinCode());
+        deltaTracker.recordMark(key);
+        appendToOutbox(key, true);
+        markPending();
+    }
+
+    synchronized void recordUnmark(int key) {
+        useOwner(source.getPlayerName(), source.getGroupJoinCode());
+        deltaTracker.recordUnmark(key);
+        appendToOutbox(key, false);
+        markPending();
+    }
+
+    /***
+     * The next upload has to be a full snapshot, e.g. after tiles were changed without being recorded.
+     */
+    synchronized void requestSnapshot() {
+        useOwner(source.getPlayerName(), source.getGroupJoinCode());
+        snapshotNeeded();
+        markPending();
+    }
+
+    /***
+     * Writes out and closes the outbox, it is opened again with the next change or flush.
+     */
+    synchronized void close() {
+        closeOutbox();
+        owner = null;
+        snapshotUploaded(false);
+    }
+
+    /***
+     * Starts an upload of the pending changes, unless one is already in flight, in which case the changes
+     * go out as soon as it completes.
+     */
+    void flush() {
+        final String playerName = source.getPlayerName();
+        final String groupJoinCode = source.getGroupJoinCode();
+        if (Strings.isNullOrEmpty(playerName) || Strings.isNullOrEmpty(groupJoinCode)) {
+            return;
+        }
+
+        final Upload upload;
+        synchronized (this) {
+            useOwner(playerName, groupJoinCode);
+            if (inFlight != null || clock.getAsLong() < retryAt || (!deltaTracker.needsSnapshot()
+                    && !deltaTracker.hasPendingChanges() && !tileOrSet.hasUnsentTombstones())) {
+                return;
+            }
+
+            upload = deltaTracker.needsSnapshot()
+                    ? beginSnapshot()
+                    : buildDelta(playerName, groupJoinCode);
+            inFlight = upload;
+        }
+
+        final CompletableFuture<SyncResponse> sent;
+        try {
+            if (upload.delta == null) {
+                // Reading the tiles walks the whole config, so it's done without holding the lock. Changes recorded
+                // meanwhile are pending again and follow in the next delta.
+                upload.body = snapshotBody(upload, playerName, groupJoinCode, source.getPlayerTiles());
+            }
+            sent = send(upload);
+            synchronized (this) {
+                upload.sent = sent;
+                // Every waiter gave up on the snapshot before it was sent
+                if (upload.cancelled) {
+                    sent.cancel(true);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Failed before reaching the backend, backs off like any failed upload so the next one can go
+            log.error("Unable to add tiles", e);
+            completed(upload, Outcome.FAILED);
+            return;
+        }
+
+        sent.whenComplete((response, error) -> {
+            if (upload.cancelled) {
+                completed(upload, Outcome.CANCELLED);
+            } else if (error != null) {
+                log.error("Unable to add tiles");
+                completed(upload, Outcome.FAILED);
+            } else {
+                completed(upload, outcome(upload, response));
+            }
+        });
+    }
+
+    /***
+     * Uploads a full snapshot of the player's tiles, used when creating or joining a group. Never blocks, the
+     * snapshot is queued behind any upload in flight.
+     *
+     * @param progress Told about the chunks uploaded when the snapshot is sent in chunks, from OkHttp threads.
+     * @return Completes with whether the backend accepted the snapshot. It completes with the uploader's lock held,
+     * so anything more than a quick check should continue asynchronously. Cancelling it stops the snapshot once
+     * nobody else waits for it, see {@link #whenIdle}.
+     */
+    CompletableFuture<Boolean> uploadSnapshot(ChunkedUploader.Progress progress) {
+        final String playerName = source.getPlayerName();
+        final String groupJoinCode = source.getGroupJoinCode();
+        if (Strings.isNullOrEmpty(playerName) || Strings.isNullOrEmpty(groupJoinCode)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        final CompletableFuture<Boolean> uploaded = new CompletableFuture<>();
+        synchronized (this) {
+            useOwner(playerName, groupJoinCode);
+            snapshotNeeded();
+            markPending();
+            snapshotWaiters.add(uploaded);
+            snapshotProgress.add(progress);
+            uploaded.whenComplete((ignored, error) -> {
+                if (uploaded.isCancelled()) {
+                    snapshotCancelled(uploaded, progress);
+                }
+            });
+            // Asked for explicitly, so don't wait out a backoff from earlier failures
+            retryDelay = 0;
+            retryAt = 0;
+        }
+        flush();
+        return uploaded;
+    }
+
+    /***
+     * @return Completes once no upload is in flight, e.g. once a cancelled snapshot has stopped. It completes with the
+     * uploader's lock held, so anything more than a quick check should continue asynchronously.
+     */
+    synchronized CompletableFuture<Void> whenIdle() {
+        if (inFlight == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> idle = new CompletableFuture<>();
+        idleWaiters.add(idle);
+        return idle;
+    }
+
+    /***
+     * @return Whether the player marked the tile without the backend having acknowledged it yet, in which case the
+     * backend's tag for it is out of date.
+     */
+    synchronized boolean isUnacknowledgedMark(int key) {
+        if (deltaTracker.isPendingMark(key) || deltaTracker.needsSnapshot()) {
+            return true;
+        }
+        if (inFlight == null) {
+            return false;
+        }
+        if (inFlight.delta == null) {
+            return true;
+        }
+        for (int added : inFlight.delta.getAdded()) {
+            if (added == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int getQueueDepth() {
+        return deltaTracker.pendingCount() + (deltaTracker.needsSnapshot() ? 1 : 0);
+    }
+
+    synchronized long getLastFlushLatencyMillis() {
+        return lastFlushLatency;
+    }
+
+    synchronized long getAverageFlushLatencyMillis() {
+        return flushCount == 0 ? 0 : flushLatencyTotal / flushCount;
+    }
+
+    private CompletableFuture<SyncResponse> send(Upload upload) {
+        if (upload.delta != null) {
+            return backend.addTilesDelta(upload.version, (AddTilesDeltaObject) upload.body);
+        } else if (upload.body instanceof AddTilesV2Object) {
+            // Snapshots follow a divergence, most of the backend's tiles are usually still right
+            return reconciler.upload((AddTilesV2Object) upload.body, this::snapshotChunkUploaded);
+        }
+        return backend.addTiles(upload.version, upload.body);
+    }
+
+    private Outcome outcome(Upload upload, SyncResponse response) {
+        if (response.isSuccessful()) {
+            return Outcome.SUCCESS;
+        } else if (wireFormat.downgradeIfUnsupported(upload.version, response.getCode())) {
+            return Outcome.RETRY;
+        } else if (upload.delta != null && (response.getCode() == 409 || response.getCode() == 404)) {
+            // Sequence numbers diverged, or the backend doesn't support deltas
+            return Outcome.REJECTED;
+        }
+        log.error("Unable to add Tiles");
+        return Outcome.FAILED;
+    }
+
+    private void completed(Upload upload, Outcome outcome) {
+        synchronized (this) {
+            inFlight = null;
+            for (CompletableFuture<Void> idle : idleWaiters) {
+                idle.complete(null);
+            }
+            idleWaiters.clear();
+
+            // The player or group changed while the request was in flight, the result no longer applies
+            if (!Objects.equals(upload.owner, owner)) {
+                return;
+            }
+
+            long now = clock.getAsLong();
+            if (outcome == Outcome.SUCCESS) {
+                tileOrSet.tombstonesAcknowledged(upload.tombstones);
+                retryDelay = 0;
+                retryAt = 0;
+                acknowledged(upload);
+                if (upload.delta == null && !deltaTracker.needsSnapshot()) {
+                    snapshotUploaded(true);
+                }
+                if (oldestPendingAt > 0 && !deltaTracker.hasPendingChanges() && !deltaTracker.needsSnapshot()) {
+                    lastFlushLatency = now - oldestPendingAt;
+                    flushLatencyTotal += lastFlushLatency;
+                    flushCount++;
+                    oldestPendingAt = 0;
+                    log.debug("Uploaded tile changes, {}ms flush latency, {}ms average",
+                            lastFlushLatency, flushLatencyTotal / flushCount);
+                }
+            } else if (outcome == Outcome.CANCELLED) {
+                // Sent again with the next flush if the player still needs it
+                tileOrSet.tombstonesFailed(upload.tombstones);
+                snapshotNeeded();
+                if (snapshotWaiters.isEmpty()) {
+                    return;
+                }
+            } else if (outcome == Outcome.REJECTED) {
+                log.debug("Tile delta {} rejected, sending a snapshot", upload.delta.getSeq());
+                tileOrSet.tombstonesFailed(upload.tombstones);
+                snapshotNeeded();
+            } else {
+                tileOrSet.tombstonesFailed(upload.tombstones);
+                if (upload.delta != null) {
+                    deltaTracker.restore(upload.delta);
+                } else {
+                    snapshotNeeded();
+                }
+                // A schema downgrade is sent again straight away, anything else backs off
+                if (outcome == Outcome.FAILED) {
+                    if (upload.delta == null) {
+                        snapshotUploaded(false);
+                    }
+                    retryDelay = Math.min(Math.max(retryDelay * 2, MIN_RETRY_DELAY_MILLIS), MAX_RETRY_DELAY_MILLIS);
+                    retryAt = now + retryDelay;
+                    return;
+                }
+            }
+        }
+
+        // Anything changed while the request was in flight goes out now
+        flush();
+    }
+
+    /***
+     * Forgets a waiter that gave up on the snapshot, and stops the snapshot in flight if nobody else waits for it.
+     */
+    private synchronized void snapshotCancelled(CompletableFuture<Boolean> waiter, ChunkedUploader.Progress progress) {
+        snapshotWaiters.remove(waiter);
+        snapshotProgress.remove(progress);
+        if (!snapshotWaiters.isEmpty() || inFlight == null || inFlight.delta != null) {
+            return;
+        }
+
+        inFlight.cancelled = true;
+        if (inFlight.sent != null) {
+            inFlight.sent.cancel(true);
+        }
+    }
+
+    private void snapshotUploaded(boolean uploaded) {
+        for (CompletableFuture<Boolean> waiter : snapshotWaiters) {
+            waiter.complete(uploaded);
+        }
+        snapshotWaiters.clear();
+        snapshotProgress.clear();
+    }
+
+    private synchronized void snapshotChunkUploaded(int uploaded, int total) {
+        for (ChunkedUploader.Progress progress : snapshotProgress) {
+            progress.chunkUploaded(uploaded, total);
+        }
+    }
+
+    private void markPending() {
+        if (oldestPendingAt == 0) {
+            oldestPendingAt = clock.getAsLong();
+        }
+    }
+
+    /***
+     * Switches the tracker and outbox to the given player and group, replaying any changes left in their outbox.
+     */
+    private void useOwner(String playerName, String groupJoinCode) {
+        if (Strings.isNullOrEmpty(playerName) || Strings.isNullOrEmpty(groupJoinCode)) {
+            return;
+        }
+
+        String newOwner = playerName + "\n" + groupJoinCode;
+        if (newOwner.equals(owner)) {
+            return;
+        }
+
+        closeOutbox();
+        owner = newOwner;
+        snapshotUploaded(false);
+        deltaTracker.reset();
+        oldestPendingAt = 0;
+        retryDelay = 0;
+        retryAt = 0;
+
+        Path file = directory.resolve("outbox-" + fileNamePart(playerName) + "-" + fileNamePart(groupJoinCode) + ".log");
+        try {
+            outbox = TileOutbox.open(file, deltaTracker);
+            if (deltaTracker.hasPendingChanges()) {
+                markPending();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to open the tile outbox, unsent changes won't survive a restart", e);
+        }
+    }
+
+    private void closeOutbox() {
+        if (outbox == null) {
+            return;
+        }
+
+        try {
+            outbox.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the tile outbox", e);
+        }
+        outbox = null;
+    }
+
+    private void appendToOutbox(int key, boolean marked) {
+        if (outbox == null) {
+            return;
+        }
+
+        try {
+            outbox.append(key, marked);
+        } catch (IOException e) {
+            outboxFailed(e);
+        }
+    }
+
+    private void snapshotNeeded() {
+        deltaTracker.diverged();
+        if (outbox == null) {
+            return;
+        }
+
+        try {
+            outbox.snapshotNeeded();
+        } catch (IOException e) {
+            outboxFailed(e);
+        }
+    }
+
+    private void acknowledged(Upload upload) {
+        if (outbox == null || outbox != upload.outbox) {
+            return;
+        }
+
+        try {
+            outbox.acknowledged(upload.outboxPosition, upload.seq);
+            if (deltaTracker.needsSnapshot()) {
+                // Requested while the acknowledged upload was in flight
+                outbox.snapshotNeeded();
+            }
+            if (outbox.shouldCompact()) {
+                outbox.compact(deltaTracker);
+            }
+            outbox.sync();
+        } catch (IOException e) {
+            outboxFailed(e);
+        }
+    }
+
+    private void syncOutbox() {
+        if (outbox == null) {
+            return;
+        }
+
+        try {
+            outbox.sync();
+        } catch (IOException e) {
+            outboxFailed(e);
+        }
+    }
+
+    private void outboxFailed(IOException e) {
+        log.warn("Unable to write the tile outbox, unsent changes won't survive a restart", e);
+        closeOutbox();
+    }
+
+    /***
+     * @return The snapshot upload without its body, see {@link #snapshotBody}.
+     */
+    private Upload beginSnapshot() {
+        // Changes are written to the outbox before the request that carries them is sent
+        syncOutbox();
+
+        int version = wireFormat.getVersion();
+        long seq = deltaTracker.beginSnapshot();
+        List<TileTombstone> tombstones = tileOrSet.takeTombstones();
+        return new Upload(null, version, null, seq, tombstones, owner, outbox,
+                outbox != null ? outbox.position() : 0);
+    }
+
+    private static Object snapshotBody(Upload upload, String playerName, String groupJoinCode, GroupTiles tiles) {
+        return upload.version == TileWireFormat.V2
+                ? new AddTilesV2Object(playerName, groupJoinCode, upload.seq, TileWireFormat.encode(tiles),
+                        upload.tombstones)
+                : new AddTilesObject(playerName, groupJoinCode, tiles, upload.seq, upload.tombstones);
+    }
+
+    private Upload buildDelta(String playerName, String groupJoinCode) {
+        syncOutbox();
+
+        int version = wireFormat.getVersion();
+        TileDelta delta = deltaTracker.takeDelta();
+        List<TileTombstone> tombstones = tileOrSet.takeTombstones();
+        AddTilesDeltaObject bodyContents = new AddTilesDeltaObject(playerName, groupJoinCode,
+                delta.getBaseSeq(), delta.getSeq(), delta.getAdded(), delta.getRemoved(), tombstones);
+        return new Upload(bodyContents, version, delta, delta.getSeq(), tombstones, owner, outbox,
+                outbox != null ? outbox.position() : 0);
+    }
+
+    static String fileNamePart(String value) {
+        return value.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private static final class Upload {
+        // Filled in after the lock is released for a snapshot
+        private Object body;
+        private final int version;
+        // Null for a snapshot
+        private final TileDelta delta;
+        private final long seq;
+        // Null if the tombstones didn't change
+        private final List<TileTombstone> tombstones;
+        private final String owner;
+        // The outbox and the number of its changes the upload covers
+        private final TileOutbox outbox;
+        private final int outboxPosition;
+        // Set once sent, under the uploader's lock like the cancellation
+        private CompletableFuture<SyncResponse> sent;
+        private volatile boolean cancelled;
+
+        private Upload(Object body, int version, TileDelta delta, long seq, List<TileTombstone> tombstones, String owner,
+                       TileOutbox outbox, int outboxPosition) {
+            this.body = body;
+            this.version = version;
+            this.delta = delta;
+            this.seq = seq;
+            this.tombstones = tombstones;
+            this.owner = owner;
+            this.outbox = outbox;
+            this.outboxPosition = outboxPosition;
+        }
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        // The backend holds a different sequence number, a snapshot follows
+        REJECTED,
+        // The backend doesn't know the schema, sent again with the older one
+        RETRY,
+        FAILED,
+        // Nobody waited for the snapshot anymore, it is sent again when needed
+        CANCELLED
+    }
+}
@@ -0,0 +1,179 @@
+package com.grouptilemanonline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/***
+ * Negotiates the wire schema used for tile sync and encodes tiles for it.
+ * <p>
+ * v1 sends every tile as a JSON object with its region id and owner, grouped under "region_" keys.
+ * v2 sends each region id once, with its tiles as region-local positions or as a bitmap, and the owner only in
+ * the envelope. When a v2 endpoint answers 404 or 415 the backend predates v2, and the client falls back to v1.
+ * v2 regions pulled from the backend can also carry the tags of their tiles, see {@link TileOrSet}.
+ */
+@Slf4j
+@Singleton
+class TileWireFormat {
+    static final int V1 = 1;
+    static final int V2 = 2;
+
+    private static final int REGION_POSITIONS = TileKeys.LOCAL_MASK + 1;
+
+    private volatile int version = V2;
+
+    int getVersion() {
+        return version;
+    }
+
+    /***
+     * @return Whether the response shows the backend doesn't know the v2 endpoint, in which case v1 is used from now on.
+     */
+    boolean downgradeIfUnsupported(int version, int responseCode) {
+        if (version != V2 || (responseCode != 404 && responseCode != 415)) {
+            return false;
+        }
+
+        if (this.version == V2) {
+            log.debug("Backend doesn't support tile schema v2, falling back to v1");
+            this.version = V1;
+        }
+        return true;
+    }
+
+    static List<RegionTiles> encode(GroupTiles tiles) {
+        List<RegionTiles> regions = new ArrayList<>(tiles.getRegionTiles().size());
+        for (Map.Entry<String, List<TilemanModeTile>> entry : tiles.getRegionTiles().entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+
+            BitSet positions = new BitSet(REGION_POSITIONS);
+            for (TilemanModeTile tile : entry.getValue()) {
+                positions.set(TileKeys.pack(tile) & TileKeys.LOCAL_MASK);
+            }
+            regions.add(encode(entry.getValue().get(0).getRegionId(), positions));
+        }
+        return regions;
+    }
+
+    static RegionTiles encode(int regionId, BitSet positions) {
+        return encode(regionId, positions, null);
+    }
+
+    /***
+     * @param tags The tag of every tile in the order of the positions, or null to leave the tiles untagged.
+     */
+    static RegionTiles encode(int regionId, BitSet positions, long[] tags) {
+        int count = positions.cardinality();
+        byte[] bitmap = positions.toByteArray();
+        long[] tagRuns = tags == null ? null : encodeTags(tags);
+
+        // A position takes about 6 characters in a JSON list, a bitmap byte about 1.4 once base64 encoded
+        if (bitmap.length * 4 / 3 < count * 6) {
+            return new RegionTiles(regionId, null, Base64.getEncoder().encodeToString(bitmap), tagRuns);
+        }
+        return new RegionTiles(regionId, positions.stream().toArray(), null, tagRuns);
+    }
+
+    /***
+     * Run-length encodes tags as tag, count pairs. Tiles marked together share a tag, so the runs are usually long.
+     */
+    static long[] encodeTags(long[] tags) {
+        long[] runs = new long[16];
+        int length = 0;
+        for (int i = 0; i < tags.length; i++) {
+            if (length > 0 && runs[length - 2] == tags[i]) {
+                runs[length - 1]++;
+                continue;
+            }
+            if (length == runs.length) {
+                runs = Arrays.copyOf(runs, length * 2);
+            }
+            runs[length++] = tags[i];
+            runs[length++] = 1;
+        }
+        return Arrays.copyOf(runs, length);
+    }
+
+    /***
+     * @return The tag of the tile at index in run-length encoded tags, 0 if the tiles are untagged.
+     */
+    static long tagAt(long[] tagRuns, int index) {
+        if (tagRuns == null) {
+            return 0;
+        }
+
+        for (int run = 0; run + 1 < tagRuns.length; run += 2) {
+            if (index < tagRuns[run + 1]) {
+                return tagRuns[run];
+            }
+            index -= tagRuns[run + 1];
+        }
+        return 0;
+    }
+
+    /***
+     * Reads run-length encoded tags in the order of their tiles, without scanning the runs again for every tile as
+     * {@link #tagAt} does.
+     */
+    static final class TagCursor {
+        private final long[] tagRuns;
+        private int run;
+        private long left;
+
+        /***
+         * @param tagRuns The tags, null if the tiles are untagged.
+         */
+        TagCursor(long[] tagRuns) {
+            this.tagRuns = tagRuns;
+            left = tagRuns == null || tagRuns.length < 2 ? 0 : tagRuns[1];
+        }
+
+        /***
+         * @return The tag of the next tile, 0 past the last run or if the tiles are untagged.
+         */
+        long next() {
+            while (left <= 0) {
+                if (tagRuns == null || run + 3 >= tagRuns.length) {
+                    return 0;
+                }
+                run += 2;
+                left = tagRuns[run + 1];
+            }
+            left--;
+            return tagRuns[run];
+        }
+    }
+
+    static List<TilemanModeTile> decode(RegionTiles region, String playerName) {
+        return TileKeys.toTiles(decodeKeys(region), playerName);
+    }
+
+    /***
+     * Decodes the region's tiles as packed keys, positions outside the region are dropped.
+     */
+    static int[] decodeKeys(RegionTiles region) {
+        int regionKey = TileKeys.pack(region.getId(), 0, 0, 0);
+
+        if (region.getBitmap() != null) {
+            BitSet positions = BitSet.valueOf(Base64.getDecoder().decode(region.getBitmap()));
+            return positions.stream()
+                    .filter(position -> position < REGION_POSITIONS)
+                    .map(position -> regionKey | position)
+                    .toArray();
+        } else if (region.getTiles() != null) {
+            return Arrays.stream(region.getTiles())
+                    .filter(position -> position >= 0 && position < REGION_POSITIONS)
+                    .map(position -> regionKey | position)
+                    .toArray();
+        }
+        return new int[0];
+    }
+}
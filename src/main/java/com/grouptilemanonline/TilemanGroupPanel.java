@@ -45,11 +45,9 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
-import java.io.IOException;
 import java.util.*;
 import java.util.List;
-
-import okhttp3.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Singleton
@@ -61,13 +59,13 @@ public class TilemanGroupPanel extends PluginPanel {
     private static final String BTN_JOIN_GROUP_TEXT = "Join group";
     private static final String BTN_COPY_CODE_TEXT = "Copy Join Code";
     private static final String BTN_LEAVE_GROUP_TEXT = "Leave Group";
-
-    private static final MediaType JSON
-            = MediaType.parse("application/json; charset=utf-8");
+    private static final String BTN_CANCEL_TEXT = "Cancel";
 
     private final JButton startButton = new JButton();
     private final JButton joinButton = new JButton();
     private final JButton copyJoinCodeButton = new JButton();
+    private final JButton cancelButton = new JButton();
+    private final JLabel statusLabel = new JLabel();
 
     private final PluginErrorPanel noGroupPanel = new PluginErrorPanel();
     private final PluginErrorPanel activeGroupPanel = new PluginErrorPanel();
@@ -77,23 +75,26 @@ public class TilemanGroupPanel extends PluginPanel {
 
     private final Gson gson;
 
-    private final OkHttpClient httpClient;
+    private final GroupService groupService;
 
     private final DatabaseIntegrationManager databaseIntegrationManager;
 
+    // The create, join or leave in progress, only touched on the EDT
+    private CompletableFuture<Void> operation;
+
     @Inject
     public TilemanGroupPanel(TilemanModePlugin plugin,
                              Client client,
                              ClientThread clientThread,
                              ConfigManager configManager,
                              Gson gson,
-                             OkHttpClient httpClient,
+                             GroupService groupService,
                              DatabaseIntegrationManager databaseIntegrationManager) {
         this.plugin = plugin;
         this.client = client;
         this.configManager = configManager;
         this.gson = gson;
-        this.httpClient = httpClient;
+        this.groupService = groupService;
         this.databaseIntegrationManager = databaseIntegrationManager;
 
         setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -125,6 +126,14 @@ public class TilemanGroupPanel extends PluginPanel {
         c.gridx = 1;
         c.gridy = 0;
         topPanel.add(copyJoinCodeButton, c);
+
+        c.gridx = 0;
+        c.gridy = 1;
+        topPanel.add(statusLabel, c);
+
+        c.gridx = 1;
+        c.gridy = 1;
+        topPanel.add(cancelButton, c);
         layoutPanel.add(topPanel);
 
         startButton.setText(isInGroup() ? BTN_LEAVE_GROUP_TEXT : BTN_CREATE_GROUP_TEXT);
@@ -137,6 +146,10 @@ public class TilemanGroupPanel extends PluginPanel {
         copyJoinCodeButton.setText(BTN_COPY_CODE_TEXT);
         copyJoinCodeButton.setFocusable(false);
 
+        cancelButton.setText(BTN_CANCEL_TEXT);
+        cancelButton.setFocusable(false);
+        cancelButton.setVisible(false);
+
         startButton.addActionListener(e ->
         {
             if(Strings.isNullOrEmpty(plugin.getPlayerName())){
@@ -153,39 +166,16 @@ public class TilemanGroupPanel extends PluginPanel {
 
                 if (result == JOptionPane.YES_OPTION)
                 {
-                    LeaveGroupObject bodyContents = new LeaveGroupObject(plugin.getPlayerName(), plugin.getGroupJoinCode());
-
-                    RequestBody body = RequestBody.create(JSON, gson.toJson(bodyContents));
-
-                    Request request = new Request.Builder()
-                            .url(TilemanModePlugin.DATABASE_URL + "/LeaveGroup")
-                            .post(body)
-                            .build();
-
-                    Call call = httpClient.newCall(request);
-                    Response response = null;
-                    try {
-                        response = call.execute();
-                    } catch (IOException ex) {
-                        log.error("Unable to leave group");
-                        updateGroup();
-                        return;
-                    }
-
-                    if (response.code() != 200) {
-                        log.error("Unable to leave group");
-                        return;
-                    }
-
-                    configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", "");
-                    updateGroup();
+                    track(groupService.leaveGroup(this::showProgress));
                 }
             }
             else
             {
-                // Create party
+                // Create party, item names are only available on the client thread
+                setBusy(true);
                 clientThread.invokeLater(() -> {
-                        this.generatePassphrase();
+                    final String passphrase = this.generatePassphrase();
+                    SwingUtilities.invokeLater(() -> track(groupService.createGroup(passphrase, this::showProgress)));
                 });
             }
         });
@@ -225,25 +215,15 @@ public class TilemanGroupPanel extends PluginPanel {
                     }
                 }
 
-                configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", s);
-
-                AddTilesObject bodyContents = new AddTilesObject(plugin.getPlayerName(), s, databaseIntegrationManager.getPlayerTiles());
-
-                RequestBody body = RequestBody.create(JSON, gson.toJson(bodyContents));
-
-                boolean tilesAdded = false;
-                try {
-                    tilesAdded = plugin.addPlayerTilesToDB();
-                } catch (IOException ex) {
-                    // Do nothing, handled by conditional after
-                }
-
-                if (!tilesAdded) {
-                    log.error("Unable to join group");
-                    configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", "");
-                }
+                track(groupService.joinGroup(s, this::showProgress));
+            }
+        });
 
-                updateGroup();
+        cancelButton.addActionListener(e ->
+        {
+            if (operation != null)
+            {
+                operation.cancel(true);
             }
         });
 
@@ -261,6 +241,52 @@ public class TilemanGroupPanel extends PluginPanel {
         updateGroup();
     }
 
+    /***
+     * Shows the operation's progress until it completes, with the option to cancel it.
+     */
+    private void track(CompletableFuture<Void> operation) {
+        this.operation = operation;
+        setBusy(true);
+        operation.whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+            if (this.operation != operation) {
+                return;
+            }
+
+            this.operation = null;
+            setBusy(false);
+            if (operation.isCancelled()) {
+                statusLabel.setText("Cancelled");
+            } else if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                statusLabel.setText(cause.getMessage());
+            } else {
+                statusLabel.setText("");
+            }
+            updateGroup();
+        }));
+    }
+
+    private void showProgress(String message) {
+        SwingUtilities.invokeLater(() -> statusLabel.setText(message));
+    }
+
+    /***
+     * Shows how much of a large pull is applied, unless a create, join or leave is in progress.
+     */
+    void showImportProgress(int applied, int total) {
+        SwingUtilities.invokeLater(() -> {
+            if (operation == null) {
+                statusLabel.setText(applied < total ? "Loading group tiles... " + applied * 100 / total + "%" : "");
+            }
+        });
+    }
+
+    private void setBusy(boolean busy) {
+        startButton.setEnabled(!busy);
+        joinButton.setEnabled(!busy);
+        cancelButton.setVisible(busy);
+    }
+
     private void updateGroup(){
         remove(noGroupPanel);
         remove(activeGroupPanel);
@@ -290,9 +316,11 @@ public class TilemanGroupPanel extends PluginPanel {
             activeGroupPanel.setContent("Group Active!", groupPanelText);
             add(activeGroupPanel);
         }
+        revalidate();
+        repaint();
     }
 
-    private void generatePassphrase() {
+    private String generatePassphrase() {
         assert client.isClientThread();
 
         Random r = new Random();
@@ -340,24 +368,7 @@ public class TilemanGroupPanel extends PluginPanel {
 
         String partyPassphrase = sb.toString();
         log.debug("Generated group passphrase {}", partyPassphrase);
-
-        configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", partyPassphrase);
-
-        AddTilesObject bodyContents = new AddTilesObject(plugin.getPlayerName(), partyPassphrase, databaseIntegrationManager.getPlayerTiles());
-
-        boolean tilesAdded = false;
-        try {
-            tilesAdded = plugin.addPlayerTilesToDB();
-        } catch (IOException e) {
-            // Do nothing, handled by conditional later
-        }
-
-        if (!tilesAdded) {
-            log.error("Unable to create group");
-            configManager.setConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode", "");
-        }
-
-        updateGroup();
+        return partyPassphrase;
     }
 
     private boolean isInGroup() {
@@ -54,6 +54,22 @@ public interface TilemanModeConfig extends Config {
     )
     String customGameModeSection = "customGameMode";
 
+    @ConfigSection(
+            name = "Region Rules",
+            description = "Regions where tiles are not auto-marked or not counted",
+            position = 98,
+            closedByDefault = true
+    )
+    String regionRulesSection = "regionRules";
+
+    @ConfigSection(
+            name = "Group Sync",
+            description = "Where group tiles are synced",
+            position = 97,
+            closedByDefault = true
+    )
+    String groupSyncSection = "groupSync";
+
     public enum TilemanGameMode {
         COMMUNITY,
         STRICT,
@@ -193,6 +209,74 @@ public interface TilemanModeConfig extends Config {
     )
     default Color groupMarkerColor4() { return markerColor().MAGENTA; }
 
+    @ConfigItem(
+            keyName = "bulkMarkTools",
+            name = "Area mark tools",
+            section = settingsSection,
+            description = "Adds shift-click options to unlock or clear a rectangle of tiles, or fill the walkable tiles around a tile",
+            position = 11
+    )
+    default boolean bulkMarkTools() { return false; }
+
+    @Range(
+            min = 1,
+            max = 32
+    )
+    @ConfigItem(
+            keyName = "bulkFillRadius",
+            name = "Fill radius",
+            section = settingsSection,
+            description = "How far 'Fill Tileman tiles' can spread from the selected tile",
+            position = 12
+    )
+    default int bulkFillRadius() { return 5; }
+
+    @ConfigItem(
+            keyName = "undoHotkey",
+            name = "Undo hotkey",
+            section = settingsSection,
+            description = "Reverts your last tile change, also available with ::tileundo [count|30s|5m]",
+            position = 13
+    )
+    default Keybind undoHotkey() { return Keybind.NOT_SET; }
+
+    @ConfigItem(
+            keyName = "redoHotkey",
+            name = "Redo hotkey",
+            section = settingsSection,
+            description = "Reapplies the last undone tile change, also available with ::tileredo [count]",
+            position = 14
+    )
+    default Keybind redoHotkey() { return Keybind.NOT_SET; }
+
+    @ConfigItem(
+            keyName = "highlightLockedTiles",
+            name = "Highlight locked tiles",
+            section = settingsSection,
+            description = "Highlights the walkable tiles near you that nobody in your group has unlocked yet",
+            position = 15
+    )
+    default boolean highlightLockedTiles() { return false; }
+
+    @Alpha
+    @ConfigItem(
+            keyName = "lockedTileColor",
+            name = "Locked Tile Color",
+            section = settingsSection,
+            description = "Configures the color of highlighted locked tiles",
+            position = 16
+    )
+    default Color lockedTileColor() { return new Color(255, 0, 0, 50); }
+
+    @ConfigItem(
+            keyName = "showUnlockedGuidance",
+            name = "Show way back",
+            section = settingsSection,
+            description = "When standing on a locked tile, shows the direction and distance to the nearest unlocked tile",
+            position = 17
+    )
+    default boolean showUnlockedGuidance() { return false; }
+
     @ConfigItem(
             keyName = "disableBanking",
             name = "Disable Banking",
@@ -202,6 +286,57 @@ public interface TilemanModeConfig extends Config {
     )
     default boolean disableBanking() { return false; }
 
+    /***   Group Sync section   ***/
+    @ConfigItem(
+            keyName = "backendUrl",
+            name = "Backend URL",
+            description = "URL of the group tile backend, leave empty to use the default one",
+            section = groupSyncSection,
+            position = 1
+    )
+    default String backendUrl() { return ""; }
+
+    @ConfigItem(
+            keyName = "pushUpdates",
+            name = "Push updates",
+            description = "Keep a connection open so group tiles show up as soon as they are marked, instead of polling",
+            section = groupSyncSection,
+            position = 2
+    )
+    default boolean pushUpdates() { return true; }
+
+    @Range(
+            min = 1,
+            max = 20
+    )
+    @ConfigItem(
+            keyName = "importBudget",
+            name = "Import time per tick (ms)",
+            description = "How long each game tick may spend showing a large batch of group tiles, the rest waits for the next ticks",
+            section = groupSyncSection,
+            position = 3
+    )
+    default int importBudget() { return 2; }
+
+    /***   Region Rules section   ***/
+    @ConfigItem(
+            keyName = "excludedRegions",
+            name = "Excluded regions",
+            description = "Comma separated list of region ids where tiles are never auto-marked",
+            section = regionRulesSection,
+            position = 1
+    )
+    default String excludedRegions() { return ""; }
+
+    @ConfigItem(
+            keyName = "freeRegions",
+            name = "Free regions",
+            description = "Comma separated list of region ids whose tiles do not count towards your tiles used",
+            section = regionRulesSection,
+            position = 2
+    )
+    default String freeRegions() { return ""; }
+
     /***   Custom Game Mode section   ***/
     @ConfigItem(
             keyName = "enableCustomGameMode",
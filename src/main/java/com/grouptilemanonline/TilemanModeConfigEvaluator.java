@@ -27,6 +27,7 @@
 package com.grouptilemanonline;
 
 import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.config.Keybind;
 
 import javax.inject.Inject;
 import java.awt.*;
@@ -127,6 +128,36 @@ class TilemanModeConfigEvaluator implements TilemanModeConfig {
     @Override
     public boolean disableBanking() { return config.disableBanking(); }
 
+    @Override
+    public boolean bulkMarkTools() { return config.bulkMarkTools(); }
+
+    @Override
+    public int bulkFillRadius() { return config.bulkFillRadius(); }
+
+    @Override
+    public Keybind undoHotkey() { return config.undoHotkey(); }
+
+    @Override
+    public Keybind redoHotkey() { return config.redoHotkey(); }
+
+    @Override
+    public boolean showUnlockedGuidance() { return config.showUnlockedGuidance(); }
+
+    @Override
+    public String excludedRegions() { return config.excludedRegions(); }
+
+    @Override
+    public String freeRegions() { return config.freeRegions(); }
+
+    @Override
+    public String backendUrl() { return config.backendUrl(); }
+
+    @Override
+    public boolean pushUpdates() { return config.pushUpdates(); }
+
+    @Override
+    public int importBudget() { return config.importBudget(); }
+
     @Override
     public Color groupMarkerColor1() { return config.groupMarkerColor1(); }
 
@@ -31,6 +31,8 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import net.runelite.api.Client;
 import net.runelite.api.Perspective;
+import net.runelite.api.Player;
+import net.runelite.api.Point;
 import net.runelite.api.coords.LocalPoint;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.config.ConfigManager;
@@ -46,6 +48,8 @@ import java.util.stream.Collectors;
 public class TilemanModeOverlay extends Overlay
 {
 	private static final int MAX_DRAW_DISTANCE = 32;
+	private static final int ARROW_HEAD_LENGTH = 12;
+	private static final double ARROW_HEAD_ANGLE = Math.PI / 6;
 
 	private final Client client;
 	private final TilemanModePlugin plugin;
@@ -72,6 +76,11 @@ public class TilemanModeOverlay extends Overlay
 	@Override
 	public Dimension render(Graphics2D graphics)
 	{
+		if (config.highlightLockedTiles())
+		{
+			drawLockedTiles(graphics);
+		}
+
 		final Collection<TilemanModeTile> points = plugin.getPoints();
 		for (final TilemanModeTile tilemanPoint : points)
 		{
@@ -86,6 +95,11 @@ public class TilemanModeOverlay extends Overlay
 			drawTile(graphics, point, tilemanPoint.getPlayerName());
 		}
 
+		if (config.showUnlockedGuidance())
+		{
+			drawGuidance(graphics);
+		}
+
 		return null;
 	}
 
@@ -104,16 +118,96 @@ public class TilemanModeOverlay extends Overlay
 			return;
 		}
 
+		drawTile(graphics, lp, getTileColor(playerName));
+	}
+
+	private void drawTile(Graphics2D graphics, LocalPoint lp, Color tileColor)
+	{
 		Polygon poly = Perspective.getCanvasTilePoly(client, lp);
 		if (poly == null)
 		{
 			return;
 		}
 
-		Color tileColor = getTileColor(playerName);
+		OverlayUtil.renderPolygon(graphics, poly, tileColor);
+	}
+
+	private void drawLockedTiles(Graphics2D graphics)
+	{
+		final Player player = client.getLocalPlayer();
+		if (player == null)
+		{
+			return;
+		}
 
+		final LocalPoint playerLocation = player.getLocalLocation();
+		final SceneTileMask locked = plugin.getSceneMasks().locked(client.getPlane());
+		final Color lockedColor = config.lockedTileColor();
 
-		OverlayUtil.renderPolygon(graphics, poly, tileColor);
+		// Only walk the rows and columns of the mask within draw distance of the player
+		final int minX = Math.max(0, playerLocation.getSceneX() - MAX_DRAW_DISTANCE + 1);
+		final int maxX = Math.min(SceneTileMask.SIZE - 1, playerLocation.getSceneX() + MAX_DRAW_DISTANCE - 1);
+		final int minY = Math.max(0, playerLocation.getSceneY() - MAX_DRAW_DISTANCE + 1);
+		final int maxY = Math.min(SceneTileMask.SIZE - 1, playerLocation.getSceneY() + MAX_DRAW_DISTANCE - 1);
+		for (int y = minY; y <= maxY; y++)
+		{
+			final int rowEnd = SceneTileMask.index(maxX, y);
+			for (int index = locked.nextSetBit(SceneTileMask.index(minX, y)); index >= 0 && index <= rowEnd; index = locked.nextSetBit(index + 1))
+			{
+				drawTile(graphics, LocalPoint.fromScene(SceneTileMask.sceneX(index), y), lockedColor);
+			}
+		}
+	}
+
+	private void drawGuidance(Graphics2D graphics)
+	{
+		final int[] path = plugin.getGuidancePath();
+		final Player player = client.getLocalPlayer();
+		if (path.length == 0 || player == null)
+		{
+			return;
+		}
+
+		// An arrow along the first few steps from the player towards the nearest unlocked tile
+		final int[] xPoints = new int[path.length + 1];
+		final int[] yPoints = new int[path.length + 1];
+		Point start = Perspective.localToCanvas(client, player.getLocalLocation(), client.getPlane());
+		if (start == null)
+		{
+			return;
+		}
+		xPoints[0] = start.getX();
+		yPoints[0] = start.getY();
+
+		int count = 1;
+		for (int index : path)
+		{
+			Point step = Perspective.localToCanvas(client, LocalPoint.fromScene(SceneTileMask.sceneX(index), SceneTileMask.sceneY(index)), client.getPlane());
+			if (step == null)
+			{
+				break;
+			}
+			xPoints[count] = step.getX();
+			yPoints[count] = step.getY();
+			count++;
+		}
+
+		if (count < 2)
+		{
+			return;
+		}
+
+		graphics.setColor(config.markerColor());
+		graphics.setStroke(new BasicStroke(2));
+		graphics.drawPolyline(xPoints, yPoints, count);
+
+		final double angle = Math.atan2(yPoints[count - 1] - yPoints[count - 2], xPoints[count - 1] - xPoints[count - 2]);
+		for (double side : new double[]{-ARROW_HEAD_ANGLE, ARROW_HEAD_ANGLE})
+		{
+			graphics.drawLine(xPoints[count - 1], yPoints[count - 1],
+				(int) (xPoints[count - 1] - ARROW_HEAD_LENGTH * Math.cos(angle + side)),
+				(int) (yPoints[count - 1] - ARROW_HEAD_LENGTH * Math.sin(angle + side)));
+		}
 	}
 
 	private Color getTileColor(String playerName) {
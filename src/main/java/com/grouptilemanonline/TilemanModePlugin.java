@@ -29,6 +29,7 @@ package com.grouptilemanonline;
 import com.google.common.base.Strings;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import com.google.inject.Provides;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -42,19 +43,22 @@ import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
+import net.runelite.client.input.KeyManager;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
 import net.runelite.client.task.Schedule;
 import net.runelite.client.ui.ClientToolbar;
 import net.runelite.client.ui.NavigationButton;
 import net.runelite.client.ui.overlay.OverlayManager;
+import net.runelite.client.util.HotkeyListener;
 import net.runelite.client.util.ImageUtil;
-import okhttp3.*;
 
 import javax.inject.Inject;
-import java.io.IOException;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -68,21 +72,45 @@ public class TilemanModePlugin extends Plugin {
     private static final String MARK = "Unlock Tileman tile";
     private static final String UNMARK = "Clear Tileman tile";
     private static final String WALK_HERE = "Walk here";
+    private static final String AREA_START = "Start Tileman area";
+    private static final String AREA_MARK = "Unlock Tileman area";
+    private static final String AREA_UNMARK = "Clear Tileman area";
+    private static final String AREA_CANCEL = "Cancel Tileman area";
+    private static final String FILL_MARK = "Fill Tileman tiles";
+    private static final String UNDO_COMMAND = "tileundo";
+    private static final String REDO_COMMAND = "tileredo";
+    private static final int HISTORY_CAPACITY = 1 << 15;
+    private static final int DISTANCE_FIELD_BUDGET = 2048;
+    private static final int GUIDANCE_PATH_LENGTH = 8;
+    // Pulls changing more tiles than this are applied over several game ticks
+    private static final int LARGE_IMPORT_TILES = 10_000;
+    // Regions applied at a time before checking the tick's import budget
+    private static final int IMPORT_SLICE_REGIONS = 8;
+    // Minimum time between writes of the cached group tiles while playing
+    private static final long GROUP_CACHE_INTERVAL_MILLIS = 30_000;
     public static final String REGION_PREFIX = "region_";
     public static final String DATABASE_URL = "https://functions-node-1-grouptile.harperdbcloud.com/tileman";
 
-    private static final MediaType JSON
-            = MediaType.parse("application/json; charset=utf-8");
-
     private static final Gson gson = new Gson();
 
-    private static final OkHttpClient httpClient = new OkHttpClient();
-
     private TilemanGroupPanel panel;
 
     @Getter(AccessLevel.PACKAGE)
     private final List<TilemanModeTile> points = new ArrayList<>();
 
+    @Getter(AccessLevel.PACKAGE)
+    private volatile SceneMasks sceneMasks = new SceneMasks();
+
+    // Steps from the player towards the nearest unlocked tile as scene tile indexes, empty when on an unlocked tile
+    @Getter(AccessLevel.PACKAGE)
+    private volatile int[] guidancePath = new int[0];
+
+    @Getter(AccessLevel.PACKAGE)
+    private volatile int nearestUnlockedDistance = UnlockedDistanceField.UNREACHABLE;
+
+    @Getter(AccessLevel.PACKAGE)
+    private volatile String nearestUnlockedDirection = "";
+
     @Inject
     private Client client;
 
@@ -116,12 +144,44 @@ public class TilemanModePlugin extends Plugin {
     @Inject
     private ClientThread clientThread;
 
+    @Inject
+    private RegionRules regionRules;
+
+    @Inject
+    private KeyManager keyManager;
+
+    @Inject
+    private TileUploader tileUploader;
+
+    @Inject
+    private TileWireFormat wireFormat;
+
+    @Inject
+    private TileOrSet tileOrSet;
+
+    @Inject
+    private TileLayers tileLayers;
+
+    @Inject
+    private GroupWatcher groupWatcher;
+
+    @Inject
+    private SyncBackend syncBackend;
+
+    @Inject
+    private ScheduledExecutorService executor;
+
 
     @Provides
     TilemanModeConfig provideConfig(ConfigManager configManager) {
         return configManager.getConfig(TilemanModeConfig.class);
     }
 
+    @Provides
+    SyncBackend provideSyncBackend(HttpSyncBackend backend) {
+        return backend;
+    }
+
     private final MovementFlag[] fullBlock = new MovementFlag[]
             {MovementFlag.BLOCK_MOVEMENT_FLOOR,
                     MovementFlag.BLOCK_MOVEMENT_FLOOR_DECORATION,
@@ -140,19 +200,59 @@ public class TilemanModePlugin extends Plugin {
                     MovementFlag.BLOCK_MOVEMENT_WEST
             };
 
-    private final HashSet<Integer> tutorialIslandRegionIds = new HashSet<Integer>();
-
     private int totalTilesUsed, remainingTiles, xpUntilNextTile, personalTilesUsed;
     private LocalPoint lastTile;
     private int lastPlane;
     private boolean lastAutoTilesConfig = false;
-    private boolean inHouse = false;
+    private LocalPoint areaStart;
+    private int areaStartPlane;
+    private final TileHistory history = new TileHistory(HISTORY_CAPACITY);
+    private final UnlockedDistanceField distanceField = new UnlockedDistanceField();
+    private final GroupSyncState groupSyncState = new GroupSyncState();
+    private final GroupSubscription groupSubscription = new GroupSubscription();
+    private final TileImportQueue importQueue = new TileImportQueue();
+    private GroupReplica groupReplica;
+    private TileChangeApplier tileChangeApplier;
+    private final GroupStateCache groupStateCache = new GroupStateCache(TileUploader.DATA_DIRECTORY, gson);
+    // The player and group the replicated group tiles belong to, and whether they changed since they were cached
+    private String groupStatePlayer;
+    private String groupStateGroup;
+    private volatile boolean groupStateChanged;
+    private long groupStateSavedAt;
+    // The player whose set aside tiles were put back, and whether the stored tiles were split this session
+    private volatile String memberTilesRestored;
+    private boolean memberTilesSplit;
+    private String splitPending;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final GroupSyncScheduler groupSyncScheduler = new GroupSyncScheduler();
+    private SceneMasks distanceFieldMasks;
+    private int distanceFieldPlane = -1;
+
+    private final HotkeyListener undoHotkeyListener = new HotkeyListener(() -> config.undoHotkey()) {
+        @Override
+        public void hotkeyPressed() {
+            clientThread.invoke(() -> undoTileChanges(1));
+        }
+    };
+
+    private final HotkeyListener redoHotkeyListener = new HotkeyListener(() -> config.redoHotkey()) {
+        @Override
+        public void hotkeyPressed() {
+            clientThread.invoke(() -> redoTileChanges(1));
+        }
+    };
     private long totalXp;
 
     @Subscribe
     public void onMenuOptionClicked(MenuOptionClicked event) {
-        if (event.getMenuAction().getId() != MenuAction.RUNELITE.getId() ||
-                !(event.getMenuOption().equals(MARK) || event.getMenuOption().equals(UNMARK))) {
+        if (event.getMenuAction().getId() != MenuAction.RUNELITE.getId()) {
+            return;
+        }
+
+        final String option = event.getMenuOption();
+        if (!(option.equals(MARK) || option.equals(UNMARK) || option.equals(AREA_START) || option.equals(AREA_MARK)
+                || option.equals(AREA_UNMARK) || option.equals(AREA_CANCEL) || option.equals(FILL_MARK))) {
             return;
         }
 
@@ -160,7 +260,27 @@ public class TilemanModePlugin extends Plugin {
         if (target == null) {
             return;
         }
-        handleMenuOption(target.getLocalLocation(), event.getMenuOption().equals(MARK));
+
+        switch (option) {
+            case MARK:
+            case UNMARK:
+                handleMenuOption(target.getLocalLocation(), option.equals(MARK));
+                break;
+            case AREA_START:
+                areaStart = target.getLocalLocation();
+                areaStartPlane = client.getPlane();
+                break;
+            case AREA_MARK:
+            case AREA_UNMARK:
+                handleAreaOption(target.getLocalLocation(), option.equals(AREA_MARK));
+                break;
+            case AREA_CANCEL:
+                areaStart = null;
+                break;
+            case FILL_MARK:
+                handleFillOption(target.getLocalLocation());
+                break;
+        }
     }
 
     @Subscribe
@@ -184,27 +304,83 @@ public class TilemanModePlugin extends Plugin {
                     .setTarget(event.getTarget())
                     .setType(MenuAction.RUNELITE);
 
+            if (config.bulkMarkTools()) {
+                if (areaStart == null) {
+                    addMenuEntry(AREA_START, event.getTarget());
+                    addMenuEntry(FILL_MARK, event.getTarget());
+                } else {
+                    addMenuEntry(AREA_CANCEL, event.getTarget());
+                    addMenuEntry(AREA_UNMARK, event.getTarget());
+                    addMenuEntry(AREA_MARK, event.getTarget());
+                }
+            }
+        }
+    }
+
+    private void addMenuEntry(String option, String target) {
+        client.createMenuEntry(-1)
+                .setOption(option)
+                .setTarget(target)
+                .setType(MenuAction.RUNELITE);
+    }
+
+    @Subscribe
+    public void onCommandExecuted(CommandExecuted commandExecuted) {
+        final String command = commandExecuted.getCommand();
+        if (!command.equalsIgnoreCase(UNDO_COMMAND) && !command.equalsIgnoreCase(REDO_COMMAND)) {
+            return;
+        }
+
+        // Either a number of operations, or a time window such as 30s or 5m when undoing
+        final String[] arguments = commandExecuted.getArguments();
+        final String argument = arguments.length > 0 ? arguments[0].toLowerCase() : "1";
+        try {
+            if (command.equalsIgnoreCase(REDO_COMMAND)) {
+                redoTileChanges(Integer.parseInt(argument));
+            } else if (argument.endsWith("s") || argument.endsWith("m")) {
+                long window = Long.parseLong(argument.substring(0, argument.length() - 1)) * (argument.endsWith("m") ? 60_000 : 1_000);
+                undoTileChangesSince(System.currentTimeMillis() - window);
+            } else {
+                undoTileChanges(Integer.parseInt(argument));
+            }
+        } catch (NumberFormatException e) {
+            sendChatMessage("Usage: ::" + UNDO_COMMAND + " [count|30s|5m], ::" + REDO_COMMAND + " [count]");
         }
     }
 
     @Subscribe
     public void onGameTick(GameTick tick) {
         autoMark();
+        updateGuidance();
+        applyQueuedImports();
     }
 
     @Subscribe
     public void onGameStateChanged(GameStateChanged gameStateChanged) {
         if (gameStateChanged.getGameState() != GameState.LOGGED_IN) {
             lastTile = null;
+            areaStart = null;
+            // Collision maps are rebuilt with the scene, so the distance field has to start over
+            distanceFieldPlane = -1;
             return;
         }
         loadPoints();
         updateTileCounter();
-        inHouse = false;
+
+        // The map regions changed, pull the group's tiles there
+        int[] mapRegions = client.getMapRegions();
+        if (mapRegions != null && groupSubscription.setNearby(mapRegions)) {
+            groupSyncScheduler.pullSoon();
+        }
     }
 
     @Subscribe
     public void onConfigChanged(ConfigChanged event) {
+        if (event.getGroup().equals(CONFIG_GROUP)
+                && (event.getKey().equals("excludedRegions") || event.getKey().equals("freeRegions"))) {
+            regionRules.compile(config);
+        }
+
         final Player player = client.getLocalPlayer();
         // This event fired before login
         if (player == null) {
@@ -213,34 +389,34 @@ public class TilemanModePlugin extends Plugin {
         // Check if automark tiles is on, and if so attempt to step on current tile
         final WorldPoint playerPos = client.getLocalPlayer().getWorldLocation();
         final LocalPoint playerPosLocal = LocalPoint.fromWorld(client, playerPos);
-        if (playerPosLocal != null && config.automarkTiles() && !lastAutoTilesConfig) {
+        if (playerPosLocal != null && config.automarkTiles() && !lastAutoTilesConfig
+                && !isAutoMarkBlocked(playerPos, playerPosLocal)) {
             handleWalkedToTile(playerPosLocal);
         }
         lastAutoTilesConfig = config.automarkTiles();
         updateTileCounter();
     }
 
-
-    @Subscribe
-    public void onGameObjectSpawned(GameObjectSpawned event) {
-        GameObject gameObject = event.getGameObject();
-
-        if (gameObject.getId() == 4525) {
-            inHouse = true;
-        }
-    }
-
     @Override
     protected void startUp() {
-        tutorialIslandRegionIds.add(12079);
-        tutorialIslandRegionIds.add(12080);
-        tutorialIslandRegionIds.add(12335);
-        tutorialIslandRegionIds.add(12336);
-        tutorialIslandRegionIds.add(12592);
+        groupReplica = new GroupReplica(tileLayers, tileOrSet, groupSyncState, groupSubscription);
+        tileChangeApplier = new TileChangeApplier(new TileChangeApplier.Store() {
+            @Override
+            public Collection<TilemanModeTile> getLocalTiles(int regionId) {
+                return TilemanModePlugin.this.getLocalTiles(regionId);
+            }
+
+            @Override
+            public void savePoints(int regionId, Collection<TilemanModeTile> tiles) {
+                TilemanModePlugin.this.savePoints(regionId, tiles);
+            }
+        }, tileLayers, tileOrSet, tileUploader, history);
+        regionRules.compile(config);
         overlayManager.add(overlay);
         overlayManager.add(minimapOverlay);
         overlayManager.add(worldMapOverlay);
         overlayManager.add(infoOverlay);
+        databaseIntegrationManager.loadImportedTiles();
         loadPoints();
         updateTileCounter();
         log.debug("startup");
@@ -255,11 +431,18 @@ public class TilemanModePlugin extends Plugin {
 
         clientToolbar.addNavigation(navButton);
         databaseIntegrationManager.addImportExportMenuOptions();
+        keyManager.registerKeyListener(undoHotkeyListener);
+        keyManager.registerKeyListener(redoHotkeyListener);
     }
 
     @Override
     protected void shutDown() {
-        tutorialIslandRegionIds.clear();
+        keyManager.unregisterKeyListener(undoHotkeyListener);
+        keyManager.unregisterKeyListener(redoHotkeyListener);
+        history.clear();
+        tileUploader.close();
+        groupWatcher.stop();
+        saveGroupState(true);
         overlayManager.remove(overlay);
         overlayManager.remove(minimapOverlay);
         overlayManager.remove(worldMapOverlay);
@@ -283,8 +466,9 @@ public class TilemanModePlugin extends Plugin {
         // If we have no last tile, we probably just spawned in, so make sure we walk on our current tile
         if ((lastTile == null
                 || (lastTile.distanceTo(playerPosLocal) != 0 && lastPlane == playerPos.getPlane())
-                || lastPlane != playerPos.getPlane()) && !regionIsOnTutorialIsland(playerPos.getRegionID())) {
+                || lastPlane != playerPos.getPlane()) && !isAutoMarkBlocked(playerPos, playerPosLocal)) {
             // Player moved
+            groupSyncScheduler.playerMoved(System.currentTimeMillis());
             handleWalkedToTile(playerPosLocal);
             lastTile = playerPosLocal;
             lastPlane = client.getPlane();
@@ -297,6 +481,62 @@ public class TilemanModePlugin extends Plugin {
         }
     }
 
+    /***
+     * Advances the distance field to the nearest unlocked tile by one tick's worth of work and traces the
+     * player's path along it.
+     */
+    private void updateGuidance() {
+        if (!config.showUnlockedGuidance()) {
+            distanceFieldPlane = -1;
+            guidancePath = new int[0];
+            nearestUnlockedDistance = UnlockedDistanceField.UNREACHABLE;
+            return;
+        }
+
+        final Player player = client.getLocalPlayer();
+        final int[][] flags = getCollisionFlags();
+        if (player == null || flags == null) {
+            return;
+        }
+
+        final SceneMasks masks = sceneMasks;
+        final int plane = client.getPlane();
+        if (plane != distanceFieldPlane) {
+            distanceField.reset(flags, masks.unlocked(plane));
+            distanceFieldPlane = plane;
+            distanceFieldMasks = masks;
+        } else if (masks != distanceFieldMasks) {
+            distanceField.update(masks.unlocked(plane));
+            distanceFieldMasks = masks;
+        }
+
+        if (!distanceField.step(DISTANCE_FIELD_BUDGET)) {
+            // Keep showing the last path until the field settles
+            return;
+        }
+
+        final LocalPoint playerLocation = player.getLocalLocation();
+        final int[] path = new int[GUIDANCE_PATH_LENGTH];
+        final int length = distanceField.tracePath(playerLocation.getSceneX(), playerLocation.getSceneY(), path);
+        nearestUnlockedDistance = distanceField.distance(playerLocation.getSceneX(), playerLocation.getSceneY());
+        nearestUnlockedDirection = length == 0 ? "" : getCompassDirection(
+                SceneTileMask.sceneX(path[length - 1]) - playerLocation.getSceneX(),
+                SceneTileMask.sceneY(path[length - 1]) - playerLocation.getSceneY());
+        guidancePath = Arrays.copyOf(path, length);
+    }
+
+    private static String getCompassDirection(int dx, int dy) {
+        // Treat anything within roughly 22.5 degrees of an axis as a straight direction
+        String direction = "";
+        if (dy != 0 && Math.abs(dx) * 5 <= Math.abs(dy) * 12) {
+            direction += dy > 0 ? "N" : "S";
+        }
+        if (dx != 0 && Math.abs(dy) * 5 <= Math.abs(dx) * 12) {
+            direction += dx > 0 ? "E" : "W";
+        }
+        return direction;
+    }
+
     public void importGroundMarkerTiles() {
         // Get and store all the Ground Markers Regions
         List<String> groundMarkerRegions = getAllRegionIds("groundMarker");
@@ -315,7 +555,7 @@ public class TilemanModePlugin extends Plugin {
             if (tilemanModeRegions.contains(region)) {
                 // Create Empty ArrayList for Region;
                 // Get Tileman Region's tiles and add them to the region array list
-                ArrayList<TilemanModeTile> regionTiles = new ArrayList<>(getTiles(region));
+                ArrayList<TilemanModeTile> regionTiles = new ArrayList<>(getLocalTiles(Integer.parseInt(region)));
 
                 // Create int for regionOriginalSize;
                 // Set regionOriginalSize to arraylists length
@@ -340,6 +580,9 @@ public class TilemanModePlugin extends Plugin {
                 savePoints(Integer.parseInt(region), groundMarkerTiles);
             }
         }
+        // The imported tiles aren't tracked as individual changes, so send everything
+        tileUploader.requestSnapshot();
+        pushTileChanges();
         loadPoints();
     }
 
@@ -381,22 +624,38 @@ public class TilemanModePlugin extends Plugin {
         return region.substring(region.indexOf('_') + 1);
     }
 
+    /***
+     * @return The tiles of everyone in the group in the region, see {@link TileLayers}.
+     */
     Collection<TilemanModeTile> getTiles(int regionId) {
-        return getConfiguration(CONFIG_GROUP, REGION_PREFIX + regionId);
+        return tileLayers.compose(regionId, getLocalTiles(regionId));
     }
 
-    private Collection<TilemanModeTile> getTiles(String regionId) {
+    /***
+     * @return The local player's own tiles in the region.
+     */
+    private Collection<TilemanModeTile> getLocalTiles(int regionId) {
         return getConfiguration(CONFIG_GROUP, REGION_PREFIX + regionId);
     }
 
     private void updateTileCounter() {
-        List<String> regions = configManager.getConfigurationKeys(CONFIG_GROUP + ".region");
+        Set<Integer> regions = new HashSet<>(tileLayers.getRegionIds());
+        for (String regionId : getAllRegionIds(CONFIG_GROUP)) {
+            regions.add(Integer.parseInt(regionId));
+        }
+        // The other members' tiles in regions that aren't pulled are counted instead
+        Map<Integer, Integer> unsyncedCounts = groupSubscription.getUnsyncedCounts();
+        regions.addAll(unsyncedCounts.keySet());
+
         int totalTiles = 0;
         int personalTiles = 0;
-        for (String region : regions) {
-            Collection<TilemanModeTile> regionTiles = getTiles(removeRegionPrefix(region));
-            totalTiles += regionTiles.size();
-            regionTiles.removeIf(tile -> !tile.getPlayerName().equals(getPlayerName()));
+        for (int regionId : regions) {
+            if (regionRules.isFree(regionId)) {
+                continue;
+            }
+            Collection<TilemanModeTile> regionTiles = getLocalTiles(regionId);
+            int groupTiles = tileLayers.count(regionId, regionTiles);
+            totalTiles += Math.max(groupTiles, unsyncedCounts.getOrDefault(regionId, 0));
             personalTiles += regionTiles.size();
         }
 
@@ -461,6 +720,7 @@ public class TilemanModePlugin extends Plugin {
             //Collection<WorldPoint> worldPoint = translateToWorldPoint(getTiles(regionId));
             points.addAll(getTiles(regionId));
         }
+        updateSceneMasks();
         updateTileCounter();
     }
 
@@ -472,8 +732,6 @@ public class TilemanModePlugin extends Plugin {
 
         String json = gson.toJson(points);
         configManager.setConfiguration(CONFIG_GROUP, REGION_PREFIX + regionId, json);
-
-        addPlayerTilesToDBAsync();
     }
 
     int getTotalTiles() {
@@ -493,9 +751,101 @@ public class TilemanModePlugin extends Plugin {
         updateTileMark(selectedPoint, markedValue);
     }
 
+    private void handleAreaOption(LocalPoint areaEnd, boolean markedValue) {
+        final LocalPoint start = areaStart;
+        areaStart = null;
+        if (start == null || areaEnd == null || areaStartPlane != client.getPlane()) {
+            return;
+        }
+
+        SceneTileMask area = new SceneTileMask();
+        area.fillRect(start.getSceneX(), start.getSceneY(), areaEnd.getSceneX(), areaEnd.getSceneY());
+
+        final SceneMasks masks = sceneMasks;
+        final int plane = client.getPlane();
+        if (markedValue) {
+            area.and(masks.locked(plane));
+        } else {
+            area.and(masks.unlocked(plane));
+        }
+
+        applyTileChanges(toChangeBatch(area, markedValue));
+    }
+
+    private void handleFillOption(LocalPoint fillStart) {
+        final int[][] flags = getCollisionFlags();
+        if (fillStart == null || flags == null) {
+            return;
+        }
+
+        SceneTileMask fill = SceneCollision.floodFill(flags, fillStart.getSceneX(), fillStart.getSceneY(),
+                config.bulkFillRadius(), new SceneTileMask());
+        fill.andNot(sceneMasks.unlocked(client.getPlane()));
+
+        applyTileChanges(toChangeBatch(fill, true));
+    }
+
+    private TileChangeBatch toChangeBatch(SceneTileMask mask, boolean markedValue) {
+        final TileChangeBatch batch = new TileChangeBatch();
+        final String playerName = getPlayerName();
+        final int plane = client.getPlane();
+
+        for (int index = mask.nextSetBit(0); index >= 0; index = mask.nextSetBit(index + 1)) {
+            LocalPoint localPoint = LocalPoint.fromScene(SceneTileMask.sceneX(index), SceneTileMask.sceneY(index));
+            WorldPoint worldPoint = WorldPoint.fromLocalInstance(client, localPoint);
+            TilemanModeTile tile = new TilemanModeTile(worldPoint.getRegionID(), worldPoint.getRegionX(), worldPoint.getRegionY(), plane, playerName);
+            if (markedValue) {
+                batch.mark(tile);
+            } else {
+                batch.unmark(tile);
+            }
+        }
+        return batch;
+    }
+
+    /***
+     * Rebuilds the walkable, unlocked and locked bitmaps of every plane in the scene. Called once per scene load
+     * and tile change, so the overlays and area tools only ever do bitmap operations.
+     */
+    private void updateSceneMasks() {
+        CollisionData[] collisionData = client.getCollisionMaps();
+        if (collisionData == null) {
+            return;
+        }
+
+        SceneMasks masks = new SceneMasks();
+        for (int plane = 0; plane < collisionData.length && plane < SceneMasks.PLANES; plane++) {
+            SceneCollision.walkableMask(collisionData[plane].getFlags(), masks.walkable(plane));
+        }
+
+        for (TilemanModeTile tile : points) {
+            if (tile.getZ() < 0 || tile.getZ() >= SceneMasks.PLANES) {
+                continue;
+            }
+
+            WorldPoint worldPoint = WorldPoint.fromRegion(tile.getRegionId(), tile.getRegionX(), tile.getRegionY(), tile.getZ());
+            for (WorldPoint instancePoint : WorldPoint.toLocalInstance(client, worldPoint)) {
+                LocalPoint localPoint = LocalPoint.fromWorld(client, instancePoint);
+                if (localPoint != null) {
+                    masks.unlocked(tile.getZ()).set(localPoint.getSceneX(), localPoint.getSceneY());
+                }
+            }
+        }
+
+        masks.updateLocked();
+        sceneMasks = masks;
+    }
+
+    private int[][] getCollisionFlags() {
+        CollisionData[] collisionData = client.getCollisionMaps();
+        if (collisionData == null) {
+            return null;
+        }
+        return collisionData[client.getPlane()].getFlags();
+    }
+
     private void handleWalkedToTile(LocalPoint currentPlayerPoint) {
         if (currentPlayerPoint == null ||
-                inHouse ||
                 !config.automarkTiles()) {
             return;
         }
@@ -653,8 +1003,12 @@ public class TilemanModePlugin extends Plugin {
         return false;
     }
 
-    private boolean regionIsOnTutorialIsland(int regionId) {
-        return tutorialIslandRegionIds.contains(regionId);
+    private boolean isAutoMarkBlocked(WorldPoint playerPos, LocalPoint playerPosLocal) {
+        // Instances (e.g. the POH) are looked up by the region they were copied from
+        int regionId = client.isInInstancedRegion()
+                ? WorldPoint.fromLocalInstance(client, playerPosLocal).getRegionID()
+                : playerPos.getRegionID();
+        return regionRules.isAutoMarkBlocked(regionId);
     }
 
     private void fillTile(LocalPoint localPoint){
@@ -675,20 +1029,88 @@ public class TilemanModePlugin extends Plugin {
         TilemanModeTile point = new TilemanModeTile(regionId, worldPoint.getRegionX(), worldPoint.getRegionY(), client.getPlane(), getPlayerName());
         log.debug("Updating point: {} - {}", point, worldPoint);
 
-        List<TilemanModeTile> tilemanModeTiles = new ArrayList<>(getTiles(regionId));
-
+        TileChangeBatch batch = new TileChangeBatch();
         if (markedValue) {
-            // Try add tile
-            if (!tilemanModeTiles.contains(point) && (config.allowTileDeficit() || remainingTiles > 0)) {
-                tilemanModeTiles.add(point);
-            }
+            batch.mark(point);
         } else {
-            // Try remove tile
-            tilemanModeTiles.remove(point);
+            batch.unmark(point);
         }
+        applyTileChanges(batch);
+    }
 
-        savePoints(regionId, tilemanModeTiles);
-        loadPoints();
+    private void undoTileChanges(int count) {
+        TileChangeBatch batch = new TileChangeBatch();
+        useHistoryOwner();
+        int undone = history.undo(count, batch, getPlayerName());
+        applyTileChanges(batch, false);
+        sendChatMessage("Undid " + undone + " Tileman tile change" + (undone == 1 ? "" : "s") + ".");
+    }
+
+    private void undoTileChangesSince(long time) {
+        TileChangeBatch batch = new TileChangeBatch();
+        useHistoryOwner();
+        int undone = history.undoSince(time, batch, getPlayerName());
+        applyTileChanges(batch, false);
+        sendChatMessage("Undid " + undone + " Tileman tile change" + (undone == 1 ? "" : "s") + ".");
+    }
+
+    private void redoTileChanges(int count) {
+        TileChangeBatch batch = new TileChangeBatch();
+        useHistoryOwner();
+        int redone = history.redo(count, batch, getPlayerName());
+        applyTileChanges(batch, false);
+        sendChatMessage("Redid " + redone + " Tileman tile change" + (redone == 1 ? "" : "s") + ".");
+    }
+
+    /***
+     * Scopes the undo history to the current player and group.
+     */
+    private void useHistoryOwner() {
+        history.useOwner(getPlayerName(), Strings.nullToEmpty(getGroupJoinCode()));
+    }
+
+    private void sendChatMessage(String message) {
+        client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", message, null);
+    }
+
+    private int applyTileChanges(TileChangeBatch batch) {
+        return applyTileChanges(batch, true);
+    }
+
+    /***
+     * Applies every change in the batch, reading and writing each affected region once, then uploads and
+     * reloads the points a single time.
+     * @param recordHistory Whether the changes can be undone, false when applying an undo or redo.
+     * @return The number of tiles that were actually marked or unmarked.
+     */
+    private int applyTileChanges(TileChangeBatch batch, boolean recordHistory) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        if (recordHistory) {
+            useHistoryOwner();
+            history.beginOperation(System.currentTimeMillis());
+        }
+
+        Set<Integer> observedRegions = new HashSet<>();
+        int changed = tileChangeApplier.apply(batch, remainingTiles, config.allowTileDeficit(), recordHistory,
+                observedRegions);
+
+        boolean observed = tileLayers.apply(tileOrSet.regions(observedRegions));
+        groupStateChanged |= !observedRegions.isEmpty();
+
+        if (changed > 0) {
+            log.debug("Applied {} tile changes across {} regions", changed, batch.getRegionIds().size());
+        }
+        // The tombstones of other members' tiles go up with the next upload too
+        if (changed > 0 || !observedRegions.isEmpty()) {
+            pushTileChanges();
+        }
+        if (changed > 0 || observed) {
+            loadPoints();
+        }
+        return changed;
     }
 
     public String getPlayerName() {
@@ -699,88 +1121,405 @@ public class TilemanModePlugin extends Plugin {
         return configManager.getConfiguration(TilemanModePlugin.CONFIG_GROUP, "groupJoinCode");
     }
 
-    public boolean addPlayerTilesToDB() throws IOException {
-        AddTilesObject bodyContents = new AddTilesObject(this.getPlayerName(), this.getGroupJoinCode(), databaseIntegrationManager.getPlayerTiles());
+    /***
+     * Sends the local player's tile changes to the group. Only the tiles changed since the last upload are sent,
+     * unless the backend's sequence number no longer matches ours, in which case a full snapshot is sent instead.
+     * Changes made while an upload is in flight are sent together once it completes.
+     */
+    public void pushTileChanges() {
+        tileUploader.flush();
+    }
+
+    // Also run for pushed changes (see changePushed), synchronized so only one sync runs at a time
+    @Schedule(period = 1, unit = ChronoUnit.SECONDS)
+    public synchronized void syncGroupTiles() {
+        String playerName = getPlayerName();
+        String groupJoinCode = getGroupJoinCode();
+        // Logged out or hopping worlds, the group's tiles are kept for when the player is back
+        if (Strings.isNullOrEmpty(playerName)) {
+            groupWatcher.stop();
+            return;
+        }
+        // Tiles set aside for the player while another account of the profile played go back before any upload
+        if (!playerName.equals(memberTilesRestored)) {
+            clientThread.invokeLater(() -> restoreMemberTiles(playerName));
+            return;
+        }
 
-        RequestBody body = RequestBody.create(JSON, gson.toJson(bodyContents));
+        // Retries uploads that failed earlier
+        tileUploader.flush();
 
-        Request request = new Request.Builder()
-                .url(DATABASE_URL + "/AddTiles")
-                .post(body)
-                .build();
+        // The group tiles of the previous player or group are cached before they are forgotten
+        boolean switched = !playerName.equals(groupStatePlayer)
+                || !Strings.nullToEmpty(groupJoinCode).equals(groupStateGroup);
+        if (switched) {
+            saveGroupState(true);
+        }
 
-        Call call = httpClient.newCall(request);
-        Response response = call.execute();
+        // Switching the player or the group, or leaving it, drops the other members' tiles
+        if (groupReplica.use(playerName, groupJoinCode)) {
+            importQueue.clear();
+            clientThread.invokeLater(() -> loadPoints());
+        }
+        if (Strings.isNullOrEmpty(groupJoinCode)) {
+            groupWatcher.stop();
+            return;
+        }
 
-        if (response.code() != 200) {
-            log.error("Unable to add Tiles");
-            return false;
+        boolean loggedIn = client.getGameState() == GameState.LOGGED_IN;
+        groupSyncState.useGroup(groupJoinCode);
+        groupSubscription.useGroup(groupJoinCode);
+        tileOrSet.useGroup(groupJoinCode, playerName);
+        if (switched) {
+            restoreGroupState(playerName, groupJoinCode);
+        }
+        if (loggedIn && config.pushUpdates()) {
+            groupWatcher.watch(groupJoinCode, groupSyncState.getGroupVersion(), this::changePushed);
+        } else {
+            groupWatcher.stop();
+        }
+        groupSyncScheduler.setPushConnected(System.currentTimeMillis(), groupWatcher.isConnected());
+
+        if (groupSyncScheduler.shouldPull(System.currentTimeMillis(), loggedIn)) {
+            try {
+                getTilesFromDB(playerName, groupJoinCode);
+            } catch (RuntimeException e) {
+                groupSyncScheduler.pullFinished(System.currentTimeMillis(), false);
+                throw e;
+            }
         }
+        saveGroupState(false);
+    }
 
-        return true;
+    /***
+     * Pulls a change the backend pushed straight away instead of on the next scheduled sync, called from OkHttp.
+     */
+    private void changePushed() {
+        groupSyncScheduler.changePushed();
+        executor.execute(this::syncGroupTiles);
     }
 
-    public void addPlayerTilesToDBAsync() {
-        AddTilesObject bodyContents = new AddTilesObject(this.getPlayerName(), this.getGroupJoinCode(), databaseIntegrationManager.getPlayerTiles());
+    /***
+     * Shows the group's tiles as they were last cached for the player, before the first pull. The pull then only
+     * asks for what changed since. Large caches are applied over the next game ticks like large pulls.
+     */
+    private void restoreGroupState(String playerName, String groupJoinCode) {
+        groupStatePlayer = playerName;
+        groupStateGroup = groupJoinCode;
+        groupStateChanged = false;
+        groupStateSavedAt = System.currentTimeMillis();
+
+        GroupStateCache.State state = groupStateCache.load(playerName, groupJoinCode);
+        // Pulled already, what was pulled is newer
+        if (state == null || !groupSyncState.restore(state)) {
+            return;
+        }
+        Set<Integer> regionIds = tileOrSet.restore(state, groupSubscription.restore(state));
+        if (!applyRegionChanges(tileOrSet.regions(regionIds)) && !groupSubscription.getUnsyncedCounts().isEmpty()) {
+            clientThread.invokeLater(() -> loadPoints());
+        }
+        log.debug("Restored cached group tiles, {} members, {} regions, group version {}",
+                state.members.size(), regionIds.size(), state.groupVersion);
+    }
 
-        RequestBody body = RequestBody.create(JSON, gson.toJson(bodyContents));
+    /***
+     * Caches the group's tiles if they changed, at most every {@link #GROUP_CACHE_INTERVAL_MILLIS} unless forced.
+     */
+    private synchronized void saveGroupState(boolean force) {
+        long now = System.currentTimeMillis();
+        if (groupStatePlayer == null || !groupStateChanged || (!force && now - groupStateSavedAt < GROUP_CACHE_INTERVAL_MILLIS)) {
+            return;
+        }
+        groupStateChanged = false;
+        groupStateSavedAt = now;
+
+        // The watermark goes first and the records last, so the records are never older than the watermark
+        GroupStateCache.State state = new GroupStateCache.State(groupStatePlayer, groupStateGroup);
+        groupSyncState.save(state);
+        groupSubscription.save(state, wireFormat.getVersion());
+        tileOrSet.save(state);
+        groupStateCache.save(state);
+    }
 
-        Request request = new Request.Builder()
-                .url(DATABASE_URL + "/AddTiles")
-                .post(body)
-                .build();
+    /***
+     * Pulls the group's tiles, must only be called once {@link GroupSyncScheduler#shouldPull} allowed it.
+     */
+    private void getTilesFromDB(String playerName, String groupJoinCode) {
+
+        groupSyncState.useGroup(groupJoinCode);
+        groupSubscription.useGroup(groupJoinCode);
+        tileOrSet.useGroup(groupJoinCode, playerName);
+
+        // Only the subscribed regions are pulled, other members' tiles in regions that left the subscription go
+        final int schemaVersion = wireFormat.getVersion();
+        final GroupSubscription.Pull pull = groupSubscription.nextPull(schemaVersion, groupSyncState.getGroupVersion() > 0);
+        applyRegionChanges(tileOrSet.dropRegions(pull.getDropped()));
+        groupStateChanged |= !pull.getDropped().isEmpty();
+        final long since = pull.isCatchUp() ? 0 : groupSyncState.getGroupVersion();
+
+        // Replicate the members' records region by region while reading, instead of decoding the whole group first.
+        // The local player's own record is read too, for the tags of their tiles and the tombstones they uploaded.
+        // The regions that changed are handed to the client thread together once the pull completed.
+        final List<TileOrSet.RegionChange> changes = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> listed = new HashSet<>();
+        final GroupTilesReader.Listener importer = new GroupTilesReader.Listener() {
+            @Override
+            public boolean memberStarted(String username, long version) {
+                listed.add(username);
+                if (!pull.isReadAll() && !groupSyncState.isMemberChanged(username, version)) {
+                    return false;
+                }
+                if (!username.equals(playerName)) {
+                    databaseIntegrationManager.importMember(username);
+                }
+                tileOrSet.beginMember(username, pull.getRegions());
+                return true;
+            }
 
-        httpClient.newCall(request).enqueue(new Callback() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                log.error("Unable to add tiles");
+            public void regionRead(String username, String regionKey, long fingerprint, int[] keys, long[] tagRuns) {
+                // Regions with the same tiles as last time are skipped
+                tileOrSet.regionRead(username, fingerprint, keys, tagRuns);
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    log.error("Unable to add Tiles");
+            public void memberFinished(String username, long version, long fingerprint, List<TileTombstone> tombstones) {
+                changes.addAll(tileOrSet.memberFinished(username, tombstones));
+                // Catching up only read some regions, the member's others may still have changes to pull
+                if (!pull.isCatchUp()) {
+                    groupSyncState.memberImported(username, version, fingerprint);
                 }
             }
+        };
+
+        // Ask only for what changed since the last pull, the backend answers 304 if nothing did. Regions that were
+        // never pulled need everything.
+        // The tile counts per region the backend listed, read on the OkHttp thread that completes the request
+        final AtomicReference<Map<Integer, Integer>> counts = new AtomicReference<>();
+        syncBackend.getGroupTiles(schemaVersion, groupJoinCode, since,
+                pull.isReadAll() ? null : groupSyncState.getEtag(), pull.getRegions(),
+                body -> counts.set(GroupTilesReader.read(new JsonReader(body), gson, importer))
+        ).whenComplete((response, error) -> {
+            boolean downgraded = false;
+            boolean pulled = false;
+            boolean countsChanged = false;
+            if (error != null) {
+                log.error("Unable to get tiles", error);
+            } else if (response.isSuccessful()) {
+                if (!pull.isCatchUp()) {
+                    groupSyncState.pulled(groupJoinCode, response.getEtag(), response.getGroupVersion());
+                }
+                countsChanged = groupSubscription.pulled(pull, counts.get() != null, counts.get());
+                groupStateChanged = true;
+                pulled = true;
+                // Asked for everything, so every member was listed
+                if (since == 0) {
+                    changes.addAll(removeMissingMembers(listed));
+                }
+            } else if (wireFormat.downgradeIfUnsupported(schemaVersion, response.getCode())) {
+                downgraded = true;
+            } else if (response.getCode() != 304) {
+                log.error("Unable to Get Tiles");
+            }
+
+            // Rendering reads the points on the client thread, changed regions reload them once applied
+            boolean imported = applyRegionChanges(changes);
+            if (!imported && countsChanged) {
+                clientThread.invokeLater(() -> loadPoints());
+            }
+            // The layers hold what was pulled once the changes handed over above are applied
+            if (pulled) {
+                clientThread.invokeLater(() -> splitMemberTiles(playerName));
+            }
+            groupSyncScheduler.pullFinished(System.currentTimeMillis(), imported);
+            if (downgraded) {
+                groupSyncScheduler.pullSoon();
+            }
+            log.debug("Pulled group tiles, {} requests, {}ms average interval, {} skipped ticks, {} pushed changes, "
+                            + "{} watch reconnects, {} layers replaced, {} regions replaced, {} regions unchanged, "
+                            + "{} regions skipped, {} members unchanged, {} regions synced, "
+                            + "{} tile changes queued for upload, {}ms last flush latency, {}ms average",
+                    groupSyncScheduler.getRequestCount(), groupSyncScheduler.getAverageIntervalMillis(),
+                    groupSyncScheduler.getSkippedTicks(), groupWatcher.getChangeCount(),
+                    groupWatcher.getReconnectCount(), tileLayers.getLayersReplaced(), tileLayers.getRegionsReplaced(),
+                    tileLayers.getRegionsUnchanged(), tileOrSet.getRegionsSkipped(),
+                    groupSyncState.getMembersUnchanged(), groupSubscription.getSyncedCount(),
+                    tileUploader.getQueueDepth(), tileUploader.getLastFlushLatencyMillis(),
+                    tileUploader.getAverageFlushLatencyMillis());
         });
     }
 
-    @Schedule(period = 5, unit = ChronoUnit.SECONDS)
-    public void getTilesFromDB() {
-        String playerName = getPlayerName();
-        String groupJoinCode = getGroupJoinCode();
-        if (Strings.isNullOrEmpty(playerName) || Strings.isNullOrEmpty(groupJoinCode)) {
+    /***
+     * Has the client thread swap the changed members' layers in (see {@link TileLayers}) and reload the points. Small
+     * changes are applied on its next run, large ones are queued and applied over the next game ticks (see
+     * {@link #applyQueuedImports}). Either way the regions are read from {@link TileOrSet} when they are applied, so
+     * they are applied as they are by then. The local player's own tiles another member unmarked are unmarked here
+     * too, unless the player marked them again since.
+     *
+     * @return Whether any region changed.
+     */
+    private boolean applyRegionChanges(List<TileOrSet.RegionChange> changes) {
+        if (changes.isEmpty()) {
+            return false;
+        }
+
+        int tiles = 0;
+        for (TileOrSet.RegionChange change : changes) {
+            for (int[] keys : change.getLayers().values()) {
+                tiles += keys.length;
+            }
+        }
+
+        List<Integer> regionIds = changes.stream().map(TileOrSet.RegionChange::getRegionId).distinct().collect(Collectors.toList());
+        if (tiles > LARGE_IMPORT_TILES) {
+            importQueue.add(regionIds);
+        } else {
+            clientThread.invokeLater(() -> applyRegions(regionIds));
+        }
+
+        // The stored tiles are rewritten on the client thread only, like every other change to them
+        List<TileOrSet.RegionChange> removedOwn = changes.stream()
+                .filter(change -> change.getRemovedOwn().length > 0)
+                .collect(Collectors.toList());
+        if (!removedOwn.isEmpty()) {
+            clientThread.invokeLater(() -> removeOwnTiles(removedOwn));
+        }
+        return true;
+    }
+
+    /***
+     * Unmarks the local player's own tiles another member unmarked, unless the player marked them again since. Runs on
+     * the client thread.
+     */
+    private void removeOwnTiles(List<TileOrSet.RegionChange> changes) {
+        boolean changed = false;
+        for (TileOrSet.RegionChange change : changes) {
+            int[] removedOwn = Arrays.stream(change.getRemovedOwn())
+                    .filter(key -> !tileUploader.isUnacknowledgedMark(key))
+                    .toArray();
+            if (removedOwn.length > 0) {
+                changed |= databaseIntegrationManager.removeFromRegion(REGION_PREFIX + change.getRegionId(), removedOwn) > 0;
+                for (int key : removedOwn) {
+                    tileUploader.recordUnmark(key);
+                }
+            }
+        }
+        if (changed) {
+            loadPoints();
+        }
+    }
+
+    /***
+     * Applies the regions as they are now and reloads the points if that changed any layer. Runs on the client
+     * thread.
+     */
+    private void applyRegions(List<Integer> regionIds) {
+        if (tileLayers.apply(tileOrSet.regions(regionIds))) {
+            loadPoints();
+        }
+    }
+
+    /***
+     * Applies queued regions of large pulls until the tick's import budget is used up, those nearest to the player
+     * first. The points are reloaded once regions in the scene changed and once the queue is drained.
+     */
+    private void applyQueuedImports() {
+        if (importQueue.isEmpty()) {
             return;
         }
 
-        Request request = new Request.Builder()
-                .url(DATABASE_URL + "/GetGroupTiles/" + groupJoinCode)
-                .build();
+        final Player player = client.getLocalPlayer();
+        final int nearRegionId = player != null ? player.getWorldLocation().getRegionID() : 0;
+        final Set<Integer> mapRegions = new HashSet<>();
+        if (client.getMapRegions() != null) {
+            for (int regionId : client.getMapRegions()) {
+                mapRegions.add(regionId);
+            }
+        }
 
-        httpClient.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                log.error("Unable to get tiles");
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.importBudget());
+        boolean sceneChanged = false;
+        do {
+            List<Integer> regionIds = importQueue.poll(nearRegionId, IMPORT_SLICE_REGIONS);
+            if (regionIds.isEmpty()) {
+                break;
             }
+            if (tileLayers.apply(tileOrSet.regions(regionIds))) {
+                sceneChanged |= regionIds.stream().anyMatch(mapRegions::contains);
+            }
+        } while (System.nanoTime() < deadline);
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    log.error("Unable to Get Tiles");
-                    return;
-                }
+        if (sceneChanged || importQueue.isEmpty()) {
+            loadPoints();
+        }
+        if (importQueue.isEmpty() && splitPending != null) {
+            splitMemberTiles(splitPending);
+        }
+        if (panel != null) {
+            panel.showImportProgress(importQueue.getApplied(), importQueue.getQueued());
+        }
+    }
 
-                List<GetTilesObject> getTilesObjectList = gson.fromJson(response.body().string(), new TypeToken<List<GetTilesObject>>() {}.getType());
-                for (GetTilesObject getTilesObject : getTilesObjectList) {
-                    if(!getTilesObject.getUsername().equals(getPlayerName())) {
-                        databaseIntegrationManager.importTiles(getTilesObject.getTiles());
-                    }
-                }
+    /***
+     * Puts the tiles set aside for the player back, see {@link MemberTileMigration}. Runs on the client thread.
+     */
+    private void restoreMemberTiles(String playerName) {
+        if (playerName.equals(memberTilesRestored)) {
+            return;
+        }
+        if (databaseIntegrationManager.restoreMemberTiles(playerName) > 0) {
+            loadPoints();
+        }
+        memberTilesRestored = playerName;
+    }
 
-                response.body().close();
-                loadPoints();
+    /***
+     * Takes the other members' tiles earlier versions stored out of the stored tiles, once a pull filled their layers
+     * and the changes it queued are applied. Tried once per session. Runs on the client thread.
+     */
+    private void splitMemberTiles(String playerName) {
+        if (memberTilesSplit) {
+            return;
+        }
+        if (!importQueue.isEmpty()) {
+            splitPending = playerName;
+            return;
+        }
+        memberTilesSplit = true;
+        splitPending = null;
+        if (databaseIntegrationManager.splitMemberTiles(playerName) > 0) {
+            loadPoints();
+        }
+    }
+
+    /***
+     * Forgets the members who left the group and has the client thread drop their layers.
+     *
+     * @param listed The members the backend listed.
+     * @return The regions whose tiles changed, for {@link #applyRegionChanges}.
+     */
+    private List<TileOrSet.RegionChange> removeMissingMembers(Set<String> listed) {
+        List<TileOrSet.RegionChange> changes = new ArrayList<>();
+        for (String member : tileOrSet.getMembers()) {
+            if (!listed.contains(member)) {
+                changes.addAll(tileOrSet.removeMember(member));
+                clientThread.invokeLater(() -> {
+                    if (tileLayers.remove(member)) {
+                        loadPoints();
+                    }
+                });
             }
-        });
+        }
+        return changes;
+    }
+
+    /***
+     * Subscribes to the regions in view on the world map, so the group's tiles there are pulled.
+     */
+    void viewWorldMap(Collection<Integer> regionIds) {
+        if (groupSubscription.viewWorldMap(regionIds)) {
+            groupSyncScheduler.pullSoon();
+        }
     }
 
     int getXpUntilNextTile() {
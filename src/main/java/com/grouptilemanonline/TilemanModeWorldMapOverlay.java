@@ -28,6 +28,8 @@
 package com.grouptilemanonline;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 import javax.inject.Inject;
 
 import net.runelite.api.Client;
@@ -49,6 +51,9 @@ class TilemanModeWorldMapOverlay extends Overlay {
     private final TilemanModeConfig config;
     private final TilemanModePlugin plugin;
 
+    // The region bounds last in view, the plugin is told when they change
+    private int viewedXMin, viewedXMax, viewedYMin, viewedYMax;
+
     @Inject
     private TilemanModeWorldMapOverlay(Client client, TilemanModeConfig config, TilemanModePlugin plugin) {
         this.client = client;
@@ -93,6 +98,7 @@ class TilemanModeWorldMapOverlay extends Overlay {
         int yRegionMin = (yTileMin & REGION_TRUNCATE);
         int yRegionMax = ((worldMapPosition.getY() + heightInTiles / 2) & REGION_TRUNCATE) + REGION_SIZE;
         int regionPixelSize = (int) Math.ceil(REGION_SIZE * pixelsPerTile);
+        viewRegions(xRegionMin, xRegionMax, yRegionMin, yRegionMax);
 
         for (int x = xRegionMin; x < xRegionMax; x += REGION_SIZE) {
             for (int y = yRegionMin; y < yRegionMax; y += REGION_SIZE) {
@@ -115,4 +121,25 @@ class TilemanModeWorldMapOverlay extends Overlay {
             }
         }
     }
+
+    /***
+     * Subscribes to the regions in view, so the group's tiles there are pulled.
+     */
+    private void viewRegions(int xMin, int xMax, int yMin, int yMax) {
+        if (xMin == viewedXMin && xMax == viewedXMax && yMin == viewedYMin && yMax == viewedYMax) {
+            return;
+        }
+        viewedXMin = xMin;
+        viewedXMax = xMax;
+        viewedYMin = yMin;
+        viewedYMax = yMax;
+
+        List<Integer> regionIds = new ArrayList<>();
+        for (int x = xMin; x < xMax; x += REGION_SIZE) {
+            for (int y = yMin; y < yMax; y += REGION_SIZE) {
+                regionIds.add(((x >> 6) << 8) | (y >> 6));
+            }
+        }
+        plugin.viewWorldMap(regionIds);
+    }
 }
@@ -0,0 +1,224 @@
+package com.grouptilemanonline;
+
+import java.util.Arrays;
+
+/***
+ * Walking distance from every tile of one scene plane to the nearest unlocked tile, found with a multi-source
+ * breadth first search seeded from all unlocked tiles.
+ * <p>
+ * The search is spread over game ticks: {@link #step(int)} expands at most a fixed number of tiles per call.
+ * When tiles are unlocked they are simply added as new sources. When tiles are cleared only the tiles whose
+ * distance led through them are invalidated and searched again, instead of recomputing the whole scene.
+ */
+final class UnlockedDistanceField {
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    private final int[] distance = new int[SceneTileMask.TILE_COUNT];
+    private final SceneTileMask sources = new SceneTileMask();
+
+    // Tiles waiting to be expanded, a ring buffer that never holds the same tile twice
+    private final int[] queue = new int[SceneTileMask.TILE_COUNT];
+    private final SceneTileMask queued = new SceneTileMask();
+    private int queueHead;
+    private int queueSize;
+
+    // Scratch space for invalidating tiles after sources are removed
+    private final int[] invalidated = new int[SceneTileMask.TILE_COUNT];
+    private final SceneTileMask invalid = new SceneTileMask();
+    private final SceneTileMask removed = new SceneTileMask();
+
+    private int[][] flags;
+
+    UnlockedDistanceField() {
+        Arrays.fill(distance, UNREACHABLE);
+    }
+
+    /***
+     * Discards the field and seeds a new search, used when the scene or plane changes.
+     */
+    void reset(int[][] flags, SceneTileMask unlocked) {
+        this.flags = flags;
+        Arrays.fill(distance, UNREACHABLE);
+        queued.clear();
+        queueHead = 0;
+        queueSize = 0;
+
+        sources.copyFrom(unlocked);
+        for (int index = sources.nextSetBit(0); index >= 0; index = sources.nextSetBit(index + 1)) {
+            distance[index] = 0;
+            enqueue(index);
+        }
+    }
+
+    /***
+     * Brings the sources in line with the unlocked tiles, only touching the part of the field that changed.
+     */
+    void update(SceneTileMask unlocked) {
+        if (flags == null) {
+            return;
+        }
+
+        // Sources that were cleared: invalidate every tile whose distance came through them
+        removed.copyFrom(sources).andNot(unlocked);
+        if (!removed.isEmpty()) {
+            invalidateFrom(removed);
+        }
+
+        // Sources that were added: they only ever shorten distances
+        removed.copyFrom(unlocked).andNot(sources);
+        for (int index = removed.nextSetBit(0); index >= 0; index = removed.nextSetBit(index + 1)) {
+            distance[index] = 0;
+            enqueue(index);
+        }
+
+        sources.copyFrom(unlocked);
+    }
+
+    /***
+     * Expands at most budget tiles of the search.
+     * @return Whether the field is settled.
+     */
+    boolean step(int budget) {
+        if (flags == null) {
+            return true;
+        }
+
+        while (queueSize > 0 && budget-- > 0) {
+            int index = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            queued.clear(index);
+            if (distance[index] == UNREACHABLE) {
+                // Invalidated while it was waiting, it is searched again from its neighbours
+                continue;
+            }
+
+            int x = SceneTileMask.sceneX(index);
+            int y = SceneTileMask.sceneY(index);
+            int next = distance[index] + 1;
+            for (int direction = 0; direction < DX.length; direction++) {
+                int toX = x + DX[direction];
+                int toY = y + DY[direction];
+                if (!SceneTileMask.inScene(toX, toY)) {
+                    continue;
+                }
+
+                int neighbour = SceneTileMask.index(toX, toY);
+                if (next < distance[neighbour] && SceneCollision.canStep(flags, toX, toY, -DX[direction], -DY[direction])) {
+                    distance[neighbour] = next;
+                    enqueue(neighbour);
+                }
+            }
+        }
+        return queueSize == 0;
+    }
+
+    /***
+     * @return The number of tiles to the nearest unlocked tile, or {@link #UNREACHABLE}.
+     */
+    int distance(int sceneX, int sceneY) {
+        return SceneTileMask.inScene(sceneX, sceneY) ? distance[SceneTileMask.index(sceneX, sceneY)] : UNREACHABLE;
+    }
+
+    /***
+     * Follows the field downhill from the given tile towards the nearest unlocked tile.
+     * @return The number of tile indexes written to path, the last one being the closest to an unlocked tile.
+     */
+    int tracePath(int sceneX, int sceneY, int[] path) {
+        int current = SceneTileMask.index(sceneX, sceneY);
+        int length = 0;
+        while (length < path.length && distance[current] > 0 && distance[current] != UNREACHABLE) {
+            int x = SceneTileMask.sceneX(current);
+            int y = SceneTileMask.sceneY(current);
+            int best = -1;
+            for (int direction = 0; direction < DX.length; direction++) {
+                int toX = x + DX[direction];
+                int toY = y + DY[direction];
+                if (!SceneTileMask.inScene(toX, toY)) {
+                    continue;
+                }
+
+                int neighbour = SceneTileMask.index(toX, toY);
+                if (distance[neighbour] < distance[current] && (best == -1 || distance[neighbour] < distance[best])
+                        && SceneCollision.canStep(flags, x, y, DX[direction], DY[direction])) {
+                    best = neighbour;
+                }
+            }
+
+            if (best == -1) {
+                break;
+            }
+            path[length++] = best;
+            current = best;
+        }
+        return length;
+    }
+
+    private void invalidateFrom(SceneTileMask removedSources) {
+        invalid.clear();
+        int count = 0;
+        for (int index = removedSources.nextSetBit(0); index >= 0; index = removedSources.nextSetBit(index + 1)) {
+            invalid.set(index);
+            invalidated[count++] = index;
+        }
+
+        // Walk outwards through every tile that got its distance from an invalidated tile
+        for (int i = 0; i < count; i++) {
+            int index = invalidated[i];
+            if (distance[index] == UNREACHABLE) {
+                continue;
+            }
+
+            int x = SceneTileMask.sceneX(index);
+            int y = SceneTileMask.sceneY(index);
+            int next = distance[index] + 1;
+            for (int direction = 0; direction < DX.length; direction++) {
+                int toX = x + DX[direction];
+                int toY = y + DY[direction];
+                if (!SceneTileMask.inScene(toX, toY)) {
+                    continue;
+                }
+
+                int neighbour = SceneTileMask.index(toX, toY);
+                if (!invalid.get(neighbour) && distance[neighbour] == next
+                        && SceneCollision.canStep(flags, toX, toY, -DX[direction], -DY[direction])) {
+                    invalid.set(neighbour);
+                    invalidated[count++] = neighbour;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            distance[invalidated[i]] = UNREACHABLE;
+        }
+
+        // Search again from the valid tiles bordering the invalidated ones
+        for (int i = 0; i < count; i++) {
+            int index = invalidated[i];
+            int x = SceneTileMask.sceneX(index);
+            int y = SceneTileMask.sceneY(index);
+            for (int direction = 0; direction < DX.length; direction++) {
+                int toX = x + DX[direction];
+                int toY = y + DY[direction];
+                if (SceneTileMask.inScene(toX, toY)) {
+                    int neighbour = SceneTileMask.index(toX, toY);
+                    if (distance[neighbour] != UNREACHABLE) {
+                        enqueue(neighbour);
+                    }
+                }
+            }
+        }
+    }
+
+    private void enqueue(int index) {
+        if (queued.get(index)) {
+            return;
+        }
+        queued.set(index);
+        queue[(queueHead + queueSize) % queue.length] = index;
+        queueSize++;
+    }
+}
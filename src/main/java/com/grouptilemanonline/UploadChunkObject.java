@@ -0,0 +1,22 @@
+package com.grouptilemanonline;
+
+import com.google.gson.annotations.SerializedName;
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class UploadChunkObject {
+    String username;
+
+    @SerializedName("group_join_code")
+    String groupJoinCode;
+
+    // Chosen by the client, stays the same while an upload is resumed
+    String session;
+
+    // Position of the chunk in the snapshot, sending an index again replaces the chunk
+    int index;
+
+    List<RegionTiles> regions;
+}
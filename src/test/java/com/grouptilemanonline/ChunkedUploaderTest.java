@@ -0,0 +1,181 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedUploaderTest
+{
+	// Two chunks: the first two regions fill one, the third starts the next
+	private static final int REGION_TILES = ChunkedUploader.CHUNK_TILES / 2;
+
+	private FakeSyncBackend backend;
+	private ChunkedUploader uploader;
+	private final List<String> progress = new ArrayList<>();
+	// The second chunk's upload, held until answered when set
+	private CompletableFuture<SyncResponse> heldChunk;
+
+	@Before
+	public void setUp()
+	{
+		backend = new FakeSyncBackend()
+		{
+			@Override
+			public CompletableFuture<SyncResponse> uploadChunk(UploadChunkObject chunk)
+			{
+				if (heldChunk != null && chunk.getIndex() == 1)
+				{
+					requests.add("UploadChunk");
+					return heldChunk;
+				}
+				return super.uploadChunk(chunk);
+			}
+		};
+		uploader = new ChunkedUploader(backend);
+	}
+
+	@Test
+	public void smallSnapshotInOneRequest()
+	{
+		int[] keys = tiles(12850, 100);
+
+		assertTrue(upload(keys).isSuccessful());
+
+		assertEquals(1, backend.count("AddTiles"));
+		assertEquals(0, backend.count("UploadChunk"));
+		assertArrayEquals(keys, backend.getTiles());
+	}
+
+	@Test
+	public void largeSnapshotInChunks()
+	{
+		int[] keys = largeSnapshot();
+
+		assertTrue(upload(keys).isSuccessful());
+
+		assertEquals(2, backend.count("UploadChunk"));
+		assertEquals(1, backend.count("CommitUpload"));
+		assertArrayEquals(keys, backend.getTiles());
+		assertEquals("2/2", progress.get(progress.size() - 1));
+	}
+
+	@Test
+	public void failedChunkSentAgain()
+	{
+		backend.chunkFailures.put(0, 1);
+
+		assertTrue(upload(largeSnapshot()).isSuccessful());
+
+		assertEquals(3, backend.count("UploadChunk"));
+		assertEquals(1, backend.count("CommitUpload"));
+	}
+
+	@Test
+	public void resumesWithChunksAlreadyUploaded()
+	{
+		int[] keys = largeSnapshot();
+		backend.chunkFailures.put(1, 3);
+
+		assertFalse(upload(keys).isSuccessful());
+		assertEquals(0, backend.count("CommitUpload"));
+		assertEquals(1, uploader.getChunksSent());
+
+		assertTrue(upload(keys).isSuccessful());
+		assertEquals(1, uploader.getChunksSkipped());
+		assertEquals(2, uploader.getChunksSent());
+		assertEquals("1/2", progress.get(progress.size() - 2));
+		assertArrayEquals(keys, backend.getTiles());
+	}
+
+	@Test
+	public void changedChunkSentAgainOnResume()
+	{
+		int[] keys = largeSnapshot();
+		backend.chunkFailures.put(1, 3);
+		upload(keys);
+
+		// A tile was marked in the first chunk's regions since
+		keys[0] = TileKeys.pack(12850, 63, 63, 3);
+
+		assertTrue(upload(keys).isSuccessful());
+		assertEquals(0, uploader.getChunksSkipped());
+		assertArrayEquals(sorted(keys), backend.getTiles());
+	}
+
+	@Test
+	public void singleRequestWithoutSessions()
+	{
+		backend.uploadSessions = false;
+		int[] keys = largeSnapshot();
+
+		assertTrue(upload(keys).isSuccessful());
+
+		assertEquals(1, backend.count("UploadChunk"));
+		assertEquals(1, backend.count("AddTiles"));
+		assertArrayEquals(keys, backend.getTiles());
+	}
+
+	@Test
+	public void cancelAbandonsTheSession()
+	{
+		int[] keys = largeSnapshot();
+		heldChunk = new CompletableFuture<>();
+		CompletableFuture<SyncResponse> cancelled = uploader.upload(FakeSyncBackend.snapshot(1, keys),
+			(uploaded, total) -> {});
+
+		cancelled.cancel(true);
+
+		assertTrue(heldChunk.isCancelled());
+		assertEquals(0, backend.count("CommitUpload"));
+
+		// Starts over instead of resuming the abandoned session
+		heldChunk = null;
+		assertTrue(upload(keys).isSuccessful());
+		assertEquals(0, uploader.getChunksSkipped());
+		assertArrayEquals(keys, backend.getTiles());
+	}
+
+	private SyncResponse upload(int[] keys)
+	{
+		return uploader.upload(FakeSyncBackend.snapshot(1, keys),
+			(uploaded, total) -> progress.add(uploaded + "/" + total)).join();
+	}
+
+	private static int[] largeSnapshot()
+	{
+		int[] keys = new int[REGION_TILES * 3];
+		System.arraycopy(tiles(12850, REGION_TILES), 0, keys, 0, REGION_TILES);
+		System.arraycopy(tiles(12851, REGION_TILES), 0, keys, REGION_TILES, REGION_TILES);
+		System.arraycopy(tiles(12852, REGION_TILES), 0, keys, REGION_TILES * 2, REGION_TILES);
+		return keys;
+	}
+
+	/***
+	 * @return The first count tiles of the region, sorted.
+	 */
+	private static int[] tiles(int regionId, int count)
+	{
+		int[] keys = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			keys[i] = TileKeys.pack(regionId, (i >> 6) & 63, i & 63, i >> 12);
+		}
+		return sorted(keys);
+	}
+
+	private static int[] sorted(int[] keys)
+	{
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
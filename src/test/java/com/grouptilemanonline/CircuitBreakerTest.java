@@ -0,0 +1,100 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest
+{
+	private static final long OPENED = 1_000;
+	private static final long REOPEN = OPENED + CircuitBreaker.OPEN_MILLIS;
+
+	private CircuitBreaker breaker;
+
+	@Before
+	public void setUp()
+	{
+		breaker = new CircuitBreaker();
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++)
+		{
+			assertFalse(breaker.failed(OPENED));
+		}
+		assertTrue(breaker.failed(OPENED));
+	}
+
+	@Test
+	public void openAfterFailuresInARow()
+	{
+		assertFalse(breaker.allowRequest(OPENED));
+		assertFalse(breaker.allowRequest(REOPEN - 1));
+		assertEquals(2, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void successResetsTheCount()
+	{
+		CircuitBreaker breaker = new CircuitBreaker();
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++)
+		{
+			breaker.failed(OPENED);
+		}
+		assertFalse(breaker.succeeded());
+
+		assertFalse(breaker.failed(OPENED));
+		assertTrue(breaker.allowRequest(OPENED));
+	}
+
+	@Test
+	public void onlyOneTrialRequest()
+	{
+		assertTrue(breaker.allowRequest(REOPEN));
+		assertFalse(breaker.allowRequest(REOPEN));
+	}
+
+	@Test
+	public void trialSuccessCloses()
+	{
+		breaker.allowRequest(REOPEN);
+
+		assertTrue(breaker.succeeded());
+		assertTrue(breaker.allowRequest(REOPEN));
+		assertTrue(breaker.allowRequest(REOPEN));
+	}
+
+	@Test
+	public void trialFailureOpensAgain()
+	{
+		breaker.allowRequest(REOPEN);
+
+		// Already open before the trial
+		assertFalse(breaker.failed(REOPEN));
+		assertFalse(breaker.allowRequest(REOPEN + CircuitBreaker.OPEN_MILLIS - 1));
+		assertTrue(breaker.allowRequest(REOPEN + CircuitBreaker.OPEN_MILLIS));
+	}
+
+	@Test
+	public void releasedTrialLetsTheNextOneThrough()
+	{
+		breaker.allowRequest(REOPEN);
+
+		breaker.released();
+
+		assertTrue(breaker.allowRequest(REOPEN));
+		assertFalse(breaker.allowRequest(REOPEN));
+	}
+
+	@Test
+	public void releaseWhileClosedChangesNothing()
+	{
+		breaker.allowRequest(REOPEN);
+		breaker.succeeded();
+
+		breaker.released();
+
+		assertTrue(breaker.allowRequest(REOPEN));
+		assertTrue(breaker.allowRequest(REOPEN));
+	}
+}
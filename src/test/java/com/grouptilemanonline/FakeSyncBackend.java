@@ -0,0 +1,216 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * An in-memory backend holding a single member's tiles, for testing uploads without a server. Every request
+ * completes before it returns.
+ */
+class FakeSyncBackend implements SyncBackend
+{
+	private final Gson gson = new Gson();
+
+	// The member's tiles by region
+	private final Map<Integer, int[]> regions = new TreeMap<>();
+	// The staged chunks by session and index
+	private final Map<String, Map<Integer, List<RegionTiles>>> sessions = new HashMap<>();
+
+	boolean regionTrees = true;
+	boolean uploadSessions = true;
+	// The number of times each chunk's upload still fails, by index
+	final Map<Integer, Integer> chunkFailures = new HashMap<>();
+	// The endpoint of every request, in order
+	final List<String> requests = new ArrayList<>();
+	// The regions of the last AddTileRegions request
+	List<RegionTiles> lastRegions;
+
+	void setTiles(int... keys)
+	{
+		regions.clear();
+		put(toRegions(keys));
+	}
+
+	int[] getTiles()
+	{
+		return regions.values().stream().flatMapToInt(Arrays::stream).sorted().toArray();
+	}
+
+	int count(String endpoint)
+	{
+		return (int) requests.stream().filter(endpoint::equals).count();
+	}
+
+	/***
+	 * @return A snapshot of the keys as the client sends it.
+	 */
+	static AddTilesV2Object snapshot(long seq, int... keys)
+	{
+		return new AddTilesV2Object("bob", "group", seq, toRegions(keys), null);
+	}
+
+	static List<RegionTiles> toRegions(int... keys)
+	{
+		Map<Integer, BitSet> positions = new TreeMap<>();
+		for (int key : keys)
+		{
+			positions.computeIfAbsent(TileKeys.regionId(key), id -> new BitSet()).set(key & TileKeys.LOCAL_MASK);
+		}
+
+		List<RegionTiles> regions = new ArrayList<>();
+		for (Map.Entry<Integer, BitSet> region : positions.entrySet())
+		{
+			regions.add(TileWireFormat.encode(region.getKey(), region.getValue()));
+		}
+		return regions;
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> addTiles(int schemaVersion, Object snapshot)
+	{
+		requests.add("AddTiles");
+		regions.clear();
+		put(((AddTilesV2Object) snapshot).getRegions());
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> addTilesDelta(int schemaVersion, AddTilesDeltaObject delta)
+	{
+		requests.add("AddTilesDelta");
+		return respond(404);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> addTileRegions(AddTileRegionsObject regions)
+	{
+		requests.add("AddTileRegions");
+		if (this.regions.isEmpty())
+		{
+			return respond(404);
+		}
+		lastRegions = regions.getRegions();
+		put(regions.getRegions());
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> uploadChunk(UploadChunkObject chunk)
+	{
+		requests.add("UploadChunk");
+		if (!uploadSessions)
+		{
+			return respond(404);
+		}
+		if (chunkFailures.getOrDefault(chunk.getIndex(), 0) > 0)
+		{
+			chunkFailures.merge(chunk.getIndex(), -1, Integer::sum);
+			return respond(503);
+		}
+		sessions.computeIfAbsent(chunk.getSession(), id -> new HashMap<>()).put(chunk.getIndex(), chunk.getRegions());
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> commitUpload(CommitUploadObject commit)
+	{
+		requests.add("CommitUpload");
+		Map<Integer, List<RegionTiles>> chunks = sessions.remove(commit.getSession());
+		if (chunks == null || chunks.size() < commit.getChunks())
+		{
+			return respond(409);
+		}
+
+		regions.clear();
+		for (int i = 0; i < commit.getChunks(); i++)
+		{
+			put(chunks.get(i));
+		}
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> getRegionTree(String groupJoinCode, String username, int level,
+		List<Integer> nodes, BodyReader bodyReader)
+	{
+		requests.add("GetRegionTree");
+		if (!regionTrees || regions.isEmpty())
+		{
+			return respond(404);
+		}
+
+		RegionTree tree = new RegionTree();
+		tree.addAll(getTiles());
+		Map<String, String[]> body = new HashMap<>();
+		for (int node : nodes)
+		{
+			String[] hashes = Arrays.stream(tree.children(level, node)).mapToObj(Long::toHexString)
+				.toArray(String[]::new);
+			body.put(Integer.toString(node), hashes);
+		}
+		try
+		{
+			bodyReader.read(new StringReader(gson.toJson(body)));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> getGroupTiles(int schemaVersion, String groupJoinCode, long since,
+		String etag, Collection<Integer> regionIds, BodyReader bodyReader)
+	{
+		requests.add("GetGroupTiles");
+		return respond(404);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> leaveGroup(LeaveGroupObject leave)
+	{
+		requests.add("LeaveGroup");
+		return respond(200);
+	}
+
+	@Override
+	public CompletableFuture<SyncResponse> watchGroup(String groupJoinCode, long since, int holdSeconds)
+	{
+		requests.add("WatchGroup");
+		return respond(404);
+	}
+
+	private void put(List<RegionTiles> tiles)
+	{
+		for (RegionTiles region : tiles)
+		{
+			int[] keys = TileWireFormat.decodeKeys(region);
+			if (keys.length == 0)
+			{
+				regions.remove(region.getId());
+			}
+			else
+			{
+				regions.put(region.getId(), keys);
+			}
+		}
+	}
+
+	private static CompletableFuture<SyncResponse> respond(int code)
+	{
+		return CompletableFuture.completedFuture(new SyncResponse(code, null, 0));
+	}
+}
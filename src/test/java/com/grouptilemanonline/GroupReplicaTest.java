@@ -0,0 +1,114 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupReplicaTest
+{
+	private static final int REGION = 12850;
+	private static final int KEY = TileKeys.pack(REGION, 1, 1, 0);
+
+	private final TileLayers layers = new TileLayers();
+	private final TileOrSet set = new TileOrSet();
+	private final GroupSyncState syncState = new GroupSyncState();
+	private final GroupSubscription subscription = new GroupSubscription();
+	private final GroupReplica replica = new GroupReplica(layers, set, syncState, subscription);
+
+	@Before
+	public void setUp()
+	{
+		assertFalse(replica.use("me", "group"));
+		pull();
+	}
+
+	@Test
+	public void logoutAndLoginKeepsEverything()
+	{
+		// Logged out, then hopping worlds
+		assertFalse(replica.use("", "group"));
+		assertFalse(replica.use(null, "group"));
+		assertFalse(replica.use("me", "group"));
+
+		assertTrue(layers.contains("bob", KEY));
+		assertEquals(Collections.singleton("bob"), set.getMembers());
+		assertEquals(5, syncState.getGroupVersion());
+		assertEquals("etag", syncState.getEtag());
+		assertEquals(1, subscription.getSyncedCount());
+	}
+
+	@Test
+	public void anotherPlayerReadsEverythingAgain()
+	{
+		assertTrue(replica.use("alt", "group"));
+
+		assertForgotten();
+	}
+
+	@Test
+	public void rejoiningReadsEverythingAgain()
+	{
+		assertTrue(replica.use("me", null));
+		assertTrue(replica.use("me", "group"));
+
+		assertForgotten();
+	}
+
+	@Test
+	public void pullAfterLoginOnlyAsksForChanges()
+	{
+		replica.use("", "group");
+		replica.use("me", "group");
+
+		subscription.useGroup("group");
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, syncState.getGroupVersion() > 0);
+		assertFalse(pull.isReadAll());
+	}
+
+	@Test
+	public void pullAfterSwitchReadsEverything()
+	{
+		replica.use("alt", "group");
+
+		subscription.useGroup("group");
+		subscription.setNearby(new int[]{REGION});
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, syncState.getGroupVersion() > 0);
+		assertTrue(pull.isReadAll());
+		assertEquals(Collections.singleton(REGION), pull.getRegions());
+	}
+
+	/***
+	 * Pulls bob's tile in the nearby region, as the plugin does.
+	 */
+	private void pull()
+	{
+		syncState.useGroup("group");
+		subscription.useGroup("group");
+		set.useGroup("group", "me");
+		subscription.setNearby(new int[]{REGION});
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, false);
+
+		set.beginMember("bob", pull.getRegions());
+		set.regionRead("bob", 1, new int[]{KEY}, new long[]{1, 1});
+		layers.apply(set.memberFinished("bob", null));
+		syncState.pulled("group", "etag", 5);
+		subscription.pulled(pull, true, null);
+
+		assertTrue(layers.contains("bob", KEY));
+	}
+
+	private void assertForgotten()
+	{
+		assertFalse(layers.contains("bob", KEY));
+		assertTrue(set.getMembers().isEmpty());
+		assertEquals(0, syncState.getGroupVersion());
+		assertNull(syncState.getEtag());
+		assertEquals(0, subscription.getSyncedCount());
+	}
+}
@@ -0,0 +1,180 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupServiceTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final PendingBackend backend = new PendingBackend();
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	private volatile String groupJoinCode = "old";
+	private TileUploader uploader;
+	private GroupService service;
+
+	@Before
+	public void setUp()
+	{
+		GroupService.Player player = new GroupService.Player()
+		{
+			@Override
+			public String getPlayerName()
+			{
+				return "bob";
+			}
+
+			@Override
+			public String getGroupJoinCode()
+			{
+				return groupJoinCode;
+			}
+
+			@Override
+			public void setGroupJoinCode(String groupJoinCode)
+			{
+				GroupServiceTest.this.groupJoinCode = groupJoinCode;
+			}
+		};
+		TileUploader.Source source = new TileUploader.Source()
+		{
+			@Override
+			public String getPlayerName()
+			{
+				return "bob";
+			}
+
+			@Override
+			public String getGroupJoinCode()
+			{
+				return groupJoinCode;
+			}
+
+			@Override
+			public GroupTiles getPlayerTiles()
+			{
+				return new GroupTiles("bob", new TreeMap<>());
+			}
+		};
+		uploader = new TileUploader(source, backend, new TileWireFormat(), new TileOrSet(), new Gson(),
+			folder.getRoot().toPath(), System::currentTimeMillis);
+		service = new GroupService(player, backend, uploader, new GroupSyncScheduler(), executor);
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void joinedOnceTheTilesAreUploaded() throws Exception
+	{
+		CompletableFuture<Void> joined = service.joinGroup("new", message -> {});
+		assertEquals("new", groupJoinCode);
+
+		backend.answer(200);
+
+		assertNull(joined.get());
+		assertEquals("new", groupJoinCode);
+	}
+
+	@Test
+	public void failedUploadRestoresThePreviousGroup() throws Exception
+	{
+		CompletableFuture<Void> joined = service.joinGroup("new", message -> {});
+
+		backend.answer(503);
+
+		try
+		{
+			joined.get();
+			fail();
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals("old", groupJoinCode);
+	}
+
+	@Test
+	public void cancelStopsTheUploadBeforeLeaving() throws Exception
+	{
+		CompletableFuture<Void> joined = service.joinGroup("new", message -> {});
+
+		joined.cancel(true);
+		drain();
+
+		assertTrue(backend.pending.get(0).isCancelled());
+		assertEquals("LeaveGroup", backend.requests.get(backend.requests.size() - 1));
+		assertEquals("old", groupJoinCode);
+	}
+
+	@Test
+	public void cancelWaitsForAnUploadOthersWaitFor() throws Exception
+	{
+		CompletableFuture<Void> joined = service.joinGroup("new", message -> {});
+		uploader.uploadSnapshot((chunks, total) -> {});
+
+		joined.cancel(true);
+		drain();
+		assertEquals(0, backend.count("LeaveGroup"));
+
+		backend.answer(200);
+		drain();
+
+		assertEquals(1, backend.count("LeaveGroup"));
+		assertEquals("old", groupJoinCode);
+	}
+
+	/***
+	 * Runs everything queued on the executor, and what that queued in turn.
+	 */
+	private void drain() throws Exception
+	{
+		executor.submit(() -> {}).get();
+		executor.submit(() -> {}).get();
+	}
+
+	/***
+	 * Holds snapshots until the test answers them, so they stay in flight.
+	 */
+	private static final class PendingBackend extends FakeSyncBackend
+	{
+		private final List<CompletableFuture<SyncResponse>> pending = new ArrayList<>();
+
+		@Override
+		public CompletableFuture<SyncResponse> addTiles(int schemaVersion, Object snapshot)
+		{
+			requests.add("AddTiles");
+			CompletableFuture<SyncResponse> response = new CompletableFuture<>();
+			pending.add(response);
+			return response;
+		}
+
+		private void answer(int code)
+		{
+			pending.get(0).complete(new SyncResponse(code, null, 0));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupStateCacheTest
+{
+	private static final int REGION = 12850;
+	private static final int[] KEYS = {TileKeys.pack(REGION, 1, 1, 0), TileKeys.pack(REGION, 2, 1, 0)};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GroupStateCache cache;
+
+	@Before
+	public void setUp()
+	{
+		cache = new GroupStateCache(folder.getRoot().toPath(), new Gson());
+	}
+
+	@Test
+	public void restoresWhatWasSaved()
+	{
+		TileOrSet set = new TileOrSet();
+		set.useGroup("group", "me");
+		set.beginMember("bob", null);
+		set.regionRead("bob", 7, KEYS, new long[]{3, 2});
+		set.memberFinished("bob", Collections.emptyList());
+		GroupSyncState syncState = new GroupSyncState();
+		syncState.useGroup("group");
+		syncState.pulled("group", "etag", 42);
+		syncState.memberImported("bob", 5, 7);
+
+		GroupStateCache.State state = new GroupStateCache.State("me", "group");
+		set.save(state);
+		syncState.save(state);
+		cache.save(state);
+
+		GroupStateCache.State loaded = cache.load("me", "group");
+		assertNotNull(loaded);
+		TileOrSet restoredSet = new TileOrSet();
+		restoredSet.useGroup("group", "me");
+		Set<Integer> regionIds = restoredSet.restore(loaded, null);
+		GroupSyncState restoredState = new GroupSyncState();
+		restoredState.useGroup("group");
+
+		assertEquals(Collections.singleton(REGION), regionIds);
+		List<TileOrSet.RegionChange> changes = restoredSet.regions(regionIds);
+		assertArrayEquals(KEYS, changes.get(0).getLayers().get("bob"));
+		assertTrue(restoredState.restore(loaded));
+		assertEquals("etag", restoredState.getEtag());
+		assertEquals(42, restoredState.getGroupVersion());
+		assertFalse(restoredState.isMemberChanged("bob", 5));
+	}
+
+	@Test
+	public void missingFile()
+	{
+		assertNull(cache.load("me", "group"));
+	}
+
+	@Test
+	public void rejectsOtherFormat()
+	{
+		GroupStateCache.State state = emptyState("me", "group");
+		state.format = GroupStateCache.FORMAT + 1;
+		cache.save(state);
+
+		assertNull(cache.load("me", "group"));
+	}
+
+	@Test
+	public void rejectsOtherPlayerSharingTheFile()
+	{
+		// Both names map to the same file name
+		cache.save(emptyState("bob smith", "group"));
+
+		assertNotNull(cache.load("bob smith", "group"));
+		assertNull(cache.load("bob_smith", "group"));
+	}
+
+	@Test
+	public void rejectsOtherGroupSharingTheFile()
+	{
+		cache.save(emptyState("me", "group one"));
+
+		assertNull(cache.load("me", "group_one"));
+	}
+
+	@Test
+	public void ignoresCorruptFile() throws IOException
+	{
+		cache.save(emptyState("me", "group"));
+		File[] files = folder.getRoot().listFiles();
+		assertEquals(1, files.length);
+		Files.write(files[0].toPath(), new byte[]{0x1f, (byte) 0x8b, 1, 2, 3});
+
+		assertNull(cache.load("me", "group"));
+	}
+
+	@Test
+	public void replacesPreviousSave()
+	{
+		GroupStateCache.State first = emptyState("me", "group");
+		first.etag = "first";
+		cache.save(first);
+		GroupStateCache.State second = emptyState("me", "group");
+		second.etag = "second";
+		cache.save(second);
+
+		assertEquals("second", cache.load("me", "group").etag);
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+
+	private static GroupStateCache.State emptyState(String playerName, String groupJoinCode)
+	{
+		GroupStateCache.State state = new GroupStateCache.State(playerName, groupJoinCode);
+		state.members = Collections.emptyMap();
+		return state;
+	}
+}
@@ -0,0 +1,174 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupSubscriptionTest
+{
+	private static final int REGION = 12850;
+	private static final int NEXT_REGION = 12851;
+	private static final int FAR_REGION = 10000;
+
+	private final GroupSubscription subscription = new GroupSubscription();
+
+	@Before
+	public void setUp()
+	{
+		subscription.useGroup("group");
+		assertTrue(subscription.setNearby(new int[]{REGION}));
+	}
+
+	@Test
+	public void firstPullReadsTheSubscribedRegions()
+	{
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, false);
+
+		assertEquals(Collections.singleton(REGION), pull.getRegions());
+		assertFalse(pull.isCatchUp());
+		assertTrue(pull.isReadAll());
+		assertTrue(subscription.pulled(pull, true, null));
+		assertEquals(1, subscription.getSyncedCount());
+
+		GroupSubscription.Pull next = subscription.nextPull(TileWireFormat.V2, true);
+		assertEquals(Collections.singleton(REGION), next.getRegions());
+		assertFalse(next.isReadAll());
+	}
+
+	@Test
+	public void addedRegionCaughtUp()
+	{
+		subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true, null);
+
+		assertTrue(subscription.setNearby(new int[]{REGION, NEXT_REGION}));
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, true);
+
+		assertEquals(Collections.singleton(NEXT_REGION), pull.getRegions());
+		assertTrue(pull.isCatchUp());
+		assertTrue(pull.isReadAll());
+		assertFalse(subscription.setNearby(new int[]{REGION}));
+	}
+
+	@Test
+	public void regionLeavingTheSubscriptionDropped()
+	{
+		subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true, null);
+
+		subscription.setNearby(new int[]{NEXT_REGION});
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V2, true);
+
+		assertEquals(Collections.singleton(REGION), pull.getDropped());
+		assertEquals(Collections.singleton(NEXT_REGION), pull.getRegions());
+		assertEquals(0, subscription.getSyncedCount());
+	}
+
+	@Test
+	public void worldMapRegionsKeptUpToTheLimit()
+	{
+		List<Integer> viewed = new ArrayList<>();
+		for (int regionId = 0; regionId <= GroupSubscription.MAX_WORLD_MAP_REGIONS; regionId++)
+		{
+			assertTrue(subscription.viewWorldMap(Collections.singletonList(regionId)));
+			viewed.add(regionId);
+		}
+		// Too far zoomed out
+		assertFalse(subscription.viewWorldMap(viewed));
+
+		Set<Integer> regions = subscription.nextPull(TileWireFormat.V2, false).getRegions();
+
+		assertEquals(GroupSubscription.MAX_WORLD_MAP_REGIONS + 1, regions.size());
+		assertFalse(regions.contains(0));
+		assertTrue(regions.contains(REGION));
+		assertTrue(regions.contains(GroupSubscription.MAX_WORLD_MAP_REGIONS));
+	}
+
+	@Test
+	public void countsOnlyForRegionsNotSynced()
+	{
+		Map<Integer, Integer> counts = new HashMap<>();
+		counts.put(REGION, 3);
+		counts.put(FAR_REGION, 7);
+
+		assertTrue(subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true, counts));
+
+		assertEquals(Collections.singletonMap(FAR_REGION, 7), subscription.getUnsyncedCounts());
+		assertFalse(subscription.pulled(subscription.nextPull(TileWireFormat.V2, true), true,
+			new HashMap<>(counts)));
+	}
+
+	@Test
+	public void wholeGroupAnswerStopsAskingForRegions()
+	{
+		subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true,
+			Collections.singletonMap(FAR_REGION, 7));
+
+		assertTrue(subscription.pulled(subscription.nextPull(TileWireFormat.V2, true), false, null));
+
+		assertNull(subscription.nextPull(TileWireFormat.V2, true).getRegions());
+		assertTrue(subscription.getUnsyncedCounts().isEmpty());
+		assertEquals(0, subscription.getSyncedCount());
+	}
+
+	@Test
+	public void v1PullsTheWholeGroup()
+	{
+		GroupSubscription.Pull pull = subscription.nextPull(TileWireFormat.V1, false);
+
+		assertNull(pull.getRegions());
+		assertFalse(subscription.pulled(pull, false, null));
+		assertEquals(Collections.singleton(REGION), subscription.nextPull(TileWireFormat.V2, false).getRegions());
+	}
+
+	@Test
+	public void restoredFromTheCache()
+	{
+		subscription.viewWorldMap(Collections.singletonList(FAR_REGION));
+		subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true,
+			Collections.singletonMap(NEXT_REGION, 2));
+		GroupStateCache.State state = new GroupStateCache.State("bob", "group");
+		subscription.save(state, TileWireFormat.V2);
+
+		GroupSubscription restored = new GroupSubscription();
+		restored.useGroup("group");
+
+		assertEquals(new HashSet<>(Arrays.asList(REGION, FAR_REGION)), restored.restore(state));
+		assertEquals(Collections.singletonMap(NEXT_REGION, 2), restored.getUnsyncedCounts());
+		// The last loaded regions count as nearby, so the first pull has nothing to catch up or drop
+		GroupSubscription.Pull pull = restored.nextPull(TileWireFormat.V2, true);
+		assertFalse(pull.isReadAll());
+		assertTrue(pull.getDropped().isEmpty());
+	}
+
+	@Test
+	public void nothingSyncedRestoredForAWholeGroupPull()
+	{
+		GroupStateCache.State state = new GroupStateCache.State("bob", "group");
+		subscription.save(state, TileWireFormat.V1);
+
+		assertNull(new GroupSubscription().restore(state));
+	}
+
+	@Test
+	public void switchingGroupsForgetsTheSyncedRegions()
+	{
+		subscription.pulled(subscription.nextPull(TileWireFormat.V2, false), true, null);
+
+		subscription.useGroup("other");
+
+		assertEquals(0, subscription.getSyncedCount());
+		assertTrue(subscription.nextPull(TileWireFormat.V2, true).isReadAll());
+	}
+}
@@ -0,0 +1,136 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupSyncSchedulerTest
+{
+	private GroupSyncScheduler scheduler;
+	private long now = 1_000;
+
+	@Before
+	public void setUp()
+	{
+		scheduler = new GroupSyncScheduler();
+		assertTrue(scheduler.shouldPull(now, true));
+	}
+
+	@Test
+	public void onlyOnePullInFlight()
+	{
+		assertFalse(scheduler.shouldPull(now + GroupSyncScheduler.MAX_INTERVAL_MILLIS, true));
+
+		scheduler.pullFinished(now, false);
+
+		assertEquals(1, scheduler.getRequestCount());
+		assertEquals(1, scheduler.getSkippedTicks());
+		assertTrue(scheduler.shouldPull(now + GroupSyncScheduler.MAX_INTERVAL_MILLIS, true));
+		assertEquals(GroupSyncScheduler.MAX_INTERVAL_MILLIS, scheduler.getAverageIntervalMillis());
+	}
+
+	@Test
+	public void loggedOutNeverPulls()
+	{
+		scheduler.pullFinished(now, true);
+
+		assertFalse(scheduler.shouldPull(now + GroupSyncScheduler.MAX_INTERVAL_MILLIS, false));
+	}
+
+	@Test
+	public void intervalDoublesWhilePullsBringNothing()
+	{
+		long interval = GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS;
+		while (interval < GroupSyncScheduler.MAX_INTERVAL_MILLIS)
+		{
+			interval = Math.min(interval * 2, GroupSyncScheduler.MAX_INTERVAL_MILLIS);
+			pullFinishedAfter(false, interval);
+		}
+
+		// Capped from here on
+		pullFinishedAfter(false, GroupSyncScheduler.MAX_INTERVAL_MILLIS);
+	}
+
+	@Test
+	public void changesSpeedUp()
+	{
+		pullFinishedAfter(false, GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS * 2);
+		pullFinishedAfter(false, GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS * 4);
+
+		pullFinishedAfter(true, GroupSyncScheduler.MIN_INTERVAL_MILLIS);
+		// Backs off again from the shortest interval
+		pullFinishedAfter(false, GroupSyncScheduler.MIN_INTERVAL_MILLIS * 2);
+	}
+
+	@Test
+	public void movingPlayerShortensTheInterval()
+	{
+		pullFinishedAfter(false, GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS * 2);
+		pullFinishedAfter(false, GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS * 4);
+		scheduler.pullFinished(now, false);
+
+		scheduler.playerMoved(now);
+
+		assertFalse(scheduler.shouldPull(now + GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS - 1, true));
+		assertTrue(scheduler.shouldPull(now + GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS, true));
+	}
+
+	@Test
+	public void pushedChangePulledAtOnce()
+	{
+		scheduler.setPushConnected(now, true);
+		pullFinishedAfter(false, GroupSyncScheduler.PUSH_INTERVAL_MILLIS);
+		scheduler.pullFinished(now, false);
+
+		scheduler.changePushed();
+
+		assertTrue(scheduler.shouldPull(now, true));
+	}
+
+	@Test
+	public void changePushedDuringPullPullsAgain()
+	{
+		scheduler.changePushed();
+		scheduler.pullFinished(now, false);
+
+		assertTrue(scheduler.shouldPull(now, true));
+	}
+
+	@Test
+	public void droppedPushConnectionPullsAtOnce()
+	{
+		scheduler.setPushConnected(now, true);
+		scheduler.pullFinished(now, false);
+
+		scheduler.setPushConnected(now + 1, false);
+
+		assertTrue(scheduler.shouldPull(now + 1, true));
+	}
+
+	@Test
+	public void pullSoonSkipsTheWait()
+	{
+		pullFinishedAfter(false, GroupSyncScheduler.ACTIVE_INTERVAL_MILLIS * 2);
+		scheduler.pullFinished(now, false);
+
+		scheduler.pullSoon();
+
+		assertTrue(scheduler.shouldPull(now, true));
+		// Backs off again from the shortest interval
+		pullFinishedAfter(false, GroupSyncScheduler.MIN_INTERVAL_MILLIS * 2);
+	}
+
+	/***
+	 * Finishes the pull in flight and checks the next one starts exactly the given interval later.
+	 */
+	private void pullFinishedAfter(boolean changed, long interval)
+	{
+		scheduler.pullFinished(now, changed);
+		assertFalse(scheduler.shouldPull(now + interval - 1, true));
+		now += interval;
+		assertTrue(scheduler.shouldPull(now, true));
+	}
+}
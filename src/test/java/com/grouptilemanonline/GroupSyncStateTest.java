@@ -0,0 +1,98 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupSyncStateTest
+{
+	private final GroupSyncState state = new GroupSyncState();
+
+	@Before
+	public void setUp()
+	{
+		state.useGroup("group");
+		state.pulled("group", "\"v5\"", 5);
+		state.memberImported("alice", 3, 100);
+	}
+
+	@Test
+	public void watermarkOnlyMovesForward()
+	{
+		state.pulled("group", "\"v4\"", 4);
+
+		assertEquals(5, state.getGroupVersion());
+		assertEquals("\"v4\"", state.getEtag());
+
+		state.pulled("group", "", 6);
+		assertEquals(6, state.getGroupVersion());
+		assertNull(state.getEtag());
+	}
+
+	@Test
+	public void pullOfAPreviousGroupIgnored()
+	{
+		state.useGroup("other");
+
+		state.pulled("group", "\"v6\"", 6);
+
+		assertEquals(0, state.getGroupVersion());
+		assertNull(state.getEtag());
+		assertTrue(state.isMemberChanged("alice", 3));
+	}
+
+	@Test
+	public void memberChangedOnlyForANewVersion()
+	{
+		assertFalse(state.isMemberChanged("alice", 3));
+		assertTrue(state.isMemberChanged("alice", 4));
+		assertTrue(state.isMemberChanged("bob", 3));
+		// Unversioned backends
+		assertTrue(state.isMemberChanged("alice", 0));
+	}
+
+	@Test
+	public void unchangedFingerprintsCounted()
+	{
+		state.memberImported("alice", 4, 100);
+		state.memberImported("alice", 5, 101);
+
+		assertEquals(1, state.getMembersUnchanged());
+	}
+
+	@Test
+	public void restoredUnlessPulledSince()
+	{
+		GroupStateCache.State saved = new GroupStateCache.State("bob", "group");
+		state.save(saved);
+
+		state.reset();
+		state.useGroup("group");
+		assertTrue(state.restore(saved));
+		assertEquals(5, state.getGroupVersion());
+		assertEquals("\"v5\"", state.getEtag());
+		assertFalse(state.isMemberChanged("alice", 3));
+
+		assertFalse(state.restore(saved));
+	}
+
+	@Test
+	public void otherGroupNotRestored()
+	{
+		GroupStateCache.State saved = new GroupStateCache.State("bob", "other");
+		saved.groupVersion = 9;
+		saved.memberVersions = new HashMap<>();
+
+		state.reset();
+		state.useGroup("group");
+
+		assertFalse(state.restore(saved));
+		assertEquals(0, state.getGroupVersion());
+	}
+}
@@ -0,0 +1,160 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class GroupTilesReaderTest
+{
+	private static final int REGION = 12850;
+	private static final int A = TileKeys.pack(REGION, 1, 2, 0);
+	private static final int B = TileKeys.pack(REGION, 3, 4, 0);
+	private static final String V1_TILES = "{\"playerName\":\"alice\",\"regionTiles\":{\"region_12850\":["
+		+ "{\"regionId\":12850,\"regionX\":1,\"regionY\":2,\"z\":0},"
+		+ "{\"regionId\":12850,\"regionX\":3,\"regionY\":4,\"z\":0}]}}";
+
+	private final Gson gson = new Gson();
+	private final List<String> events = new ArrayList<>();
+	private final List<Long> fingerprints = new ArrayList<>();
+	private String skipped;
+
+	@Test
+	public void v1MemberRead() throws IOException
+	{
+		assertNull(read("[{\"username\":\"alice\",\"version\":3,\"tiles\":" + V1_TILES + "}]"));
+
+		assertEquals(Arrays.asList(
+			"start alice 3",
+			"region alice region_12850 " + Arrays.toString(new int[]{A, B}) + " null",
+			"finish alice 3 null"), events);
+		long untagged = TileFingerprint.of(new int[]{A, B});
+		assertEquals(Arrays.asList(untagged, untagged), fingerprints);
+	}
+
+	@Test
+	public void v1NameTakenFromTheTiles() throws IOException
+	{
+		read("[{\"tiles\":" + V1_TILES + "}]");
+
+		assertEquals("start alice 0", events.get(0));
+		assertEquals(3, events.size());
+	}
+
+	@Test
+	public void v2MemberReadWithTags() throws IOException
+	{
+		long[] tags = {7, 1, 9, 1};
+
+		read("[{\"username\":\"alice\",\"version\":9,\"regions\":[" + region(tags) + "],"
+			+ "\"tombstones\":[{\"owner\":\"bob\",\"key\":" + A + ",\"tag\":2}]}]");
+
+		assertEquals(Arrays.asList(
+			"start alice 9",
+			"region alice region_12850 " + Arrays.toString(new int[]{A, B}) + " " + Arrays.toString(tags),
+			"finish alice 9 bob:" + A + ":2"), events);
+		// The tags count towards the region's fingerprint, not the member's
+		assertNotEquals(TileFingerprint.of(new int[]{A, B}), (long) fingerprints.get(0));
+		assertEquals(TileFingerprint.of(new int[]{A, B}), (long) fingerprints.get(1));
+	}
+
+	@Test
+	public void nameAfterTheTilesBuffersThem() throws IOException
+	{
+		read("[{\"regions\":[" + region(null) + "],\"version\":4,\"username\":\"alice\"},"
+			+ "{\"tiles\":" + V1_TILES.replace("alice", "carol") + ",\"username\":\"carol\"}]");
+
+		assertEquals(Arrays.asList(
+			"start alice 4",
+			"region alice region_12850 " + Arrays.toString(new int[]{A, B}) + " null",
+			"finish alice 4 null",
+			"start carol 0",
+			"region carol region_12850 " + Arrays.toString(new int[]{A, B}) + " null",
+			"finish carol 0 null"), events);
+	}
+
+	@Test
+	public void skippedMemberNotRead() throws IOException
+	{
+		skipped = "bob";
+
+		read("[{\"username\":\"bob\",\"regions\":[" + region(null) + "]},"
+			+ "{\"regions\":[" + region(null) + "],\"username\":\"bob\"},"
+			+ "{\"username\":\"alice\",\"regions\":[]}]");
+
+		assertEquals(Arrays.asList("start bob 0", "start bob 0", "start alice 0", "finish alice 0 null"), events);
+	}
+
+	@Test
+	public void objectResponseCarriesTheCounts() throws IOException
+	{
+		Map<Integer, Integer> counts = read("{\"counts\":{\"12851\":4},\"members\":[{\"username\":\"alice\","
+			+ "\"regions\":[" + region(null) + "]}],\"unknown\":[1]}");
+
+		assertEquals(Collections.singletonMap(12851, 4), counts);
+		assertEquals(3, events.size());
+		assertEquals(Collections.emptyMap(), read("{\"members\":[]}"));
+	}
+
+	private Map<Integer, Integer> read(String json) throws IOException
+	{
+		return GroupTilesReader.read(new JsonReader(new StringReader(json)), gson, new GroupTilesReader.Listener()
+		{
+			@Override
+			public boolean memberStarted(String username, long version)
+			{
+				events.add("start " + username + " " + version);
+				return !username.equals(skipped);
+			}
+
+			@Override
+			public void regionRead(String username, String regionKey, long fingerprint, int[] keys, long[] tagRuns)
+			{
+				events.add("region " + username + " " + regionKey + " " + Arrays.toString(keys) + " "
+					+ Arrays.toString(tagRuns));
+				fingerprints.add(fingerprint);
+			}
+
+			@Override
+			public void memberFinished(String username, long version, long fingerprint, List<TileTombstone> tombstones)
+			{
+				StringBuilder event = new StringBuilder("finish " + username + " " + version);
+				if (tombstones == null)
+				{
+					event.append(" null");
+				}
+				else
+				{
+					for (TileTombstone tombstone : tombstones)
+					{
+						event.append(' ').append(tombstone.getOwner()).append(':').append(tombstone.getKey())
+							.append(':').append(tombstone.getTag());
+					}
+				}
+				events.add(event.toString());
+				fingerprints.add(fingerprint);
+			}
+		});
+	}
+
+	/***
+	 * @return The v2 JSON of a region holding A and B.
+	 */
+	private String region(long[] tags)
+	{
+		int[] positions = {A & TileKeys.LOCAL_MASK, B & TileKeys.LOCAL_MASK};
+		Arrays.sort(positions);
+		return gson.toJson(new RegionTiles(REGION, positions, null, tags));
+	}
+}
@@ -0,0 +1,123 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupWatcherTest
+{
+	private static final long TIMEOUT_MILLIS = 5_000;
+
+	private LocalSyncServer server;
+	private ScheduledExecutorService executor;
+	private HttpSyncBackend backend;
+	private GroupWatcher watcher;
+	private final Semaphore changes = new Semaphore(0);
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = new LocalSyncServer(0);
+		server.start();
+		executor = Executors.newSingleThreadScheduledExecutor();
+		TilemanModeConfig config = new TilemanModeConfig()
+		{
+			@Override
+			public String backendUrl()
+			{
+				return server.getUrl();
+			}
+		};
+		backend = new HttpSyncBackend(new OkHttpClient(), executor, config, new Gson());
+		watcher = new GroupWatcher(backend);
+	}
+
+	@After
+	public void tearDown()
+	{
+		watcher.stop();
+		server.stop();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void pushedChangeReported() throws Exception
+	{
+		watcher.watch("group", 0, changes::release);
+
+		mark(1);
+
+		assertTrue(changes.tryAcquire(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertTrue(watcher.isConnected());
+		assertEquals(1, watcher.getChangeCount());
+	}
+
+	@Test
+	public void changeWhileDroppedReportedOnReconnect() throws Exception
+	{
+		watcher.watch("group", 0, changes::release);
+		mark(1);
+		assertTrue(changes.tryAcquire(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+		await(() -> server.getHeldWatches() == 1);
+		server.dropWatches();
+		await(() -> !watcher.isConnected());
+		mark(2);
+
+		// The sync tick keeps calling, the watch is reopened once the backoff is over
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!changes.tryAcquire(100, TimeUnit.MILLISECONDS))
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			watcher.watch("group", 0, changes::release);
+		}
+		assertEquals(2, watcher.getChangeCount());
+		assertEquals(1, watcher.getReconnectCount());
+	}
+
+	@Test
+	public void resumesFromThePulledVersion() throws Exception
+	{
+		mark(1);
+		long version = backend.getGroupTiles(TileWireFormat.V2, "group", 0, null, null, body -> {}).get()
+			.getGroupVersion();
+
+		watcher.watch("group", version, changes::release);
+
+		assertFalse(changes.tryAcquire(300, TimeUnit.MILLISECONDS));
+		mark(2);
+		assertTrue(changes.tryAcquire(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	/***
+	 * Changes the group by uploading a snapshot with one tile.
+	 */
+	private void mark(int x) throws Exception
+	{
+		int key = TileKeys.pack(12850, x, 1, 0);
+		assertEquals(200, backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(x, key)).get().getCode());
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean())
+		{
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpSyncBackendTest
+{
+	private static final long READ_TIMEOUT_MILLIS = 300;
+	private static final int REGION = 12850;
+	private static final int OTHER_REGION = 12851;
+	private static final int A = TileKeys.pack(REGION, 1, 1, 0);
+	private static final int B = TileKeys.pack(REGION, 1, 2, 0);
+	private static final int C = TileKeys.pack(OTHER_REGION, 2, 1, 0);
+
+	private LocalSyncServer server;
+	private ScheduledExecutorService executor;
+	private HttpSyncBackend backend;
+	// The counts outside the regions of the last pull read
+	private Map<Integer, Integer> counts;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = new LocalSyncServer(0);
+		server.start();
+		executor = Executors.newSingleThreadScheduledExecutor();
+		TilemanModeConfig config = new TilemanModeConfig()
+		{
+			@Override
+			public String backendUrl()
+			{
+				return server.getUrl();
+			}
+		};
+		backend = new HttpSyncBackend(new OkHttpClient(), executor, config, new Gson(), READ_TIMEOUT_MILLIS);
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void failedRequestRetried() throws Exception
+	{
+		server.failNext(2);
+
+		assertEquals(200, pull().get().getCode());
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void lastFailureAnswered() throws Exception
+	{
+		server.failNext(3);
+
+		assertEquals(503, pull().get().getCode());
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void clientErrorNotRetried() throws Exception
+	{
+		SyncResponse response = backend.getRegionTree("group", "nobody", 0, Collections.singletonList(0),
+			body -> fail()).get();
+
+		assertEquals(404, response.getCode());
+		assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	public void timedOutRequestRetried() throws Exception
+	{
+		server.setLatencyMillis(READ_TIMEOUT_MILLIS * 3);
+
+		assertTrue(failure(pull()) instanceof InterruptedIOException);
+		assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void failingBackendPausesRequests() throws Exception
+	{
+		// The breaker opens on the second request's second attempt, which isn't retried
+		server.failNext(CircuitBreaker.FAILURE_THRESHOLD * 2);
+		assertEquals(503, pull().get().getCode());
+		failure(pull());
+		assertEquals(CircuitBreaker.FAILURE_THRESHOLD, server.getRequestCount());
+
+		assertTrue(failure(pull()) instanceof IOException);
+		assertEquals(CircuitBreaker.FAILURE_THRESHOLD, server.getRequestCount());
+	}
+
+	@Test
+	public void deltaAppliedOnTopOfSnapshot() throws Exception
+	{
+		assertEquals(200, backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, A, B)).get().getCode());
+
+		AddTilesDeltaObject delta = new AddTilesDeltaObject("bob", "group", 1, 2, new int[]{C}, new int[]{A}, null);
+		assertEquals(200, backend.addTilesDelta(TileWireFormat.V2, delta).get().getCode());
+
+		assertArrayEquals(new int[]{B, C}, pullMembers(null).get("bob"));
+	}
+
+	@Test
+	public void deltaOnAnotherSeqRejected() throws Exception
+	{
+		backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(2, A)).get();
+
+		AddTilesDeltaObject delta = new AddTilesDeltaObject("bob", "group", 1, 3, new int[]{B}, new int[0], null);
+		assertEquals(409, backend.addTilesDelta(TileWireFormat.V2, delta).get().getCode());
+		assertArrayEquals(new int[]{A}, pullMembers(null).get("bob"));
+	}
+
+	@Test
+	public void largeSnapshotRoundTrip() throws Exception
+	{
+		// Large enough to be sent gzipped
+		int[] keys = new int[4096];
+		for (int i = 0; i < keys.length; i++)
+		{
+			keys[i] = TileKeys.pack(REGION + i / 1024, (i >> 5) & 31, i & 31, 0);
+		}
+
+		assertEquals(200, backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, keys)).get().getCode());
+
+		assertArrayEquals(keys, pullMembers(null).get("bob"));
+	}
+
+	@Test
+	public void unchangedGroupAnsweredNotModified() throws Exception
+	{
+		backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, A)).get();
+		SyncResponse pulled = pull().get();
+
+		SyncResponse again = backend.getGroupTiles(TileWireFormat.V2, "group", 0, pulled.getEtag(), null,
+			body -> fail()).get();
+
+		assertEquals(304, again.getCode());
+		assertEquals(pulled.getEtag(), again.getEtag());
+	}
+
+	@Test
+	public void onlyMembersChangedSinceSent() throws Exception
+	{
+		backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, A)).get();
+		long version = pull().get().getGroupVersion();
+		backend.addTiles(TileWireFormat.V2, new AddTilesV2Object("alice", "group", 1, FakeSyncBackend.toRegions(B),
+			null)).get();
+
+		Map<String, int[]> members = new TreeMap<>();
+		backend.getGroupTiles(TileWireFormat.V2, "group", version, null, null, body -> members.putAll(readMembers(body)))
+			.get();
+
+		assertEquals(Collections.singleton("alice"), members.keySet());
+	}
+
+	@Test
+	public void pullLimitedToRegionsCountsTheOthers() throws Exception
+	{
+		backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, A, B, C)).get();
+
+		Map<String, int[]> members = pullMembers(Collections.singletonList(REGION));
+
+		assertArrayEquals(new int[]{A, B}, members.get("bob"));
+		assertEquals(Collections.singletonMap(OTHER_REGION, 1), counts);
+	}
+
+	@Test
+	public void leftMemberNoLongerPulled() throws Exception
+	{
+		backend.addTiles(TileWireFormat.V2, FakeSyncBackend.snapshot(1, A)).get();
+
+		assertEquals(200, backend.leaveGroup(new LeaveGroupObject("bob", "group")).get().getCode());
+
+		assertTrue(pullMembers(null).isEmpty());
+	}
+
+	/***
+	 * Pulls the whole group, or only the given regions.
+	 *
+	 * @return The members' tiles, sorted.
+	 */
+	private Map<String, int[]> pullMembers(Collection<Integer> regionIds) throws Exception
+	{
+		Map<String, int[]> members = new TreeMap<>();
+		SyncResponse response = backend.getGroupTiles(TileWireFormat.V2, "group", 0, null, regionIds,
+			body -> members.putAll(readMembers(body))).get();
+		assertEquals(200, response.getCode());
+		return members;
+	}
+
+	private Map<String, int[]> readMembers(Reader body) throws IOException
+	{
+		Map<String, int[]> members = new TreeMap<>();
+		counts = GroupTilesReader.read(new JsonReader(body), new Gson(), new GroupTilesReader.Listener()
+		{
+			@Override
+			public boolean memberStarted(String username, long version)
+			{
+				return true;
+			}
+
+			@Override
+			public void regionRead(String username, String regionKey, long fingerprint, int[] keys, long[] tagRuns)
+			{
+				members.merge(username, keys, HttpSyncBackendTest::concatSorted);
+			}
+
+			@Override
+			public void memberFinished(String username, long version, long fingerprint, List<TileTombstone> tombstones)
+			{
+				members.putIfAbsent(username, new int[0]);
+			}
+		});
+		return members;
+	}
+
+	private static int[] concatSorted(int[] a, int[] b)
+	{
+		int[] keys = new int[a.length + b.length];
+		System.arraycopy(a, 0, keys, 0, a.length);
+		System.arraycopy(b, 0, keys, a.length, b.length);
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	private CompletableFuture<SyncResponse> pull()
+	{
+		return backend.getGroupTiles(TileWireFormat.V2, "group", 0, null, null, body -> {});
+	}
+
+	private static Throwable failure(CompletableFuture<SyncResponse> future) throws InterruptedException
+	{
+		try
+		{
+			future.get();
+		}
+		catch (ExecutionException e)
+		{
+			return e.getCause();
+		}
+		throw new AssertionError("Request didn't fail");
+	}
+}
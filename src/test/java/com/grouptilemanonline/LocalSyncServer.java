@@ -0,0 +1,728 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/***
+ * An in-memory stand-in for the group tile backend, implementing the same endpoints as the hosted one in both wire
+ * schemas, for testing {@link HttpSyncBackend} and the sync built on it over real HTTP. Latency and 503s can be added
+ * to responses to see how the client copes with a slow or failing backend.
+ * Writes with an idempotency key the server already applied are answered as before without being applied again, and
+ * group watches are held until the group changes, so retries and push updates can be exercised too. Tiles are tagged
+ * with the member's version when they were added and members' tombstones are kept, as {@link TileOrSet} expects.
+ * Members' {@link RegionTree}s are served and differing regions accepted, for {@link TileReconciler}, pulls can
+ * be limited to some regions, as {@link GroupSubscription} does, and snapshots can be uploaded in chunks, as
+ * {@link ChunkedUploader} does. Upload sessions are kept until they are committed.
+ */
+public class LocalSyncServer
+{
+	// Idempotency keys remembered, enough to cover any retry
+	private static final int MAX_APPLIED_WRITES = 4096;
+
+	private final Gson gson = new Gson();
+	private final Map<String, Group> groups = new HashMap<>();
+	// Chunks staged by upload session
+	private final Map<String, Map<Integer, List<RegionTiles>>> uploads = new HashMap<>();
+	private final Map<String, Integer> appliedWrites = new LinkedHashMap<String, Integer>()
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+		{
+			return size() > MAX_APPLIED_WRITES;
+		}
+	};
+	private final HttpServer server;
+	private volatile long latencyMillis;
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	// Bumped to drop the watches held so far
+	private int watchEpoch;
+	private int heldWatches;
+
+	public LocalSyncServer(int port) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", this::handle);
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		// Held watches would keep their threads waiting otherwise
+		dropWatches();
+		server.stop(0);
+	}
+
+	public String getUrl()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+
+	/***
+	 * Answers the next count requests with 503 without handling them.
+	 */
+	public void failNext(int count)
+	{
+		failures.set(count);
+	}
+
+	/***
+	 * Answers every group watch held so far with 503, as if the connection dropped.
+	 */
+	public synchronized void dropWatches()
+	{
+		watchEpoch++;
+		notifyAll();
+	}
+
+	/***
+	 * @return The number of group watches waiting for a change.
+	 */
+	public synchronized int getHeldWatches()
+	{
+		return heldWatches;
+	}
+
+	/***
+	 * @return The number of requests received so far.
+	 */
+	public int getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			requestCount.incrementAndGet();
+			if (latencyMillis > 0)
+			{
+				Thread.sleep(latencyMillis);
+			}
+			if (failures.getAndUpdate(count -> Math.max(count - 1, 0)) > 0)
+			{
+				send(exchange, 503, null);
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			final int schemaVersion = path.startsWith("/v2/") ? TileWireFormat.V2 : TileWireFormat.V1;
+			if (schemaVersion == TileWireFormat.V2)
+			{
+				path = path.substring(3);
+			}
+
+			if (path.equals("/AddTiles"))
+			{
+				write(exchange, () -> addTiles(exchange, schemaVersion));
+			}
+			else if (path.equals("/AddTilesDelta"))
+			{
+				write(exchange, () -> addTilesDelta(exchange));
+			}
+			else if (path.startsWith("/GetGroupTiles/"))
+			{
+				getGroupTiles(exchange, schemaVersion, path.substring("/GetGroupTiles/".length()));
+			}
+			else if (path.equals("/UploadChunk") && schemaVersion == TileWireFormat.V2)
+			{
+				write(exchange, () -> uploadChunk(exchange));
+			}
+			else if (path.equals("/CommitUpload") && schemaVersion == TileWireFormat.V2)
+			{
+				write(exchange, () -> commitUpload(exchange));
+			}
+			else if (path.equals("/AddTileRegions") && schemaVersion == TileWireFormat.V2)
+			{
+				write(exchange, () -> addTileRegions(exchange));
+			}
+			else if (path.startsWith("/RegionTree/") && schemaVersion == TileWireFormat.V2)
+			{
+				regionTree(exchange, path.substring("/RegionTree/".length()));
+			}
+			else if (path.equals("/LeaveGroup"))
+			{
+				write(exchange, () -> leaveGroup(exchange));
+			}
+			else if (path.startsWith("/WatchGroup/"))
+			{
+				watchGroup(exchange, path.substring("/WatchGroup/".length()));
+			}
+			else
+			{
+				send(exchange, 404, null);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (RuntimeException e)
+		{
+			send(exchange, 400, null);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private void write(HttpExchange exchange, Write write) throws IOException
+	{
+		String idempotencyKey = exchange.getRequestHeaders().getFirst(HttpSyncBackend.IDEMPOTENCY_KEY_HEADER);
+		Integer code;
+		synchronized (this)
+		{
+			code = idempotencyKey == null ? null : appliedWrites.get(idempotencyKey);
+		}
+
+		if (code == null)
+		{
+			code = write.apply();
+			if (idempotencyKey != null)
+			{
+				synchronized (this)
+				{
+					appliedWrites.put(idempotencyKey, code);
+				}
+			}
+		}
+		send(exchange, code, null);
+	}
+
+	private int addTiles(HttpExchange exchange, int schemaVersion) throws IOException
+	{
+		TileKeySet keys = new TileKeySet();
+		String username;
+		String groupJoinCode;
+		long seq;
+		List<TileTombstone> tombstones;
+
+		try (Reader body = body(exchange))
+		{
+			if (schemaVersion == TileWireFormat.V2)
+			{
+				AddTilesV2Object snapshot = gson.fromJson(body, AddTilesV2Object.class);
+				username = snapshot.getUsername();
+				groupJoinCode = snapshot.getGroupJoinCode();
+				seq = snapshot.getSeq();
+				tombstones = snapshot.getTombstones();
+				for (RegionTiles region : snapshot.getRegions())
+				{
+					for (TilemanModeTile tile : TileWireFormat.decode(region, username))
+					{
+						keys.add(TileKeys.pack(tile));
+					}
+				}
+			}
+			else
+			{
+				AddTilesObject snapshot = gson.fromJson(body, AddTilesObject.class);
+				username = snapshot.getUsername();
+				groupJoinCode = snapshot.getGroupJoinCode();
+				seq = snapshot.getSeq();
+				tombstones = snapshot.getTombstones();
+				for (List<TilemanModeTile> regionTiles : snapshot.getTiles().getRegionTiles().values())
+				{
+					for (TilemanModeTile tile : regionTiles)
+					{
+						keys.add(TileKeys.pack(tile));
+					}
+				}
+			}
+		}
+
+		replaceTiles(username, groupJoinCode, seq, keys, tombstones);
+		return 200;
+	}
+
+	private synchronized void replaceTiles(String username, String groupJoinCode, long seq, TileKeySet keys,
+		List<TileTombstone> tombstones)
+	{
+		Group group = groups.computeIfAbsent(groupJoinCode, code -> new Group());
+		Member member = group.members.computeIfAbsent(username, name -> new Member());
+		member.version = ++group.version;
+		// Tiles the member already had keep their tag
+		Map<Integer, Long> tags = new HashMap<>();
+		keys.forEach(key -> tags.put(key, member.tags.getOrDefault(key, member.version)));
+		member.keys = keys;
+		member.tags = tags;
+		member.seq = seq;
+		if (tombstones != null)
+		{
+			member.tombstones = tombstones;
+		}
+		notifyAll();
+	}
+
+	private int uploadChunk(HttpExchange exchange) throws IOException
+	{
+		UploadChunkObject chunk;
+		try (Reader body = body(exchange))
+		{
+			chunk = gson.fromJson(body, UploadChunkObject.class);
+		}
+
+		synchronized (this)
+		{
+			uploads.computeIfAbsent(uploadKey(chunk.getUsername(), chunk.getGroupJoinCode(), chunk.getSession()),
+				session -> new HashMap<>()).put(chunk.getIndex(), chunk.getRegions());
+		}
+		return 200;
+	}
+
+	private int commitUpload(HttpExchange exchange) throws IOException
+	{
+		CommitUploadObject commit;
+		try (Reader body = body(exchange))
+		{
+			commit = gson.fromJson(body, CommitUploadObject.class);
+		}
+
+		TileKeySet keys = new TileKeySet();
+		synchronized (this)
+		{
+			String uploadKey = uploadKey(commit.getUsername(), commit.getGroupJoinCode(), commit.getSession());
+			Map<Integer, List<RegionTiles>> chunks = uploads.get(uploadKey);
+			for (int i = 0; i < commit.getChunks(); i++)
+			{
+				if (chunks == null || !chunks.containsKey(i))
+				{
+					return 409;
+				}
+				for (RegionTiles region : chunks.get(i))
+				{
+					for (int key : TileWireFormat.decodeKeys(region))
+					{
+						keys.add(key);
+					}
+				}
+			}
+
+			uploads.remove(uploadKey);
+			replaceTiles(commit.getUsername(), commit.getGroupJoinCode(), commit.getSeq(), keys, commit.getTombstones());
+		}
+		return 200;
+	}
+
+	private static String uploadKey(String username, String groupJoinCode, String session)
+	{
+		return groupJoinCode + "/" + username + "/" + session;
+	}
+
+	private int addTilesDelta(HttpExchange exchange) throws IOException
+	{
+		AddTilesDeltaObject delta;
+		try (Reader body = body(exchange))
+		{
+			delta = gson.fromJson(body, AddTilesDeltaObject.class);
+		}
+
+		synchronized (this)
+		{
+			Group group = groups.get(delta.getGroupJoinCode());
+			Member member = group == null ? null : group.members.get(delta.getUsername());
+			if (member == null || member.seq != delta.getBaseSeq())
+			{
+				return 409;
+			}
+
+			member.version = ++group.version;
+			for (int key : delta.getRemoved())
+			{
+				member.keys.remove(key);
+				member.tags.remove(key);
+			}
+			for (int key : delta.getAdded())
+			{
+				if (member.keys.add(key))
+				{
+					member.tags.put(key, member.version);
+				}
+			}
+			member.seq = delta.getSeq();
+			if (delta.getTombstones() != null)
+			{
+				member.tombstones = delta.getTombstones();
+			}
+			notifyAll();
+		}
+		return 200;
+	}
+
+	private int addTileRegions(HttpExchange exchange) throws IOException
+	{
+		AddTileRegionsObject update;
+		try (Reader body = body(exchange))
+		{
+			update = gson.fromJson(body, AddTileRegionsObject.class);
+		}
+
+		synchronized (this)
+		{
+			Group group = groups.get(update.getGroupJoinCode());
+			Member member = group == null ? null : group.members.get(update.getUsername());
+			if (member == null)
+			{
+				return 404;
+			}
+
+			member.version = ++group.version;
+			for (RegionTiles region : update.getRegions())
+			{
+				TileKeySet keys = new TileKeySet();
+				member.keys.forEach(key ->
+				{
+					if (TileKeys.regionId(key) == region.getId())
+					{
+						keys.add(key);
+					}
+				});
+				member.keys.removeAll(keys);
+
+				// Tiles the member already had keep their tag
+				Map<Integer, Long> tags = new HashMap<>();
+				for (int key : TileWireFormat.decodeKeys(region))
+				{
+					member.keys.add(key);
+					tags.put(key, member.tags.getOrDefault(key, member.version));
+				}
+				keys.forEach(member.tags::remove);
+				member.tags.putAll(tags);
+			}
+			member.seq = update.getSeq();
+			if (update.getTombstones() != null)
+			{
+				member.tombstones = update.getTombstones();
+			}
+			notifyAll();
+		}
+		return 200;
+	}
+
+	private void regionTree(HttpExchange exchange, String groupJoinCode) throws IOException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		String username = parameter(query, "username");
+		int level = (int) parseParameter(query, "level", 0);
+		String nodes = parameter(query, "nodes");
+
+		Map<String, String[]> children = new LinkedHashMap<>();
+		synchronized (this)
+		{
+			Group group = groups.get(groupJoinCode);
+			Member member = group == null || username == null ? null : group.members.get(username);
+			if (member == null || nodes == null)
+			{
+				send(exchange, 404, null);
+				return;
+			}
+
+			RegionTree tree = new RegionTree();
+			member.keys.forEach(tree::add);
+			for (String node : nodes.split(","))
+			{
+				long[] hashes = tree.children(level, Integer.parseInt(node));
+				String[] hexHashes = new String[hashes.length];
+				for (int i = 0; i < hashes.length; i++)
+				{
+					hexHashes[i] = Long.toHexString(hashes[i]);
+				}
+				children.put(node, hexHashes);
+			}
+		}
+		send(exchange, 200, gson.toJson(children));
+	}
+
+	private void getGroupTiles(HttpExchange exchange, int schemaVersion, String groupJoinCode) throws IOException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		long since = parseParameter(query, "since", 0);
+		String regionsParameter = schemaVersion == TileWireFormat.V2 ? parameter(query, "regions") : null;
+		Set<Integer> regionIds = null;
+		if (regionsParameter != null)
+		{
+			regionIds = new HashSet<>();
+			for (String regionId : regionsParameter.split(","))
+			{
+				if (!regionId.isEmpty())
+				{
+					regionIds.add(Integer.parseInt(regionId));
+				}
+			}
+		}
+
+		List<Object> members = new ArrayList<>();
+		Map<Integer, Integer> counts = new TreeMap<>();
+		String etag;
+		long groupVersion;
+
+		synchronized (this)
+		{
+			Group group = groups.computeIfAbsent(groupJoinCode, code -> new Group());
+			groupVersion = group.version;
+			etag = "\"" + groupVersion + "\"";
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+			{
+				exchange.getResponseHeaders().set("ETag", etag);
+				send(exchange, 304, null);
+				return;
+			}
+
+			for (Map.Entry<String, Member> entry : group.members.entrySet())
+			{
+				if (entry.getValue().version > since)
+				{
+					members.add(schemaVersion == TileWireFormat.V2
+							? compactMember(entry.getKey(), entry.getValue(), regionIds)
+							: member(entry.getKey(), entry.getValue()));
+				}
+			}
+			if (regionIds != null)
+			{
+				countOutside(group, regionIds, counts);
+			}
+		}
+
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set(HttpSyncBackend.GROUP_VERSION_HEADER, Long.toString(groupVersion));
+		if (regionIds == null)
+		{
+			send(exchange, 200, gson.toJson(members));
+			return;
+		}
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("members", members);
+		response.put("counts", counts);
+		send(exchange, 200, gson.toJson(response));
+	}
+
+	/***
+	 * Counts the tiles any member marked in every region outside the given ones, tiles several members marked once.
+	 */
+	private static void countOutside(Group group, Set<Integer> regionIds, Map<Integer, Integer> counts)
+	{
+		TileKeySet keys = new TileKeySet();
+		for (Member member : group.members.values())
+		{
+			member.keys.forEach(key ->
+			{
+				if (!regionIds.contains(TileKeys.regionId(key)) && keys.add(key))
+				{
+					counts.merge(TileKeys.regionId(key), 1, Integer::sum);
+				}
+			});
+		}
+	}
+
+	private int leaveGroup(HttpExchange exchange) throws IOException
+	{
+		LeaveGroupObject leave;
+		try (Reader body = body(exchange))
+		{
+			leave = gson.fromJson(body, LeaveGroupObject.class);
+		}
+
+		synchronized (this)
+		{
+			Group group = groups.get(leave.getGroupJoinCode());
+			if (group != null && group.members.remove(leave.getUsername()) != null)
+			{
+				group.version++;
+				notifyAll();
+			}
+		}
+		return 200;
+	}
+
+	private void watchGroup(HttpExchange exchange, String groupJoinCode) throws IOException, InterruptedException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		long since = parseParameter(query, "since", 0);
+		long deadline = System.currentTimeMillis() + parseParameter(query, "hold", 25) * 1000;
+		long groupVersion;
+		boolean dropped;
+
+		synchronized (this)
+		{
+			Group group = groups.computeIfAbsent(groupJoinCode, code -> new Group());
+			int epoch = watchEpoch;
+			long remaining;
+			heldWatches++;
+			try
+			{
+				while (group.version <= since && epoch == watchEpoch
+					&& (remaining = deadline - System.currentTimeMillis()) > 0)
+				{
+					wait(remaining);
+				}
+			}
+			finally
+			{
+				heldWatches--;
+			}
+			groupVersion = group.version;
+			dropped = epoch != watchEpoch;
+		}
+
+		if (dropped)
+		{
+			send(exchange, 503, null);
+			return;
+		}
+		if (groupVersion <= since)
+		{
+			send(exchange, 204, null);
+			return;
+		}
+		exchange.getResponseHeaders().set(HttpSyncBackend.GROUP_VERSION_HEADER, Long.toString(groupVersion));
+		send(exchange, 200, null);
+	}
+
+	private static GetTilesObject member(String username, Member member)
+	{
+		TreeMap<String, List<TilemanModeTile>> regionTiles = new TreeMap<>();
+		member.keys.forEach(key -> regionTiles
+				.computeIfAbsent(TilemanModePlugin.REGION_PREFIX + TileKeys.regionId(key), region -> new ArrayList<>())
+				.add(TileKeys.toTile(key, username)));
+		return new GetTilesObject(new GroupTiles(username, regionTiles), username, member.version, member.tombstones);
+	}
+
+	/***
+	 * @param regionIds The regions to send, null for all of them.
+	 */
+	private static Map<String, Object> compactMember(String username, Member member, Set<Integer> regionIds)
+	{
+		Map<Integer, BitSet> regions = new TreeMap<>();
+		member.keys.forEach(key ->
+		{
+			if (regionIds == null || regionIds.contains(TileKeys.regionId(key)))
+			{
+				regions.computeIfAbsent(TileKeys.regionId(key), region -> new BitSet()).set(key & TileKeys.LOCAL_MASK);
+			}
+		});
+
+		List<RegionTiles> compactRegions = new ArrayList<>();
+		regions.forEach((regionId, positions) ->
+		{
+			int regionKey = TileKeys.pack(regionId, 0, 0, 0);
+			long[] tags = positions.stream().mapToLong(position -> member.tags.getOrDefault(regionKey | position, 0L)).toArray();
+			compactRegions.add(TileWireFormat.encode(regionId, positions, tags));
+		});
+
+		Map<String, Object> compactMember = new LinkedHashMap<>();
+		compactMember.put("username", username);
+		compactMember.put("version", member.version);
+		compactMember.put("regions", compactRegions);
+		compactMember.put("tombstones", member.tombstones);
+		return compactMember;
+	}
+
+	private static Reader body(HttpExchange exchange) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+		{
+			in = new GZIPInputStream(in);
+		}
+		return new InputStreamReader(in, StandardCharsets.UTF_8);
+	}
+
+	private static long parseParameter(String query, String name, long defaultValue) throws IOException
+	{
+		String value = parameter(query, name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	private static String parameter(String query, String name) throws IOException
+	{
+		if (query == null)
+		{
+			return null;
+		}
+
+		for (String parameter : query.split("&"))
+		{
+			if (parameter.startsWith(name + "="))
+			{
+				return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static void send(HttpExchange exchange, int code, String json) throws IOException
+	{
+		if (json == null)
+		{
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+	private interface Write
+	{
+		/***
+		 * @return The response code.
+		 */
+		int apply() throws IOException;
+	}
+
+	private static class Group
+	{
+		private long version;
+		private final Map<String, Member> members = new LinkedHashMap<>();
+	}
+
+	private static class Member
+	{
+		private long seq;
+		private long version;
+		private TileKeySet keys = new TileKeySet();
+		// The member's version when each tile was added
+		private Map<Integer, Long> tags = new HashMap<>();
+		private List<TileTombstone> tombstones = new ArrayList<>();
+	}
+}
@@ -0,0 +1,156 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemberTileMigrationTest
+{
+	private static final int REGION = 12850;
+	private static final String REGION_KEY = "region_" + REGION;
+	private static final Set<String> MEMBERS = Collections.singleton("bob");
+
+	private final Gson gson = new Gson();
+	private final Map<String, String> config = new HashMap<>();
+	private final TileLayers layers = new TileLayers();
+	private MemberTileMigration migration;
+
+	@Before
+	public void setUp()
+	{
+		migration = new MemberTileMigration(gson, new MemberTileMigration.Store()
+		{
+			@Override
+			public List<String> regionKeys()
+			{
+				return config.keySet().stream().filter(key -> key.startsWith("region_")).collect(Collectors.toList());
+			}
+
+			@Override
+			public String read(String key)
+			{
+				return config.get(key);
+			}
+
+			@Override
+			public void write(String key, String value)
+			{
+				if (value == null)
+				{
+					config.remove(key);
+				}
+				else
+				{
+					config.put(key, value);
+				}
+			}
+		});
+		layers.useGroup("group", "me");
+		store(REGION_KEY, tile(1, "me"), tile(2, "bob"), tile(3, "bob"), tile(4, null));
+	}
+
+	@Test
+	public void setsAsideOnlyTilesTheLayersHold()
+	{
+		pulled(2);
+
+		assertEquals(1, migration.split(MEMBERS, layers));
+
+		assertEquals(Arrays.asList("1/me", "3/bob", "4/null"), stored(REGION_KEY));
+		assertFalse(migration.isDone());
+		GroupTiles setAside = gson.fromJson(config.get(MemberTileMigration.SET_ASIDE_PREFIX + "bob"), GroupTiles.class);
+		assertEquals(1, setAside.getRegionTiles().get(REGION_KEY).size());
+		assertEquals(2, setAside.getRegionTiles().get(REGION_KEY).get(0).getRegionX());
+	}
+
+	@Test
+	public void doneOnceNoMemberTilesAreLeft()
+	{
+		pulled(2);
+		migration.split(MEMBERS, layers);
+		pulled(2, 3);
+
+		assertEquals(1, migration.split(MEMBERS, layers));
+
+		assertTrue(migration.isDone());
+		assertEquals(Arrays.asList("1/me", "4/null"), stored(REGION_KEY));
+		assertEquals(0, migration.split(MEMBERS, layers));
+	}
+
+	@Test
+	public void nothingHeldNothingTaken()
+	{
+		assertEquals(0, migration.split(MEMBERS, layers));
+		assertEquals(0, migration.split(Collections.emptySet(), layers));
+
+		assertEquals(4, stored(REGION_KEY).size());
+		assertFalse(migration.isDone());
+	}
+
+	@Test
+	public void emptiedRegionIsUnset()
+	{
+		store(REGION_KEY, tile(2, "bob"));
+		pulled(2);
+
+		migration.split(MEMBERS, layers);
+
+		assertNull(config.get(REGION_KEY));
+	}
+
+	@Test
+	public void restorePutsTilesBack()
+	{
+		pulled(2, 3);
+		migration.split(MEMBERS, layers);
+		// Bob, another account of the same profile, marked one of the tiles again meanwhile
+		store(REGION_KEY, tile(1, "me"), tile(4, null), tile(3, "bob"));
+
+		assertEquals(1, migration.restore("bob"));
+
+		assertEquals(Arrays.asList("1/me", "4/null", "3/bob", "2/bob"), stored(REGION_KEY));
+		assertNull(config.get(MemberTileMigration.SET_ASIDE_PREFIX + "bob"));
+		assertEquals(0, migration.restore("bob"));
+	}
+
+	private void pulled(int... xs)
+	{
+		int[] keys = Arrays.stream(xs).map(x -> TileKeys.pack(REGION, x, 0, 0)).sorted().toArray();
+		layers.apply(Collections.singletonList(
+			new TileOrSet.RegionChange(REGION, Collections.singletonMap("bob", keys), new int[0])));
+	}
+
+	private static TilemanModeTile tile(int x, String playerName)
+	{
+		return new TilemanModeTile(REGION, x, 0, 0, playerName);
+	}
+
+	private void store(String key, TilemanModeTile... tiles)
+	{
+		config.put(key, gson.toJson(new ArrayList<>(Arrays.asList(tiles))));
+	}
+
+	/***
+	 * @return The stored tiles as x/owner.
+	 */
+	private List<String> stored(String key)
+	{
+		List<TilemanModeTile> tiles = gson.fromJson(config.get(key), new TypeToken<List<TilemanModeTile>>() {}.getType());
+		return tiles.stream().map(tile -> tile.getRegionX() + "/" + tile.getPlayerName()).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,144 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionRulesTest
+{
+	private static final int REGION_COUNT = 1 << 16;
+
+	private final RegionRules rules = new RegionRules(new Gson());
+	private final Set<Integer> bundledBlocked = new HashSet<>();
+	private final Set<Integer> bundledFree = new HashSet<>();
+
+	@Before
+	public void setUp() throws IOException
+	{
+		try (Reader reader = new InputStreamReader(RegionRules.class.getResourceAsStream("/region_rules.json"),
+			StandardCharsets.UTF_8))
+		{
+			Bundled bundled = new Gson().fromJson(reader, Bundled.class);
+			add(bundledBlocked, bundled.excluded);
+			add(bundledBlocked, bundled.instance);
+			add(bundledFree, bundled.free);
+		}
+		assertFalse(bundledBlocked.isEmpty());
+	}
+
+	@Test
+	public void bundledRulesCompiled()
+	{
+		rules.compile(config("", ""));
+
+		assertTable(bundledBlocked, bundledFree);
+	}
+
+	@Test
+	public void configRulesAdded()
+	{
+		rules.compile(config("12850, 12851", "12342"));
+
+		Set<Integer> blocked = new HashSet<>(bundledBlocked);
+		blocked.add(12850);
+		blocked.add(12851);
+		Set<Integer> free = new HashSet<>(bundledFree);
+		free.add(12342);
+		assertTable(blocked, free);
+	}
+
+	@Test
+	public void malformedRulesIgnored()
+	{
+		rules.compile(config("abc, 12850,,-5, 70000, 1.5 , 99999999999", " ; ,x"));
+
+		Set<Integer> blocked = new HashSet<>(bundledBlocked);
+		blocked.add(12850);
+		assertTable(blocked, bundledFree);
+	}
+
+	@Test
+	public void recompilingDropsRemovedRules()
+	{
+		rules.compile(config("12850", "12342"));
+
+		rules.compile(config("", ""));
+
+		assertTable(bundledBlocked, bundledFree);
+	}
+
+	@Test
+	public void regionIdsOutsideTheTableWrap()
+	{
+		rules.compile(config("12850", ""));
+
+		assertTrue(rules.isAutoMarkBlocked(12850 + REGION_COUNT));
+	}
+
+	@Test
+	public void parsesOnlyWholeNumbers()
+	{
+		assertArrayEquals(new int[]{1, -2, 3}, RegionRules.parseRegionIds(" 1,-2 ,, 3,four,5.0"));
+		assertArrayEquals(new int[0], RegionRules.parseRegionIds(null));
+	}
+
+	/***
+	 * Checks every entry of the table.
+	 */
+	private void assertTable(Set<Integer> blocked, Set<Integer> free)
+	{
+		for (int regionId = 0; regionId < REGION_COUNT; regionId++)
+		{
+			assertEquals("Region " + regionId, blocked.contains(regionId), rules.isAutoMarkBlocked(regionId));
+			assertEquals("Region " + regionId, free.contains(regionId), rules.isFree(regionId));
+		}
+	}
+
+	private static void add(Set<Integer> regionIds, int[] bundled)
+	{
+		if (bundled != null)
+		{
+			for (int regionId : bundled)
+			{
+				regionIds.add(regionId);
+			}
+		}
+	}
+
+	private static TilemanModeConfig config(String excludedRegions, String freeRegions)
+	{
+		return new TilemanModeConfig()
+		{
+			@Override
+			public String excludedRegions()
+			{
+				return excludedRegions;
+			}
+
+			@Override
+			public String freeRegions()
+			{
+				return freeRegions;
+			}
+		};
+	}
+
+	private static class Bundled
+	{
+		int[] excluded;
+		int[] free;
+		int[] instance;
+	}
+}
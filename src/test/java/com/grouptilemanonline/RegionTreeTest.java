@@ -0,0 +1,73 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class RegionTreeTest
+{
+	@Test
+	public void hashDoesNotDependOnOrder()
+	{
+		int[] keys = {TileKeys.pack(12850, 1, 1, 0), TileKeys.pack(4000, 2, 2, 0), TileKeys.pack(12851, 3, 3, 1)};
+		RegionTree tree = new RegionTree();
+		tree.addAll(keys);
+		RegionTree reversed = new RegionTree();
+		for (int i = keys.length - 1; i >= 0; i--)
+		{
+			reversed.add(keys[i]);
+		}
+
+		assertEquals(tree.hash(0, 0), reversed.hash(0, 0));
+		assertEquals(TileFingerprint.of(keys), tree.hash(0, 0));
+	}
+
+	@Test
+	public void nodeHashCoversTilesBelow()
+	{
+		int first = TileKeys.pack(12850, 1, 1, 0);
+		int second = TileKeys.pack(12851, 1, 1, 0);
+		int far = TileKeys.pack(4000, 1, 1, 0);
+		RegionTree tree = new RegionTree();
+		tree.addAll(new int[]{first, second, far});
+
+		assertEquals(TileFingerprint.of(new int[]{first}), tree.hash(RegionTree.LEAF_LEVEL, 12850));
+		// 12850 and 12851 only differ in their last 4 bits
+		assertEquals(TileFingerprint.of(new int[]{first, second}),
+			tree.hash(RegionTree.LEAF_LEVEL - 1, RegionTree.nodeOf(12850, RegionTree.LEAF_LEVEL - 1)));
+		assertEquals(0, tree.hash(RegionTree.LEAF_LEVEL, 12852));
+	}
+
+	@Test
+	public void leavesAreRegions()
+	{
+		for (int regionId : new int[]{0, 1, 12850, 0xFFFF})
+		{
+			assertEquals(0, RegionTree.nodeOf(regionId, 0));
+			assertEquals(regionId, RegionTree.nodeOf(regionId, RegionTree.LEAF_LEVEL));
+			for (int level = 0; level < RegionTree.LEAF_LEVEL; level++)
+			{
+				int index = RegionTree.nodeOf(regionId, level + 1) & (RegionTree.FANOUT - 1);
+				assertEquals(RegionTree.nodeOf(regionId, level + 1), RegionTree.child(RegionTree.nodeOf(regionId, level), index));
+			}
+		}
+	}
+
+	@Test
+	public void differenceShowsOnlyOnItsPath()
+	{
+		RegionTree tree = new RegionTree();
+		tree.add(TileKeys.pack(12850, 1, 1, 0));
+		tree.add(TileKeys.pack(4000, 1, 1, 0));
+		RegionTree other = new RegionTree();
+		other.add(TileKeys.pack(12850, 1, 2, 0));
+		other.add(TileKeys.pack(4000, 1, 1, 0));
+
+		for (int level = 0; level <= RegionTree.LEAF_LEVEL; level++)
+		{
+			assertNotEquals(tree.hash(level, RegionTree.nodeOf(12850, level)), other.hash(level, RegionTree.nodeOf(12850, level)));
+		}
+		assertEquals(tree.hash(RegionTree.LEAF_LEVEL, 4000), other.hash(RegionTree.LEAF_LEVEL, 4000));
+	}
+}
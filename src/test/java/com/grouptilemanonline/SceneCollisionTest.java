@@ -0,0 +1,124 @@
+package com.grouptilemanonline;
+
+import net.runelite.api.CollisionDataFlag;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneCollisionTest
+{
+	private static final int RADIUS = 20;
+
+	private final int[][] flags = new int[SceneTileMask.SIZE][SceneTileMask.SIZE];
+
+	@Test
+	public void fillStaysWithinTheRadius()
+	{
+		SceneTileMask fill = SceneCollision.floodFill(flags, 50, 50, 3, new SceneTileMask());
+
+		assertEquals(7 * 7, fill.cardinality());
+		assertTrue(fill.get(47, 53));
+		assertFalse(fill.get(46, 50));
+	}
+
+	@Test
+	public void fillClippedAtTheSceneEdges()
+	{
+		SceneTileMask fill = SceneCollision.floodFill(flags, 0, SceneTileMask.SIZE - 1, 5, new SceneTileMask());
+
+		assertEquals(6 * 6, fill.cardinality());
+		assertTrue(fill.get(5, SceneTileMask.SIZE - 6));
+	}
+
+	@Test
+	public void fillStopsAtBlockedTiles()
+	{
+		// A room of 3 by 3 tiles
+		for (int i = 0; i <= 4; i++)
+		{
+			flags[20 + i][30] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+			flags[20 + i][34] = CollisionDataFlag.BLOCK_MOVEMENT_FLOOR;
+			flags[20][30 + i] = CollisionDataFlag.BLOCK_MOVEMENT_OBJECT;
+			flags[24][30 + i] = CollisionDataFlag.BLOCK_MOVEMENT_FLOOR_DECORATION;
+		}
+
+		SceneTileMask fill = SceneCollision.floodFill(flags, 22, 32, RADIUS, new SceneTileMask());
+
+		assertEquals(9, fill.cardinality());
+		SceneTileMask room = new SceneTileMask();
+		room.fillRect(21, 31, 23, 33);
+		assertTrue(fill.andNot(room).isEmpty());
+	}
+
+	@Test
+	public void fillStopsAtWallsBetweenTiles()
+	{
+		// A wall on the east side of the column at x = 40, as seen from either side
+		for (int y = 0; y < SceneTileMask.SIZE; y++)
+		{
+			flags[40][y] |= CollisionDataFlag.BLOCK_MOVEMENT_EAST;
+			flags[41][y] |= y % 2 == 0 ? CollisionDataFlag.BLOCK_MOVEMENT_WEST : 0;
+		}
+
+		SceneTileMask fill = SceneCollision.floodFill(flags, 40, 50, RADIUS, new SceneTileMask());
+
+		assertTrue(fill.get(40, 50));
+		assertTrue(fill.get(40 - RADIUS, 50));
+		assertFalse(fill.get(41, 50));
+		assertFalse(fill.get(41, 51));
+		assertEquals((RADIUS + 1) * (2 * RADIUS + 1), fill.cardinality());
+	}
+
+	@Test
+	public void blockedStartFillsNothing()
+	{
+		flags[50][50] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+
+		SceneTileMask out = new SceneTileMask();
+		out.set(1, 1);
+
+		assertTrue(SceneCollision.floodFill(flags, 50, 50, RADIUS, out).isEmpty());
+		assertTrue(SceneCollision.floodFill(flags, -1, 50, RADIUS, out).isEmpty());
+	}
+
+	@Test
+	public void diagonalStepsNeedBothSidesOpen()
+	{
+		flags[51][50] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+
+		assertFalse(SceneCollision.canStep(flags, 50, 50, 1, 1));
+		assertTrue(SceneCollision.canStep(flags, 50, 50, -1, 1));
+		assertFalse(SceneCollision.canStep(flags, 0, 0, -1, 0));
+	}
+
+	@Test
+	public void walkableMaskLeavesOutBlockedTiles()
+	{
+		flags[0][0] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+		flags[103][103] = CollisionDataFlag.BLOCK_MOVEMENT_FLOOR;
+		// Walls only block steps, the tile itself can still be stood on
+		flags[50][50] = CollisionDataFlag.BLOCK_MOVEMENT_NORTH;
+
+		SceneTileMask walkable = SceneCollision.walkableMask(flags, new SceneTileMask());
+
+		assertEquals(SceneTileMask.TILE_COUNT - 2, walkable.cardinality());
+		assertFalse(walkable.get(0, 0));
+		assertFalse(walkable.get(103, 103));
+		assertTrue(walkable.get(50, 50));
+	}
+
+	@Test
+	public void maskClampedToTheScene()
+	{
+		SceneTileMask mask = new SceneTileMask();
+		mask.fillRect(SceneTileMask.SIZE + 5, -3, SceneTileMask.SIZE - 2, 1);
+		mask.set(-1, 0);
+
+		assertEquals(2 * 2, mask.cardinality());
+		assertFalse(mask.get(SceneTileMask.SIZE, 0));
+		assertEquals(SceneTileMask.index(SceneTileMask.SIZE - 2, 0), mask.nextSetBit(0));
+		assertEquals(-1, mask.nextSetBit(SceneTileMask.index(SceneTileMask.SIZE - 1, 1) + 1));
+	}
+}
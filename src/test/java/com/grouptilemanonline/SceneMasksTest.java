@@ -0,0 +1,80 @@
+package com.grouptilemanonline;
+
+import net.runelite.api.CollisionDataFlag;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneMasksTest
+{
+	private final SceneMasks masks = new SceneMasks();
+	private final int[][] flags = new int[SceneTileMask.SIZE][SceneTileMask.SIZE];
+
+	@Before
+	public void setUp()
+	{
+		flags[10][10] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+		flags[11][10] = CollisionDataFlag.BLOCK_MOVEMENT_FLOOR;
+		SceneCollision.walkableMask(flags, masks.walkable(0));
+	}
+
+	@Test
+	public void lockedIsWalkableButNotUnlocked()
+	{
+		masks.unlocked(0).set(20, 20);
+		masks.unlocked(0).set(21, 20);
+
+		masks.updateLocked();
+
+		SceneTileMask locked = masks.locked(0);
+		assertEquals(SceneTileMask.TILE_COUNT - 4, locked.cardinality());
+		assertFalse(locked.get(10, 10));
+		assertFalse(locked.get(20, 20));
+		assertTrue(locked.get(22, 20));
+	}
+
+	@Test
+	public void unlockedBlockedTileIsNotLocked()
+	{
+		masks.unlocked(0).set(10, 10);
+
+		masks.updateLocked();
+
+		assertFalse(masks.locked(0).get(10, 10));
+		assertEquals(SceneTileMask.TILE_COUNT - 2, masks.locked(0).cardinality());
+	}
+
+	@Test
+	public void planesKeptApart()
+	{
+		masks.walkable(1).fillRect(0, 0, 9, 9);
+		masks.unlocked(1).set(5, 5);
+		masks.unlocked(0).set(30, 30);
+
+		masks.updateLocked();
+
+		assertEquals(99, masks.locked(1).cardinality());
+		assertFalse(masks.locked(1).get(30, 30));
+		assertTrue(masks.locked(0).get(5, 5));
+		// Nothing was loaded on the other planes, so nothing is locked there
+		assertTrue(masks.locked(2).isEmpty());
+		assertTrue(masks.locked(3).isEmpty());
+	}
+
+	@Test
+	public void updateFollowsTheUnlockedTiles()
+	{
+		masks.unlocked(0).fillRect(0, 0, SceneTileMask.SIZE - 1, SceneTileMask.SIZE - 1);
+		masks.updateLocked();
+		assertTrue(masks.locked(0).isEmpty());
+
+		masks.unlocked(0).clear(SceneTileMask.index(50, 50));
+		masks.updateLocked();
+
+		assertEquals(1, masks.locked(0).cardinality());
+		assertEquals(SceneTileMask.index(50, 50), masks.locked(0).nextSetBit(0));
+	}
+}
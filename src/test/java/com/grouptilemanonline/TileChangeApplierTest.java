@@ -0,0 +1,197 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import static com.grouptilemanonline.TileChangeBatchTest.tile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileChangeApplierTest
+{
+	private static final int REGION = 12850;
+	private static final int OTHER_REGION = 12851;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<Integer, List<TilemanModeTile>> stored = new HashMap<>();
+	private final Map<Integer, Integer> reads = new HashMap<>();
+	private final Map<Integer, Integer> saves = new HashMap<>();
+	private final Set<Integer> observedRegions = new HashSet<>();
+	private final DeltaBackend backend = new DeltaBackend();
+	private final TileHistory history = new TileHistory(16);
+	private TileUploader uploader;
+	private TileChangeApplier applier;
+
+	@Before
+	public void setUp()
+	{
+		TileUploader.Source source = new TileUploader.Source()
+		{
+			@Override
+			public String getPlayerName()
+			{
+				return "bob";
+			}
+
+			@Override
+			public String getGroupJoinCode()
+			{
+				return "group";
+			}
+
+			@Override
+			public GroupTiles getPlayerTiles()
+			{
+				return new GroupTiles("bob", new TreeMap<>());
+			}
+		};
+		uploader = new TileUploader(source, backend, new TileWireFormat(), new TileOrSet(), new Gson(),
+			folder.getRoot().toPath(), System::currentTimeMillis);
+		// Nothing was uploaded from this outbox yet
+		uploader.flush();
+
+		TileChangeApplier.Store store = new TileChangeApplier.Store()
+		{
+			@Override
+			public Collection<TilemanModeTile> getLocalTiles(int regionId)
+			{
+				reads.merge(regionId, 1, Integer::sum);
+				return stored.getOrDefault(regionId, new ArrayList<>());
+			}
+
+			@Override
+			public void savePoints(int regionId, Collection<TilemanModeTile> tiles)
+			{
+				saves.merge(regionId, 1, Integer::sum);
+				stored.put(regionId, new ArrayList<>(tiles));
+			}
+		};
+		applier = new TileChangeApplier(store, new TileLayers(), new TileOrSet(), uploader, history);
+		history.useOwner("bob", "group");
+	}
+
+	@Test
+	public void eachRegionReadAndSavedOnce()
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		for (int x = 0; x < 10; x++)
+		{
+			batch.mark(tile(REGION, x, 1));
+			batch.mark(tile(OTHER_REGION, x, 1));
+		}
+
+		assertEquals(20, applier.apply(batch, 100, false, true, observedRegions));
+
+		assertEquals(1, (int) reads.get(REGION));
+		assertEquals(1, (int) reads.get(OTHER_REGION));
+		assertEquals(1, (int) saves.get(REGION));
+		assertEquals(1, (int) saves.get(OTHER_REGION));
+		assertEquals(10, stored.get(REGION).size());
+		assertTrue(observedRegions.isEmpty());
+		assertTrue(history.canUndo());
+	}
+
+	@Test
+	public void batchUploadedAsOneDelta()
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		batch.mark(tile(REGION, 1, 1));
+		batch.mark(tile(OTHER_REGION, 1, 1));
+		applier.apply(batch, 100, false, true, observedRegions);
+
+		uploader.flush();
+
+		assertEquals(1, backend.deltas.size());
+		int[] added = backend.deltas.get(0).getAdded().clone();
+		Arrays.sort(added);
+		assertArrayEquals(new int[]{TileKeys.pack(tile(REGION, 1, 1)), TileKeys.pack(tile(OTHER_REGION, 1, 1))},
+			added);
+	}
+
+	@Test
+	public void unchangedRegionNotSaved()
+	{
+		stored.put(REGION, new ArrayList<>(Arrays.asList(tile(REGION, 1, 1))));
+		TileChangeBatch batch = new TileChangeBatch();
+		batch.mark(tile(REGION, 1, 1));
+		batch.unmark(tile(OTHER_REGION, 1, 1));
+
+		assertEquals(0, applier.apply(batch, 100, false, true, observedRegions));
+
+		assertTrue(saves.isEmpty());
+		assertFalse(history.canUndo());
+	}
+
+	@Test
+	public void marksLimitedToTheBudget()
+	{
+		stored.put(REGION, new ArrayList<>(Arrays.asList(tile(REGION, 1, 1))));
+		TileChangeBatch batch = new TileChangeBatch();
+		// The unmarked tile is refunded before the marks are counted
+		batch.unmark(tile(REGION, 1, 1));
+		for (int x = 2; x < 6; x++)
+		{
+			batch.mark(tile(REGION, x, 1));
+		}
+
+		assertEquals(3, applier.apply(batch, 1, false, true, observedRegions));
+
+		assertEquals(Arrays.asList(tile(REGION, 2, 1), tile(REGION, 3, 1)), stored.get(REGION));
+	}
+
+	@Test
+	public void deficitIgnoresTheBudget()
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		batch.mark(tile(REGION, 1, 1));
+		batch.mark(tile(REGION, 2, 1));
+
+		assertEquals(2, applier.apply(batch, 0, true, true, observedRegions));
+	}
+
+	@Test
+	public void historyOnlyRecordedWhenAsked()
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		batch.mark(tile(REGION, 1, 1));
+		history.beginOperation(1);
+
+		applier.apply(batch, 100, false, false, observedRegions);
+
+		assertFalse(history.canUndo());
+	}
+
+	/***
+	 * Keeps the deltas sent, answering them straight away.
+	 */
+	private static final class DeltaBackend extends FakeSyncBackend
+	{
+		private final List<AddTilesDeltaObject> deltas = new ArrayList<>();
+
+		@Override
+		public CompletableFuture<SyncResponse> addTilesDelta(int schemaVersion, AddTilesDeltaObject delta)
+		{
+			requests.add("AddTilesDelta");
+			deltas.add(delta);
+			return CompletableFuture.completedFuture(new SyncResponse(200, null, 0));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileChangeBatchTest
+{
+	private final TileChangeBatch batch = new TileChangeBatch();
+
+	@Test
+	public void changesGroupedByRegion()
+	{
+		batch.mark(tile(12851, 1, 1));
+		batch.mark(tile(12850, 1, 1));
+		batch.unmark(tile(12851, 2, 2));
+		batch.mark(tile(12850, 3, 1));
+
+		assertEquals(Arrays.asList(12850, 12851), new ArrayList<>(batch.getRegionIds()));
+		assertEquals(Arrays.asList(tile(12850, 1, 1), tile(12850, 3, 1)), new ArrayList<>(batch.getMarked(12850)));
+		assertEquals(Arrays.asList(tile(12851, 2, 2)), new ArrayList<>(batch.getUnmarked(12851)));
+		assertTrue(batch.getUnmarked(12850).isEmpty());
+		assertEquals(4, batch.size());
+	}
+
+	@Test
+	public void lastChangeOfATileWins()
+	{
+		batch.mark(tile(12850, 1, 1));
+		batch.unmark(tile(12850, 1, 1));
+		batch.unmark(tile(12850, 2, 1));
+		batch.mark(tile(12850, 2, 1));
+		batch.mark(tile(12850, 2, 1));
+
+		assertEquals(Arrays.asList(tile(12850, 2, 1)), new ArrayList<>(batch.getMarked(12850)));
+		assertEquals(Arrays.asList(tile(12850, 1, 1)), new ArrayList<>(batch.getUnmarked(12850)));
+		assertEquals(2, batch.size());
+	}
+
+	@Test
+	public void unknownRegionHasNoChanges()
+	{
+		assertTrue(batch.isEmpty());
+		assertTrue(batch.getMarked(12850).isEmpty());
+		assertTrue(batch.getUnmarked(12850).isEmpty());
+	}
+
+	static TilemanModeTile tile(int regionId, int x, int y)
+	{
+		return new TilemanModeTile(regionId, x, y, 0, "bob");
+	}
+}
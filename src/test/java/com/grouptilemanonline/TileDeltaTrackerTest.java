@@ -0,0 +1,133 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileDeltaTrackerTest
+{
+	private final TileDeltaTracker tracker = new TileDeltaTracker();
+
+	@Before
+	public void setUp()
+	{
+		assertTrue(tracker.needsSnapshot());
+		assertEquals(1, tracker.beginSnapshot());
+	}
+
+	@Test
+	public void lastChangeOfATileWins()
+	{
+		tracker.recordMark(1);
+		tracker.recordMark(2);
+		tracker.recordUnmark(1);
+		tracker.recordUnmark(3);
+		tracker.recordMark(3);
+
+		assertArrayEquals(new int[]{2, 3}, sorted(tracker.pendingAdded()));
+		assertArrayEquals(new int[]{1}, tracker.pendingRemoved());
+		assertEquals(3, tracker.pendingCount());
+		assertTrue(tracker.isPendingMark(3));
+		assertFalse(tracker.isPendingMark(1));
+	}
+
+	@Test
+	public void deltasChainTheirSequenceNumbers()
+	{
+		tracker.recordMark(1);
+		TileDelta first = tracker.takeDelta();
+		tracker.recordUnmark(1);
+		TileDelta second = tracker.takeDelta();
+
+		assertEquals(1, first.getBaseSeq());
+		assertEquals(2, first.getSeq());
+		assertEquals(first.getSeq(), second.getBaseSeq());
+		assertArrayEquals(new int[]{1}, second.getRemoved());
+		assertFalse(tracker.hasPendingChanges());
+		assertEquals(3, tracker.getLastSeq());
+	}
+
+	@Test
+	public void restoredDeltaSentAgain()
+	{
+		tracker.recordMark(1);
+		tracker.recordUnmark(2);
+		TileDelta delta = tracker.takeDelta();
+
+		tracker.restore(delta);
+
+		assertFalse(tracker.needsSnapshot());
+		assertEquals(1, tracker.getLastSeq());
+		TileDelta retried = tracker.takeDelta();
+		assertEquals(delta.getBaseSeq(), retried.getBaseSeq());
+		assertArrayEquals(new int[]{1}, retried.getAdded());
+		assertArrayEquals(new int[]{2}, retried.getRemoved());
+	}
+
+	@Test
+	public void restoreKeepsNewerChanges()
+	{
+		tracker.recordMark(1);
+		tracker.recordMark(2);
+		TileDelta delta = tracker.takeDelta();
+		tracker.recordUnmark(1);
+
+		tracker.restore(delta);
+
+		assertArrayEquals(new int[]{2}, tracker.pendingAdded());
+		assertArrayEquals(new int[]{1}, tracker.pendingRemoved());
+	}
+
+	@Test
+	public void restoreUnderALaterDeltaNeedsASnapshot()
+	{
+		tracker.recordMark(1);
+		TileDelta first = tracker.takeDelta();
+		tracker.recordMark(2);
+		tracker.takeDelta();
+
+		tracker.restore(first);
+
+		assertTrue(tracker.needsSnapshot());
+		assertEquals(4, tracker.beginSnapshot());
+		assertFalse(tracker.hasPendingChanges());
+	}
+
+	@Test
+	public void resumeContinuesFromTheAcknowledgedSeq()
+	{
+		tracker.reset();
+		assertTrue(tracker.needsSnapshot());
+
+		tracker.resume(41);
+		tracker.recordMark(1);
+
+		assertFalse(tracker.needsSnapshot());
+		assertEquals(41, tracker.takeDelta().getBaseSeq());
+	}
+
+	@Test
+	public void divergedNeedsASnapshot()
+	{
+		tracker.recordMark(1);
+
+		tracker.diverged();
+
+		assertTrue(tracker.needsSnapshot());
+		assertEquals(2, tracker.beginSnapshot());
+		assertFalse(tracker.hasPendingChanges());
+	}
+
+	private static int[] sorted(int[] keys)
+	{
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
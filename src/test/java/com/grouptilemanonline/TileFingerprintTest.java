@@ -0,0 +1,64 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TileFingerprintTest
+{
+	private static final int A = TileKeys.pack(12850, 1, 2, 0);
+	private static final int B = TileKeys.pack(12850, 3, 4, 0);
+	private static final int C = TileKeys.pack(12851, 1, 2, 0);
+
+	@Test
+	public void orderDoesNotMatter()
+	{
+		assertEquals(TileFingerprint.of(new int[]{A, B, C}), TileFingerprint.of(new int[]{C, A, B}));
+	}
+
+	@Test
+	public void everyKeyCounts()
+	{
+		long fingerprint = TileFingerprint.of(new int[]{A, B});
+
+		assertNotEquals(fingerprint, TileFingerprint.of(new int[]{A}));
+		assertNotEquals(fingerprint, TileFingerprint.of(new int[]{A, C}));
+		assertNotEquals(TileFingerprint.of(new int[0]), TileFingerprint.of(new int[]{0}));
+		assertNotEquals(TileFingerprint.of(new int[]{A}), TileFingerprint.of(new int[]{A, A}));
+	}
+
+	@Test
+	public void disjointSetsAddUp()
+	{
+		TileFingerprint region = new TileFingerprint();
+		region.addAll(new int[]{A, B});
+		TileFingerprint member = new TileFingerprint();
+		member.add(C);
+
+		member.add(region);
+
+		assertEquals(TileFingerprint.of(new int[]{A, B, C}), member.value());
+	}
+
+	@Test
+	public void tagsCountInOrder()
+	{
+		long untagged = fingerprint(null);
+
+		assertEquals(untagged, fingerprint(new long[0]));
+		assertNotEquals(untagged, fingerprint(new long[]{1, 2}));
+		// The same key marked again gets a higher tag
+		assertNotEquals(fingerprint(new long[]{1, 2}), fingerprint(new long[]{3, 2}));
+		assertNotEquals(fingerprint(new long[]{1, 1, 2, 1}), fingerprint(new long[]{2, 1, 1, 1}));
+		assertEquals(fingerprint(new long[]{1, 1, 2, 1}), fingerprint(new long[]{1, 1, 2, 1}));
+	}
+
+	private static long fingerprint(long[] tagRuns)
+	{
+		TileFingerprint fingerprint = new TileFingerprint();
+		fingerprint.addAll(new int[]{A, B});
+		fingerprint.addTags(tagRuns);
+		return fingerprint.value();
+	}
+}
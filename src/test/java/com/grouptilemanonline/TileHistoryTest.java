@@ -0,0 +1,166 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileHistoryTest
+{
+	private static final int REGION = 12850;
+
+	private TileHistory history;
+
+	@Before
+	public void setUp()
+	{
+		history = new TileHistory(16);
+		history.useOwner("me", "group");
+	}
+
+	@Test
+	public void undoRevertsWholeOperation()
+	{
+		operation(100, 1, 2);
+		operation(200, -1);
+
+		assertEquals(Arrays.asList("+1"), undo(1));
+		assertEquals(Arrays.asList("-1", "-2"), undo(1));
+		assertFalse(history.canUndo());
+		assertEquals(0, history.undo(1, new TileChangeBatch(), "me"));
+	}
+
+	@Test
+	public void redoReappliesUndone()
+	{
+		operation(100, 1, 2);
+		operation(200, -1);
+		undo(2);
+
+		assertTrue(history.canRedo());
+		assertEquals(Arrays.asList("+1", "+2"), redo(1));
+		assertEquals(Arrays.asList("-1"), redo(1));
+		assertFalse(history.canRedo());
+	}
+
+	@Test
+	public void newChangeDropsRedo()
+	{
+		operation(100, 1);
+		operation(200, 2);
+		undo(1);
+
+		operation(300, 3);
+
+		assertFalse(history.canRedo());
+		assertEquals(Arrays.asList("-3"), undo(1));
+		assertEquals(Arrays.asList("-1"), undo(1));
+	}
+
+	@Test
+	public void undoSinceTime()
+	{
+		operation(100, 1);
+		operation(200, 2);
+		operation(300, 3);
+
+		TileChangeBatch batch = new TileChangeBatch();
+		assertEquals(2, history.undoSince(200, batch, "me"));
+		assertEquals(Arrays.asList("-2", "-3"), changes(batch));
+		assertTrue(history.canUndo());
+	}
+
+	@Test
+	public void fullBufferDropsOldestOperation()
+	{
+		history = new TileHistory(4);
+		history.useOwner("me", "group");
+		operation(100, 1, 2, 3);
+		operation(200, 4, 5);
+
+		TileChangeBatch batch = new TileChangeBatch();
+		assertEquals(1, history.undo(10, batch, "me"));
+		assertEquals(Arrays.asList("-4", "-5"), changes(batch));
+	}
+
+	@Test
+	public void wrapsAroundTheBuffer()
+	{
+		history = new TileHistory(4);
+		history.useOwner("me", "group");
+		for (int x = 1; x <= 10; x++)
+		{
+			operation(x, x);
+		}
+
+		assertEquals(Arrays.asList("-10"), undo(1));
+		assertEquals(Arrays.asList("-7", "-8", "-9"), undo(3));
+		assertFalse(history.canUndo());
+	}
+
+	@Test
+	public void forgottenForAnotherOwner()
+	{
+		operation(100, 1);
+
+		history.useOwner("me", "group");
+		assertTrue(history.canUndo());
+
+		history.useOwner("alt", "group");
+		assertFalse(history.canUndo());
+
+		operation(200, 2);
+		history.useOwner("alt", "other group");
+		assertFalse(history.canUndo());
+	}
+
+	/***
+	 * Records one operation, positive x marks the tile at x and negative unmarks it.
+	 */
+	private void operation(long time, int... xs)
+	{
+		history.beginOperation(time);
+		for (int x : xs)
+		{
+			history.record(TileKeys.pack(REGION, Math.abs(x), 0, 0), x > 0);
+		}
+	}
+
+	private List<String> undo(int count)
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		history.undo(count, batch, "me");
+		return changes(batch);
+	}
+
+	private List<String> redo(int count)
+	{
+		TileChangeBatch batch = new TileChangeBatch();
+		history.redo(count, batch, "me");
+		return changes(batch);
+	}
+
+	/***
+	 * @return The batch's changes as +x for marks and -x for unmarks, sorted.
+	 */
+	private static List<String> changes(TileChangeBatch batch)
+	{
+		List<String> changes = new ArrayList<>();
+		for (TilemanModeTile tile : batch.getMarked(REGION))
+		{
+			changes.add("+" + tile.getRegionX());
+		}
+		for (TilemanModeTile tile : batch.getUnmarked(REGION))
+		{
+			changes.add("-" + tile.getRegionX());
+		}
+		changes.sort(null);
+		return changes;
+	}
+}
@@ -0,0 +1,94 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileImportQueueTest
+{
+	// Region ids are x << 8 | y
+	private static final int HERE = region(50, 50);
+
+	@Test
+	public void nearestRegionsFirst()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(region(60, 50), region(51, 51), region(50, 45), HERE));
+
+		assertEquals(Arrays.asList(HERE, region(51, 51)), queue.poll(HERE, 2));
+		assertEquals(Arrays.asList(region(50, 45), region(60, 50)), queue.poll(HERE, 2));
+		assertTrue(queue.poll(HERE, 2).isEmpty());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void reordersWhenThePlayerMoves()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(HERE, region(51, 50), region(60, 50), region(61, 50)));
+		queue.poll(HERE, 1);
+
+		assertEquals(Collections.singletonList(region(60, 50)), queue.poll(region(60, 50), 1));
+		assertEquals(Collections.singletonList(region(61, 50)), queue.poll(region(60, 50), 1));
+	}
+
+	@Test
+	public void regionQueuedAgainIsAppliedOnce()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(HERE, region(51, 50)));
+		queue.add(Collections.singletonList(HERE));
+
+		assertEquals(2, queue.poll(HERE, 10).size());
+		assertEquals(2, queue.getQueued());
+		assertEquals(2, queue.getApplied());
+	}
+
+	@Test
+	public void regionAddedWhileDrainingIsPolled()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(HERE, region(60, 50)));
+		queue.poll(HERE, 1);
+		queue.add(Collections.singletonList(region(51, 50)));
+
+		assertEquals(Arrays.asList(region(51, 50), region(60, 50)), queue.poll(HERE, 10));
+		assertEquals(3, queue.getQueued());
+		assertEquals(3, queue.getApplied());
+	}
+
+	@Test
+	public void progressRestartsOnceEmpty()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(HERE, region(51, 50)));
+		queue.poll(HERE, 10);
+		queue.add(Collections.singletonList(region(60, 50)));
+
+		assertEquals(1, queue.getQueued());
+		assertEquals(0, queue.getApplied());
+	}
+
+	@Test
+	public void clear()
+	{
+		TileImportQueue queue = new TileImportQueue();
+		queue.add(Arrays.asList(HERE, region(51, 50)));
+		queue.clear();
+
+		assertTrue(queue.isEmpty());
+		assertTrue(queue.poll(HERE, 10).isEmpty());
+		queue.add(Collections.singletonList(HERE));
+		assertFalse(queue.isEmpty());
+	}
+
+	private static int region(int x, int y)
+	{
+		return x << 8 | y;
+	}
+}
@@ -0,0 +1,96 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileKeySetTest
+{
+	@Test
+	public void addAndRemove()
+	{
+		TileKeySet set = new TileKeySet();
+		int key = TileKeys.pack(12850, 10, 20, 0);
+
+		assertTrue(set.add(key));
+		assertFalse(set.add(key));
+		assertTrue(set.contains(key));
+		assertEquals(1, set.size());
+
+		assertTrue(set.remove(key));
+		assertFalse(set.remove(key));
+		assertFalse(set.contains(key));
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void keyZero()
+	{
+		TileKeySet set = new TileKeySet();
+
+		assertTrue(set.add(0));
+		assertTrue(set.contains(0));
+		assertArrayEquals(new int[]{0}, set.toArray());
+	}
+
+	@Test
+	public void matchesHashSet()
+	{
+		// Removing from the middle of probe runs has to keep every other key reachable
+		Random random = new Random(42);
+		TileKeySet set = new TileKeySet();
+		Set<Integer> expected = new HashSet<>();
+		for (int i = 0; i < 100_000; i++)
+		{
+			int key = TileKeys.pack(random.nextInt(64), random.nextInt(64), random.nextInt(64), random.nextInt(4));
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(expected.remove(key), set.remove(key));
+			}
+			else
+			{
+				assertEquals(expected.add(key), set.add(key));
+			}
+		}
+
+		assertEquals(expected.size(), set.size());
+		for (int key : expected)
+		{
+			assertTrue(set.contains(key));
+		}
+		int[] keys = set.toArray();
+		Arrays.sort(keys);
+		assertArrayEquals(expected.stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+	}
+
+	@Test
+	public void addAllAndRemoveAll()
+	{
+		TileKeySet set = TileKeySet.of(new int[]{1, 2, 3});
+		set.addAll(TileKeySet.of(new int[]{3, 4}));
+		set.removeAll(TileKeySet.of(new int[]{1, 5}));
+
+		int[] keys = set.toArray();
+		Arrays.sort(keys);
+		assertArrayEquals(new int[]{2, 3, 4}, keys);
+	}
+
+	@Test
+	public void clear()
+	{
+		TileKeySet set = TileKeySet.of(new int[]{1, 2, 3});
+		set.clear();
+
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(1));
+		assertTrue(set.add(1));
+	}
+}
@@ -0,0 +1,242 @@
+package com.grouptilemanonline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TileOrSetTest
+{
+	private static final int REGION = 12850;
+	private static final int A = TileKeys.pack(REGION, 1, 1, 0);
+	private static final int B = TileKeys.pack(REGION, 1, 2, 0);
+	private static final int C = TileKeys.pack(REGION, 2, 1, 0);
+
+	private TileOrSet set;
+
+	@Before
+	public void setUp()
+	{
+		set = new TileOrSet();
+		set.useGroup("group", "me");
+	}
+
+	@Test
+	public void pulledTilesAreVisible()
+	{
+		List<TileOrSet.RegionChange> changes = pull(set, "bob", new int[]{A, B}, new long[]{1, 2}, null);
+
+		assertEquals(1, changes.size());
+		assertEquals(REGION, changes.get(0).getRegionId());
+		assertArrayEquals(new int[]{A, B}, layer(set, "bob"));
+	}
+
+	@Test
+	public void unmarkRemovesObservedTiles()
+	{
+		pull(set, "bob", new int[]{A, B}, new long[]{1, 2}, null);
+
+		assertTrue(set.removeObserved(A));
+		assertFalse(set.removeObserved(A));
+		assertFalse(set.removeObserved(C));
+
+		assertArrayEquals(new int[]{B}, layer(set, "bob"));
+		assertEquals(Collections.singletonList(new TileTombstone("bob", A, 1)), set.takeTombstones());
+	}
+
+	@Test
+	public void unmarkRemovesEveryMembersTile()
+	{
+		pull(set, "bob", new int[]{A}, new long[]{1}, null);
+		pull(set, "carol", new int[]{A}, new long[]{3}, null);
+
+		assertTrue(set.removeObserved(A));
+
+		assertNull(layer(set, "bob"));
+		assertNull(layer(set, "carol"));
+		assertEquals(2, set.takeTombstones().size());
+	}
+
+	@Test
+	public void markAgainWinsOverConcurrentUnmark()
+	{
+		pull(set, "bob", new int[]{A, B}, new long[]{1, 1}, null);
+		set.removeObserved(A);
+
+		// Bob marked the tile again before seeing the unmark, so it has a newer tag than the one removed
+		pull(set, "bob", new int[]{A, B}, new long[]{4, 1}, null);
+
+		assertArrayEquals(new int[]{A, B}, layer(set, "bob"));
+		assertTrue(set.removeObserved(A));
+		assertArrayEquals(new int[]{B}, layer(set, "bob"));
+	}
+
+	@Test
+	public void otherMembersTombstonesApply()
+	{
+		pull(set, "bob", new int[]{A, B}, new long[]{1, 1}, null);
+		pull(set, "carol", new int[0], new long[0], Collections.singletonList(new TileTombstone("bob", A, 1)));
+
+		assertArrayEquals(new int[]{B}, layer(set, "bob"));
+	}
+
+	@Test
+	public void ownTilesRemovedByOthers()
+	{
+		pull(set, "me", new int[]{A, B}, new long[]{1, 1}, null);
+
+		List<TileOrSet.RegionChange> changes = pull(set, "bob", new int[0], new long[0],
+			Collections.singletonList(new TileTombstone("me", B, 1)));
+
+		assertEquals(1, changes.size());
+		assertArrayEquals(new int[]{B}, changes.get(0).getRemovedOwn());
+	}
+
+	@Test
+	public void pullOrderDoesNotMatter()
+	{
+		TileOrSet other = new TileOrSet();
+		other.useGroup("group", "me");
+		List<TileTombstone> tombstones = Collections.singletonList(new TileTombstone("bob", A, 1));
+
+		pull(set, "bob", new int[]{A, B, C}, new long[]{1, 1, 2}, null);
+		pull(set, "carol", new int[0], new long[0], tombstones);
+		pull(other, "carol", new int[0], new long[0], tombstones);
+		pull(other, "bob", new int[]{A, B, C}, new long[]{1, 1, 2}, null);
+		// Repeating a pull changes nothing either
+		pull(other, "carol", new int[0], new long[0], tombstones);
+
+		assertArrayEquals(new int[]{B, C}, layer(set, "bob"));
+		assertArrayEquals(layer(set, "bob"), layer(other, "bob"));
+	}
+
+	@Test
+	public void tombstonesSentAgainAfterFailure()
+	{
+		pull(set, "bob", new int[]{A}, new long[]{1}, null);
+		set.removeObserved(A);
+
+		List<TileTombstone> sent = set.takeTombstones();
+		assertFalse(set.hasUnsentTombstones());
+		set.tombstonesFailed(sent);
+		assertTrue(set.hasUnsentTombstones());
+
+		sent = set.takeTombstones();
+		set.tombstonesAcknowledged(sent);
+		assertFalse(set.hasUnsentTombstones());
+		assertNull(set.takeTombstones());
+	}
+
+	@Test
+	public void unacknowledgedTombstonesOutliveOwnPull()
+	{
+		pull(set, "bob", new int[]{A}, new long[]{1}, null);
+		set.removeObserved(A);
+
+		// The backend's copy of the player's record doesn't have the tombstone yet
+		pull(set, "me", new int[0], new long[0], Collections.emptyList());
+
+		assertNull(layer(set, "bob"));
+	}
+
+	@Test
+	public void tombstoneDroppedOnceOwnerUnmarked()
+	{
+		pull(set, "bob", new int[]{A, B}, new long[]{1, 1}, null);
+		set.removeObserved(A);
+		set.tombstonesAcknowledged(set.takeTombstones());
+
+		// Bob pulled the tombstone and unmarked the tile, it is no longer needed
+		pull(set, "bob", new int[]{B}, new long[]{1}, null);
+
+		assertTrue(set.hasUnsentTombstones());
+		assertEquals(Collections.emptyList(), set.takeTombstones());
+	}
+
+	@Test
+	public void removeMemberDropsTheirTombstones()
+	{
+		pull(set, "bob", new int[]{A}, new long[]{1}, null);
+		pull(set, "carol", new int[0], new long[0], Collections.singletonList(new TileTombstone("bob", A, 1)));
+		assertNull(layer(set, "bob"));
+
+		set.removeMember("carol");
+
+		assertArrayEquals(new int[]{A}, layer(set, "bob"));
+		assertEquals(Collections.singleton("bob"), set.getMembers());
+	}
+
+	@Test
+	public void unsortedRegionKeepsEachTilesTag()
+	{
+		// A list encoded region, in the order the tiles were marked
+		pull(set, "bob", new int[]{C, A, B}, new long[]{3, 1, 2}, null);
+		pull(set, "carol", new int[0], new long[0], Arrays.asList(new TileTombstone("bob", B, 2),
+			new TileTombstone("bob", C, 2)));
+
+		assertArrayEquals(new int[]{A, C}, layer(set, "bob"));
+		assertTrue(set.removeObserved(C));
+		assertEquals(Collections.singletonList(new TileTombstone("bob", C, 3)), set.takeTombstones());
+	}
+
+	@Test
+	public void tagsReadAcrossRuns()
+	{
+		int[] keys = new int[64];
+		long[] tags = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			keys[i] = TileKeys.pack(REGION, i, 0, 0);
+			tags[i] = i / 10;
+		}
+		pull(set, "bob", keys, tags, null);
+
+		// Every tile tagged below 3 is removed, the runs of the others stay
+		pull(set, "carol", new int[0], new long[0], tombstones(keys, 2));
+
+		assertArrayEquals(Arrays.copyOfRange(keys, 30, 64), layer(set, "bob"));
+	}
+
+	private static List<TileTombstone> tombstones(int[] keys, long maxTag)
+	{
+		List<TileTombstone> tombstones = new ArrayList<>();
+		for (int key : keys)
+		{
+			tombstones.add(new TileTombstone("bob", key, maxTag));
+		}
+		return tombstones;
+	}
+
+	private static List<TileOrSet.RegionChange> pull(TileOrSet set, String member, int[] keys, long[] tags,
+		List<TileTombstone> tombstones)
+	{
+		set.beginMember(member, null);
+		set.regionRead(member, Arrays.hashCode(keys) * 31L + Arrays.hashCode(tags), keys,
+			TileWireFormat.encodeTags(tags));
+		return set.memberFinished(member, tombstones);
+	}
+
+	/***
+	 * @return The member's tiles in the region, null if none are visible.
+	 */
+	private static int[] layer(TileOrSet set, String member)
+	{
+		Map<String, int[]> layers = set.regions(Collections.singleton(REGION)).get(0).getLayers();
+		int[] keys = layers.get(member);
+		if (keys != null)
+		{
+			Arrays.sort(keys);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,155 @@
+package com.grouptilemanonline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileOutboxTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void missingFileNeedsSnapshot() throws IOException
+	{
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox.open(file(), tracker).close();
+
+		assertTrue(tracker.needsSnapshot());
+		assertFalse(tracker.hasPendingChanges());
+	}
+
+	@Test
+	public void replaysUnacknowledgedChanges() throws IOException
+	{
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox outbox = TileOutbox.open(file(), tracker);
+		tracker.beginSnapshot();
+		outbox.acknowledged(0, 1);
+		record(outbox, tracker, 1, true);
+		record(outbox, tracker, 2, true);
+		tracker.takeDelta();
+		outbox.acknowledged(2, 2);
+		record(outbox, tracker, 3, true);
+		record(outbox, tracker, 1, false);
+		outbox.close();
+
+		TileDeltaTracker replayed = new TileDeltaTracker();
+		TileOutbox.open(file(), replayed).close();
+
+		assertFalse(replayed.needsSnapshot());
+		assertEquals(2, replayed.getLastSeq());
+		assertArrayEquals(new int[]{3}, sorted(replayed.pendingAdded()));
+		assertArrayEquals(new int[]{1}, sorted(replayed.pendingRemoved()));
+	}
+
+	@Test
+	public void replaysAfterTornLine() throws IOException
+	{
+		// The client crashed while writing the last record
+		Files.write(file(), "+ 1\nack 1 4\n+ 2\n- ".getBytes(StandardCharsets.UTF_8));
+
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox outbox = TileOutbox.open(file(), tracker);
+		assertEquals(4, tracker.getLastSeq());
+		assertArrayEquals(new int[]{2}, tracker.pendingAdded());
+
+		// Records written after the torn one must not be glued onto it
+		record(outbox, tracker, 3, true);
+		outbox.close();
+
+		TileDeltaTracker replayed = new TileDeltaTracker();
+		TileOutbox.open(file(), replayed).close();
+		assertEquals(4, replayed.getLastSeq());
+		assertArrayEquals(new int[]{2, 3}, sorted(replayed.pendingAdded()));
+		assertArrayEquals(new int[0], replayed.pendingRemoved());
+	}
+
+	@Test
+	public void skipsTornAck() throws IOException
+	{
+		Files.write(file(), "ack 0 4\n+ 1\nack 1".getBytes(StandardCharsets.UTF_8));
+
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox.open(file(), tracker).close();
+
+		assertEquals(4, tracker.getLastSeq());
+		assertArrayEquals(new int[]{1}, tracker.pendingAdded());
+	}
+
+	@Test
+	public void snapshotAfterAck() throws IOException
+	{
+		Files.write(file(), "ack 0 4\n+ 1\nsnapshot\n".getBytes(StandardCharsets.UTF_8));
+
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox.open(file(), tracker).close();
+
+		assertTrue(tracker.needsSnapshot());
+	}
+
+	@Test
+	public void compactKeepsPendingChanges() throws IOException
+	{
+		TileDeltaTracker tracker = new TileDeltaTracker();
+		TileOutbox outbox = TileOutbox.open(file(), tracker);
+		tracker.beginSnapshot();
+		outbox.acknowledged(0, 1);
+		for (int key = 1; key <= 100; key++)
+		{
+			record(outbox, tracker, key, true);
+		}
+		tracker.takeDelta();
+		outbox.acknowledged(100, 2);
+		record(outbox, tracker, 101, true);
+		record(outbox, tracker, 1, false);
+
+		outbox.compact(tracker);
+		assertEquals(2, outbox.position());
+		record(outbox, tracker, 102, true);
+		outbox.close();
+
+		assertEquals(4, Files.readAllLines(file(), StandardCharsets.UTF_8).size());
+		TileDeltaTracker replayed = new TileDeltaTracker();
+		TileOutbox.open(file(), replayed).close();
+		assertFalse(replayed.needsSnapshot());
+		assertEquals(2, replayed.getLastSeq());
+		assertArrayEquals(new int[]{101, 102}, sorted(replayed.pendingAdded()));
+		assertArrayEquals(new int[]{1}, replayed.pendingRemoved());
+	}
+
+	private Path file()
+	{
+		return folder.getRoot().toPath().resolve("outbox.log");
+	}
+
+	private static void record(TileOutbox outbox, TileDeltaTracker tracker, int key, boolean marked) throws IOException
+	{
+		if (marked)
+		{
+			tracker.recordMark(key);
+		}
+		else
+		{
+			tracker.recordUnmark(key);
+		}
+		outbox.append(key, marked);
+	}
+
+	private static int[] sorted(int[] keys)
+	{
+		Arrays.sort(keys);
+		return keys;
+	}
+}
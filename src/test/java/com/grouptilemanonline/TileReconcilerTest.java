@@ -0,0 +1,113 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileReconcilerTest
+{
+	private static final int[] TILES = {
+		TileKeys.pack(12850, 1, 1, 0),
+		TileKeys.pack(12850, 2, 1, 0),
+		TileKeys.pack(12851, 5, 5, 0),
+		TileKeys.pack(13105, 10, 10, 1),
+		TileKeys.pack(3000, 0, 0, 0),
+	};
+
+	private FakeSyncBackend backend;
+	private TileReconciler reconciler;
+
+	@Before
+	public void setUp()
+	{
+		backend = new FakeSyncBackend();
+		reconciler = new TileReconciler(backend, new Gson(), new ChunkedUploader(backend));
+	}
+
+	@Test
+	public void sendsOnlyDifferingRegion() throws Exception
+	{
+		backend.setTiles(TILES);
+		int[] local = TILES.clone();
+		local[2] = TileKeys.pack(12851, 6, 5, 0);
+
+		upload(local);
+
+		assertArrayEquals(sorted(local), backend.getTiles());
+		assertEquals(1, backend.lastRegions.size());
+		assertEquals(12851, backend.lastRegions.get(0).getId());
+		assertEquals(RegionTree.LEAF_LEVEL, backend.count("GetRegionTree"));
+		assertEquals(0, backend.count("AddTiles"));
+		assertEquals(1, reconciler.getRegionsSent());
+	}
+
+	@Test
+	public void sendsNothingWhenEqual() throws Exception
+	{
+		backend.setTiles(TILES);
+
+		upload(TILES);
+
+		// Still sent, it carries the sequence number
+		assertEquals(1, backend.count("AddTileRegions"));
+		assertTrue(backend.lastRegions.isEmpty());
+		assertEquals(1, backend.count("GetRegionTree"));
+	}
+
+	@Test
+	public void clearsRegionsNoLongerHeld() throws Exception
+	{
+		backend.setTiles(TILES);
+		int[] local = {TILES[0], TILES[1], TILES[2], TILES[3]};
+
+		upload(local);
+
+		assertArrayEquals(sorted(local), backend.getTiles());
+		assertEquals(1, backend.lastRegions.size());
+		assertEquals(0, backend.lastRegions.get(0).getTiles().length);
+	}
+
+	@Test
+	public void fallsBackWithoutRegionTrees() throws Exception
+	{
+		backend.setTiles(TILES);
+		backend.regionTrees = false;
+		int[] local = {TILES[0]};
+
+		upload(local);
+
+		assertArrayEquals(local, backend.getTiles());
+		assertEquals(1, backend.count("AddTiles"));
+		assertEquals(1, reconciler.getFallbackCount());
+	}
+
+	@Test
+	public void fallsBackForNewPlayer() throws Exception
+	{
+		upload(TILES);
+
+		assertArrayEquals(sorted(TILES), backend.getTiles());
+		assertEquals(1, backend.count("AddTiles"));
+		assertEquals(0, backend.count("AddTileRegions"));
+	}
+
+	private void upload(int[] keys) throws ExecutionException, InterruptedException
+	{
+		SyncResponse response = reconciler.upload(FakeSyncBackend.snapshot(1, keys), (uploaded, total) -> {}).get();
+		assertTrue(response.isSuccessful());
+	}
+
+	private static int[] sorted(int[] keys)
+	{
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
@@ -0,0 +1,177 @@
+package com.grouptilemanonline;
+
+import com.google.gson.Gson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileUploaderTest
+{
+	private static final int REGION = 12850;
+	private static final int A = TileKeys.pack(REGION, 1, 1, 0);
+	private static final int B = TileKeys.pack(REGION, 1, 2, 0);
+	private static final int C = TileKeys.pack(REGION, 2, 1, 0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final PendingBackend backend = new PendingBackend();
+	private long now = 1_000;
+	private RuntimeException tilesFailure;
+	private TileUploader uploader;
+
+	@Before
+	public void setUp()
+	{
+		TileUploader.Source source = new TileUploader.Source()
+		{
+			@Override
+			public String getPlayerName()
+			{
+				return "bob";
+			}
+
+			@Override
+			public String getGroupJoinCode()
+			{
+				return "group";
+			}
+
+			@Override
+			public GroupTiles getPlayerTiles()
+			{
+				if (tilesFailure != null)
+				{
+					throw tilesFailure;
+				}
+				return new GroupTiles("bob", new TreeMap<>());
+			}
+		};
+		uploader = new TileUploader(source, backend, new TileWireFormat(), new TileOrSet(), new Gson(),
+			folder.getRoot().toPath(), () -> now);
+
+		// Nothing was uploaded from this outbox yet
+		uploader.flush();
+		assertEquals(1, backend.count("AddTiles"));
+	}
+
+	@Test
+	public void changesCoalescedWhileInFlight()
+	{
+		uploader.recordMark(A);
+		uploader.flush();
+		uploader.recordMark(B);
+		uploader.recordMark(C);
+		uploader.recordUnmark(A);
+		uploader.flush();
+		assertEquals(1, backend.deltas.size());
+
+		backend.answer(200);
+
+		assertEquals(2, backend.deltas.size());
+		assertArrayEquals(new int[]{B, C}, sorted(backend.deltas.get(1).getAdded()));
+		assertArrayEquals(new int[]{A}, backend.deltas.get(1).getRemoved());
+		assertEquals(backend.deltas.get(0).getSeq(), backend.deltas.get(1).getBaseSeq());
+	}
+
+	@Test
+	public void failedDeltaBacksOff()
+	{
+		uploader.recordMark(A);
+		uploader.flush();
+		backend.answer(503);
+
+		uploader.flush();
+		assertEquals(1, backend.deltas.size());
+
+		now += 2_000;
+		uploader.flush();
+		assertEquals(2, backend.deltas.size());
+		assertArrayEquals(new int[]{A}, backend.deltas.get(1).getAdded());
+		backend.answer(503);
+
+		// The delay doubled
+		now += 2_000;
+		uploader.flush();
+		assertEquals(2, backend.deltas.size());
+		now += 2_000;
+		uploader.flush();
+		assertEquals(3, backend.deltas.size());
+
+		backend.answer(200);
+		uploader.recordMark(B);
+		uploader.flush();
+		assertEquals(4, backend.deltas.size());
+	}
+
+	@Test
+	public void snapshotSkipsTheBackoff()
+	{
+		uploader.recordMark(A);
+		uploader.flush();
+		backend.answer(503);
+
+		CompletableFuture<Boolean> uploaded = uploader.uploadSnapshot((chunks, total) -> {});
+
+		assertTrue(uploaded.join());
+		assertEquals(2, backend.count("AddTiles"));
+	}
+
+	@Test
+	public void failureBeforeSendingRecovers()
+	{
+		tilesFailure = new IllegalStateException("config unavailable");
+
+		CompletableFuture<Boolean> uploaded = uploader.uploadSnapshot((chunks, total) -> {});
+
+		assertFalse(uploaded.join());
+		assertEquals(1, backend.count("AddTiles"));
+
+		tilesFailure = null;
+		assertTrue(uploader.uploadSnapshot((chunks, total) -> {}).join());
+		assertEquals(2, backend.count("AddTiles"));
+	}
+
+	private static int[] sorted(int[] keys)
+	{
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/***
+	 * Holds deltas until the test answers them, so they stay in flight.
+	 */
+	private static final class PendingBackend extends FakeSyncBackend
+	{
+		private final List<AddTilesDeltaObject> deltas = new ArrayList<>();
+		private final List<CompletableFuture<SyncResponse>> pending = new ArrayList<>();
+
+		@Override
+		public CompletableFuture<SyncResponse> addTilesDelta(int schemaVersion, AddTilesDeltaObject delta)
+		{
+			requests.add("AddTilesDelta");
+			deltas.add(delta);
+			CompletableFuture<SyncResponse> response = new CompletableFuture<>();
+			pending.add(response);
+			return response;
+		}
+
+		private void answer(int code)
+		{
+			pending.remove(0).complete(new SyncResponse(code, null, 0));
+		}
+	}
+}
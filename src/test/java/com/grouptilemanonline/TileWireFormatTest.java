@@ -0,0 +1,147 @@
+package com.grouptilemanonline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TileWireFormatTest
+{
+	private static final int REGION = 12850;
+
+	private final TileWireFormat wireFormat = new TileWireFormat();
+
+	@Test
+	public void denseRegionSentAsBitmap()
+	{
+		BitSet positions = new BitSet();
+		positions.set(0, 200);
+
+		RegionTiles region = TileWireFormat.encode(REGION, positions);
+
+		assertNotNull(region.getBitmap());
+		assertNull(region.getTiles());
+		assertArrayEquals(keys(positions), TileWireFormat.decodeKeys(region));
+	}
+
+	@Test
+	public void sparseRegionSentAsList()
+	{
+		BitSet positions = new BitSet();
+		positions.set(TileKeys.LOCAL_MASK);
+		positions.set(TileKeys.LOCAL_MASK - 5000);
+
+		RegionTiles region = TileWireFormat.encode(REGION, positions);
+
+		assertNull(region.getBitmap());
+		assertArrayEquals(positions.stream().toArray(), region.getTiles());
+		assertArrayEquals(keys(positions), TileWireFormat.decodeKeys(region));
+	}
+
+	@Test
+	public void positionsOutsideTheRegionDropped()
+	{
+		BitSet positions = new BitSet();
+		positions.set(1);
+		positions.set(TileKeys.LOCAL_MASK + 1);
+		String bitmap = Base64.getEncoder().encodeToString(positions.toByteArray());
+
+		int key = TileKeys.pack(REGION, 0, 0, 0) | 1;
+		assertArrayEquals(new int[]{key}, TileWireFormat.decodeKeys(new RegionTiles(REGION, null, bitmap, null)));
+		assertArrayEquals(new int[]{key}, TileWireFormat.decodeKeys(
+			new RegionTiles(REGION, new int[]{-1, 1, TileKeys.LOCAL_MASK + 1}, null, null)));
+		assertArrayEquals(new int[0], TileWireFormat.decodeKeys(new RegionTiles(REGION, null, null, null)));
+	}
+
+	@Test
+	public void emptyRegionsNotEncoded()
+	{
+		TreeMap<String, List<TilemanModeTile>> regionTiles = new TreeMap<>();
+		regionTiles.put("region_" + REGION, Arrays.asList(new TilemanModeTile(REGION, 1, 2, 0, "bob")));
+		regionTiles.put("region_12851", new ArrayList<>());
+
+		List<RegionTiles> regions = TileWireFormat.encode(new GroupTiles("bob", regionTiles));
+
+		assertEquals(1, regions.size());
+		assertArrayEquals(new int[]{TileKeys.pack(REGION, 1, 2, 0)}, TileWireFormat.decodeKeys(regions.get(0)));
+	}
+
+	@Test
+	public void tagsRoundTrip()
+	{
+		long[] tags = {3, 3, 3, 5, 3, 3, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+		long[] runs = TileWireFormat.encodeTags(tags);
+
+		assertArrayEquals(new long[]{3, 3, 5, 1, 3, 2, 9, 14}, Arrays.copyOf(runs, 8));
+		assertEquals(2 * 14, runs.length);
+		TileWireFormat.TagCursor cursor = new TileWireFormat.TagCursor(runs);
+		for (int i = 0; i < tags.length; i++)
+		{
+			assertEquals(tags[i], TileWireFormat.tagAt(runs, i));
+			assertEquals(tags[i], cursor.next());
+		}
+		assertEquals(0, TileWireFormat.tagAt(runs, tags.length));
+		assertEquals(0, cursor.next());
+	}
+
+	@Test
+	public void untaggedTilesReadAsZero()
+	{
+		assertEquals(0, TileWireFormat.tagAt(null, 0));
+		assertEquals(0, new TileWireFormat.TagCursor(null).next());
+		assertEquals(0, new TileWireFormat.TagCursor(new long[0]).next());
+		assertArrayEquals(new long[0], TileWireFormat.encodeTags(new long[0]));
+	}
+
+	@Test
+	public void tagsEncodedWithTheRegion()
+	{
+		BitSet positions = new BitSet();
+		positions.set(4, 8);
+
+		RegionTiles region = TileWireFormat.encode(REGION, positions, new long[]{1, 1, 2, 2});
+
+		assertArrayEquals(new long[]{1, 2, 2, 2}, region.getTags());
+		assertNull(TileWireFormat.encode(REGION, positions).getTags());
+	}
+
+	@Test
+	public void downgradedOnlyWhenV2IsUnknown()
+	{
+		assertFalse(wireFormat.downgradeIfUnsupported(TileWireFormat.V2, 500));
+		assertFalse(wireFormat.downgradeIfUnsupported(TileWireFormat.V1, 404));
+		assertEquals(TileWireFormat.V2, wireFormat.getVersion());
+
+		assertTrue(wireFormat.downgradeIfUnsupported(TileWireFormat.V2, 404));
+		assertEquals(TileWireFormat.V1, wireFormat.getVersion());
+	}
+
+	@Test
+	public void unsupportedMediaTypeDowngrades()
+	{
+		assertTrue(wireFormat.downgradeIfUnsupported(TileWireFormat.V2, 415));
+		assertEquals(TileWireFormat.V1, wireFormat.getVersion());
+
+		// A v2 request that was already in flight is retried too
+		assertTrue(wireFormat.downgradeIfUnsupported(TileWireFormat.V2, 404));
+		assertEquals(TileWireFormat.V1, wireFormat.getVersion());
+	}
+
+	private static int[] keys(BitSet positions)
+	{
+		int regionKey = TileKeys.pack(REGION, 0, 0, 0);
+		return positions.stream().map(position -> regionKey | position).toArray();
+	}
+}
@@ -0,0 +1,178 @@
+package com.grouptilemanonline;
+
+import net.runelite.api.CollisionDataFlag;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnlockedDistanceFieldTest
+{
+	// As many tiles as the plugin expands per game tick
+	private static final int BUDGET = 2048;
+	private static final int WALL_X = 50;
+	private static final int WALL_TOP = 90;
+
+	private final int[][] flags = new int[SceneTileMask.SIZE][SceneTileMask.SIZE];
+	private final SceneTileMask unlocked = new SceneTileMask();
+	private final UnlockedDistanceField field = new UnlockedDistanceField();
+
+	@Before
+	public void setUp()
+	{
+		// A wall across most of the scene, the way around it is at the top
+		for (int y = 0; y < WALL_TOP; y++)
+		{
+			flags[WALL_X][y] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+		}
+		unlocked.set(10, 10);
+		unlocked.set(90, 20);
+	}
+
+	@Test
+	public void convergesOverBudgetedSteps()
+	{
+		field.reset(flags, unlocked);
+
+		assertTrue(settle() > 1);
+		assertArrayEquals(search(unlocked), distances(field));
+		assertEquals(0, field.distance(10, 10));
+	}
+
+	@Test
+	public void unlockingMatchesAFreshSearch()
+	{
+		field.reset(flags, unlocked);
+		settle();
+
+		unlocked.set(40, 80);
+		field.update(unlocked);
+		settle();
+
+		assertArrayEquals(search(unlocked), distances(field));
+	}
+
+	@Test
+	public void clearingMatchesAFreshSearch()
+	{
+		unlocked.set(40, 80);
+		field.reset(flags, unlocked);
+		settle();
+
+		unlocked.clear(SceneTileMask.index(10, 10));
+		unlocked.clear(SceneTileMask.index(40, 80));
+		field.update(unlocked);
+		settle();
+
+		assertArrayEquals(search(unlocked), distances(field));
+	}
+
+	@Test
+	public void walledInTilesAreUnreachable()
+	{
+		for (int i = 0; i <= 4; i++)
+		{
+			flags[20 + i][30] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+			flags[20 + i][34] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+			flags[20][30 + i] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+			flags[24][30 + i] = CollisionDataFlag.BLOCK_MOVEMENT_FULL;
+		}
+
+		field.reset(flags, unlocked);
+		settle();
+
+		assertEquals(UnlockedDistanceField.UNREACHABLE, field.distance(22, 32));
+		assertTrue(field.distance(25, 32) < UnlockedDistanceField.UNREACHABLE);
+	}
+
+	@Test
+	public void pathLeadsToAnUnlockedTile()
+	{
+		field.reset(flags, unlocked);
+		settle();
+
+		// Across the wall from the nearest unlocked tile, so the path goes round the top
+		int[] path = new int[SceneTileMask.TILE_COUNT];
+		int length = field.tracePath(WALL_X - 1, 20, path);
+
+		assertEquals(field.distance(WALL_X - 1, 20), length);
+		int last = path[length - 1];
+		assertEquals(0, field.distance(SceneTileMask.sceneX(last), SceneTileMask.sceneY(last)));
+	}
+
+	/***
+	 * Steps the field within the budget until it is settled.
+	 *
+	 * @return The number of steps it took.
+	 */
+	private int settle()
+	{
+		int steps = 1;
+		while (!field.step(BUDGET))
+		{
+			steps++;
+			assertFalse("Never settled", steps > SceneTileMask.TILE_COUNT);
+		}
+		return steps;
+	}
+
+	private static int[] distances(UnlockedDistanceField field)
+	{
+		int[] distances = new int[SceneTileMask.TILE_COUNT];
+		for (int index = 0; index < distances.length; index++)
+		{
+			distances[index] = field.distance(SceneTileMask.sceneX(index), SceneTileMask.sceneY(index));
+		}
+		return distances;
+	}
+
+	/***
+	 * @return The distances found with a plain breadth first search over the whole scene at once.
+	 */
+	private int[] search(SceneTileMask sources)
+	{
+		int[] distances = new int[SceneTileMask.TILE_COUNT];
+		Arrays.fill(distances, UnlockedDistanceField.UNREACHABLE);
+		int[] queue = new int[SceneTileMask.TILE_COUNT];
+		int head = 0;
+		int tail = 0;
+		for (int index = sources.nextSetBit(0); index >= 0; index = sources.nextSetBit(index + 1))
+		{
+			distances[index] = 0;
+			queue[tail++] = index;
+		}
+
+		while (head < tail)
+		{
+			int index = queue[head++];
+			int x = SceneTileMask.sceneX(index);
+			int y = SceneTileMask.sceneY(index);
+			for (int dx = -1; dx <= 1; dx++)
+			{
+				for (int dy = -1; dy <= 1; dy++)
+				{
+					int toX = x + dx;
+					int toY = y + dy;
+					if ((dx == 0 && dy == 0) || !SceneTileMask.inScene(toX, toY))
+					{
+						continue;
+					}
+
+					int neighbour = SceneTileMask.index(toX, toY);
+					if (distances[neighbour] == UnlockedDistanceField.UNREACHABLE
+						&& SceneCollision.canStep(flags, toX, toY, -dx, -dy))
+					{
+						distances[neighbour] = distances[index] + 1;
+						queue[tail++] = neighbour;
+					}
+				}
+			}
+		}
+		return distances;
+	}
+}